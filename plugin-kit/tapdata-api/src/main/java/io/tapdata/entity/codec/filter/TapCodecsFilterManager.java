@@ -9,7 +9,12 @@ import io.tapdata.entity.codec.detector.TapSkipper;
 import io.tapdata.entity.codec.detector.impl.NewFieldDetector;
 import io.tapdata.entity.codec.filter.impl.AllLayerMapIterator;
 import io.tapdata.entity.codec.filter.impl.AllLayerMapIteratorFromTapValue;
+import io.tapdata.entity.columnar.ColumnarRecordBatch;
 import io.tapdata.entity.error.UnknownCodecException;
+import io.tapdata.entity.event.dml.TapDeleteRecordEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.event.dml.TapRecordEvent;
+import io.tapdata.entity.event.dml.TapUpdateRecordEvent;
 import io.tapdata.entity.logger.TapLogger;
 import io.tapdata.entity.schema.TapField;
 import io.tapdata.entity.schema.type.TapType;
@@ -22,6 +27,8 @@ import io.tapdata.entity.utils.JavaTypesToTapTypes;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
 import static io.tapdata.entity.simplify.TapSimplify.field;
@@ -49,6 +56,13 @@ public class TapCodecsFilterManager {
     public void transformToTapValueMap(Map<String, Object> value, Map<String, TapField> nameFieldMap, Map<String, TapValue<?, ?>> valueMap, TapDetector... detectors) {
         if(value == null)
             return;
+        mapIteratorToTapValue.iterate(value, toTapValueFilter(nameFieldMap, valueMap, detectors));
+    }
+
+    /**
+     * The filter converts the values to TapValue, created once and applied to every value of a record, or every value of a column in a columnar batch.
+     */
+    protected EntryFilter toTapValueFilter(Map<String, TapField> nameFieldMap, Map<String, TapValue<?, ?>> valueMap, TapDetector... detectors) {
         NewFieldDetector newFieldDetector = null;
         ToTapValueCheck toTapValueCheck = null;
         TapSkipper skipper = null;
@@ -66,7 +80,7 @@ public class TapCodecsFilterManager {
         AtomicReference<NewFieldDetector> newFieldDetectorRef = new AtomicReference<>(newFieldDetector);
         AtomicReference<ToTapValueCheck> toTapValueCheckRef = new AtomicReference<>(toTapValueCheck);
         AtomicReference<TapSkipper> skipperRef = new AtomicReference<>(skipper);
-        mapIteratorToTapValue.iterate(value, (name, entry, recursive) -> {
+        return (name, entry, recursive) -> {
             Object theValue = entry;
             String fieldName = fieldName(name);
             TapValue<?, ?> originTapValue = null;
@@ -96,23 +110,7 @@ public class TapCodecsFilterManager {
                         typeFromSchema = field.getTapType();
                         if(typeFromSchema != null && valueCodec == null) {
                             valueCodec = getValueCodec(typeFromSchema);
-                            boolean isTypeQualified = true;
-                            switch (typeFromSchema.getType()) {
-                                case TapType.TYPE_ARRAY:
-                                    if(!(theValue instanceof Collection)) isTypeQualified = false;
-                                    break;
-                                case TapType.TYPE_MAP:
-                                    if(!(theValue instanceof Map)) isTypeQualified = false;
-                                    break;
-                                case TapType.TYPE_STRING:
-                                    if(!(theValue instanceof String)) isTypeQualified = false;
-                                    break;
-                                case TapType.TYPE_NUMBER:
-                                    if(!(theValue instanceof Number)) isTypeQualified = false;
-                                default:
-                                    break;
-                            }
-                            if(!isTypeQualified) {
+                            if(!isTypeQualified(typeFromSchema, theValue)) {
                                 valueCodec = null;
                                 newField = true;
                             }
@@ -200,7 +198,26 @@ public class TapCodecsFilterManager {
                     throw new StopFilterException();
 
             return null;
-        });
+        };
+    }
+
+    private static boolean isTypeQualified(TapType typeFromSchema, Object theValue) {
+        return isTypeQualified(typeFromSchema, theValue.getClass());
+    }
+
+    private static boolean isTypeQualified(TapType typeFromSchema, Class<?> valueClass) {
+        switch (typeFromSchema.getType()) {
+            case TapType.TYPE_ARRAY:
+                return Collection.class.isAssignableFrom(valueClass);
+            case TapType.TYPE_MAP:
+                return Map.class.isAssignableFrom(valueClass);
+            case TapType.TYPE_STRING:
+                return String.class == valueClass;
+            case TapType.TYPE_NUMBER:
+                return Number.class.isAssignableFrom(valueClass);
+            default:
+                return true;
+        }
     }
 
     protected ToTapValueCodec<?> getTapValueCodec(Object theValue) {
@@ -221,12 +238,171 @@ public class TapCodecsFilterManager {
         return null;
     }
 
+    /**
+     * Transform the update event, only the changed columns are transformed when the event is compact, before is transformed when it is read.
+     */
+    public void transformToTapValue(TapUpdateRecordEvent updateRecordEvent, Map<String, TapField> nameFieldMap, TapDetector... detectors) {
+        updateRecordEvent.transformValues(value -> transformToTapValueMap(value, nameFieldMap, detectors));
+        updateRecordEvent.estimateMemorySize();
+    }
+
+    public void transformFromTapValue(TapUpdateRecordEvent updateRecordEvent, Map<String, TapField> sourceNameFieldMap, TapDetector... detectors) {
+        updateRecordEvent.transformValues(value -> transformFromTapValueMap(value, sourceNameFieldMap, detectors));
+        updateRecordEvent.estimateMemorySize();
+    }
+
+    /**
+     * Transform the values of the record event, the memory size of the event is estimated once by the transformed values and cached on the event,
+     * the next stages read it by {@link TapRecordEvent#getMemorySize()} without sizing the values again.
+     */
+    public void transformToTapValue(TapRecordEvent recordEvent, Map<String, TapField> nameFieldMap, TapDetector... detectors) {
+        if(recordEvent instanceof TapUpdateRecordEvent) {
+            transformToTapValue((TapUpdateRecordEvent) recordEvent, nameFieldMap, detectors);
+        } else if(recordEvent instanceof TapInsertRecordEvent) {
+            transformToTapValueMap(((TapInsertRecordEvent) recordEvent).getAfter(), nameFieldMap, detectors);
+            sized(recordEvent);
+        } else if(recordEvent instanceof TapDeleteRecordEvent) {
+            transformToTapValueMap(((TapDeleteRecordEvent) recordEvent).getBefore(), nameFieldMap, detectors);
+            sized(recordEvent);
+        }
+    }
+
+    public void transformFromTapValue(TapRecordEvent recordEvent, Map<String, TapField> sourceNameFieldMap, TapDetector... detectors) {
+        if(recordEvent instanceof TapUpdateRecordEvent) {
+            transformFromTapValue((TapUpdateRecordEvent) recordEvent, sourceNameFieldMap, detectors);
+        } else if(recordEvent instanceof TapInsertRecordEvent) {
+            transformFromTapValueMap(((TapInsertRecordEvent) recordEvent).getAfter(), sourceNameFieldMap, detectors);
+            sized(recordEvent);
+        } else if(recordEvent instanceof TapDeleteRecordEvent) {
+            transformFromTapValueMap(((TapDeleteRecordEvent) recordEvent).getBefore(), sourceNameFieldMap, detectors);
+            sized(recordEvent);
+        }
+    }
+
+    /**
+     * Transform the batch column by column, the filter is created once for the batch and the field of a column is looked up once for the column.
+     * The values of the columns which need no codec by the field type are kept without the filter, the others are filtered as the records.
+     * Nested maps and arrays are iterated as the records do, the values of a record after the check stops it are not transformed, as the record.
+     */
+    public void transformToTapValue(ColumnarRecordBatch batch, Map<String, TapField> nameFieldMap, TapDetector... detectors) {
+        if(batch == null || batch.isEmpty())
+            return;
+        boolean checked = false;
+        if(detectors != null) {
+            for(TapDetector detector : detectors) {
+                if(detector instanceof ToTapValueCheck) {
+                    checked = true;
+                    break;
+                }
+            }
+        }
+        boolean finalChecked = checked;
+        transformColumns(batch, toTapValueFilter(nameFieldMap, null, detectors), mapIteratorToTapValue,
+                value -> value instanceof Map || value instanceof Collection,
+                name -> finalChecked ? null : keptTapType(nameFieldMap, name));
+    }
+
+    public void transformFromTapValue(ColumnarRecordBatch batch, Map<String, TapField> sourceNameFieldMap, TapDetector... detectors) {
+        if(batch == null || batch.isEmpty())
+            return;
+        transformColumns(batch, fromTapValueFilter(null, sourceNameFieldMap, detectors), mapIteratorFromTapValue,
+                value -> value instanceof TapMapValue || value instanceof TapArrayValue,
+                name -> null);
+    }
+
+    /**
+     * @return the type of the field if its qualified values are kept by the filter, null if the values may be converted
+     */
+    private TapType keptTapType(Map<String, TapField> nameFieldMap, String name) {
+        if(nameFieldMap == null)
+            return null;
+        TapField field = nameFieldMap.get(fieldName(name));
+        if(field == null || field.getTapType() == null || getValueCodec(field.getTapType()) != null)
+            return null;
+        return field.getTapType();
+    }
+
+    /**
+     * @return whether the values of the class are kept by the filter for the field type, the column without values is kept
+     */
+    private boolean isKept(TapType keptTapType, Class<?> valueClass) {
+        return valueClass == null || (valueClass != Object.class && !Map.class.isAssignableFrom(valueClass) && !Collection.class.isAssignableFrom(valueClass) &&
+                !TapValue.class.isAssignableFrom(valueClass) && isTypeQualified(keptTapType, valueClass) && codecsRegistry.getCustomToTapValueCodec(valueClass) == null);
+    }
+
+    private void transformColumns(ColumnarRecordBatch batch, EntryFilter filter, MapIteratorEx nestedIterator, Predicate<Object> nested, Function<String, TapType> keptTapTypeFunction) {
+        BitSet stoppedRows = new BitSet();
+        StopAwareFilter stopAwareFilter = new StopAwareFilter(filter);
+        Map<String, Object> nestedMap = new HashMap<>();
+        for(int column = 0; column < batch.columnCount(); column++) {
+            String name = batch.columnName(column);
+            TapType keptTapType = keptTapTypeFunction.apply(name);
+            if(keptTapType != null && isKept(keptTapType, batch.valueClass(column)))
+                continue;
+            batch.transformColumn(column, (row, value) -> {
+                if(stoppedRows.get(row))
+                    return value;
+                if(keptTapType != null && (value == null || (!nested.test(value) && isKept(keptTapType, value.getClass()))))
+                    return value;
+                if(nested.test(value)) {
+                    //Same as the record, by a map of the value only
+                    nestedMap.put(name, value);
+                    stopAwareFilter.stopped = false;
+                    nestedIterator.iterate(nestedMap, stopAwareFilter);
+                    if(stopAwareFilter.stopped)
+                        stoppedRows.set(row);
+                    return nestedMap.remove(name);
+                }
+                try {
+                    Object newValue = filter.filter(name, value, false);
+                    return newValue != null ? newValue : value;
+                } catch(StopFilterException stopFilterException) {
+                    stoppedRows.set(row);
+                    return value;
+                }
+            });
+        }
+    }
+
+    private static class StopAwareFilter implements EntryFilter {
+        private final EntryFilter filter;
+        private boolean stopped;
+
+        StopAwareFilter(EntryFilter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public Object filter(String key, Object value, boolean recursive) {
+            try {
+                return filter.filter(key, value, recursive);
+            } catch(StopFilterException stopFilterException) {
+                stopped = true;
+                throw stopFilterException;
+            }
+        }
+    }
+
+    private void sized(TapRecordEvent recordEvent) {
+        //Values are changed in place
+        recordEvent.resetMemorySize();
+        recordEvent.estimateMemorySize();
+    }
+
     public Map<String, TapValue<?, ?>> transformFromTapValueMap(Map<String, Object> tapValueMap, TapDetector... detectors) {
         return transformFromTapValueMap(tapValueMap, null, detectors);
     }
 
     public Map<String, TapValue<?, ?>> transformFromTapValueMap(Map<String, Object> tapValueMap, Map<String, TapField> sourceNameFieldMap, TapDetector... detectors) {
         Map<String, TapValue<?, ?>> valueMap = new ConcurrentHashMap<>();
+        mapIteratorFromTapValue.iterate(tapValueMap, fromTapValueFilter(valueMap, sourceNameFieldMap, detectors));
+        return valueMap;
+    }
+
+    /**
+     * The filter converts the TapValues back to the values, the TapValues with origin value are collected into the valueMap.
+     */
+    protected EntryFilter fromTapValueFilter(Map<String, TapValue<?, ?>> valueMap, Map<String, TapField> sourceNameFieldMap, TapDetector... detectors) {
         TapSkipper skipper = null;
         if(detectors != null) {
             for(TapDetector detector : detectors) {
@@ -236,7 +412,7 @@ public class TapCodecsFilterManager {
             }
         }
         AtomicReference<TapSkipper> skipperRef = new AtomicReference<>(skipper);
-        mapIteratorFromTapValue.iterate(tapValueMap, (fieldName, object, recursive) -> {
+        return (fieldName, object, recursive) -> {
 //            Object object = stringTapValueEntry.getValue();
             if(object instanceof TapValue) {
                 TapValue<?, ?> theValue = (TapValue<?, ?>) object;
@@ -263,7 +439,7 @@ public class TapCodecsFilterManager {
 
                     Object value = fromTapValueCodec.fromTapValue(theValue);
 //                    theValue.setValue(null);
-                    if(theValue.getOriginValue() != null)
+                    if(valueMap != null && theValue.getOriginValue() != null)
                         valueMap.put(fieldName, theValue);
                     return value;
                 }
@@ -271,8 +447,7 @@ public class TapCodecsFilterManager {
                 TapLogger.debug(TAG, "transformFromTapValueMap failed as object is not TapValue, but type {} value {}", object.getClass(), object);
             }*/
             return null;
-        });
-        return valueMap;
+        };
     }
 
     public Map<String, TapField> transformFromTapValueMap(String theFieldName, TapArrayValue tapValueArray, Map<String, TapField> sourceNameFieldMap, TapDetector... detectors) {
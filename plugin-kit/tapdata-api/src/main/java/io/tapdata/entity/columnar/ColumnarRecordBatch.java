@@ -0,0 +1,430 @@
+package io.tapdata.entity.columnar;
+
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.event.dml.TapRecordEvent;
+import io.tapdata.entity.schema.TapTable;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Records of the same table stored column by column against a shared {@link FieldIndex}, one array of values per column.
+ * The stages between reading and writing work on a whole column at once, without a map for each record.
+ * <p>
+ * Existing connectors see each record as a Map by {@link #row(int)} or the events of {@link #toInsertRecordEvents()},
+ * the map is a view on the columns, nothing is copied until the values are read, changes are written through to the columns.
+ * <p>
+ * Absent values are null in the columns, null values are stored as a marker, so a record keeps the keys it was added with.
+ * Not thread safe, a batch is owned by one stage at a time.
+ */
+public class ColumnarRecordBatch {
+	private static final Object NULL = new Object();
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private final String tableId;
+	private FieldIndex fieldIndex;
+	private Object[][] columns;
+	/**
+	 * The class of the non null values of each column, Object.class when the classes are different
+	 */
+	private Class<?>[] valueClasses;
+	private int size;
+	private int capacity;
+	private Long referenceTime;
+
+	public ColumnarRecordBatch(String tableId, FieldIndex fieldIndex, int capacity) {
+		this.tableId = tableId;
+		this.fieldIndex = fieldIndex;
+		this.capacity = Math.max(capacity, 1);
+		columns = new Object[fieldIndex.size()][];
+		valueClasses = new Class<?>[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = new Object[this.capacity];
+		}
+	}
+
+	public static ColumnarRecordBatch create(TapTable table, int capacity) {
+		return new ColumnarRecordBatch(table.getId(), FieldIndex.of(table), capacity);
+	}
+
+	public static ColumnarRecordBatch create(String tableId, FieldIndex fieldIndex) {
+		return new ColumnarRecordBatch(tableId, fieldIndex, DEFAULT_CAPACITY);
+	}
+
+	public ColumnarRecordBatch referenceTime(Long referenceTime) {
+		this.referenceTime = referenceTime;
+		return this;
+	}
+
+	/**
+	 * Add an empty record
+	 *
+	 * @return the row of the record
+	 */
+	public int addRow() {
+		if (size == capacity) {
+			capacity = capacity + (capacity >> 1) + 1;
+			for (int i = 0; i < columns.length; i++) {
+				columns[i] = Arrays.copyOf(columns[i], capacity);
+			}
+		}
+		return size++;
+	}
+
+	/**
+	 * Add a record by the values, the fields not in the field index are added as new columns of this batch
+	 *
+	 * @return the row of the record
+	 */
+	public int addRow(Map<String, Object> values) {
+		int row = addRow();
+		if (values != null) {
+			for (Map.Entry<String, Object> entry : values.entrySet()) {
+				set(row, columnOrAdd(entry.getKey()), entry.getValue());
+			}
+		}
+		return row;
+	}
+
+	/**
+	 * @return the column of the field, -1 if the field is not in this batch
+	 */
+	public int column(String name) {
+		return fieldIndex.indexOf(name);
+	}
+
+	/**
+	 * @return the column of the field, the field is added if it is not in this batch, the shared field index is not changed
+	 */
+	public int columnOrAdd(String name) {
+		int column = fieldIndex.indexOf(name);
+		if (column < 0) {
+			fieldIndex = fieldIndex.with(name);
+			column = fieldIndex.indexOf(name);
+			columns = Arrays.copyOf(columns, fieldIndex.size());
+			columns[column] = new Object[capacity];
+			valueClasses = Arrays.copyOf(valueClasses, columns.length);
+		}
+		return column;
+	}
+
+	public String columnName(int column) {
+		return fieldIndex.name(column);
+	}
+
+	public int columnCount() {
+		return columns.length;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void set(int row, int column, Object value) {
+		checkRow(row);
+		columns[column][row] = wrap(column, value);
+	}
+
+	public Object get(int row, int column) {
+		checkRow(row);
+		if (column < 0 || column >= columns.length)
+			return null;
+		return unwrap(columns[column][row]);
+	}
+
+	public boolean contains(int row, int column) {
+		checkRow(row);
+		return column >= 0 && column < columns.length && columns[column][row] != null;
+	}
+
+	/**
+	 * @return the value removed
+	 */
+	public Object remove(int row, int column) {
+		checkRow(row);
+		if (column < 0 || column >= columns.length)
+			return null;
+		Object value = columns[column][row];
+		columns[column][row] = null;
+		return unwrap(value);
+	}
+
+	/**
+	 * Replace each value of the column by the operator, the rows without the field are skipped.
+	 */
+	public void transformColumn(int column, UnaryOperator<Object> operator) {
+		transformColumn(column, (row, value) -> operator.apply(value));
+	}
+
+	public void transformColumn(int column, ValueTransformer transformer) {
+		Object[] values = columns[column];
+		for (int row = 0; row < size; row++) {
+			Object value = values[row];
+			if (value != null) {
+				values[row] = wrap(column, transformer.transform(row, unwrap(value)));
+			}
+		}
+	}
+
+	/**
+	 * The values of a column are often of one class, a stage decides for the whole column by the class without reading the values.
+	 * Removed values are still counted, the class may be wider than the values left.
+	 *
+	 * @return the class of all the non null values of the column, Object.class if the values are of different classes, null if there is no non null value
+	 */
+	public Class<?> valueClass(int column) {
+		return valueClasses[column];
+	}
+
+	/**
+	 * @return the rows whose value of the column matches, the value is null for the rows without the field
+	 */
+	public BitSet match(int column, Predicate<Object> predicate) {
+		BitSet rows = new BitSet(size);
+		Object[] values = column >= 0 && column < columns.length ? columns[column] : null;
+		for (int row = 0; row < size; row++) {
+			if (predicate.test(values != null ? unwrap(values[row]) : null))
+				rows.set(row);
+		}
+		return rows;
+	}
+
+	/**
+	 * Keep the rows in the bit set only, the rows are compacted in their order.
+	 * The views and events created before are on the old rows, create them again after the rows are retained.
+	 *
+	 * @return the count of the rows removed
+	 */
+	public int retain(BitSet rows) {
+		int newSize = 0;
+		for (int row = rows.nextSetBit(0); row >= 0 && row < size; row = rows.nextSetBit(row + 1)) {
+			if (row != newSize) {
+				for (Object[] values : columns) {
+					values[newSize] = values[row];
+				}
+			}
+			newSize++;
+		}
+		for (Object[] values : columns) {
+			Arrays.fill(values, newSize, size, null);
+		}
+		int removed = size - newSize;
+		size = newSize;
+		return removed;
+	}
+
+	/**
+	 * @return the record as a Map, a view on the columns
+	 */
+	public Map<String, Object> row(int row) {
+		checkRow(row);
+		return new RowMap(row);
+	}
+
+	/**
+	 * @return the record as a new Map, the values are copied
+	 */
+	public Map<String, Object> copyRow(int row) {
+		checkRow(row);
+		Map<String, Object> map = new LinkedHashMap<>();
+		for (int column = 0; column < columns.length; column++) {
+			Object value = columns[column][row];
+			if (value != null)
+				map.put(fieldIndex.name(column), unwrap(value));
+		}
+		return map;
+	}
+
+	/**
+	 * @return insert events for the connectors which take record events, the after of each event is the view of the record
+	 */
+	public List<TapRecordEvent> toInsertRecordEvents() {
+		List<TapRecordEvent> recordEvents = new ArrayList<>(size);
+		for (int row = 0; row < size; row++) {
+			TapInsertRecordEvent insertRecordEvent = new TapInsertRecordEvent().init().after(new RowMap(row)).table(tableId);
+			insertRecordEvent.setReferenceTime(referenceTime);
+			recordEvents.add(insertRecordEvent);
+		}
+		return recordEvents;
+	}
+
+	public String getTableId() {
+		return tableId;
+	}
+
+	public FieldIndex getFieldIndex() {
+		return fieldIndex;
+	}
+
+	public Long getReferenceTime() {
+		return referenceTime;
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= size)
+			throw new IndexOutOfBoundsException("Row " + row + " out of size " + size);
+	}
+
+	private Object wrap(int column, Object value) {
+		if (value == null)
+			return NULL;
+		Class<?> valueClass = valueClasses[column];
+		if (valueClass == null)
+			valueClasses[column] = value.getClass();
+		else if (valueClass != value.getClass())
+			valueClasses[column] = Object.class;
+		return value;
+	}
+
+	private static Object unwrap(Object value) {
+		return value == NULL ? null : value;
+	}
+
+	/**
+	 * Entry on the column of the row, the value is read when it is asked for
+	 */
+	private class RowEntry implements Map.Entry<String, Object> {
+		private final int row;
+		private final int column;
+
+		RowEntry(int row, int column) {
+			this.row = row;
+			this.column = column;
+		}
+
+		@Override
+		public String getKey() {
+			return fieldIndex.name(column);
+		}
+
+		@Override
+		public Object getValue() {
+			return unwrap(columns[column][row]);
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			Object old = getValue();
+			set(row, column, value);
+			return old;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			return Objects.equals(getKey(), entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+	public interface ValueTransformer {
+		/**
+		 * @return the new value of the row, the value itself to keep it
+		 */
+		Object transform(int row, Object value);
+	}
+
+	private class RowMap extends AbstractMap<String, Object> {
+		private final int row;
+
+		RowMap(int row) {
+			this.row = row;
+		}
+
+		@Override
+		public Object get(Object key) {
+			return key instanceof String ? ColumnarRecordBatch.this.get(row, column((String) key)) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof String && contains(row, column((String) key));
+		}
+
+		@Override
+		public Object put(String key, Object value) {
+			int column = columnOrAdd(key);
+			Object old = ColumnarRecordBatch.this.get(row, column);
+			set(row, column, value);
+			return old;
+		}
+
+		@Override
+		public Object remove(Object key) {
+			return key instanceof String ? ColumnarRecordBatch.this.remove(row, column((String) key)) : null;
+		}
+
+		@Override
+		public int size() {
+			int count = 0;
+			for (Object[] values : columns) {
+				if (values[row] != null)
+					count++;
+			}
+			return count;
+		}
+
+		@Override
+		public Set<Entry<String, Object>> entrySet() {
+			return new AbstractSet<Entry<String, Object>>() {
+				@Override
+				public Iterator<Entry<String, Object>> iterator() {
+					return new Iterator<Entry<String, Object>>() {
+						private int next = nextColumn(0);
+						private int current = -1;
+
+						private int nextColumn(int from) {
+							while (from < columns.length && columns[from][row] == null) {
+								from++;
+							}
+							return from;
+						}
+
+						@Override
+						public boolean hasNext() {
+							return next < columns.length;
+						}
+
+						@Override
+						public Entry<String, Object> next() {
+							if (!hasNext())
+								throw new NoSuchElementException();
+							current = next;
+							next = nextColumn(next + 1);
+							return new RowEntry(row, current);
+						}
+
+						@Override
+						public void remove() {
+							if (current < 0)
+								throw new IllegalStateException();
+							columns[current][row] = null;
+							current = -1;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return RowMap.this.size();
+				}
+			};
+		}
+	}
+}
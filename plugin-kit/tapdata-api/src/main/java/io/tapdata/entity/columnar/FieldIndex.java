@@ -0,0 +1,66 @@
+package io.tapdata.entity.columnar;
+
+import io.tapdata.entity.schema.TapField;
+import io.tapdata.entity.schema.TapTable;
+
+import java.util.*;
+
+/**
+ * Field name to column position of a table, immutable so one index is shared by all the batches of the table.
+ * The fields of the table are in the order of {@link TapTable#getNameFieldMap()}.
+ */
+public class FieldIndex {
+	private final String[] names;
+	private final Map<String, Integer> positionMap;
+
+	private FieldIndex(String[] names) {
+		this.names = names;
+		positionMap = new HashMap<>(names.length * 2);
+		for (int i = 0; i < names.length; i++) {
+			positionMap.put(names[i], i);
+		}
+	}
+
+	public static FieldIndex of(TapTable table) {
+		Map<String, TapField> nameFieldMap = table != null ? table.getNameFieldMap() : null;
+		if (nameFieldMap == null)
+			return of(Collections.emptyList());
+		return of(nameFieldMap.keySet());
+	}
+
+	public static FieldIndex of(Collection<String> names) {
+		return new FieldIndex(names.toArray(new String[0]));
+	}
+
+	/**
+	 * @return the position of the field, -1 if the field is not in the index
+	 */
+	public int indexOf(String name) {
+		Integer position = positionMap.get(name);
+		return position != null ? position : -1;
+	}
+
+	public String name(int position) {
+		return names[position];
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * @return a new index with the field appended, this index is not changed as it may be shared
+	 */
+	public FieldIndex with(String name) {
+		if (positionMap.containsKey(name))
+			return this;
+		String[] newNames = Arrays.copyOf(names, names.length + 1);
+		newNames[names.length] = name;
+		return new FieldIndex(newNames);
+	}
+
+	@Override
+	public String toString() {
+		return "FieldIndex " + Arrays.toString(names);
+	}
+}
@@ -11,4 +11,19 @@ import java.util.Map;
 public interface TargetTypesGenerator {
     TapResult<LinkedHashMap<String, TapField>> convert(LinkedHashMap<String, TapField> sourceFields, DefaultExpressionMatchingMap targetMatchingMap, TapCodecsFilterManager targetCodecFilterManager);
     TapResult<LinkedHashMap<String, TapField>> convert(LinkedHashMap<String, TapField> sourceFields, DefaultExpressionMatchingMap targetMatchingMap, TapCodecsFilterManager targetCodecFilterManager, Map<String, PossibleDataTypes> findPossibleDataTypes);
+
+    /**
+     * Convert the fields of many tables to the same target, the result is in the order of tableSourceFields.
+     *
+     * @param parallelism max threads to convert the tables, 1 or less converts them one by one on the calling thread.
+     */
+    default LinkedHashMap<String, TapResult<LinkedHashMap<String, TapField>>> convertTables(Map<String, LinkedHashMap<String, TapField>> tableSourceFields, DefaultExpressionMatchingMap targetMatchingMap, TapCodecsFilterManager targetCodecFilterManager, int parallelism) {
+        if(tableSourceFields == null)
+            return null;
+        LinkedHashMap<String, TapResult<LinkedHashMap<String, TapField>>> results = new LinkedHashMap<>();
+        for(Map.Entry<String, LinkedHashMap<String, TapField>> entry : tableSourceFields.entrySet()) {
+            results.put(entry.getKey(), convert(entry.getValue(), targetMatchingMap, targetCodecFilterManager));
+        }
+        return results;
+    }
 }
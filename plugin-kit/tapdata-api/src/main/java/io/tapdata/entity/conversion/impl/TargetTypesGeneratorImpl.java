@@ -14,16 +14,71 @@ import io.tapdata.entity.result.ResultItem;
 import io.tapdata.entity.result.TapResult;
 import io.tapdata.entity.schema.TapField;
 import io.tapdata.entity.schema.type.TapString;
+import io.tapdata.entity.schema.type.TapTypeSignature;
 import io.tapdata.entity.utils.DataMap;
 import io.tapdata.entity.utils.InstanceFactory;
 
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 @Implementation(value = TargetTypesGenerator.class, buildNumber = 0)
 public class TargetTypesGeneratorImpl implements TargetTypesGenerator {
     private static final String TAG = TargetTypesGeneratorImpl.class.getSimpleName();
+    /**
+     * Max cached type signatures per target matching map, the cache is reset when it is full.
+     */
+    private static final int MAX_CACHED_SIGNATURES = 20000;
+    /**
+     * The best mapping only depends on the tap type values, primary key or not and the target matching map,
+     * tables of one database share a few type signatures, so the scoring is done once per signature.
+     * Matching maps are compared by identity, the cache of a matching map is gone with it.
+     */
+    private final Map<DefaultExpressionMatchingMap, Map<TypeSignature, BestTypeMapping>> bestTypeMappingCache = Collections.synchronizedMap(new WeakHashMap<>());
+
+    @Override
+    public LinkedHashMap<String, TapResult<LinkedHashMap<String, TapField>>> convertTables(Map<String, LinkedHashMap<String, TapField>> tableSourceFields, DefaultExpressionMatchingMap targetMatchingMap, TapCodecsFilterManager targetCodecFilterManager, int parallelism) {
+        if(tableSourceFields == null)
+            return null;
+        int threads = Math.min(parallelism, tableSourceFields.size());
+        if(threads <= 1)
+            return TargetTypesGenerator.super.convertTables(tableSourceFields, targetMatchingMap, targetCodecFilterManager, parallelism);
+
+        //TapMapping is built lazily into the matching map while iterating, build them before sharing the map between threads.
+        if(targetMatchingMap != null)
+            targetMatchingMap.iterate(expressionValueEntry -> false);
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService executorService = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, TAG + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            LinkedHashMap<String, Future<TapResult<LinkedHashMap<String, TapField>>>> futureMap = new LinkedHashMap<>();
+            for(Map.Entry<String, LinkedHashMap<String, TapField>> entry : tableSourceFields.entrySet()) {
+                futureMap.put(entry.getKey(), executorService.submit(() -> convert(entry.getValue(), targetMatchingMap, targetCodecFilterManager)));
+            }
+            LinkedHashMap<String, TapResult<LinkedHashMap<String, TapField>>> results = new LinkedHashMap<>();
+            for(Map.Entry<String, Future<TapResult<LinkedHashMap<String, TapField>>>> entry : futureMap.entrySet()) {
+                try {
+                    results.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if(cause instanceof CoreException)
+                        throw (CoreException) cause;
+                    throw new CoreException(TapAPIErrorCodes.ERROR_CONVERT_TABLES_FAILED, cause, "Convert fields of table {} failed, {}", entry.getKey(), cause != null ? cause.getMessage() : null);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CoreException(TapAPIErrorCodes.ERROR_CONVERT_TABLES_FAILED, e, "Convert fields of table {} is interrupted", entry.getKey());
+                }
+            }
+            return results;
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
 
     public TapResult<LinkedHashMap<String, TapField>> convert(LinkedHashMap<String, TapField> sourceFields, DefaultExpressionMatchingMap targetMatchingMap, TapCodecsFilterManager targetCodecFilterManager) {
         return convert(sourceFields, targetMatchingMap, targetCodecFilterManager, null);
@@ -180,6 +235,25 @@ public class TargetTypesGeneratorImpl implements TargetTypesGenerator {
     }
 
     TapResult<String> calculateBestTypeMapping(TapField field, DefaultExpressionMatchingMap matchingMap, Map<String, PossibleDataTypes> findPossibleDataTypes) {
+        BestTypeMapping bestTypeMapping;
+        if(findPossibleDataTypes != null) {
+            //Possible data types of the field are collected while scoring, can not be cached
+            bestTypeMapping = findBestTypeMapping(field, matchingMap, findPossibleDataTypes);
+        } else {
+            Map<TypeSignature, BestTypeMapping> signatureMap = bestTypeMappingCache.computeIfAbsent(matchingMap, map -> new ConcurrentHashMap<>());
+            TypeSignature typeSignature = new TypeSignature(field);
+            bestTypeMapping = signatureMap.get(typeSignature);
+            if(bestTypeMapping == null) {
+                bestTypeMapping = findBestTypeMapping(field, matchingMap, null);
+                if(signatureMap.size() >= MAX_CACHED_SIGNATURES)
+                    signatureMap.clear();
+                signatureMap.put(typeSignature, bestTypeMapping);
+            }
+        }
+        return bestTypeMapping.toResult(field.getName());
+    }
+
+    private BestTypeMapping findBestTypeMapping(TapField field, DefaultExpressionMatchingMap matchingMap, Map<String, PossibleDataTypes> findPossibleDataTypes) {
         HitTapMappingContainer bestTapMapping = new HitTapMappingContainer();
         HitTapMappingContainer bestNotHitTapMapping = new HitTapMappingContainer();
 
@@ -248,34 +322,72 @@ public class TargetTypesGeneratorImpl implements TargetTypesGenerator {
         }
         HitTapMapping bestOne = bestTapMapping.getBestOne();
         if(bestOne != null && bestOne.tapMapping != null && bestOne.hitExpression != null) {
-            TapResult<String> tapResult = bestOne.tapMapping.fromTapType(bestOne.hitExpression, field.getTapType());
-            if(tapResult != null) {
-                List<ResultItem> resultItems = tapResult.getResultItems();
-                if(resultItems != null) {
-                    for(ResultItem resultItem : resultItems) {
-                        resultItem.setInformation(resultItem.getItem() + ": " + resultItem.getInformation());
-                        resultItem.setItem(field.getName());
-                    }
-                }
-            }
-            return tapResult;
+            return new BestTypeMapping(bestOne.tapMapping.fromTapType(bestOne.hitExpression, field.getTapType()), null);
         }
         HitTapMapping notHitBestOne = bestNotHitTapMapping.getBestOne();
         if(notHitBestOne != null && notHitBestOne.tapMapping != null && notHitBestOne.hitExpression != null) {
-            TapResult<String> tapResult = notHitBestOne.tapMapping.fromTapType(notHitBestOne.hitExpression, field.getTapType());
-            if(tapResult != null) {
-                List<ResultItem> resultItems = tapResult.getResultItems();
-                if(resultItems != null) {
-                    for(ResultItem resultItem : resultItems) {
-                        resultItem.setInformation(resultItem.getItem() + ": " + resultItem.getInformation());
-                        resultItem.setItem(field.getName());
-                    }
+            return new BestTypeMapping(notHitBestOne.tapMapping.fromTapType(notHitBestOne.hitExpression, field.getTapType()), notHitBestOne.hitExpression);
+        }
+        return new BestTypeMapping(null, null);
+    }
+
+    /**
+     * Result of the best mapping for a type signature, result items are kept as TapMapping gives, the field name is applied for each field.
+     */
+    static class BestTypeMapping {
+        final boolean found;
+        final String dataType;
+        final List<ResultItem> resultItems;
+        final String unmatchedExpression;
+
+        BestTypeMapping(TapResult<String> tapResult, String unmatchedExpression) {
+            this.found = tapResult != null;
+            this.dataType = tapResult != null ? tapResult.getData() : null;
+            this.resultItems = tapResult != null && tapResult.getResultItems() != null ? new ArrayList<>(tapResult.getResultItems()) : null;
+            this.unmatchedExpression = unmatchedExpression;
+        }
+
+        TapResult<String> toResult(String fieldName) {
+            if(!found)
+                return null;
+            TapResult<String> tapResult = TapResult.successfully(dataType);
+            if(resultItems != null) {
+                for(ResultItem resultItem : resultItems) {
+                    tapResult.addItem(new ResultItem(fieldName, resultItem.getResult(), resultItem.getItem() + ": " + resultItem.getInformation()));
                 }
-                tapResult.addItem(new ResultItem(field.getName(), TapResult.RESULT_SUCCESSFULLY_WITH_WARN, "BEST_IN_UNMATCHED: " + "Select best in unmatched TapMapping, " + notHitBestOne.hitExpression));
             }
+            if(unmatchedExpression != null)
+                tapResult.addItem(new ResultItem(fieldName, TapResult.RESULT_SUCCESSFULLY_WITH_WARN, "BEST_IN_UNMATCHED: " + "Select best in unmatched TapMapping, " + unmatchedExpression));
             return tapResult;
         }
-        return null;
+    }
+
+    /**
+     * Everything TapMapping#matchingScore and TapMapping#fromTapType read from a field, the tap type values and primary key or not.
+     */
+    static class TypeSignature {
+        private final TapTypeSignature tapTypeSignature;
+        private final boolean primaryKey;
+
+        TypeSignature(TapField field) {
+            tapTypeSignature = TapTypeSignature.of(field.getTapType());
+            primaryKey = field.getPrimaryKey() != null && field.getPrimaryKey();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o)
+                return true;
+            if(!(o instanceof TypeSignature))
+                return false;
+            TypeSignature that = (TypeSignature) o;
+            return primaryKey == that.primaryKey && tapTypeSignature.equals(that.tapTypeSignature);
+        }
+
+        @Override
+        public int hashCode() {
+            return tapTypeSignature.hashCode() * 31 + (primaryKey ? 1 : 0);
+        }
     }
 
 
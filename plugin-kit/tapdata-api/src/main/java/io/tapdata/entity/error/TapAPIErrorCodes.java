@@ -29,4 +29,5 @@ public class TapAPIErrorCodes {
 	public static final int PARSE_DOCUMENT_FAILED = 1025;
 	public static final int GET_PARSE_METHOD_FAILED = 1026;
 	public static final int CLASS_NOT_FOUND = 1027;
+	public static final int ERROR_CONVERT_TABLES_FAILED = 1028;
 }
@@ -36,6 +36,15 @@ public abstract class TapBaseEvent extends TapEvent {
         super(type);
     }
 
+    protected TapBaseEvent(TapBaseEvent source) {
+        super(source);
+        referenceTime = source.referenceTime;
+        tableId = source.tableId;
+        namespaces = source.namespaces != null ? new ArrayList<>(source.namespaces) : null;
+        associateId = source.associateId;
+        partitionMasterTableId = source.partitionMasterTableId;
+    }
+
 //    protected String pdkId;
 //    protected String pdkGroup;
 //    protected String pdkVersion;
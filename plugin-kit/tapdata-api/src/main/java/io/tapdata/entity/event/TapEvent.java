@@ -1,5 +1,6 @@
 package io.tapdata.entity.event;
 
+import io.tapdata.entity.utils.CopyOnWriteMap;
 import io.tapdata.entity.utils.FormatUtils;
 import io.tapdata.entity.utils.InstanceFactory;
 import io.tapdata.entity.utils.JsonParser;
@@ -51,6 +52,24 @@ public abstract class TapEvent implements Serializable/*, JavaCustomSerializer*/
         this.type = type;
     }
 
+    /**
+     * Copy constructor for {@link #copyOnWriteClone()}, same fields as {@link #clone(TapEvent)}.
+     * info and traceMap are views reading the maps of the source until this event changes them, the source is not changed.
+     */
+    protected TapEvent(TapEvent source) {
+        this.type = source.type;
+        time = source.time;
+        pdkId = source.pdkId;
+        pdkGroup = source.pdkGroup;
+        pdkVersion = source.pdkVersion;
+        if(source.info != null)
+            info = CopyOnWriteMap.concurrentView(source.info);
+        if(source.traceMap != null)
+            traceMap = CopyOnWriteMap.concurrentView(source.traceMap);
+        database = source.database;
+        schema = source.schema;
+    }
+
     public int getType() {
         return type;
     }
@@ -139,6 +158,15 @@ public abstract class TapEvent implements Serializable/*, JavaCustomSerializer*/
         }
     }
 
+    /**
+     * Clone for fan out branches, the maps of the clone read the maps of this event until the clone changes them, see {@link CopyOnWriteMap}.
+     * This event is not changed, but it must not be changed while the clones are alive, so give the clones to the branches and keep this one.
+     * The events without copy constructor fall back to {@link #clone()}.
+     */
+    public TapEvent copyOnWriteClone() {
+        return (TapEvent) clone();
+    }
+
     public void clone(TapEvent tapEvent) {
         tapEvent.time = time;
         tapEvent.pdkId = pdkId;
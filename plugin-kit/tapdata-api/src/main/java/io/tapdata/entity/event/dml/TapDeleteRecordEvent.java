@@ -4,7 +4,9 @@ package io.tapdata.entity.event.dml;
 import io.tapdata.entity.error.CoreException;
 import io.tapdata.entity.error.TapAPIErrorCodes;
 import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.utils.CopyOnWriteMap;
 import io.tapdata.entity.utils.InstanceFactory;
+import io.tapdata.entity.utils.MemorySizeEstimator;
 import io.tapdata.entity.utils.ObjectSerializable;
 import io.tapdata.entity.utils.TapUtils;
 import io.tapdata.entity.utils.io.DataInputStreamEx;
@@ -54,6 +56,28 @@ public class TapDeleteRecordEvent extends TapRecordEvent {
 		super(TYPE);
 	}
 
+	/**
+	 * Copy constructor, before is a view reading the map of the source until this event changes it, the source is not changed.
+	 */
+	public TapDeleteRecordEvent(TapDeleteRecordEvent source) {
+		super(source);
+		if (source.before != null)
+			before = CopyOnWriteMap.view(source.before);
+		beforeIllegalDateFieldName = source.beforeIllegalDateFieldName;
+	}
+
+	@Override
+	public TapDeleteRecordEvent copyOnWriteClone() {
+		return new TapDeleteRecordEvent(this);
+	}
+
+	@Override
+	public Object clone() {
+		TapDeleteRecordEvent deleteRecordEvent = new TapDeleteRecordEvent();
+		clone(deleteRecordEvent);
+		return deleteRecordEvent;
+	}
+
 	public static TapDeleteRecordEvent create() {
 		return new TapDeleteRecordEvent().init();
 	}
@@ -87,6 +111,7 @@ public class TapDeleteRecordEvent extends TapRecordEvent {
 
 	public TapDeleteRecordEvent before(Map<String, Object> before) {
 		this.before = before;
+		resetMemorySize();
 		return this;
 	}
 
@@ -101,6 +126,12 @@ public class TapDeleteRecordEvent extends TapRecordEvent {
 
 	public void setBefore(Map<String, Object> before) {
 		this.before = before;
+		resetMemorySize();
+	}
+
+	@Override
+	protected long estimateValuesMemorySize() {
+		return MemorySizeEstimator.sizeOfRecord(before);
 	}
 
 	public Map<String, Object> getFilter(Collection<String> primaryKeys) {
@@ -121,6 +152,11 @@ public class TapDeleteRecordEvent extends TapRecordEvent {
 		return filter;
 	}
 
+	@Override
+	protected void appendRecord(StringBuilder builder) {
+		builder.append(", before=").append(before);
+	}
+
 	//	@Override
 //	public String toString() {
 //		return "TapDeleteRecordEvent{" +
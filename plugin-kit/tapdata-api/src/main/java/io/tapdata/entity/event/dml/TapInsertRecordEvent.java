@@ -4,7 +4,9 @@ package io.tapdata.entity.event.dml;
 import io.tapdata.entity.error.CoreException;
 import io.tapdata.entity.error.TapAPIErrorCodes;
 import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.utils.CopyOnWriteMap;
 import io.tapdata.entity.utils.InstanceFactory;
+import io.tapdata.entity.utils.MemorySizeEstimator;
 import io.tapdata.entity.utils.ObjectSerializable;
 import io.tapdata.entity.utils.TapUtils;
 import io.tapdata.entity.utils.io.DataInputStreamEx;
@@ -59,6 +61,30 @@ public class TapInsertRecordEvent extends TapRecordEvent {
 		super(TYPE);
 	}
 
+	/**
+	 * Copy constructor, after is a view reading the map of the source until this event changes it, the source is not changed.
+	 */
+	public TapInsertRecordEvent(TapInsertRecordEvent source) {
+		super(source);
+		if (source.after != null)
+			after = CopyOnWriteMap.view(source.after);
+		afterIllegalDateFieldName = source.afterIllegalDateFieldName;
+		if (source.removedFields != null)
+			removedFields = new ArrayList<>(source.removedFields);
+	}
+
+	@Override
+	public TapInsertRecordEvent copyOnWriteClone() {
+		return new TapInsertRecordEvent(this);
+	}
+
+	@Override
+	public Object clone() {
+		TapInsertRecordEvent insertRecordEvent = new TapInsertRecordEvent();
+		clone(insertRecordEvent);
+		return insertRecordEvent;
+	}
+
 	public static TapInsertRecordEvent create() {
 		return new TapInsertRecordEvent().init();
 	}
@@ -98,6 +124,7 @@ public class TapInsertRecordEvent extends TapRecordEvent {
 
 	public TapInsertRecordEvent after(Map<String, Object> after) {
 		this.after = after;
+		resetMemorySize();
 		return this;
 	}
 
@@ -112,6 +139,12 @@ public class TapInsertRecordEvent extends TapRecordEvent {
 
 	public void setAfter(Map<String, Object> after) {
 		this.after = after;
+		resetMemorySize();
+	}
+
+	@Override
+	protected long estimateValuesMemorySize() {
+		return MemorySizeEstimator.sizeOfRecord(after);
 	}
 
 	public Map<String, Object> getFilter(Collection<String> primaryKeys) {
@@ -145,6 +178,11 @@ public class TapInsertRecordEvent extends TapRecordEvent {
 		this.removedFields = removedFields;
 	}
 
+	@Override
+	protected void appendRecord(StringBuilder builder) {
+		builder.append(", after=").append(after);
+	}
+
 //	@Override
 //	public String toString() {
 //		return "TapInsertRecordEvent{" +
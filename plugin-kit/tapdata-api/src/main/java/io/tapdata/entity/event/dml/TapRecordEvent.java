@@ -2,6 +2,7 @@ package io.tapdata.entity.event.dml;
 
 import io.tapdata.entity.event.TapBaseEvent;
 import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.utils.MemorySizeEstimator;
 
 import java.util.Collection;
 import java.util.Map;
@@ -23,6 +24,12 @@ public abstract class TapRecordEvent extends TapBaseEvent {
         super(type);
     }
 
+    protected TapRecordEvent(TapRecordEvent source) {
+        super(source);
+        connector = source.connector;
+        connectorVersion = source.connectorVersion;
+    }
+
     /*
     public void from(InputStream inputStream) throws IOException {
         super.from(inputStream);
@@ -72,6 +79,74 @@ public abstract class TapRecordEvent extends TapBaseEvent {
     }
 
     public abstract Map<String, Object> getFilter(Collection<String> primaryKeys);
+
+    /**
+     * Estimate the memory size of the event by {@link MemorySizeEstimator} when it is not set, the size is kept as the memory size of the event
+     * until the record values are replaced, {@link #getMemorySize()} reads it afterwards.
+     * Changes by the event methods update it, call {@link #resetMemorySize()} after changing the value maps directly.
+     */
+    public long estimateMemorySize() {
+        if(memorySize == null)
+            memorySize = baseMemorySize() + estimateValuesMemorySize();
+        return memorySize;
+    }
+
+    private long baseMemorySize() {
+        //Table id and the other strings are shared
+        return MemorySizeEstimator.shallowSize(getClass()) + MemorySizeEstimator.sizeOf(time) + MemorySizeEstimator.sizeOf(referenceTime);
+    }
+
+    /**
+     * Set the memory size by the size of the record values already known, for example sized in codec transform.
+     */
+    public void valuesMemorySize(long valuesMemorySize) {
+        memorySize = baseMemorySize() + valuesMemorySize;
+    }
+
+    public void resetMemorySize() {
+        memorySize = null;
+    }
+
+    protected long estimateValuesMemorySize() {
+        return 0;
+    }
+
+    /**
+     * Update the cached memory size when a value is put into the record values, see {@link MemorySizeEstimator#sizeOfRecord(Map)}.
+     */
+    protected void valuePut(String name, Object oldValue, boolean existed, Object value) {
+        if(memorySize == null)
+            return;
+        long delta = MemorySizeEstimator.sizeOf(value) - MemorySizeEstimator.sizeOf(oldValue);
+        if(!existed)
+            delta += MemorySizeEstimator.LINKED_HASH_MAP_ENTRY;
+        memorySize += delta;
+    }
+
+    protected void valueRemoved(String name, Object oldValue) {
+        if(memorySize == null)
+            return;
+        memorySize -= MemorySizeEstimator.LINKED_HASH_MAP_ENTRY + MemorySizeEstimator.sizeOf(oldValue);
+    }
+
+    /**
+     * Record events are logged a lot, no json serialization here.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(getClass().getSimpleName()).append('{');
+        builder.append("tableId=").append(tableId);
+        if(associateId != null)
+            builder.append(", associateId=").append(associateId);
+        builder.append(", time=").append(time);
+        if(referenceTime != null)
+            builder.append(", referenceTime=").append(referenceTime);
+        appendRecord(builder);
+        return builder.append('}').toString();
+    }
+
+    protected void appendRecord(StringBuilder builder) {
+    }
 //    @Override
 //    public String toString() {
 //        return "TapRecordEvent{" +
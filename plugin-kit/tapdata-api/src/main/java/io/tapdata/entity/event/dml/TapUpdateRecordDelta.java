@@ -0,0 +1,132 @@
+package io.tapdata.entity.event.dml;
+
+import io.tapdata.entity.serializer.JavaCustomSerializer;
+import io.tapdata.entity.utils.io.DataInputStreamEx;
+import io.tapdata.entity.utils.io.DataOutputStreamEx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+
+/**
+ * Wire format of {@link TapUpdateRecordEvent} carrying the key columns and the changed columns only.
+ * 宽表更新只传主键和变更列， before 不传输
+ *
+ * Serializing does not change the event, the delta is computed from before and after if the event is not compact.
+ * The deserialized event is compact, its after is materialized on top of before when the receiver sets one, until then read {@link TapUpdateRecordEvent#getDelta()}.
+ * An event without before is sent as the full after image, the deserialized one is not compact.
+ */
+public class TapUpdateRecordDelta implements JavaCustomSerializer {
+	private TapUpdateRecordEvent event;
+	private Collection<String> primaryKeys;
+
+	public TapUpdateRecordDelta() {
+	}
+
+	public TapUpdateRecordDelta(TapUpdateRecordEvent event, Collection<String> primaryKeys) {
+		this.event = event;
+		this.primaryKeys = primaryKeys;
+	}
+
+	public TapUpdateRecordEvent getEvent() {
+		return event;
+	}
+
+	@Override
+	public void from(InputStream inputStream) throws IOException {
+		DataInputStreamEx dataInputStreamEx = dataInputStream(inputStream);
+		event = new TapUpdateRecordEvent();
+		event.setTableId(dataInputStreamEx.readUTF());
+		event.setAssociateId(dataInputStreamEx.readUTF());
+		event.setTime(dataInputStreamEx.readLong());
+		event.setReferenceTime(dataInputStreamEx.readLong());
+		event.setConnector(dataInputStreamEx.readUTF());
+		event.setConnectorVersion(dataInputStreamEx.readUTF());
+		event.setExactlyOnceId(dataInputStreamEx.readUTF());
+		event.database(dataInputStreamEx.readUTF());
+		event.schema(dataInputStreamEx.readUTF());
+		if (Boolean.TRUE.equals(dataInputStreamEx.readBoolean())) {
+			List<String> namespaces = new ArrayList<>();
+			dataInputStreamEx.readCollectionString(namespaces);
+			event.setNamespaces(namespaces);
+		}
+		if (Boolean.TRUE.equals(dataInputStreamEx.readBoolean()))
+			event.setInfo((Map<String, Object>) dataInputStreamEx.readObject());
+		if (Boolean.TRUE.equals(dataInputStreamEx.readBoolean()))
+			event.setTraceMap((Map<String, Object>) dataInputStreamEx.readObject());
+		event.setIsReplaceEvent(dataInputStreamEx.readBoolean());
+		Set<String> changedFields = null;
+		if (Boolean.TRUE.equals(dataInputStreamEx.readBoolean())) {
+			changedFields = new LinkedHashSet<>();
+			dataInputStreamEx.readCollectionString(changedFields);
+		}
+		if (Boolean.TRUE.equals(dataInputStreamEx.readBoolean())) {
+			List<String> removedFields = new ArrayList<>();
+			dataInputStreamEx.readCollectionString(removedFields);
+			event.setRemovedFields(removedFields);
+		}
+		Map<String, Object> delta = null;
+		if (Boolean.TRUE.equals(dataInputStreamEx.readBoolean()))
+			delta = (Map<String, Object>) dataInputStreamEx.readObject();
+		boolean fullImage = Boolean.TRUE.equals(dataInputStreamEx.readBoolean());
+		if (fullImage) {
+			event.setAfter(delta);
+			event.changedFields(changedFields);
+		} else {
+			event.compactDelta(delta != null ? delta : new LinkedHashMap<>(), changedFields);
+		}
+	}
+
+	@Override
+	public void to(OutputStream outputStream) throws IOException {
+		DataOutputStreamEx dataOutputStreamEx = dataOutputStream(outputStream);
+		Set<String> changedFields;
+		Map<String, Object> delta;
+		boolean fullImage = false;
+		if (event.isCompact()) {
+			changedFields = event.getChangedFields();
+			delta = event.getDelta();
+		} else if (event.getBefore() == null) {
+			fullImage = true;
+			changedFields = event.getChangedFields();
+			delta = event.getAfter();
+		} else {
+			changedFields = event.computeChangedFields();
+			delta = event.getAfter() != null ? event.computeDelta(primaryKeys, changedFields) : null;
+		}
+		dataOutputStreamEx.writeUTF(event.getTableId());
+		dataOutputStreamEx.writeUTF(event.getAssociateId());
+		dataOutputStreamEx.writeLong(event.getTime());
+		dataOutputStreamEx.writeLong(event.getReferenceTime());
+		dataOutputStreamEx.writeUTF(event.getConnector());
+		dataOutputStreamEx.writeUTF(event.getConnectorVersion());
+		dataOutputStreamEx.writeUTF(event.getExactlyOnceId());
+		dataOutputStreamEx.writeUTF(event.getDatabase());
+		dataOutputStreamEx.writeUTF(event.getSchema());
+		List<String> namespaces = event.getNamespaces();
+		dataOutputStreamEx.writeBoolean(namespaces != null);
+		if (namespaces != null)
+			dataOutputStreamEx.writeCollectionString(namespaces);
+		Map<String, Object> info = event.getInfo();
+		dataOutputStreamEx.writeBoolean(info != null);
+		if (info != null)
+			dataOutputStreamEx.writeObject(info);
+		Map<String, Object> traceMap = event.getTraceMap();
+		dataOutputStreamEx.writeBoolean(traceMap != null);
+		if (traceMap != null)
+			dataOutputStreamEx.writeObject(traceMap);
+		dataOutputStreamEx.writeBoolean(event.getIsReplaceEvent());
+		dataOutputStreamEx.writeBoolean(changedFields != null);
+		if (changedFields != null)
+			dataOutputStreamEx.writeCollectionString(changedFields);
+		List<String> removedFields = event.getRemovedFields();
+		dataOutputStreamEx.writeBoolean(removedFields != null);
+		if (removedFields != null)
+			dataOutputStreamEx.writeCollectionString(removedFields);
+		dataOutputStreamEx.writeBoolean(delta != null);
+		if (delta != null)
+			dataOutputStreamEx.writeObject(delta);
+		dataOutputStreamEx.writeBoolean(fullImage);
+	}
+}
@@ -4,7 +4,9 @@ package io.tapdata.entity.event.dml;
 import io.tapdata.entity.error.CoreException;
 import io.tapdata.entity.error.TapAPIErrorCodes;
 import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.utils.CopyOnWriteMap;
 import io.tapdata.entity.utils.InstanceFactory;
+import io.tapdata.entity.utils.MemorySizeEstimator;
 import io.tapdata.entity.utils.ObjectSerializable;
 import io.tapdata.entity.utils.TapUtils;
 import io.tapdata.entity.utils.io.DataInputStreamEx;
@@ -14,6 +16,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static io.tapdata.entity.simplify.TapSimplify.map;
 
@@ -49,6 +52,19 @@ public class TapUpdateRecordEvent extends TapRecordEvent {
 	private List<String> removedFields;
 
 	private Boolean isReplaceEvent = false;
+	/**
+	 * Compact update, see {@link #compact(Collection)}.
+	 * Carries the key columns and the changed columns only, after is null until it is materialized from before and delta.
+	 */
+	private Map<String, Object> delta;
+	/**
+	 * Changed columns tracked by source or computed by {@link #compact(Collection)}, null means unknown
+	 */
+	private Set<String> changedFields;
+	/**
+	 * Value transforms applied on delta in compact mode, before will be transformed by them when it is needed.
+	 */
+	private List<Consumer<Map<String, Object>>> pendingBeforeTransformers;
 	private List<String> beforeIllegalDateFieldName;
 	private List<String> afterIllegalDateFieldName;
 	public List<String> getBeforeIllegalDateFieldName() {
@@ -71,15 +87,212 @@ public class TapUpdateRecordEvent extends TapRecordEvent {
 		super(TYPE);
 	}
 
+	/**
+	 * Copy constructor, before and after are views reading the maps of the source until this event changes them, the source is not changed.
+	 */
+	public TapUpdateRecordEvent(TapUpdateRecordEvent source) {
+		super(source);
+		if (source.before != null)
+			before = CopyOnWriteMap.view(source.before);
+		if (source.after != null)
+			after = CopyOnWriteMap.view(source.after);
+		if (source.delta != null)
+			delta = CopyOnWriteMap.view(source.delta);
+		if (source.changedFields != null)
+			changedFields = new LinkedHashSet<>(source.changedFields);
+		if (source.pendingBeforeTransformers != null)
+			pendingBeforeTransformers = new ArrayList<>(source.pendingBeforeTransformers);
+		if (source.removedFields != null)
+			removedFields = new ArrayList<>(source.removedFields);
+		isReplaceEvent = source.isReplaceEvent;
+		beforeIllegalDateFieldName = source.beforeIllegalDateFieldName;
+		afterIllegalDateFieldName = source.afterIllegalDateFieldName;
+	}
+
+	@Override
+	public TapUpdateRecordEvent copyOnWriteClone() {
+		return new TapUpdateRecordEvent(this);
+	}
+
+	@Override
+	public Object clone() {
+		TapUpdateRecordEvent updateRecordEvent = new TapUpdateRecordEvent();
+		clone(updateRecordEvent);
+		return updateRecordEvent;
+	}
+
 	public static TapUpdateRecordEvent create() {
 		return new TapUpdateRecordEvent().init();
 	}
 
 	public TapUpdateRecordEvent after(Map<String, Object> after) {
-		this.after = after;
+		setAfter(after);
+		return this;
+	}
+
+	/**
+	 * Changed columns known by source, for example update description of MongoDB change stream.
+	 * {@link #compact(Collection)} will not compare before and after when they are given.
+	 */
+	public TapUpdateRecordEvent changedFields(Collection<String> changedFields) {
+		this.changedFields = changedFields != null ? new LinkedHashSet<>(changedFields) : null;
+		return this;
+	}
+
+	public Set<String> getChangedFields() {
+		return changedFields;
+	}
+
+	/**
+	 * Keep only the key columns and the changed columns in delta, after is materialized lazily by {@link #getAfter()}.
+	 * before is kept as base image of after, it is not serialized by {@link TapUpdateRecordDelta}.
+	 * The changed columns are the given changedFields, otherwise the columns different between before and after.
+	 * Without before every column is changed, the event is not compacted.
+	 */
+	public TapUpdateRecordEvent compact(Collection<String> primaryKeys) {
+		if (delta != null || after == null || before == null)
+			return this;
+		Set<String> compactChangedFields = computeChangedFields();
+		delta = computeDelta(primaryKeys, compactChangedFields);
+		changedFields = compactChangedFields;
+		after = null;
+		resetMemorySize();
+		return this;
+	}
+
+	/**
+	 * @return the given changedFields, otherwise the columns of after different from before, the event is not changed.
+	 */
+	Set<String> computeChangedFields() {
+		if (changedFields != null)
+			return changedFields;
+		Set<String> computed = new LinkedHashSet<>();
+		if (after != null) {
+			for (Map.Entry<String, Object> entry : after.entrySet()) {
+				if (before == null || !before.containsKey(entry.getKey()) || !Objects.equals(before.get(entry.getKey()), entry.getValue()))
+					computed.add(entry.getKey());
+			}
+		}
+		return computed;
+	}
+
+	/**
+	 * @return the key columns and the changed columns of after, the event is not changed.
+	 */
+	Map<String, Object> computeDelta(Collection<String> primaryKeys, Set<String> changedFields) {
+		Map<String, Object> computed = new LinkedHashMap<>();
+		if (primaryKeys != null) {
+			for (String key : primaryKeys) {
+				Object value = after.get(key);
+				if (value == null && before != null)
+					value = before.get(key);
+				if (value != null)
+					computed.put(key, value);
+			}
+		}
+		for (String field : changedFields) {
+			if (after.containsKey(field))
+				computed.put(field, after.get(field));
+		}
+		return computed;
+	}
+
+	TapUpdateRecordEvent compactDelta(Map<String, Object> delta, Set<String> changedFields) {
+		this.delta = delta;
+		this.changedFields = changedFields;
+		this.after = null;
+		resetMemorySize();
 		return this;
 	}
 
+	public boolean isCompact() {
+		return delta != null;
+	}
+
+	/**
+	 * The partial row of a compact event, the key columns and the changed columns only.
+	 * A compact event received without before has no full after, {@link #getAfter()} returns null until the receiver sets before, read this one instead.
+	 *
+	 * @return delta in compact mode, otherwise null
+	 */
+	public Map<String, Object> getDelta() {
+		return delta;
+	}
+
+	/**
+	 * Transform the values, for example by codecs.
+	 * In compact mode only delta is transformed now, before is transformed when it is needed, so the unchanged columns are not touched for the connectors only need delta.
+	 */
+	public void transformValues(Consumer<Map<String, Object>> transformer) {
+		resetMemorySize();
+		if (delta != null) {
+			transformer.accept(delta);
+			if (before != null) {
+				if (pendingBeforeTransformers == null)
+					pendingBeforeTransformers = new ArrayList<>();
+				pendingBeforeTransformers.add(transformer);
+			}
+		} else {
+			if (after != null)
+				transformer.accept(after);
+			if (before != null) {
+				applyPendingBeforeTransformers();
+				transformer.accept(before);
+			}
+		}
+	}
+
+	private void applyPendingBeforeTransformers() {
+		if (pendingBeforeTransformers != null) {
+			List<Consumer<Map<String, Object>>> transformers = pendingBeforeTransformers;
+			pendingBeforeTransformers = null;
+			resetMemorySize();
+			if (before != null) {
+				for (Consumer<Map<String, Object>> transformer : transformers) {
+					transformer.accept(before);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Full after image is a copy of before with the pending transforms, delta applied and removed fields removed, the event is not changed.
+	 * Without before only the delta fields are known, the image is a copy of delta.
+	 */
+	private Map<String, Object> buildAfterImage() {
+		Map<String, Object> image = new LinkedHashMap<>();
+		if (before != null) {
+			image.putAll(before);
+			if (pendingBeforeTransformers != null) {
+				for (Consumer<Map<String, Object>> transformer : pendingBeforeTransformers) {
+					transformer.accept(image);
+				}
+			}
+		}
+		image.putAll(delta);
+		if (removedFields != null) {
+			for (String removedField : removedFields) {
+				image.remove(removedField);
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * @return before with the pending transforms applied on a copy, the delta fields for a compact event without before, the event is not changed.
+	 */
+	private Map<String, Object> buildBeforeImage() {
+		if (before == null)
+			return delta != null ? new LinkedHashMap<>(delta) : null;
+		if (pendingBeforeTransformers == null)
+			return before;
+		Map<String, Object> image = new LinkedHashMap<>(before);
+		for (Consumer<Map<String, Object>> transformer : pendingBeforeTransformers) {
+			transformer.accept(image);
+		}
+		return image;
+	}
+
 	public TapUpdateRecordEvent table(String table) {
 		this.tableId = table;
 		return this;
@@ -124,6 +337,7 @@ public class TapUpdateRecordEvent extends TapRecordEvent {
 
 	public TapUpdateRecordEvent before(Map<String, Object> before) {
 		this.before = before;
+		resetMemorySize();
 		return this;
 	}
 
@@ -134,17 +348,26 @@ public class TapUpdateRecordEvent extends TapRecordEvent {
 		super.clone(tapEvent);
 		if (tapEvent instanceof TapUpdateRecordEvent) {
 			TapUpdateRecordEvent updateRecordEvent = (TapUpdateRecordEvent) tapEvent;
+			if (delta != null)
+				updateRecordEvent.delta = InstanceFactory.instance(TapUtils.class).cloneMap(delta);
+			if (changedFields != null)
+				updateRecordEvent.changedFields = new LinkedHashSet<>(changedFields);
+			if (pendingBeforeTransformers != null)
+				updateRecordEvent.pendingBeforeTransformers = new ArrayList<>(pendingBeforeTransformers);
 			if (before != null)
 				updateRecordEvent.before = InstanceFactory.instance(TapUtils.class).cloneMap(before);
 			if (after != null)
 				updateRecordEvent.after = InstanceFactory.instance(TapUtils.class).cloneMap(after);
-			updateRecordEvent.removedFields = this.removedFields;
+			if (removedFields != null)
+				updateRecordEvent.removedFields = new ArrayList<>(removedFields);
 			updateRecordEvent.isReplaceEvent = this.isReplaceEvent;
 			updateRecordEvent.beforeIllegalDateFieldName = this.beforeIllegalDateFieldName;
 			updateRecordEvent.afterIllegalDateFieldName = this.afterIllegalDateFieldName;
 		} else if (tapEvent instanceof TapInsertRecordEvent) {
 			TapInsertRecordEvent insertRecordEvent = (TapInsertRecordEvent) tapEvent;
-			if (after != null) {
+			if (delta != null) {
+				insertRecordEvent.setAfter(InstanceFactory.instance(TapUtils.class).cloneMap(buildAfterImage()));
+			} else if (after != null) {
 				insertRecordEvent.setAfter(InstanceFactory.instance(TapUtils.class).cloneMap(this.after));
 			} else if (before != null) {
 				insertRecordEvent.setAfter(InstanceFactory.instance(TapUtils.class).cloneMap(this.before));
@@ -153,8 +376,9 @@ public class TapUpdateRecordEvent extends TapRecordEvent {
 			insertRecordEvent.setAfterIllegalDateFieldName(this.afterIllegalDateFieldName);
 		} else if (tapEvent instanceof TapDeleteRecordEvent) {
 			TapDeleteRecordEvent deleteRecordEvent = (TapDeleteRecordEvent) tapEvent;
-			if (before != null) {
-				deleteRecordEvent.setBefore(InstanceFactory.instance(TapUtils.class).cloneMap(this.before));
+			Map<String, Object> beforeImage = buildBeforeImage();
+			if (beforeImage != null) {
+				deleteRecordEvent.setBefore(InstanceFactory.instance(TapUtils.class).cloneMap(beforeImage));
 			} else if (after != null) {
 				deleteRecordEvent.setBefore(InstanceFactory.instance(TapUtils.class).cloneMap(this.after));
 			}
@@ -163,32 +387,75 @@ public class TapUpdateRecordEvent extends TapRecordEvent {
 	}
 
 
+	/**
+	 * In compact mode after is built from a copy of before and delta, the event is not compact any more so the changes on the returned after are kept.
+	 * before is not transformed or changed by it, the pending transforms are applied when before is read.
+	 *
+	 * @return the full after, null for a compact event without before, see {@link #getDelta()}
+	 */
 	public Map<String, Object> getAfter() {
+		if (delta != null) {
+			if (before == null)
+				return null;
+			after = buildAfterImage();
+			delta = null;
+			resetMemorySize();
+		}
 		return after;
 	}
 
 	public void setAfter(Map<String, Object> after) {
+		if (delta != null) {
+			applyPendingBeforeTransformers();
+			delta = null;
+		}
 		this.after = after;
+		resetMemorySize();
 	}
 
 	public Map<String, Object> getBefore() {
+		applyPendingBeforeTransformers();
 		return before;
 	}
 
 	public void setBefore(Map<String, Object> before) {
 		this.before = before;
+		resetMemorySize();
+	}
+
+	@Override
+	protected long estimateValuesMemorySize() {
+		return MemorySizeEstimator.sizeOfRecord(delta != null ? delta : after) + MemorySizeEstimator.sizeOfRecord(before);
 	}
 
 	public void putAfterValue(String name, Object value) {
+		if (delta != null) {
+			boolean existed = delta.containsKey(name);
+			valuePut(name, delta.put(name, value), existed, value);
+			if (changedFields != null)
+				changedFields.add(name);
+			return;
+		}
 		if (this.after == null) {
 			this.after = new LinkedHashMap<>();
+			resetMemorySize();
 		}
-		this.after.put(name, value);
+		boolean existed = this.after.containsKey(name);
+		valuePut(name, this.after.put(name, value), existed, value);
 	}
 
 	public void removeAfterValue(String name) {
-		if (this.after != null) {
-			this.after.remove(name);
+		if (delta != null) {
+			if (delta.containsKey(name))
+				valueRemoved(name, delta.remove(name));
+			if (before != null && before.containsKey(name)) {
+				removedFields = removedFields != null ? new ArrayList<>(removedFields) : new ArrayList<>();
+				removedFields.add(name);
+			}
+			return;
+		}
+		if (this.after != null && this.after.containsKey(name)) {
+			valueRemoved(name, this.after.remove(name));
 		}
 	}
 
@@ -201,8 +468,9 @@ public class TapUpdateRecordEvent extends TapRecordEvent {
 				Object value = null;
 				if(before != null)
 					value = before.get(key);
-				if(after != null)
-					value = after.get(key);
+				Map<String, Object> afterValues = delta != null ? delta : after;
+				if(afterValues != null)
+					value = afterValues.get(key);
 				if(value != null)
 					filter.put(key, value);
 				else
@@ -212,6 +480,14 @@ public class TapUpdateRecordEvent extends TapRecordEvent {
 		return filter;
 	}
 
+	@Override
+	protected void appendRecord(StringBuilder builder) {
+		if (delta != null)
+			builder.append(", delta=").append(delta);
+		else
+			builder.append(", before=").append(before).append(", after=").append(after);
+	}
+
 	//	@Override
 //	public String toString() {
 //		return "TapUpdateRecordEvent{" +
@@ -53,6 +53,24 @@ public class ExpressionMatchingMap<T> {
     private Map<String, T> exactlyMatchMap = new LinkedHashMap<>();
     private Map<String, String> exactlyOriginalNameMap = new LinkedHashMap<>();
     private Map<String, List<TypeExpr<T>>> prefixTypeExprListMap = new LinkedHashMap<>();
+    /**
+     * Trie of the prefixes in prefixTypeExprListMap, a node ending a prefix holds the prefix's position in prefixTypeExprLists.
+     * All prefixes of a type are found in one pass over the type, instead of trying startsWith for every prefix.
+     */
+    private final PrefixNode prefixTrie = new PrefixNode();
+    private final List<List<TypeExpr<T>>> prefixTypeExprLists = new ArrayList<>();
+
+    private static final int MAX_RECENT_LOOKUPS = 1024;
+    private final TypeExprResult<T> notFound = new TypeExprResult<>();
+    /**
+     * Recent prefix matched results by type, results are copied out as callers may change params.
+     */
+    private final Map<String, TypeExprResult<T>> recentLookupMap = Collections.synchronizedMap(new LinkedHashMap<String, TypeExprResult<T>>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TypeExprResult<T>> eldest) {
+            return size() > MAX_RECENT_LOOKUPS;
+        }
+    });
 
     public static <T> ExpressionMatchingMap<T> map(String json, TypeHolder<Map<String, T>> typeHolder) {
         return new ExpressionMatchingMap<>(json, typeHolder);
@@ -93,6 +111,22 @@ public class ExpressionMatchingMap<T> {
                     break;
             }
         }
+        for(List<TypeExpr<T>> typeExprList : prefixTypeExprListMap.values()) {
+            prefixTypeExprLists.add(typeExprList);
+        }
+        int index = 0;
+        for(String prefix : prefixTypeExprListMap.keySet()) {
+            PrefixNode node = prefixTrie;
+            for(int i = 0; i < prefix.length(); i++) {
+                node = node.children.computeIfAbsent(prefix.charAt(i), c -> new PrefixNode());
+            }
+            node.index = index++;
+        }
+    }
+
+    private static class PrefixNode {
+        private final Map<Character, PrefixNode> children = new HashMap<>();
+        private int index = -1;
     }
 
     public boolean isEmpty() {
@@ -151,36 +185,77 @@ public class ExpressionMatchingMap<T> {
     public TypeExprResult<T> get(String key, Set<String> ignoreExpressionSet) {
         if(key == null)
             return null;
-        T value = exactlyMatchMap.get(key.toLowerCase());
+        String lowerCaseKey = key.toLowerCase();
+        T value = exactlyMatchMap.get(lowerCaseKey);
         if(value == null) {
-            Set<String> prefixList = prefixTypeExprListMap.keySet();
-            for(String prefix : prefixList) {
-                if(!key.toLowerCase().startsWith(prefix))
-                    continue;
-                List<TypeExpr<T>> typeExprList = prefixTypeExprListMap.get(prefix);
-                if(typeExprList == null)
+            if(ignoreExpressionSet == null) {
+                TypeExprResult<T> cached = recentLookupMap.get(key);
+                if(cached == notFound)
+                    return null;
+                if(cached != null) {
+                    valueFilter(cached.getValue());
+                    return copyResult(cached);
+                }
+            }
+            TypeExprResult<T> result = matchPrefix(key, lowerCaseKey, ignoreExpressionSet);
+            if(ignoreExpressionSet == null)
+                recentLookupMap.put(key, result != null ? copyResult(result) : notFound);
+            if(result != null)
+                valueFilter(result.getValue());
+            return result;
+        }
+        TypeExprResult<T> result = new TypeExprResult<>();
+        result.setExpression(key);
+        result.setValue(value);
+        valueFilter(value);
+        return result;
+    }
+
+    /**
+     * Try the expressions of every prefix the key starts with, in the order the prefixes are added, same as testing startsWith prefix by prefix.
+     */
+    private TypeExprResult<T> matchPrefix(String key, String lowerCaseKey, Set<String> ignoreExpressionSet) {
+        int[] indexes = null;
+        int count = 0;
+        PrefixNode node = prefixTrie;
+        for(int i = 0; node != null; i++) {
+            if(node.index >= 0) {
+                if(indexes == null)
+                    indexes = new int[4];
+                else if(count == indexes.length)
+                    indexes = Arrays.copyOf(indexes, count * 2);
+                indexes[count++] = node.index;
+            }
+            if(i >= lowerCaseKey.length())
+                break;
+            node = node.children.get(lowerCaseKey.charAt(i));
+        }
+        if(count == 0)
+            return null;
+        if(count > 1)
+            Arrays.sort(indexes, 0, count);
+        for(int i = 0; i < count; i++) {
+            for(TypeExpr<T> typeExpr : prefixTypeExprLists.get(indexes[i])) {
+                if(ignoreExpressionSet != null && ignoreExpressionSet.contains(typeExpr.getExpression()))
                     continue;
-                for(TypeExpr<T> typeExpr : typeExprList) {
-                    if(ignoreExpressionSet != null && ignoreExpressionSet.contains(typeExpr.getExpression()))
-                        continue;
 
-                    TypeExprResult<T> result = typeExpr.verifyValue(key);
-                    if(result == null)
-                        continue;
-                    valueFilter(result.getValue());
+                TypeExprResult<T> result = typeExpr.verifyValue(key);
+                if(result != null)
                     return result;
-                }
             }
-        } else {
-            TypeExprResult<T> result = new TypeExprResult<>();
-            result.setExpression(key);
-            result.setValue(value);
-            valueFilter(value);
-            return result;
         }
         return null;
     }
 
+    private TypeExprResult<T> copyResult(TypeExprResult<T> result) {
+        TypeExprResult<T> copy = new TypeExprResult<>();
+        copy.setExpression(result.getExpression());
+        copy.setValue(result.getValue());
+        if(result.getParams() != null)
+            copy.setParams(new HashMap<>(result.getParams()));
+        return copy;
+    }
+
     private void valueFilter(T value) {
         if(valueFilter != null) {
             valueFilter.filter(value);
@@ -35,6 +35,10 @@ public class TypeExpr<T> {
 
     private String expression;
     private String regExpr;
+    /**
+     * Compiled regExpr, compiled on first verify.
+     */
+    private volatile Pattern pattern;
 
     public boolean parseExpression(String theExpression) {
         if(theExpression == null)
@@ -68,6 +72,7 @@ public class TypeExpr<T> {
             }
         }
         regExpr = builder.toString();
+        pattern = null;
         if(items.size() == 1) {
             if(items.get(0).isMatchAll()) {
                 prefixMatchType = PREFIX_MATCH_ALL;
@@ -86,7 +91,9 @@ public class TypeExpr<T> {
     }
 
     public TypeExprResult<T> verifyValue(String value) {
-        Pattern r = Pattern.compile(regExpr, Pattern.CASE_INSENSITIVE);
+        Pattern r = pattern;
+        if(r == null)
+            pattern = r = Pattern.compile(regExpr, Pattern.CASE_INSENSITIVE);
         Matcher m = r.matcher(value);
         boolean match = m.matches();
         if(match) {
@@ -14,4 +14,15 @@ public interface MemoryFetcher {
      * @return MemoryMap
      */
     DataMap memory(String keyRegex, String memoryLevel);
+
+    /**
+     * Write the memory into the sink incrementally, the sink filters the keys by its key regex.
+     * Override it for large memory, the default one writes the DataMap of {@link #memory(String, String)}.
+     *
+     * @param memoryLevel output in summary or detail
+     * @param sink        the object of this fetcher is started already
+     */
+    default void writeMemory(String memoryLevel, MemorySink sink) {
+        sink.kvs(memory(sink.getKeyRegex(), memoryLevel));
+    }
 }
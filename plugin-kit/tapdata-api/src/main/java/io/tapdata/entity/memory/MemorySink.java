@@ -0,0 +1,50 @@
+package io.tapdata.entity.memory;
+
+import java.util.Map;
+
+/**
+ * Incremental output of a memory request, see {@link MemoryFetcher#writeMemory(String, MemorySink)}.
+ * The memory is written as nested objects while fetching, nothing is kept for the whole request.
+ *
+ * Keys are filtered by the key regex of the request the same way as DataMap does,
+ * an object started with a key not matched is skipped until its end.
+ */
+public interface MemorySink {
+	/**
+	 * @return the key regex of the request, null for all keys
+	 */
+	String getKeyRegex();
+
+	/**
+	 * @return whether the key is required by the key regex of the request, null key always matches
+	 */
+	boolean matches(String key);
+
+	/**
+	 * Start a nested object, null key for the root object.
+	 */
+	MemorySink startObject(String key);
+
+	MemorySink endObject();
+
+	/**
+	 * Map and collection values are written as they are, their keys are not filtered again.
+	 */
+	MemorySink kv(String key, Object value);
+
+	/**
+	 * @return the output reached the memory cap, the rest is dropped, fetchers should stop writing.
+	 */
+	boolean isFull();
+
+	default MemorySink kvs(Map<String, ?> map) {
+		if(map != null) {
+			for(Map.Entry<String, ?> entry : map.entrySet()) {
+				if(isFull())
+					break;
+				kv(entry.getKey(), entry.getValue());
+			}
+		}
+		return this;
+	}
+}
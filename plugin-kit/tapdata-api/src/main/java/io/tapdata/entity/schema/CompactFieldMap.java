@@ -0,0 +1,510 @@
+package io.tapdata.entity.schema;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Field map of a table backed by arrays of names and fields in insertion order, for the tables cached in memory.
+ * 一个 LinkedHashMap 的每个字段都有一个 Entry 对象， 这里只用两个数组和一个 int 索引
+ *
+ * Fields are found by scanning when there are a few of them, otherwise by an open addressing index of positions.
+ * It is still a LinkedHashMap for the places which require one, but none of the state of LinkedHashMap is used.
+ * Removing a field is O(n), the fields of a table are mostly read after loaded.
+ * Serialized as a plain LinkedHashMap.
+ */
+public class CompactFieldMap extends LinkedHashMap<String, TapField> {
+	private static final long serialVersionUID = 1L;
+	private static final int SCAN_MAX_SIZE = 8;
+	private static final String[] EMPTY_NAMES = new String[0];
+	private static final TapField[] EMPTY_FIELDS = new TapField[0];
+
+	private String[] names = EMPTY_NAMES;
+	private TapField[] fields = EMPTY_FIELDS;
+	private int size;
+	/**
+	 * position + 1 of the name in names, 0 is empty slot, null when fields are found by scanning
+	 */
+	private int[] index;
+
+	public CompactFieldMap() {
+	}
+
+	public CompactFieldMap(int initialCapacity) {
+		if(initialCapacity < 0)
+			throw new IllegalArgumentException("Illegal initial capacity " + initialCapacity);
+		if(initialCapacity > 0) {
+			names = new String[initialCapacity];
+			fields = new TapField[initialCapacity];
+		}
+	}
+
+	public CompactFieldMap(Map<String, TapField> map) {
+		this(map.size());
+		putAll(map);
+	}
+
+	/**
+	 * Shrink the arrays to the size, after all fields are put.
+	 */
+	public CompactFieldMap trimToSize() {
+		if(names.length != size) {
+			names = size == 0 ? EMPTY_NAMES : Arrays.copyOf(names, size);
+			fields = size == 0 ? EMPTY_FIELDS : Arrays.copyOf(fields, size);
+		}
+		return this;
+	}
+
+	/**
+	 * @return the references held by the arrays and the index, for estimating the memory size.
+	 */
+	public int capacity() {
+		return names.length * 2 + (index != null ? index.length : 0);
+	}
+
+	private static int hash(Object key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private int indexOf(Object key) {
+		if(index == null || key == null) {
+			for(int i = 0; i < size; i++) {
+				if(Objects.equals(key, names[i]))
+					return i;
+			}
+			return -1;
+		}
+		int mask = index.length - 1;
+		for(int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+			int position = index[slot];
+			if(position == 0)
+				return -1;
+			if(key.equals(names[position - 1]))
+				return position - 1;
+		}
+	}
+
+	private void rebuildIndex() {
+		if(size <= SCAN_MAX_SIZE) {
+			index = null;
+			return;
+		}
+		int length = Integer.highestOneBit(size * 2 - 1) << 1;
+		int[] newIndex = new int[length];
+		for(int i = 0; i < size; i++) {
+			if(names[i] != null)
+				indexPosition(newIndex, i);
+		}
+		index = newIndex;
+	}
+
+	private void indexPosition(int[] theIndex, int position) {
+		int mask = theIndex.length - 1;
+		int slot = hash(names[position]) & mask;
+		while(theIndex[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		theIndex[slot] = position + 1;
+	}
+
+	private void append(String key, TapField value) {
+		if(size == names.length) {
+			int capacity = Math.max(4, size + (size >> 1));
+			names = Arrays.copyOf(names, capacity);
+			fields = Arrays.copyOf(fields, capacity);
+		}
+		names[size] = key;
+		fields[size] = value;
+		size++;
+		if(index == null || size * 2 > index.length)
+			rebuildIndex();
+		else if(key != null)
+			indexPosition(index, size - 1);
+		else
+			rebuildIndex();
+	}
+
+	private TapField removeAt(int position) {
+		TapField old = fields[position];
+		int moved = size - position - 1;
+		if(moved > 0) {
+			System.arraycopy(names, position + 1, names, position, moved);
+			System.arraycopy(fields, position + 1, fields, position, moved);
+		}
+		size--;
+		names[size] = null;
+		fields[size] = null;
+		rebuildIndex();
+		return old;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		for(int i = 0; i < size; i++) {
+			if(Objects.equals(value, fields[i]))
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public TapField get(Object key) {
+		int position = indexOf(key);
+		return position >= 0 ? fields[position] : null;
+	}
+
+	@Override
+	public TapField getOrDefault(Object key, TapField defaultValue) {
+		int position = indexOf(key);
+		return position >= 0 ? fields[position] : defaultValue;
+	}
+
+	@Override
+	public TapField put(String key, TapField value) {
+		int position = indexOf(key);
+		if(position >= 0) {
+			TapField old = fields[position];
+			fields[position] = value;
+			return old;
+		}
+		append(key, value);
+		return null;
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends TapField> map) {
+		for(Map.Entry<? extends String, ? extends TapField> entry : map.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public TapField remove(Object key) {
+		int position = indexOf(key);
+		return position >= 0 ? removeAt(position) : null;
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		int position = indexOf(key);
+		if(position >= 0 && Objects.equals(fields[position], value)) {
+			removeAt(position);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public TapField putIfAbsent(String key, TapField value) {
+		int position = indexOf(key);
+		if(position >= 0 && fields[position] != null)
+			return fields[position];
+		if(position >= 0)
+			fields[position] = value;
+		else
+			append(key, value);
+		return null;
+	}
+
+	@Override
+	public boolean replace(String key, TapField oldValue, TapField newValue) {
+		int position = indexOf(key);
+		if(position >= 0 && Objects.equals(fields[position], oldValue)) {
+			fields[position] = newValue;
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public TapField replace(String key, TapField value) {
+		int position = indexOf(key);
+		if(position < 0)
+			return null;
+		TapField old = fields[position];
+		fields[position] = value;
+		return old;
+	}
+
+	@Override
+	public TapField computeIfAbsent(String key, Function<? super String, ? extends TapField> mappingFunction) {
+		int position = indexOf(key);
+		if(position >= 0 && fields[position] != null)
+			return fields[position];
+		TapField value = mappingFunction.apply(key);
+		if(value != null) {
+			if(position >= 0)
+				fields[position] = value;
+			else
+				append(key, value);
+		}
+		return value;
+	}
+
+	@Override
+	public TapField computeIfPresent(String key, BiFunction<? super String, ? super TapField, ? extends TapField> remappingFunction) {
+		int position = indexOf(key);
+		if(position < 0 || fields[position] == null)
+			return null;
+		TapField value = remappingFunction.apply(key, fields[position]);
+		if(value == null)
+			remove(key);
+		else
+			fields[position] = value;
+		return value;
+	}
+
+	@Override
+	public TapField compute(String key, BiFunction<? super String, ? super TapField, ? extends TapField> remappingFunction) {
+		int position = indexOf(key);
+		TapField value = remappingFunction.apply(key, position >= 0 ? fields[position] : null);
+		if(value == null) {
+			if(position >= 0)
+				remove(key);
+		} else if(position >= 0) {
+			fields[position] = value;
+		} else {
+			append(key, value);
+		}
+		return value;
+	}
+
+	@Override
+	public TapField merge(String key, TapField value, BiFunction<? super TapField, ? super TapField, ? extends TapField> remappingFunction) {
+		Objects.requireNonNull(value);
+		int position = indexOf(key);
+		TapField old = position >= 0 ? fields[position] : null;
+		TapField newValue = old == null ? value : remappingFunction.apply(old, value);
+		if(newValue == null)
+			remove(key);
+		else if(position >= 0)
+			fields[position] = newValue;
+		else
+			append(key, newValue);
+		return newValue;
+	}
+
+	@Override
+	public void forEach(BiConsumer<? super String, ? super TapField> action) {
+		int expectedSize = size;
+		for(int i = 0; i < size; i++) {
+			action.accept(names[i], fields[i]);
+			if(expectedSize != size)
+				throw new ConcurrentModificationException();
+		}
+	}
+
+	@Override
+	public void replaceAll(BiFunction<? super String, ? super TapField, ? extends TapField> function) {
+		for(int i = 0; i < size; i++) {
+			fields[i] = function.apply(names[i], fields[i]);
+		}
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(names, 0, size, null);
+		Arrays.fill(fields, 0, size, null);
+		size = 0;
+		index = null;
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new PositionIterator<String>() {
+					@Override
+					String valueAt(int position) {
+						return names[position];
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+
+			@Override
+			public boolean remove(Object o) {
+				return CompactFieldMap.this.remove(o) != null;
+			}
+
+			@Override
+			public void clear() {
+				CompactFieldMap.this.clear();
+			}
+		};
+	}
+
+	@Override
+	public Collection<TapField> values() {
+		return new AbstractCollection<TapField>() {
+			@Override
+			public Iterator<TapField> iterator() {
+				return new PositionIterator<TapField>() {
+					@Override
+					TapField valueAt(int position) {
+						return fields[position];
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return containsValue(o);
+			}
+
+			@Override
+			public void clear() {
+				CompactFieldMap.this.clear();
+			}
+		};
+	}
+
+	@Override
+	public Set<Map.Entry<String, TapField>> entrySet() {
+		return new AbstractSet<Map.Entry<String, TapField>>() {
+			@Override
+			public Iterator<Map.Entry<String, TapField>> iterator() {
+				return new PositionIterator<Map.Entry<String, TapField>>() {
+					@Override
+					Map.Entry<String, TapField> valueAt(int position) {
+						return new FieldEntry(position);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public void clear() {
+				CompactFieldMap.this.clear();
+			}
+		};
+	}
+
+	@Override
+	public Object clone() {
+		return new CompactFieldMap(this);
+	}
+
+	private Object writeReplace() {
+		return new LinkedHashMap<>(this);
+	}
+
+	private abstract class PositionIterator<E> implements Iterator<E> {
+		private int cursor;
+		private int last = -1;
+		private int expectedSize = size;
+
+		abstract E valueAt(int position);
+
+		@Override
+		public boolean hasNext() {
+			return cursor < size;
+		}
+
+		@Override
+		public E next() {
+			if(expectedSize != size)
+				throw new ConcurrentModificationException();
+			if(cursor >= size)
+				throw new NoSuchElementException();
+			last = cursor++;
+			return valueAt(last);
+		}
+
+		@Override
+		public void remove() {
+			if(last < 0)
+				throw new IllegalStateException();
+			if(expectedSize != size)
+				throw new ConcurrentModificationException();
+			removeAt(last);
+			cursor = last;
+			last = -1;
+			expectedSize = size;
+		}
+	}
+
+	private class FieldEntry implements Map.Entry<String, TapField> {
+		private final int position;
+		private final String key;
+
+		FieldEntry(int position) {
+			this.position = position;
+			this.key = names[position];
+		}
+
+		@Override
+		public String getKey() {
+			return key;
+		}
+
+		@Override
+		public TapField getValue() {
+			return position < size && names[position] == key ? fields[position] : get(key);
+		}
+
+		@Override
+		public TapField setValue(TapField value) {
+			if(position < size && names[position] == key) {
+				TapField old = fields[position];
+				fields[position] = value;
+				return old;
+			}
+			return put(key, value);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			return Objects.equals(key, entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(key) ^ Objects.hashCode(getValue());
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + getValue();
+		}
+	}
+}
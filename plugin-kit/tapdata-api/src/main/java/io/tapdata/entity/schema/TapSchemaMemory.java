@@ -0,0 +1,161 @@
+package io.tapdata.entity.schema;
+
+import io.tapdata.entity.schema.type.TapType;
+import io.tapdata.entity.schema.type.TapTypeSignature;
+import io.tapdata.entity.utils.MemorySizeEstimator;
+import io.tapdata.entity.utils.PropertyUtils;
+import io.tapdata.entity.utils.WeakInterner;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * Schema memory mode for the tables cached in memory, enabled by property tap_schema_compact_memory.
+ * 缓存上万张表时， 表结构本身会占用大量堆内存
+ *
+ * Compacting a table canonicalizes the metadata of its fields and moves the fields into a {@link CompactFieldMap}.
+ * Strings are canonicalized by {@link String#intern()}, TapTypes by a weak interner of their signatures,
+ * the canonical instances are collected after no table uses them.
+ * Canonical TapTypes are shared by the fields of all tables, they must not be changed in place, set a new TapType instead.
+ *
+ * The memory sizes are estimated by {@link MemorySizeEstimator}, objects shared in the measured tables are counted once.
+ */
+public class TapSchemaMemory {
+	private static final boolean COMPACT_MEMORY = PropertyUtils.getPropertyBool("tap_schema_compact_memory", false);
+	private static final WeakInterner<TapTypeSignature, TapType> tapTypeInterner = new WeakInterner<>();
+
+	private TapSchemaMemory() {
+	}
+
+	public static boolean isCompactMemory() {
+		return COMPACT_MEMORY;
+	}
+
+	/**
+	 * Canonicalize the field metadata of the table and store the fields in a compact field map.
+	 */
+	public static TapTable compact(TapTable table) {
+		return compact(table, true);
+	}
+
+	/**
+	 * @param canonicalize false if the fields are canonicalized already, by a TapFieldInterner for example, only move them into a compact field map
+	 */
+	public static TapTable compact(TapTable table, boolean canonicalize) {
+		if(table == null)
+			return null;
+		LinkedHashMap<String, TapField> nameFieldMap = table.getNameFieldMap();
+		if(nameFieldMap == null)
+			return table;
+		table.setNameFieldMap(compact(nameFieldMap, canonicalize));
+		return table;
+	}
+
+	public static CompactFieldMap compact(LinkedHashMap<String, TapField> nameFieldMap) {
+		return compact(nameFieldMap, true);
+	}
+
+	public static CompactFieldMap compact(LinkedHashMap<String, TapField> nameFieldMap, boolean canonicalize) {
+		if(nameFieldMap == null)
+			return null;
+		CompactFieldMap compactFieldMap = new CompactFieldMap(nameFieldMap.size());
+		for(Map.Entry<String, TapField> entry : nameFieldMap.entrySet()) {
+			if(canonicalize)
+				compactFieldMap.put(canonicalize(entry.getKey()), canonicalize(entry.getValue()));
+			else
+				compactFieldMap.put(entry.getKey(), entry.getValue());
+		}
+		return compactFieldMap;
+	}
+
+	public static TapField canonicalize(TapField field) {
+		return canonicalize(field, TapSchemaMemory::canonicalize, TapSchemaMemory::canonicalize);
+	}
+
+	/**
+	 * Replace the metadata of the field by the canonical instances of the given canonicalizers.
+	 */
+	public static TapField canonicalize(TapField field, UnaryOperator<String> stringCanonicalizer, UnaryOperator<TapType> tapTypeCanonicalizer) {
+		if(field == null)
+			return null;
+		field.setName(stringCanonicalizer.apply(field.getName()));
+		field.setDataType(stringCanonicalizer.apply(field.getDataType()));
+		field.setPureDataType(stringCanonicalizer.apply(field.getPureDataType()));
+		field.setComment(stringCanonicalizer.apply(field.getComment()));
+		field.setCheck(stringCanonicalizer.apply(field.getCheck()));
+		field.setConstraint(stringCanonicalizer.apply(field.getConstraint()));
+		field.setCreateSource(stringCanonicalizer.apply(field.getCreateSource()));
+		if(field.getDefaultValue() instanceof String)
+			field.setDefaultValue(stringCanonicalizer.apply((String) field.getDefaultValue()));
+		field.setTapType(tapTypeCanonicalizer.apply(field.getTapType()));
+		return field;
+	}
+
+	public static String canonicalize(String str) {
+		return str != null ? str.intern() : null;
+	}
+
+	public static TapType canonicalize(TapType tapType) {
+		if(tapType == null)
+			return null;
+		return tapTypeInterner.intern(TapTypeSignature.of(tapType), tapType);
+	}
+
+	/**
+	 * @return the canonical TapTypes still used
+	 */
+	public static int getCanonicalTapTypeCount() {
+		return tapTypeInterner.size();
+	}
+
+	public static long estimateMemorySize(TapTable table) {
+		return estimateMemorySize(Collections.singletonList(table));
+	}
+
+	public static long estimateMemorySize(Collection<TapTable> tables) {
+		if(tables == null)
+			return 0;
+		Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+		long size = 0;
+		for(TapTable table : tables) {
+			if(table == null || !counted.add(table))
+				continue;
+			size += MemorySizeEstimator.shallowSize(TapTable.class);
+			size += sizeOf(table.getId(), counted) + sizeOf(table.getName(), counted) + sizeOf(table.getComment(), counted);
+			LinkedHashMap<String, TapField> nameFieldMap = table.getNameFieldMap();
+			if(nameFieldMap == null)
+				continue;
+			size += mapSize(nameFieldMap);
+			for(Map.Entry<String, TapField> entry : nameFieldMap.entrySet()) {
+				size += sizeOf(entry.getKey(), counted) + sizeOf(entry.getValue(), counted);
+			}
+		}
+		return size;
+	}
+
+	private static long mapSize(LinkedHashMap<String, TapField> nameFieldMap) {
+		if(nameFieldMap instanceof CompactFieldMap)
+			return MemorySizeEstimator.shallowSize(CompactFieldMap.class) + 3L * MemorySizeEstimator.ARRAY_HEADER + (long) ((CompactFieldMap) nameFieldMap).capacity() * MemorySizeEstimator.REFERENCE;
+		return MemorySizeEstimator.mapOverhead(nameFieldMap);
+	}
+
+	private static long sizeOf(TapField field, Set<Object> counted) {
+		if(field == null || !counted.add(field))
+			return 0;
+		long size = MemorySizeEstimator.shallowSize(TapField.class);
+		size += sizeOf(field.getName(), counted) + sizeOf(field.getDataType(), counted) + sizeOf(field.getPureDataType(), counted) + sizeOf(field.getComment(), counted) +
+				sizeOf(field.getCheck(), counted) + sizeOf(field.getConstraint(), counted) + sizeOf(field.getCreateSource(), counted) + sizeOf(field.getOriginalFieldName(), counted);
+		if(field.getDefaultValue() instanceof String)
+			size += sizeOf((String) field.getDefaultValue(), counted);
+		TapType tapType = field.getTapType();
+		if(tapType != null && counted.add(tapType))
+			size += MemorySizeEstimator.shallowSize(tapType.getClass());
+		return size;
+	}
+
+	private static long sizeOf(String str, Set<Object> counted) {
+		if(str == null || !counted.add(str))
+			return 0;
+		return MemorySizeEstimator.sizeOf(str);
+	}
+}
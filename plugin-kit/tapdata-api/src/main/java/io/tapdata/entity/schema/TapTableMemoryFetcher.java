@@ -0,0 +1,87 @@
+package io.tapdata.entity.schema;
+
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.memory.MemorySink;
+import io.tapdata.entity.utils.DataMap;
+
+import java.util.Collection;
+import java.util.function.Supplier;
+
+/**
+ * Report the estimated memory size of the cached tables, see {@link TapSchemaMemory}.
+ * The supplier is called for each memory request, the tables may be loaded or removed in between.
+ */
+public class TapTableMemoryFetcher implements MemoryFetcher {
+	private final Supplier<Collection<TapTable>> tablesSupplier;
+
+	public TapTableMemoryFetcher(Supplier<Collection<TapTable>> tablesSupplier) {
+		this.tablesSupplier = tablesSupplier;
+	}
+
+	@Override
+	public DataMap memory(String keyRegex, String memoryLevel) {
+		Collection<TapTable> tables = tablesSupplier.get();
+		DataMap dataMap = summary(DataMap.create().keyRegex(keyRegex), tables);
+		if(isDetailed(memoryLevel) && tables != null) {
+			DataMap tableMap = DataMap.create().keyRegex(keyRegex);
+			dataMap.kv("tableMap", tableMap);
+			for(TapTable table : tables) {
+				if(table != null && table.getId() != null)
+					tableMap.kv(table.getId(), tableMemory(table));
+			}
+		}
+		return dataMap;
+	}
+
+	@Override
+	public void writeMemory(String memoryLevel, MemorySink sink) {
+		Collection<TapTable> tables = tablesSupplier.get();
+		sink.kvs(summary(DataMap.create(), tables));
+		if(isDetailed(memoryLevel) && tables != null && sink.matches("tableMap")) {
+			sink.startObject("tableMap");
+			for(TapTable table : tables) {
+				if(sink.isFull())
+					break;
+				if(table != null && table.getId() != null && sink.matches(table.getId()))
+					sink.kv(table.getId(), tableMemory(table));
+			}
+			sink.endObject();
+		}
+	}
+
+	private boolean isDetailed(String memoryLevel) {
+		return memoryLevel == null || !memoryLevel.equalsIgnoreCase(MemoryFetcher.MEMORY_LEVEL_SUMMARY);
+	}
+
+	private DataMap tableMemory(TapTable table) {
+		return DataMap.create()
+				.kv("fields", table.getNameFieldMap() != null ? table.getNameFieldMap().size() : 0)
+				.kv("compact", table.getNameFieldMap() instanceof CompactFieldMap)
+				.kv("estimatedMemorySize", TapSchemaMemory.estimateMemorySize(table));
+	}
+
+	private DataMap summary(DataMap dataMap, Collection<TapTable> tables) {
+		int tableCount = 0;
+		int compactCount = 0;
+		long fieldCount = 0;
+		if(tables != null) {
+			for(TapTable table : tables) {
+				if(table == null)
+					continue;
+				tableCount++;
+				if(table.getNameFieldMap() != null) {
+					fieldCount += table.getNameFieldMap().size();
+					if(table.getNameFieldMap() instanceof CompactFieldMap)
+						compactCount++;
+				}
+			}
+		}
+		return dataMap
+				.kv("compactMemory", TapSchemaMemory.isCompactMemory())
+				.kv("tables", tableCount)
+				.kv("compactTables", compactCount)
+				.kv("fields", fieldCount)
+				.kv("canonicalTapTypes", TapSchemaMemory.getCanonicalTapTypeCount())
+				.kv("estimatedMemorySize", TapSchemaMemory.estimateMemorySize(tables));
+	}
+}
@@ -0,0 +1,70 @@
+package io.tapdata.entity.schema.type;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.error.TapAPIErrorCodes;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Value identity of a TapType, the type class and the values of all its fields.
+ * TapType doesn't implement equals, two types with the same signature are mapped and encoded in the same way.
+ */
+public final class TapTypeSignature {
+    private static final Map<Class<?>, Field[]> classFieldsMap = new ConcurrentHashMap<>();
+    private final Object[] values;
+    private final int hashCode;
+
+    private TapTypeSignature(TapType tapType) {
+        Field[] fields = classFieldsMap.computeIfAbsent(tapType.getClass(), TapTypeSignature::typeFields);
+        values = new Object[fields.length + 1];
+        values[0] = tapType.getClass();
+        for(int i = 0; i < fields.length; i++) {
+            try {
+                values[i + 1] = fields[i].get(tapType);
+            } catch (IllegalAccessException e) {
+                throw new CoreException(TapAPIErrorCodes.ERROR_ILLEGAL_PARAMETERS, e, "Read {} of tap type {} failed, {}", fields[i].getName(), tapType, e.getMessage());
+            }
+        }
+        hashCode = Arrays.hashCode(values);
+    }
+
+    public static TapTypeSignature of(TapType tapType) {
+        if(tapType == null)
+            return null;
+        return new TapTypeSignature(tapType);
+    }
+
+    private static Field[] typeFields(Class<?> tapTypeClass) {
+        List<Field> fields = new ArrayList<>();
+        for(Class<?> clazz = tapTypeClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for(Field field : clazz.getDeclaredFields()) {
+                if(Modifier.isStatic(field.getModifiers()))
+                    continue;
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+        return fields.toArray(new Field[0]);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o)
+            return true;
+        if(!(o instanceof TapTypeSignature))
+            return false;
+        TapTypeSignature that = (TapTypeSignature) o;
+        return hashCode == that.hashCode && Arrays.equals(values, that.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
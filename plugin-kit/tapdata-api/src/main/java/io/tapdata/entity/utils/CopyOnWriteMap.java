@@ -0,0 +1,397 @@
+package io.tapdata.entity.utils;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Map view reading a source map it does not own, the first write copies the source for this view only, the source is never changed.
+ *
+ * The copy is deep for the containers, nested Map, Collection and array values are copied with it, so changing them in place
+ * never reaches the source. Reading a container value copies this view first, as the caller may change what it reads,
+ * reading the other values never copies.
+ * The source must not be changed while it is viewed, the views which have not written yet see the changes.
+ * Created by the no-arg constructor, the map is an owned empty map, as serializers and reflection expect from a Map class.
+ */
+public class CopyOnWriteMap<K, V> implements Map<K, V>, Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private transient volatile Map<K, V> map;
+	private transient volatile boolean owned;
+	/**
+	 * Copy into ConcurrentHashMap, for the maps which are changed by multiple threads
+	 */
+	private transient boolean concurrent;
+
+	public CopyOnWriteMap() {
+		map = new LinkedHashMap<>();
+		owned = true;
+	}
+
+	private CopyOnWriteMap(Map<K, V> source, boolean concurrent) {
+		this.map = source;
+		this.concurrent = concurrent;
+	}
+
+	/**
+	 * A view reading the source, copied into LinkedHashMap on the first write.
+	 */
+	public static <K, V> CopyOnWriteMap<K, V> view(Map<K, V> source) {
+		return new CopyOnWriteMap<>(unwrap(source), false);
+	}
+
+	/**
+	 * A view reading the source, copied into ConcurrentHashMap on the first write, so null keys and values are rejected the same as ConcurrentHashMap.
+	 */
+	public static <K, V> CopyOnWriteMap<K, V> concurrentView(Map<K, V> source) {
+		return new CopyOnWriteMap<>(unwrap(source), true);
+	}
+
+	private static <K, V> Map<K, V> unwrap(Map<K, V> source) {
+		Objects.requireNonNull(source, "source");
+		//A view of a view reads the same source, unless the view owns its map already
+		if(source instanceof CopyOnWriteMap) {
+			CopyOnWriteMap<K, V> view = (CopyOnWriteMap<K, V>) source;
+			if(!view.owned)
+				return view.map;
+		}
+		return source;
+	}
+
+	/**
+	 * @return whether this view still reads the source
+	 */
+	public boolean isShared() {
+		return !owned;
+	}
+
+	private Map<K, V> owned() {
+		if(!owned) {
+			synchronized (this) {
+				if(!owned) {
+					Map<K, V> source = map;
+					Map<K, V> copy = concurrent ? new ConcurrentHashMap<>() : new LinkedHashMap<>();
+					for(Map.Entry<K, V> entry : source.entrySet()) {
+						copy.put(entry.getKey(), copyContainer(entry.getValue()));
+					}
+					map = copy;
+					owned = true;
+				}
+			}
+		}
+		return map;
+	}
+
+	private static boolean isContainer(Object value) {
+		return value instanceof Map || value instanceof Collection || (value != null && value.getClass().isArray());
+	}
+
+	/**
+	 * Deep copy of the nested containers, the values in them which are not containers are shared.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T copyContainer(T value) {
+		if(value instanceof Map) {
+			Map<Object, Object> copy = new LinkedHashMap<>();
+			for(Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				copy.put(entry.getKey(), copyContainer(entry.getValue()));
+			}
+			return (T) copy;
+		}
+		if(value instanceof Collection) {
+			Collection<Object> copy = value instanceof Set ? new LinkedHashSet<>() : new ArrayList<>(((Collection<?>) value).size());
+			for(Object element : (Collection<?>) value) {
+				copy.add(copyContainer(element));
+			}
+			return (T) copy;
+		}
+		if(value != null && value.getClass().isArray()) {
+			Class<?> componentType = value.getClass().getComponentType();
+			int length = Array.getLength(value);
+			Object copy = Array.newInstance(componentType, length);
+			if(componentType.isPrimitive()) {
+				System.arraycopy(value, 0, copy, 0, length);
+			} else {
+				for(int i = 0; i < length; i++) {
+					Array.set(copy, i, copyContainer(Array.get(value, i)));
+				}
+			}
+			return (T) copy;
+		}
+		return value;
+	}
+
+	private void writeObject(ObjectOutputStream outputStream) throws IOException {
+		outputStream.defaultWriteObject();
+		outputStream.writeBoolean(concurrent);
+		outputStream.writeInt(map.size());
+		for(Map.Entry<K, V> entry : map.entrySet()) {
+			outputStream.writeObject(entry.getKey());
+			outputStream.writeObject(entry.getValue());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+		inputStream.defaultReadObject();
+		concurrent = inputStream.readBoolean();
+		int size = inputStream.readInt();
+		Map<K, V> readMap = concurrent ? new ConcurrentHashMap<>() : new LinkedHashMap<>();
+		for(int i = 0; i < size; i++) {
+			readMap.put((K) inputStream.readObject(), (V) inputStream.readObject());
+		}
+		map = readMap;
+		owned = true;
+	}
+
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return map.isEmpty();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return map.containsKey(key);
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		return map.containsValue(value);
+	}
+
+	@Override
+	public V get(Object key) {
+		if(!owned) {
+			V value = map.get(key);
+			if(!isContainer(value))
+				return value;
+		}
+		return owned().get(key);
+	}
+
+	@Override
+	public V put(K key, V value) {
+		return owned().put(key, value);
+	}
+
+	@Override
+	public V remove(Object key) {
+		if(!owned && !map.containsKey(key))
+			return null;
+		return owned().remove(key);
+	}
+
+	@Override
+	public void putAll(Map<? extends K, ? extends V> m) {
+		owned().putAll(m);
+	}
+
+	@Override
+	public void clear() {
+		if(!owned) {
+			synchronized (this) {
+				map = concurrent ? new ConcurrentHashMap<>() : new LinkedHashMap<>();
+				owned = true;
+			}
+		} else {
+			map.clear();
+		}
+	}
+
+	@Override
+	public Set<K> keySet() {
+		return new AbstractSet<K>() {
+			@Override
+			public Iterator<K> iterator() {
+				Iterator<Map.Entry<K, V>> iterator = entryIterator();
+				return new Iterator<K>() {
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public K next() {
+						return iterator.next().getKey();
+					}
+
+					@Override
+					public void remove() {
+						iterator.remove();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return CopyOnWriteMap.this.size();
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+
+			@Override
+			public boolean remove(Object o) {
+				boolean contains = containsKey(o);
+				CopyOnWriteMap.this.remove(o);
+				return contains;
+			}
+		};
+	}
+
+	@Override
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				Iterator<Map.Entry<K, V>> iterator = entryIterator();
+				return new Iterator<V>() {
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public V next() {
+						return iterator.next().getValue();
+					}
+
+					@Override
+					public void remove() {
+						iterator.remove();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return CopyOnWriteMap.this.size();
+			}
+		};
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return entryIterator();
+			}
+
+			@Override
+			public int size() {
+				return CopyOnWriteMap.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Iterate the source without copy until a container value is read, writes through the entries or the iterator copy this view and go to the copy.
+	 */
+	private Iterator<Map.Entry<K, V>> entryIterator() {
+		if(owned)
+			return map.entrySet().iterator();
+		Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+		return new Iterator<Map.Entry<K, V>>() {
+			private K lastKey;
+			private boolean canRemove;
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Map.Entry<K, V> next() {
+				Map.Entry<K, V> entry = iterator.next();
+				lastKey = entry.getKey();
+				canRemove = true;
+				return new SharedEntry(entry);
+			}
+
+			@Override
+			public void remove() {
+				if(!canRemove)
+					throw new IllegalStateException();
+				canRemove = false;
+				owned().remove(lastKey);
+			}
+		};
+	}
+
+	private class SharedEntry implements Map.Entry<K, V> {
+		private final Map.Entry<K, V> entry;
+
+		SharedEntry(Map.Entry<K, V> entry) {
+			this.entry = entry;
+		}
+
+		@Override
+		public K getKey() {
+			return entry.getKey();
+		}
+
+		@Override
+		public V getValue() {
+			if(!owned) {
+				V value = entry.getValue();
+				if(!isContainer(value))
+					return value;
+			}
+			return owned().get(entry.getKey());
+		}
+
+		@Override
+		public V setValue(V value) {
+			return owned().put(entry.getKey(), value);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return Objects.equals(getKey(), e.getKey()) && Objects.equals(getValue(), e.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(o == this)
+			return true;
+		if(o instanceof CopyOnWriteMap)
+			return map.equals(((CopyOnWriteMap<?, ?>) o).map);
+		return map.equals(o);
+	}
+
+	@Override
+	public int hashCode() {
+		return map.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return map.toString();
+	}
+}
@@ -3,6 +3,7 @@ package io.tapdata.entity.utils;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -10,16 +11,34 @@ import java.util.regex.Pattern;
  *
  */
 public class DataMap extends LinkedHashMap<String, Object> {
+	private static final int KEY_PATTERN_CACHE_SIZE = 256;
+	/**
+	 * A memory request creates DataMaps with the same key regex for every fetcher, compile it once.
+	 */
+	private static final Map<String, Pattern> keyPatternCache = new ConcurrentHashMap<>();
 	private String keyRegex;
 	private Pattern keyPattern;
 
 	public DataMap keyRegex(String keyRegex) {
 		this.keyRegex = keyRegex;
 		if (keyRegex != null)
-			keyPattern = Pattern.compile(keyRegex, Pattern.MULTILINE | Pattern.CASE_INSENSITIVE);
+			keyPattern = compileKeyRegex(keyRegex);
 		return this;
 	}
 
+	public static Pattern compileKeyRegex(String keyRegex) {
+		if (keyRegex == null)
+			return null;
+		Pattern pattern = keyPatternCache.get(keyRegex);
+		if (pattern == null) {
+			if (keyPatternCache.size() >= KEY_PATTERN_CACHE_SIZE)
+				keyPatternCache.clear();
+			pattern = Pattern.compile(keyRegex, Pattern.MULTILINE | Pattern.CASE_INSENSITIVE);
+			keyPatternCache.put(keyRegex, pattern);
+		}
+		return pattern;
+	}
+
 	private String prefix;
 
 	public DataMap prefix(String prefix) {
@@ -0,0 +1,259 @@
+package io.tapdata.entity.utils;
+
+import io.tapdata.entity.schema.value.DateTime;
+import io.tapdata.entity.schema.value.TapValue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimate the heap size of record values by their types, no reflection walk on the values.
+ * 队列按字节限流和自适应批次需要事件的内存大小， 按值类型计算， 不做反射遍历
+ *
+ * The shallow size of a class is calculated by reflection once and cached.
+ * Strings, numbers, dates, binaries, TapValues, maps and collections are sized by their known layouts with compressed references when the JVM uses them,
+ * other objects are counted by their shallow sizes only.
+ * Cached instances of the JVM, like small Integers, Booleans and enums, are shared and not counted.
+ */
+public class MemorySizeEstimator {
+	private static final boolean COMPRESSED_OOPS = vmOption("UseCompressedOops", true);
+	private static final boolean COMPACT_STRINGS = !System.getProperty("java.specification.version", "").startsWith("1.") && vmOption("CompactStrings", true);
+	private static final Map<Class<?>, Long> classShallowSizeMap = new ConcurrentHashMap<>();
+
+	public static final int OBJECT_HEADER = COMPRESSED_OOPS ? 12 : 16;
+	public static final int ARRAY_HEADER = COMPRESSED_OOPS ? 16 : 24;
+	public static final int REFERENCE = COMPRESSED_OOPS ? 4 : 8;
+	public static final int HASH_MAP_NODE = (int) align(OBJECT_HEADER + 4 + 3L * REFERENCE);
+	public static final int LINKED_HASH_MAP_ENTRY = (int) align(HASH_MAP_NODE + 2L * REFERENCE);
+	/**
+	 * Maps and collections deeper than it are counted by their shallow sizes
+	 */
+	private static final int MAX_DEPTH = 32;
+
+	private MemorySizeEstimator() {
+	}
+
+	private static boolean vmOption(String name, boolean defaultValue) {
+		try {
+			com.sun.management.HotSpotDiagnosticMXBean bean = ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class);
+			if(bean != null)
+				return Boolean.parseBoolean(bean.getVMOption(name).getValue());
+		} catch(Throwable ignored) {
+		}
+		return defaultValue;
+	}
+
+	public static long sizeOf(Object value) {
+		return sizeOf(value, 0);
+	}
+
+	private static long sizeOf(Object value, int depth) {
+		if(value == null)
+			return 0;
+		if(value instanceof String)
+			return sizeOf((String) value);
+		if(value instanceof Number)
+			return sizeOfNumber((Number) value);
+		if(value instanceof Boolean || value instanceof Enum)
+			return 0;
+		if(value instanceof Character)
+			return (Character) value <= 127 ? 0 : shallowSize(Character.class);
+		if(value instanceof byte[])
+			return align(ARRAY_HEADER + (long) ((byte[]) value).length);
+		if(value instanceof TapValue)
+			return sizeOfTapValue((TapValue<?, ?>) value, depth);
+		if(value instanceof Map)
+			return depth < MAX_DEPTH ? sizeOfMap((Map<?, ?>) value, depth) : shallowSize(value.getClass());
+		if(value instanceof Collection)
+			return depth < MAX_DEPTH ? sizeOfCollection((Collection<?>) value, depth) : shallowSize(value.getClass());
+		if(value instanceof Object[])
+			return sizeOfArray((Object[]) value, depth);
+		if(value instanceof DateTime)
+			return sizeOfDateTime((DateTime) value);
+		if(value instanceof LocalDateTime)
+			return 3 * shallowSize(LocalDateTime.class);
+		if(value instanceof ZonedDateTime || value instanceof OffsetDateTime)
+			return shallowSize(value.getClass()) + 3 * shallowSize(LocalDateTime.class);
+		if(value.getClass().isArray())
+			return sizeOfPrimitiveArray(value);
+		return shallowSize(value.getClass());
+	}
+
+	public static long sizeOf(String str) {
+		if(str == null)
+			return 0;
+		int length = str.length();
+		boolean latin1 = COMPACT_STRINGS;
+		for(int i = 0; i < length && latin1; i++) {
+			latin1 = str.charAt(i) < 256;
+		}
+		return shallowSize(String.class) + align(ARRAY_HEADER + (long) length * (latin1 ? 1 : 2));
+	}
+
+	private static long sizeOfNumber(Number number) {
+		if(number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+			long value = number.longValue();
+			//Boxed by valueOf from the cache
+			if(value >= -128 && value <= 127)
+				return 0;
+			return shallowSize(number.getClass());
+		}
+		if(number instanceof BigDecimal) {
+			BigDecimal bigDecimal = (BigDecimal) number;
+			long size = shallowSize(BigDecimal.class);
+			//Unscaled values beyond long are kept in BigInteger
+			if(bigDecimal.precision() > 18)
+				size += sizeOfNumber(bigDecimal.unscaledValue());
+			return size;
+		}
+		if(number instanceof BigInteger)
+			return shallowSize(BigInteger.class) + align(ARRAY_HEADER + 4L * ((((BigInteger) number).bitLength() + 31) / 32));
+		return shallowSize(number.getClass());
+	}
+
+	private static long sizeOfTapValue(TapValue<?, ?> tapValue, int depth) {
+		//TapType and origin type are shared with the schema
+		long size = shallowSize(tapValue.getClass()) + sizeOf(tapValue.getValue(), depth + 1);
+		Object originValue = tapValue.getOriginValue();
+		if(originValue != null && originValue != tapValue.getValue())
+			size += sizeOf(originValue, depth + 1);
+		return size;
+	}
+
+	private static long sizeOfDateTime(DateTime dateTime) {
+		//TimeZone is shared
+		return shallowSize(DateTime.class) + sizeOfNumber(dateTime.getSeconds() != null ? dateTime.getSeconds() : 0) + sizeOfNumber(dateTime.getNano() != null ? dateTime.getNano() : 0) +
+				sizeOf(dateTime.getIllegalDate()) + (dateTime.getOriginBytes() != null ? align(ARRAY_HEADER + (long) dateTime.getOriginBytes().length) : 0);
+	}
+
+	/**
+	 * The record map, its entries and values.
+	 * Keys are the column names shared by the records of a table, they are not counted, keys of the nested maps are counted.
+	 */
+	public static long sizeOfRecord(Map<String, Object> record) {
+		if(record == null)
+			return 0;
+		long size = mapOverhead(record);
+		for(Object value : record.values()) {
+			size += sizeOf(value, 1);
+		}
+		return size;
+	}
+
+	private static long sizeOfMap(Map<?, ?> map, int depth) {
+		long size = mapOverhead(map);
+		for(Map.Entry<?, ?> entry : map.entrySet()) {
+			size += sizeOf(entry.getKey(), depth + 1) + sizeOf(entry.getValue(), depth + 1);
+		}
+		return size;
+	}
+
+	/**
+	 * The map and its entries, without keys and values.
+	 */
+	public static long mapOverhead(Map<?, ?> map) {
+		if(map == null)
+			return 0;
+		int entrySize = map instanceof LinkedHashMap || map instanceof TreeMap ? LINKED_HASH_MAP_ENTRY : HASH_MAP_NODE;
+		long size = shallowSize(map.getClass()) + (long) map.size() * entrySize;
+		if(!(map instanceof TreeMap) && !map.isEmpty())
+			size += align(ARRAY_HEADER + (long) hashTableCapacity(map.size()) * REFERENCE);
+		return size;
+	}
+
+	/**
+	 * The table grows to twice when the size is over 3/4 of it
+	 */
+	private static int hashTableCapacity(int size) {
+		int capacity = 16;
+		while(capacity * 3 / 4 < size)
+			capacity <<= 1;
+		return capacity;
+	}
+
+	private static long sizeOfCollection(Collection<?> collection, int depth) {
+		long size = shallowSize(collection.getClass());
+		int count = collection.size();
+		if(collection instanceof LinkedList) {
+			size += (long) count * align(OBJECT_HEADER + 3L * REFERENCE);
+		} else if(collection instanceof HashSet) {
+			size += shallowSize(HashMap.class) + (long) count * (collection instanceof LinkedHashSet ? LINKED_HASH_MAP_ENTRY : HASH_MAP_NODE);
+			if(count > 0)
+				size += align(ARRAY_HEADER + (long) hashTableCapacity(count) * REFERENCE);
+		} else if(count > 0) {
+			//ArrayList grows by half from 10
+			int capacity = 10;
+			while(capacity < count)
+				capacity += capacity >> 1;
+			size += align(ARRAY_HEADER + (long) capacity * REFERENCE);
+		}
+		for(Object element : collection) {
+			size += sizeOf(element, depth + 1);
+		}
+		return size;
+	}
+
+	private static long sizeOfArray(Object[] array, int depth) {
+		long size = align(ARRAY_HEADER + (long) array.length * REFERENCE);
+		if(depth < MAX_DEPTH) {
+			for(Object element : array) {
+				size += sizeOf(element, depth + 1);
+			}
+		}
+		return size;
+	}
+
+	private static long sizeOfPrimitiveArray(Object array) {
+		int length = java.lang.reflect.Array.getLength(array);
+		Class<?> type = array.getClass().getComponentType();
+		int elementSize;
+		if(type == long.class || type == double.class)
+			elementSize = 8;
+		else if(type == int.class || type == float.class)
+			elementSize = 4;
+		else if(type == short.class || type == char.class)
+			elementSize = 2;
+		else
+			elementSize = 1;
+		return align(ARRAY_HEADER + (long) length * elementSize);
+	}
+
+	/**
+	 * Header and fields of the class, calculated once.
+	 */
+	public static long shallowSize(Class<?> clazz) {
+		return classShallowSizeMap.computeIfAbsent(clazz, theClass -> {
+			long size = OBJECT_HEADER;
+			for(Class<?> c = theClass; c != null && c != Object.class; c = c.getSuperclass()) {
+				for(Field field : c.getDeclaredFields()) {
+					if(Modifier.isStatic(field.getModifiers()))
+						continue;
+					Class<?> type = field.getType();
+					if(type == long.class || type == double.class)
+						size += 8;
+					else if(type == int.class || type == float.class)
+						size += 4;
+					else if(type == short.class || type == char.class)
+						size += 2;
+					else if(type == byte.class || type == boolean.class)
+						size += 1;
+					else
+						size += REFERENCE;
+				}
+			}
+			return align(size);
+		});
+	}
+
+	public static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+}
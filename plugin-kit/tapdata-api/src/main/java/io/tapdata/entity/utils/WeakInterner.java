@@ -0,0 +1,70 @@
+package io.tapdata.entity.utils;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical instances by key, the instances are weakly referenced, an entry is removed after its instance is collected.
+ * The key must not reference the instance, otherwise the instance is never collected.
+ */
+public class WeakInterner<K, V> {
+	private final Map<K, ValueReference<K, V>> map = new ConcurrentHashMap<>();
+	private final ReferenceQueue<V> referenceQueue = new ReferenceQueue<>();
+
+	/**
+	 * @return the canonical instance of the key, the given value becomes the canonical one if there is none yet.
+	 */
+	public V intern(K key, V value) {
+		if(key == null || value == null)
+			return value;
+		expunge();
+		while(true) {
+			ValueReference<K, V> reference = map.get(key);
+			if(reference != null) {
+				V existing = reference.get();
+				if(existing != null)
+					return existing;
+				if(!map.replace(key, reference, new ValueReference<>(key, value, referenceQueue)))
+					continue;
+				return value;
+			}
+			if(map.putIfAbsent(key, new ValueReference<>(key, value, referenceQueue)) == null)
+				return value;
+		}
+	}
+
+	/**
+	 * @return whether the value is the canonical instance of the key
+	 */
+	public boolean isCanonical(K key, V value) {
+		if(key == null || value == null)
+			return false;
+		ValueReference<K, V> reference = map.get(key);
+		return reference != null && reference.get() == value;
+	}
+
+	public int size() {
+		expunge();
+		return map.size();
+	}
+
+	private void expunge() {
+		Reference<? extends V> reference;
+		while((reference = referenceQueue.poll()) != null) {
+			ValueReference<K, V> valueReference = (ValueReference<K, V>) reference;
+			map.remove(valueReference.key, valueReference);
+		}
+	}
+
+	private static class ValueReference<K, V> extends WeakReference<V> {
+		private final K key;
+
+		ValueReference(K key, V value, ReferenceQueue<V> referenceQueue) {
+			super(value, referenceQueue);
+			this.key = key;
+		}
+	}
+}
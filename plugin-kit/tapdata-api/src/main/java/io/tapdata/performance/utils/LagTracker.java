@@ -0,0 +1,376 @@
+package io.tapdata.performance.utils;
+
+import io.tapdata.entity.event.TapBaseEvent;
+import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.event.ddl.TapDDLEvent;
+import io.tapdata.entity.event.dml.TapDeleteRecordEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.event.dml.TapUpdateRecordEvent;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * End to end lag of events, from the reference time of the event at source to the time it is recorded.
+ * 不同于 {@link DelayCalculation} 只记录最小最大延迟， 这里记录延迟分布
+ *
+ * Every recording thread has its own log bucketed histograms split by event kind, written without lock and without allocation.
+ * Readers merge the histograms of all threads, the histograms of the threads which have ended are folded into a retired total and dropped,
+ * percentiles are calculated from the lags recorded in the last one to two windows,
+ * the moving average is decayed by the time between snapshots.
+ * Lags in a bucket differ within 1/8, percentiles are the highest lag of the bucket.
+ *
+ * Report into a SampleCollector by samplers, for example
+ * <pre>
+ *     collector.addSampler("insertLagP99", () -> lagTracker.percentile(LagTracker.EventKind.INSERT, 99));
+ *     collector.addSampler("lagAvg", () -> lagTracker.movingAverage(null));
+ * </pre>
+ */
+public class LagTracker {
+    public enum EventKind {
+        INSERT,
+        UPDATE,
+        DELETE,
+        DDL,
+        OTHER,
+        ;
+
+        public static EventKind of(TapEvent event) {
+            if (event instanceof TapInsertRecordEvent)
+                return INSERT;
+            if (event instanceof TapUpdateRecordEvent)
+                return UPDATE;
+            if (event instanceof TapDeleteRecordEvent)
+                return DELETE;
+            if (event instanceof TapDDLEvent)
+                return DDL;
+            return OTHER;
+        }
+    }
+
+    private static final EventKind[] KINDS = EventKind.values();
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Lags beyond 2^41 milliseconds are counted in the last bucket
+     */
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    /**
+     * Cells of a kind, the bucket counts, the sum and the max of lags
+     */
+    private static final int STRIDE = BUCKETS + 2;
+    private static final int SUM = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Recorder> recorderThreadLocal = ThreadLocal.withInitial(() -> {
+        Recorder recorder = new Recorder(Thread.currentThread());
+        recorders.add(recorder);
+        return recorder;
+    });
+
+    private long windowMillis = 60000L;
+    private long decayMillis = 60000L;
+
+    //Reader states, guarded by this
+    private final long[] retiredCells = new long[KINDS.length * STRIDE];
+    private long[] previousWindowCells = new long[KINDS.length * STRIDE];
+    private long[] currentWindowCells = previousWindowCells;
+    private long currentWindowTime = System.currentTimeMillis();
+    private long[] lastSnapshotCells = previousWindowCells;
+    private long lastSnapshotTime = currentWindowTime;
+    private final double[] movingAverages = new double[KINDS.length + 1];
+
+    public LagTracker() {
+        for (int i = 0; i < movingAverages.length; i++) {
+            movingAverages[i] = Double.NaN;
+        }
+    }
+
+    /**
+     * @param windowMillis percentiles are calculated from the lags of the last one to two windows
+     */
+    public LagTracker withWindowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+        return this;
+    }
+
+    /**
+     * @param decayMillis the weight of the moving average decays to 1/e after the time
+     */
+    public LagTracker withDecayMillis(long decayMillis) {
+        this.decayMillis = decayMillis;
+        return this;
+    }
+
+    public void record(List<TapEvent> events) {
+        if (events == null || events.isEmpty())
+            return;
+        long now = System.currentTimeMillis();
+        if (events instanceof RandomAccess) {
+            for (int i = 0, size = events.size(); i < size; i++) {
+                record(events.get(i), now);
+            }
+        } else {
+            for (TapEvent event : events) {
+                record(event, now);
+            }
+        }
+    }
+
+    public void record(TapEvent event) {
+        record(event, System.currentTimeMillis());
+    }
+
+    /**
+     * Events without reference time are ignored, for example the events of initial sync.
+     */
+    public void record(TapEvent event, long now) {
+        if (!(event instanceof TapBaseEvent))
+            return;
+        Long referenceTime = ((TapBaseEvent) event).getReferenceTime();
+        if (referenceTime == null)
+            return;
+        record(EventKind.of(event), now - referenceTime);
+    }
+
+    public void record(EventKind kind, long lagMillis) {
+        recorderThreadLocal.get().record(kind.ordinal(), lagMillis);
+    }
+
+    /**
+     * @param kind    null for all kinds
+     * @param percent 0 to 100, for example 99.9
+     * @return null when no lag recorded in the window
+     */
+    public Long percentile(EventKind kind, double percent) {
+        return snapshot().percentile(kind, percent);
+    }
+
+    public Double movingAverage(EventKind kind) {
+        return snapshot().getMovingAverage(kind);
+    }
+
+    public Snapshot snapshot() {
+        return snapshot(System.currentTimeMillis());
+    }
+
+    synchronized Snapshot snapshot(long now) {
+        for (Recorder recorder : recorders) {
+            //All the records of an ended thread are visible once it is seen ended
+            if (recorder.isOwnerEnded()) {
+                recorder.mergeTo(retiredCells);
+                recorders.remove(recorder);
+            }
+        }
+        long[] cells = retiredCells.clone();
+        for (Recorder recorder : recorders) {
+            recorder.mergeTo(cells);
+        }
+        if (now - currentWindowTime >= windowMillis) {
+            previousWindowCells = currentWindowCells;
+            currentWindowCells = cells;
+            currentWindowTime = now;
+        }
+
+        double alpha = decayMillis > 0 ? 1 - Math.exp(-(double) Math.max(0, now - lastSnapshotTime) / decayMillis) : 1;
+        for (int kind = 0; kind <= KINDS.length; kind++) {
+            long count = count(cells, kind) - count(lastSnapshotCells, kind);
+            if (count <= 0)
+                continue;
+            double average = (double) (sum(cells, kind) - sum(lastSnapshotCells, kind)) / count;
+            if (Double.isNaN(movingAverages[kind]))
+                movingAverages[kind] = average;
+            else
+                movingAverages[kind] += alpha * (average - movingAverages[kind]);
+        }
+        lastSnapshotCells = cells;
+        lastSnapshotTime = now;
+        return new Snapshot(cells, previousWindowCells, movingAverages.clone());
+    }
+
+    int recorderCount() {
+        return recorders.size();
+    }
+
+    /**
+     * @param kind ordinal of kind, KINDS.length for all kinds
+     */
+    private static long count(long[] cells, int kind) {
+        long count = 0;
+        for (int k = from(kind); k < to(kind); k++) {
+            int base = k * STRIDE;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += cells[base + i];
+            }
+        }
+        return count;
+    }
+
+    private static long sum(long[] cells, int kind) {
+        long sum = 0;
+        for (int k = from(kind); k < to(kind); k++) {
+            sum += cells[k * STRIDE + SUM];
+        }
+        return sum;
+    }
+
+    private static int from(int kind) {
+        return kind == KINDS.length ? 0 : kind;
+    }
+
+    private static int to(int kind) {
+        return kind == KINDS.length ? KINDS.length : kind + 1;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) Math.max(0, value);
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    static long bucketLowest(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    static long bucketHighest(int index) {
+        return index >= BUCKETS - 1 ? Long.MAX_VALUE : bucketLowest(index + 1) - 1;
+    }
+
+    /**
+     * Written by its own thread only, the cells are set lazily so readers of other threads see them soon without a fence for each event.
+     */
+    private static class Recorder {
+        private final AtomicLongArray cells = new AtomicLongArray(KINDS.length * STRIDE);
+        private final WeakReference<Thread> owner;
+
+        Recorder(Thread owner) {
+            this.owner = new WeakReference<>(owner);
+        }
+
+        boolean isOwnerEnded() {
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+
+        void record(int kind, long lag) {
+            if (lag < 0)
+                lag = 0;
+            int base = kind * STRIDE;
+            int bucket = base + bucketIndex(lag);
+            cells.lazySet(bucket, cells.get(bucket) + 1);
+            cells.lazySet(base + SUM, cells.get(base + SUM) + lag);
+            if (lag > cells.get(base + MAX))
+                cells.lazySet(base + MAX, lag);
+        }
+
+        void mergeTo(long[] merged) {
+            for (int kind = 0; kind < KINDS.length; kind++) {
+                int base = kind * STRIDE;
+                for (int i = 0; i <= SUM; i++) {
+                    merged[base + i] += cells.get(base + i);
+                }
+                merged[base + MAX] = Math.max(merged[base + MAX], cells.get(base + MAX));
+            }
+        }
+    }
+
+    /**
+     * Merged histograms at a time, counts and max are since the tracker created, percentiles are in the window.
+     */
+    public static class Snapshot {
+        private final long[] cells;
+        private final long[] windowStartCells;
+        private final double[] movingAverages;
+
+        Snapshot(long[] cells, long[] windowStartCells, double[] movingAverages) {
+            this.cells = cells;
+            this.windowStartCells = windowStartCells;
+            this.movingAverages = movingAverages;
+        }
+
+        private int kind(EventKind kind) {
+            return kind == null ? KINDS.length : kind.ordinal();
+        }
+
+        public long getCount(EventKind kind) {
+            return count(cells, kind(kind));
+        }
+
+        public long getWindowCount(EventKind kind) {
+            return count(cells, kind(kind)) - count(windowStartCells, kind(kind));
+        }
+
+        public Long getMax(EventKind kind) {
+            if (getCount(kind) == 0)
+                return null;
+            long max = 0;
+            for (int k = from(kind(kind)); k < to(kind(kind)); k++) {
+                max = Math.max(max, cells[k * STRIDE + MAX]);
+            }
+            return max;
+        }
+
+        public Double getAverage(EventKind kind) {
+            long count = getCount(kind);
+            return count > 0 ? (double) sum(cells, kind(kind)) / count : null;
+        }
+
+        /**
+         * @return time decayed average, null when no lag recorded
+         */
+        public Double getMovingAverage(EventKind kind) {
+            double average = movingAverages[kind(kind)];
+            return Double.isNaN(average) ? null : average;
+        }
+
+        public Long percentile(EventKind kind, double percent) {
+            long windowCount = getWindowCount(kind);
+            if (windowCount <= 0)
+                return null;
+            long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percent)) / 100 * windowCount));
+            int from = from(kind(kind));
+            int to = to(kind(kind));
+            long accumulated = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                for (int k = from; k < to; k++) {
+                    int cell = k * STRIDE + i;
+                    accumulated += cells[cell] - windowStartCells[cell];
+                }
+                if (accumulated >= rank)
+                    return Math.min(bucketHighest(i), getMax(kind));
+            }
+            return getMax(kind);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (int kind = 0; kind <= KINDS.length; kind++) {
+                EventKind eventKind = kind == KINDS.length ? null : KINDS[kind];
+                long count = getCount(eventKind);
+                if (count == 0)
+                    continue;
+                builder.append(eventKind == null ? "ALL" : eventKind.name())
+                        .append(" counts: ").append(count)
+                        .append(", p50: ").append(percentile(eventKind, 50))
+                        .append(", p99: ").append(percentile(eventKind, 99))
+                        .append(", max: ").append(getMax(eventKind))
+                        .append(", avg: ").append(getMovingAverage(eventKind))
+                        .append("; ");
+            }
+            return builder.toString();
+        }
+    }
+}
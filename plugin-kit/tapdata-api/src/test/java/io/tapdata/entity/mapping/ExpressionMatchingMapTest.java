@@ -0,0 +1,125 @@
+package io.tapdata.entity.mapping;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExpressionMatchingMapTest {
+    private static final String[] EXPRESSIONS = {
+            "tinyint[($bit)][unsigned][zerofill]", "smallint[($bit)][unsigned][zerofill]", "mediumint[($bit)][unsigned][zerofill]",
+            "int[($bit)][unsigned][zerofill]", "bigint($bit)[unsigned][zerofill]", "bigint[unsigned][zerofill]",
+            "float[($bit)][unsigned][zerofill]", "double[($bit)][unsigned][zerofill]", "decimal($precision,$scale)[theUnsigned][theZerofill]",
+            "date", "time", "year", "datetime", "timestamp", "char[($byte)]", "varchar[($byte)]", "tinyblob", "tinytext", "blob", "text",
+            "mediumblob", "mediumtext", "longblob", "longtext", "bit($byte)", "binary($byte)", "varbinary($byte)",
+            "[varbinary]($byte)[ABC$hi]aaaa[DDD[AAA|BBB]]", "NUMBER[($precision,$scale)]", "NUMBER(*,$scale)", "VARCHAR2[($byte)] [BYTE|CHAR]",
+            "NVARCHAR2[($byte)]", "TIMESTAMP[($fraction)]", "TIMESTAMP[($fraction)] WITH TIME ZONE", "TIMESTAMP[($fraction)] WITH LOCAL TIME ZONE",
+            "INTERVAL YEAR[($num)] TO MONTH", "INTERVAL DAY[($num)] TO SECOND[($fraction)]", "RAW($byte)", "LONG RAW", "CLOB", "NCLOB",
+            "geometry", "point", "linestring", "enum($enums)", "set($sets)", "json"
+    };
+    private static final String[] TYPES = {
+            "tinyint", "tinyint(1)", "tinyint(4) unsigned zerofill", "TINYINT UNSIGNED", "smallint(6)", "mediumint unsigned", "int(11)",
+            "int unsigned", "bigint(20) unsigned", "bigint", "float(10)", "double unsigned", "decimal(10,2)", "decimal(65,30) theUnsigned",
+            "date", "DATETIME", "timestamp", "char(32)", "char", "varchar(255)", "VARCHAR(1)", "tinyblob", "text", "longtext", "bit(1)",
+            "binary(16)", "varbinary(200)", "varbinary(12)ABChiaaaaDDDAAA", "number", "NUMBER(10)", "NUMBER(10,2)", "NUMBER(*,0)",
+            "VARCHAR2(100 BYTE)", "varchar2(20 char)", "NVARCHAR2(10)", "TIMESTAMP(6)", "TIMESTAMP(6) WITH TIME ZONE",
+            "TIMESTAMP(3) WITH LOCAL TIME ZONE", "INTERVAL YEAR(2) TO MONTH", "INTERVAL DAY(2) TO SECOND(6)", "RAW(16)", "LONG RAW",
+            "clob", "geometry", "enum('a','b')", "set('x')", "json", "unknown", "int(", "", "in", "varcharx(10)"
+    };
+
+    @Test
+    void sameResultAsLinearMatching() {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (String expression : EXPRESSIONS) {
+            map.put(expression, "value of " + expression);
+        }
+        ExpressionMatchingMap<String> matchingMap = new ExpressionMatchingMap<>(map);
+        LinearMatching linearMatching = new LinearMatching(map);
+
+        Random random = new Random(34);
+        List<String> types = new ArrayList<>(Arrays.asList(TYPES));
+        for (int i = 0; i < 2000; i++) {
+            String type = TYPES[random.nextInt(TYPES.length)];
+            types.add(random.nextBoolean() ? type.toUpperCase() : type + (random.nextBoolean() ? "" : " unsigned"));
+        }
+        //Looked up twice, the second time from the recent lookups
+        int matched = 0;
+        for (int round = 0; round < 2; round++) {
+            for (String type : types) {
+                TypeExprResult<String> expected = linearMatching.get(type, null);
+                assertSameResult(type, expected, matchingMap.get(type));
+                if (expected != null)
+                    matched++;
+            }
+        }
+        assertTrue(matched > types.size(), "Most of the types should be matched, " + matched);
+        Set<String> ignoreExpressionSet = new HashSet<>(Arrays.asList("bigint($bit)[unsigned][zerofill]", "NUMBER[($precision,$scale)]"));
+        for (String type : types) {
+            assertSameResult(type, linearMatching.get(type, ignoreExpressionSet), matchingMap.get(type, ignoreExpressionSet));
+        }
+    }
+
+    @Test
+    void cachedResultIsCopied() {
+        Map<String, String> map = new LinkedHashMap<>();
+        map.put("varchar[($byte)]", "varchar");
+        ExpressionMatchingMap<String> matchingMap = new ExpressionMatchingMap<>(map);
+        matchingMap.get("varchar(10)").getParams().put("byte", "changed");
+        assertEquals("10", matchingMap.get("varchar(10)").getParams().get("byte"));
+    }
+
+    private void assertSameResult(String type, TypeExprResult<String> expected, TypeExprResult<String> actual) {
+        if (expected == null) {
+            assertNull(actual, type);
+            return;
+        }
+        assertNotNull(actual, type);
+        assertEquals(expected.getExpression(), actual.getExpression(), type);
+        assertEquals(expected.getValue(), actual.getValue(), type);
+        assertEquals(expected.getParams(), actual.getParams(), type);
+    }
+
+    /**
+     * The lookup before prefix trie, test startsWith for every prefix and verify the expressions one by one.
+     */
+    private static class LinearMatching {
+        private final Map<String, String> exactlyMatchMap = new LinkedHashMap<>();
+        private final Map<String, List<TypeExpr<String>>> prefixTypeExprListMap = new LinkedHashMap<>();
+
+        LinearMatching(Map<String, String> map) {
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                TypeExpr<String> typeExpr = new TypeExpr<>();
+                if (!typeExpr.parseExpression(entry.getKey()))
+                    continue;
+                typeExpr.setValue(entry.getValue());
+                if (typeExpr.getPrefixMatchType() == TypeExpr.PREFIX_MATCH_ALL)
+                    exactlyMatchMap.put(entry.getKey().toLowerCase(), entry.getValue());
+                else if (typeExpr.getPrefixMatchType() == TypeExpr.PREFIX_MATCH_START && typeExpr.getPrefix() != null)
+                    prefixTypeExprListMap.computeIfAbsent(typeExpr.getPrefix(), k -> new ArrayList<>()).add(typeExpr);
+            }
+        }
+
+        TypeExprResult<String> get(String key, Set<String> ignoreExpressionSet) {
+            String value = exactlyMatchMap.get(key.toLowerCase());
+            if (value != null) {
+                TypeExprResult<String> result = new TypeExprResult<>();
+                result.setExpression(key);
+                result.setValue(value);
+                return result;
+            }
+            for (Map.Entry<String, List<TypeExpr<String>>> entry : prefixTypeExprListMap.entrySet()) {
+                if (!key.toLowerCase().startsWith(entry.getKey()))
+                    continue;
+                for (TypeExpr<String> typeExpr : entry.getValue()) {
+                    if (ignoreExpressionSet != null && ignoreExpressionSet.contains(typeExpr.getExpression()))
+                        continue;
+                    TypeExprResult<String> result = typeExpr.verifyValue(key);
+                    if (result != null)
+                        return result;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package io.tapdata.entity.schema;
+
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.schema.type.TapDateTime;
+import io.tapdata.entity.schema.type.TapNumber;
+import io.tapdata.entity.schema.type.TapString;
+import io.tapdata.entity.schema.type.TapType;
+import io.tapdata.entity.utils.DataMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TapSchemaMemoryTest {
+    private static final int TABLES = 50000;
+    private static final int FIELDS = 12;
+    private static final String[] DATA_TYPES = {"int", "bigint", "decimal(10,2)", "datetime", "varchar(32)", "varchar(255)"};
+
+    /**
+     * Every field has its own strings and TapType like the ones discovered from a database.
+     */
+    private List<TapTable> catalog() {
+        List<TapTable> tables = new ArrayList<>(TABLES);
+        for (int t = 0; t < TABLES; t++) {
+            TapTable table = new TapTable("table_" + t);
+            for (int f = 0; f < FIELDS; f++) {
+                int type = (t + f) % DATA_TYPES.length;
+                table.add(new TapField(new String("column_" + f), new String(DATA_TYPES[type])).tapType(tapType(type)).comment(new String("comment of column " + f)).primaryKeyPos(f == 0 ? 1 : null));
+            }
+            tables.add(table);
+        }
+        return tables;
+    }
+
+    private TapType tapType(int type) {
+        switch (type) {
+            case 0:
+                return new TapNumber().bit(32);
+            case 1:
+                return new TapNumber().bit(64);
+            case 2:
+                return new TapNumber().precision(10).scale(2);
+            case 3:
+                return new TapDateTime().fraction(0);
+            case 4:
+                return new TapString().bytes(32L);
+            default:
+                return new TapString().bytes(255L);
+        }
+    }
+
+    @Test
+    void compactCatalog() {
+        List<TapTable> tables = catalog();
+        long estimated = TapSchemaMemory.estimateMemorySize(tables);
+        assertEquals(TABLES * FIELDS, distinctTapTypes(tables));
+        assertEquals(TABLES * FIELDS * 3, distinctStrings(tables));
+
+        for (TapTable table : tables) {
+            TapSchemaMemory.compact(table);
+        }
+        long compactEstimated = TapSchemaMemory.estimateMemorySize(tables);
+
+        //The names, data types and comments of the columns are shared by all tables, one TapType instance per data type
+        assertEquals(DATA_TYPES.length, distinctTapTypes(tables));
+        assertEquals(FIELDS + DATA_TYPES.length + FIELDS, distinctStrings(tables));
+        assertTrue(compactEstimated < estimated * 0.6, "estimated " + estimated + " compact estimated " + compactEstimated);
+        assertTrue(TapSchemaMemory.getCanonicalTapTypeCount() >= DATA_TYPES.length);
+
+        TapTable table = tables.get(TABLES - 1);
+        assertTrue(table.getNameFieldMap() instanceof CompactFieldMap);
+        assertEquals(FIELDS, table.getNameFieldMap().size());
+        assertSame(table.getNameFieldMap().get("column_1").getTapType(), tables.get(0).getNameFieldMap().get("column_" + (1 + (TABLES - 1) % DATA_TYPES.length) % FIELDS).getTapType());
+        assertEquals(Collections.singletonList("column_0"), new ArrayList<>(table.primaryKeys()));
+
+        DataMap summary = new TapTableMemoryFetcher(() -> tables).memory(null, MemoryFetcher.MEMORY_LEVEL_SUMMARY);
+        assertEquals(TABLES, summary.get("tables"));
+        assertEquals(TABLES, summary.get("compactTables"));
+        assertEquals(compactEstimated, summary.get("estimatedMemorySize"));
+        DataMap detail = new TapTableMemoryFetcher(() -> tables.subList(0, 10)).memory("table_1|tableMap", MemoryFetcher.MEMORY_LEVEL_IN_DETAIL);
+        assertEquals(Collections.singleton("table_1"), ((DataMap) detail.get("tableMap")).keySet());
+    }
+
+    @Test
+    void compactFieldMapSameAsLinkedHashMap() throws Exception {
+        Random random = new Random(36);
+        LinkedHashMap<String, TapField> expected = new LinkedHashMap<>();
+        CompactFieldMap actual = new CompactFieldMap();
+        for (int i = 0; i < 20000; i++) {
+            String name = "f" + random.nextInt(40);
+            TapField field = new TapField(name, "int");
+            switch (random.nextInt(6)) {
+                case 0:
+                case 1:
+                    assertSame(expected.put(name, field), actual.put(name, field));
+                    break;
+                case 2:
+                    assertSame(expected.remove(name), actual.remove(name));
+                    break;
+                case 3:
+                    assertSame(expected.putIfAbsent(name, field), actual.putIfAbsent(name, field));
+                    break;
+                case 4:
+                    Iterator<String> iterator = actual.keySet().iterator();
+                    if (iterator.hasNext()) {
+                        String first = iterator.next();
+                        iterator.remove();
+                        expected.remove(first);
+                    }
+                    break;
+                default:
+                    assertSame(expected.computeIfAbsent(name, k -> field), actual.computeIfAbsent(name, k -> field));
+            }
+            assertSame(expected.get(name), actual.get(name));
+            assertEquals(expected.containsKey(name), actual.containsKey(name));
+            assertEquals(expected.size(), actual.size());
+        }
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+        assertEquals(new ArrayList<>(expected.values()), new ArrayList<>(actual.values()));
+        assertEquals(expected, actual);
+        assertEquals(actual, expected);
+        assertEquals(expected.hashCode(), actual.hashCode());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream)) {
+            objectOutputStream.writeObject(actual);
+        }
+        try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+            Object read = objectInputStream.readObject();
+            assertEquals(LinkedHashMap.class, read.getClass());
+            assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(((Map<?, ?>) read).keySet()));
+        }
+    }
+
+    private int distinctTapTypes(List<TapTable> tables) {
+        Set<TapType> tapTypes = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (TapTable table : tables) {
+            for (TapField field : table.getNameFieldMap().values()) {
+                tapTypes.add(field.getTapType());
+            }
+        }
+        return tapTypes.size();
+    }
+
+    private int distinctStrings(List<TapTable> tables) {
+        Set<String> strings = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (TapTable table : tables) {
+            for (TapField field : table.getNameFieldMap().values()) {
+                strings.add(field.getName());
+                strings.add(field.getDataType());
+                strings.add(field.getComment());
+            }
+        }
+        return strings.size();
+    }
+}
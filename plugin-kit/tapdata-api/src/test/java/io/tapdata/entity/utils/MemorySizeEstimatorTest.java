@@ -0,0 +1,192 @@
+package io.tapdata.entity.utils;
+
+import io.tapdata.entity.event.dml.TapDeleteRecordEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.event.dml.TapRecordEvent;
+import io.tapdata.entity.event.dml.TapUpdateRecordEvent;
+import io.tapdata.entity.schema.value.DateTime;
+import io.tapdata.entity.schema.value.TapStringValue;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemorySizeEstimatorTest {
+    private static final int EVENTS = 20000;
+    private static final int MEASUREMENTS = 3;
+
+    /**
+     * Measure the retained heap of the events like JOL does for a graph, by the used heap before and after they are created.
+     * The median of a few measurements is taken, the estimate must be within 15% of it.
+     */
+    private void assertAccurate(String name, IntFunction<TapRecordEvent> eventCreator) {
+        long[] measured = new long[MEASUREMENTS];
+        long estimated = 0;
+        for (int m = 0; m < MEASUREMENTS; m++) {
+            Object[] holder = new Object[EVENTS];
+            long baseHeap = usedHeap();
+            for (int i = 0; i < EVENTS; i++) {
+                holder[i] = eventCreator.apply(i);
+            }
+            measured[m] = usedHeap() - baseHeap;
+            estimated = 0;
+            for (Object event : holder) {
+                estimated += ((TapRecordEvent) event).estimateMemorySize();
+            }
+        }
+        Arrays.sort(measured);
+        double ratio = (double) estimated / measured[MEASUREMENTS / 2];
+        assertTrue(ratio > 0.85 && ratio < 1.15, name + " measured " + Arrays.toString(measured) + " estimated " + estimated);
+    }
+
+    private long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private static Map<String, Object> narrowRow(int i) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", (long) i + 100000);
+        row.put("name", "name " + i);
+        row.put("age", i % 100);
+        row.put("score", new BigDecimal("12345.67").add(BigDecimal.valueOf(i)));
+        row.put("created", new Date(1700000000000L + i));
+        row.put("active", i % 2 == 0);
+        return row;
+    }
+
+    private static final String[] COLUMNS = new String[40];
+
+    static {
+        for (int c = 0; c < COLUMNS.length; c++) {
+            COLUMNS[c] = "column_" + c;
+        }
+    }
+
+    /**
+     * Keys of nested documents are decoded for each record
+     */
+    private static Map<String, Object> document(int i) {
+        Map<String, Object> document = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : narrowRow(i).entrySet()) {
+            document.put(new String(entry.getKey().toCharArray()), entry.getValue());
+        }
+        return document;
+    }
+
+    private static Map<String, Object> wideRow(int i) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", (long) i + 100000);
+        for (int c = 0; c < COLUMNS.length; c++) {
+            row.put(COLUMNS[c], "value " + c + " of row " + i + " 中文内容");
+        }
+        byte[] bytes = new byte[2048 + i % 100];
+        bytes[0] = (byte) i;
+        row.put("blob", bytes);
+        row.put("doc", document(i));
+        row.put("tags", new ArrayList<>(Arrays.asList("tag " + i, "tag " + (i + 1), "tag " + (i + 2))));
+        row.put("updated", LocalDateTime.of(2024, 1, 1, 0, 0).plusSeconds(i));
+        row.put("time", new DateTime(1700000000123L + i, 3));
+        row.put("value", new TapStringValue("tap value " + i).originValue(("origin " + i).getBytes()));
+        return row;
+    }
+
+    /**
+     * The record map with its table of 16 slots, the entries and the values not cached by valueOf, the column names are shared.
+     */
+    @Test
+    void narrowInsertLayout() {
+        TapInsertRecordEvent event = new TapInsertRecordEvent().init().table("t").after(narrowRow(1));
+        long record = MemorySizeEstimator.shallowSize(LinkedHashMap.class) + 6L * MemorySizeEstimator.LINKED_HASH_MAP_ENTRY + MemorySizeEstimator.align(MemorySizeEstimator.ARRAY_HEADER + 16L * MemorySizeEstimator.REFERENCE) +
+                MemorySizeEstimator.shallowSize(Long.class) + MemorySizeEstimator.sizeOf("name 1") + MemorySizeEstimator.shallowSize(BigDecimal.class) + MemorySizeEstimator.shallowSize(Date.class);
+        assertEquals(record, MemorySizeEstimator.sizeOfRecord(event.getAfter()));
+
+        assertNull(event.getMemorySize());
+        long expected = MemorySizeEstimator.shallowSize(TapInsertRecordEvent.class) + MemorySizeEstimator.shallowSize(Long.class) + record;
+        assertEquals(expected, event.estimateMemorySize());
+        assertEquals(expected, (long) event.getMemorySize());
+    }
+
+    @Test
+    void wideUpdatesAndDeletes() {
+        Map<String, Object> row = wideRow(1);
+        long record = MemorySizeEstimator.sizeOfRecord(row);
+        //Keys of the nested document are counted, the column names are not
+        long document = MemorySizeEstimator.sizeOf(row.get("doc"));
+        assertEquals(MemorySizeEstimator.sizeOfRecord(narrowRow(1)) + MemorySizeEstimator.sizeOf("id") + MemorySizeEstimator.sizeOf("name") + MemorySizeEstimator.sizeOf("age") +
+                MemorySizeEstimator.sizeOf("score") + MemorySizeEstimator.sizeOf("created") + MemorySizeEstimator.sizeOf("active"), document);
+        assertTrue(record > MemorySizeEstimator.sizeOf(row.get("blob")) + document);
+
+        TapUpdateRecordEvent updateRecordEvent = new TapUpdateRecordEvent().init().table("t").before(wideRow(1)).after(wideRow(1));
+        assertEquals(MemorySizeEstimator.shallowSize(TapUpdateRecordEvent.class) + MemorySizeEstimator.shallowSize(Long.class) + 2 * record, updateRecordEvent.estimateMemorySize());
+        TapDeleteRecordEvent deleteRecordEvent = new TapDeleteRecordEvent().init().table("t").before(wideRow(1));
+        assertEquals(MemorySizeEstimator.shallowSize(TapDeleteRecordEvent.class) + MemorySizeEstimator.shallowSize(Long.class) + record, deleteRecordEvent.estimateMemorySize());
+    }
+
+    @Test
+    void accurateToHeap() {
+        assertAccurate("narrow inserts", i -> new TapInsertRecordEvent().init().table("t").after(narrowRow(i)));
+        assertAccurate("wide updates", i -> new TapUpdateRecordEvent().init().table("t").before(wideRow(i)).after(wideRow(i)));
+        assertAccurate("wide deletes", i -> new TapDeleteRecordEvent().init().table("t").before(wideRow(i)));
+    }
+
+    @Test
+    void valueSizes() {
+        assertEquals(0, MemorySizeEstimator.sizeOf(null));
+        assertEquals(0, MemorySizeEstimator.sizeOf(Boolean.TRUE));
+        assertEquals(0, MemorySizeEstimator.sizeOf(100));
+        assertEquals(MemorySizeEstimator.shallowSize(Integer.class), MemorySizeEstimator.sizeOf(100000));
+        assertEquals(MemorySizeEstimator.shallowSize(Long.class), MemorySizeEstimator.sizeOf(100000L));
+        assertTrue(MemorySizeEstimator.sizeOf("中文中文中文中文") > MemorySizeEstimator.sizeOf("abcdefgh"));
+        assertEquals(MemorySizeEstimator.align(MemorySizeEstimator.ARRAY_HEADER + 100), MemorySizeEstimator.sizeOf(new byte[100]));
+        assertEquals(MemorySizeEstimator.align(MemorySizeEstimator.ARRAY_HEADER + 800), MemorySizeEstimator.sizeOf(new long[100]));
+        assertTrue(MemorySizeEstimator.sizeOf(new BigDecimal("123456789012345678901234567890.12")) > MemorySizeEstimator.sizeOf(new BigDecimal("1.5")));
+
+        //Nested too deep is counted by shallow size, no stack overflow
+        Map<String, Object> map = new HashMap<>();
+        Map<String, Object> current = map;
+        for (int i = 0; i < 10000; i++) {
+            Map<String, Object> child = new HashMap<>();
+            current.put("child", child);
+            current = child;
+        }
+        assertTrue(MemorySizeEstimator.sizeOf(map) > 0);
+    }
+
+    @Test
+    void updatedOnMutation() {
+        TapUpdateRecordEvent updateRecordEvent = new TapUpdateRecordEvent().init().table("t").before(narrowRow(1)).after(narrowRow(1));
+        long size = updateRecordEvent.estimateMemorySize();
+        updateRecordEvent.putAfterValue("name", "a much longer name than before " + 1);
+        updateRecordEvent.putAfterValue("newColumn", "new value " + 1);
+        updateRecordEvent.removeAfterValue("created");
+        long updated = updateRecordEvent.getMemorySize();
+        assertTrue(updated > size);
+        updateRecordEvent.resetMemorySize();
+        assertNull(updateRecordEvent.getMemorySize());
+        assertEquals(updateRecordEvent.estimateMemorySize(), updated);
+
+        //Compact update keeps delta only
+        updateRecordEvent.compact(Collections.singletonList("id"));
+        long compact = updateRecordEvent.estimateMemorySize();
+        assertTrue(compact < updated);
+        updateRecordEvent.putAfterValue("age", 100000);
+        assertEquals(compact + MemorySizeEstimator.LINKED_HASH_MAP_ENTRY + MemorySizeEstimator.shallowSize(Integer.class), (long) updateRecordEvent.getMemorySize());
+
+        TapInsertRecordEvent insertRecordEvent = new TapInsertRecordEvent().init().after(narrowRow(1));
+        long insertSize = insertRecordEvent.estimateMemorySize();
+        insertRecordEvent.setAfter(wideRow(1));
+        assertTrue(insertRecordEvent.estimateMemorySize() > insertSize * 10);
+        insertRecordEvent.setMemorySize(1L);
+        assertEquals(1L, insertRecordEvent.estimateMemorySize());
+    }
+}
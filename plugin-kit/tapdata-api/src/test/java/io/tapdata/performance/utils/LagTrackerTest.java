@@ -0,0 +1,182 @@
+package io.tapdata.performance.utils;
+
+import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.event.ddl.table.TapCreateTableEvent;
+import io.tapdata.entity.event.dml.TapDeleteRecordEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.event.dml.TapUpdateRecordEvent;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LagTrackerTest {
+    private static final int THREADS = 4;
+    private static final int RECORDS = 500000;
+
+    @Test
+    void bucketBounds() {
+        for (long value : new long[]{0, 1, 7, 8, 9, 15, 16, 17, 100, 1000, 65535, 65536, 123456789L, 1L << 40}) {
+            int index = LagTracker.bucketIndex(value);
+            assertTrue(LagTracker.bucketLowest(index) <= value && value <= LagTracker.bucketHighest(index), "value " + value);
+            assertTrue(LagTracker.bucketHighest(index) - LagTracker.bucketLowest(index) <= value / 8, "value " + value);
+        }
+        assertEquals(LagTracker.BUCKETS - 1, LagTracker.bucketIndex(Long.MAX_VALUE));
+        for (int i = 0; i < LagTracker.BUCKETS - 1; i++) {
+            assertEquals(LagTracker.bucketHighest(i) + 1, LagTracker.bucketLowest(i + 1));
+        }
+    }
+
+    @Test
+    void percentilesFromThreads() throws Exception {
+        LagTracker lagTracker = new LagTracker();
+        long[][] lags = new long[THREADS][RECORDS];
+        Thread[] threads = new Thread[THREADS];
+        CountDownLatch latch = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            Random random = new Random(t);
+            for (int i = 0; i < RECORDS; i++) {
+                //Mostly small lags with a long tail
+                lags[t][i] = random.nextInt(100) < 95 ? random.nextInt(200) : 1000 + random.nextInt(30000);
+            }
+            final long[] threadLags = lags[t];
+            threads[t] = new Thread(() -> {
+                for (long lag : threadLags) {
+                    lagTracker.record(LagTracker.EventKind.INSERT, lag);
+                }
+                latch.countDown();
+            });
+            threads[t].start();
+        }
+        latch.await();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long[] all = new long[THREADS * RECORDS];
+        for (int t = 0; t < THREADS; t++) {
+            System.arraycopy(lags[t], 0, all, t * RECORDS, RECORDS);
+        }
+        Arrays.sort(all);
+        LagTracker.Snapshot snapshot = lagTracker.snapshot();
+        assertEquals(all.length, snapshot.getCount(LagTracker.EventKind.INSERT));
+        assertEquals(all.length, snapshot.getCount(null));
+        assertEquals(0, snapshot.getCount(LagTracker.EventKind.UPDATE));
+        assertNull(snapshot.percentile(LagTracker.EventKind.UPDATE, 99));
+        assertEquals(all[all.length - 1], snapshot.getMax(LagTracker.EventKind.INSERT));
+        for (double percent : new double[]{50, 90, 95, 99, 99.9}) {
+            long expected = all[(int) Math.ceil(percent / 100 * all.length) - 1];
+            long actual = snapshot.percentile(LagTracker.EventKind.INSERT, percent);
+            assertTrue(actual >= expected && actual <= expected + expected / 8 + 1, "p" + percent + " expected " + expected + " actual " + actual);
+        }
+        assertTrue(snapshot.toString().startsWith("INSERT counts: " + all.length), snapshot.toString());
+    }
+
+    @Test
+    void endedThreadsAreRetired() throws Exception {
+        LagTracker lagTracker = new LagTracker();
+        for (int round = 0; round < 3; round++) {
+            concurrently(() -> lagTracker.record(LagTracker.EventKind.UPDATE, 20));
+            LagTracker.Snapshot snapshot = lagTracker.snapshot();
+            assertEquals(0, lagTracker.recorderCount());
+            assertEquals((round + 1L) * THREADS * RECORDS, snapshot.getCount(LagTracker.EventKind.UPDATE));
+            assertEquals(20L, snapshot.getMax(LagTracker.EventKind.UPDATE));
+        }
+        lagTracker.record(LagTracker.EventKind.UPDATE, 30);
+        LagTracker.Snapshot snapshot = lagTracker.snapshot();
+        assertEquals(1, lagTracker.recorderCount());
+        assertEquals(3L * THREADS * RECORDS + 1, snapshot.getCount(LagTracker.EventKind.UPDATE));
+        assertEquals(30L, snapshot.getMax(LagTracker.EventKind.UPDATE));
+    }
+
+    @Test
+    void splitByEventKindAndDecay() {
+        LagTracker lagTracker = new LagTracker().withWindowMillis(1000).withDecayMillis(1000);
+        long now = System.currentTimeMillis();
+        List<TapEvent> events = new ArrayList<>();
+        events.add(new TapInsertRecordEvent().referenceTime(now - 100));
+        events.add(new TapUpdateRecordEvent().referenceTime(now - 200));
+        events.add(new TapDeleteRecordEvent().referenceTime(now - 300));
+        TapCreateTableEvent createTableEvent = new TapCreateTableEvent();
+        createTableEvent.setReferenceTime(now - 400);
+        events.add(createTableEvent);
+        events.add(new TapInsertRecordEvent());
+        for (TapEvent event : events) {
+            lagTracker.record(event, now);
+        }
+        LagTracker.Snapshot snapshot = lagTracker.snapshot(now);
+        assertEquals(1, snapshot.getCount(LagTracker.EventKind.INSERT));
+        assertEquals(100L, snapshot.getMax(LagTracker.EventKind.INSERT));
+        assertEquals(200L, snapshot.getMax(LagTracker.EventKind.UPDATE));
+        assertEquals(300L, snapshot.getMax(LagTracker.EventKind.DELETE));
+        assertEquals(400L, snapshot.getMax(LagTracker.EventKind.DDL));
+        assertEquals(4, snapshot.getCount(null));
+        assertEquals(250.0, snapshot.getMovingAverage(null), 0.001);
+
+        //Lag drops to 10ms, the moving average follows by the time elapsed
+        for (int i = 0; i < 100; i++) {
+            lagTracker.record(LagTracker.EventKind.INSERT, 10);
+        }
+        double afterShortTime = lagTracker.snapshot(now + 10).getMovingAverage(LagTracker.EventKind.INSERT);
+        for (int i = 0; i < 100; i++) {
+            lagTracker.record(LagTracker.EventKind.INSERT, 10);
+        }
+        double afterLongTime = lagTracker.snapshot(now + 5000).getMovingAverage(LagTracker.EventKind.INSERT);
+        assertTrue(afterShortTime > 90 && afterShortTime < 100, "moving average " + afterShortTime);
+        assertTrue(afterLongTime < 11, "moving average " + afterLongTime);
+
+        //Percentiles are in the last one to two windows, the 100ms lag is out
+        lagTracker.snapshot(now + 7000);
+        for (int i = 0; i < 5; i++) {
+            lagTracker.record(LagTracker.EventKind.INSERT, 10);
+        }
+        LagTracker.Snapshot windowSnapshot = lagTracker.snapshot(now + 7500);
+        assertEquals(5, windowSnapshot.getWindowCount(LagTracker.EventKind.INSERT));
+        assertEquals(10L, windowSnapshot.percentile(LagTracker.EventKind.INSERT, 100));
+        assertEquals(100L, windowSnapshot.getMax(LagTracker.EventKind.INSERT));
+    }
+
+    @Test
+    void noLockNoAllocation() throws Exception {
+        LagTracker lagTracker = new LagTracker();
+        long now = System.currentTimeMillis();
+        TapInsertRecordEvent event = new TapInsertRecordEvent().referenceTime(now - 50);
+
+        concurrently(() -> lagTracker.record(event));
+        assertEquals((long) THREADS * RECORDS, lagTracker.snapshot().getCount(LagTracker.EventKind.INSERT));
+
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            long threadId = Thread.currentThread().getId();
+            lagTracker.record(event);
+            long allocated = allocationBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < RECORDS; i++) {
+                lagTracker.record(event);
+            }
+            allocated = allocationBean.getThreadAllocatedBytes(threadId) - allocated;
+            assertTrue(allocated < 64 * 1024, "allocated " + allocated + " bytes for " + RECORDS + " events");
+        }
+    }
+
+    private void concurrently(Runnable runnable) throws InterruptedException {
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < RECORDS; i++) {
+                    runnable.run();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
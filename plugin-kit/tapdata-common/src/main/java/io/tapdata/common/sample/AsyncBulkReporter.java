@@ -0,0 +1,302 @@
+package io.tapdata.common.sample;
+
+import io.tapdata.common.executor.ExecutorsManager;
+import io.tapdata.common.sample.request.BulkRequest;
+import io.tapdata.common.sample.request.SampleRequest;
+import io.tapdata.common.sample.request.Statistic;
+import io.tapdata.common.sample.request.StatisticRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Stage the reported points and deliver them to the real reporters on a dedicated flush thread.
+ * 上报线程只负责暂存， 慢的上报后端不会阻塞采样线程
+ *
+ * The staging buffer is lock free and bounded by capacity, the oldest points are dropped and counted when the backend lags.
+ * A flush is triggered every flushIntervalMillis or when flushSize points are staged.
+ * Statistics of the same collector(CRC of the tags) in one flush are coalesced, the latest values win and the incFields are summed.
+ * Info points of the same collector are merged, the latest value of each info key wins, samples are time series and are kept in order.
+ */
+public class AsyncBulkReporter implements BulkReporter, InfoReporter {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncBulkReporter.class.getSimpleName());
+
+    private final BulkReporter bulkReporter;
+    private final InfoReporter infoReporter;
+    /**
+     * Generate the collector key from tags, same as {@link CollectorFactory#generateMapKey(Map)}
+     */
+    private final Function<Map<String, String>, String> keyGenerator;
+
+    private String name = AsyncBulkReporter.class.getSimpleName();
+    private int capacity = 10000;
+    private int flushSize = 500;
+    private long flushIntervalMillis = 1000;
+
+    private final Queue<StagedPoint> stagingQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger stagingSize = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private ScheduledExecutorService flushExecutorService;
+    private volatile boolean stopped = false;
+
+    private final LongAdder stagedCounter = new LongAdder();
+    private final LongAdder droppedCounter = new LongAdder();
+    private final LongAdder coalescedCounter = new LongAdder();
+    private final LongAdder flushCounter = new LongAdder();
+    private final LongAdder flushFailedCounter = new LongAdder();
+    private volatile long lastFlushTakes;
+
+    public AsyncBulkReporter(BulkReporter bulkReporter, InfoReporter infoReporter, Function<Map<String, String>, String> keyGenerator) {
+        if(bulkReporter == null || keyGenerator == null)
+            throw new IllegalArgumentException("BulkReporter and keyGenerator should be provided for async reporting");
+        this.bulkReporter = bulkReporter;
+        this.infoReporter = infoReporter;
+        this.keyGenerator = keyGenerator;
+    }
+
+    public AsyncBulkReporter withName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public AsyncBulkReporter withCapacity(int capacity) {
+        this.capacity = capacity;
+        return this;
+    }
+
+    public AsyncBulkReporter withFlushSize(int flushSize) {
+        this.flushSize = flushSize;
+        return this;
+    }
+
+    public AsyncBulkReporter withFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+        return this;
+    }
+
+    public synchronized AsyncBulkReporter start() {
+        if(capacity <= 0 || flushSize <= 0 || flushIntervalMillis <= 0)
+            throw new IllegalArgumentException("AsyncBulkReporter start failed, illegal parameters capacity " + capacity + ", flushSize " + flushSize + ", flushIntervalMillis " + flushIntervalMillis);
+        if(flushExecutorService == null) {
+            stopped = false;
+            flushExecutorService = ExecutorsManager.getInstance().newSingleThreadScheduledExecutor(name);
+            flushExecutorService.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * Flush the staged points and stop the flush thread.
+     */
+    public synchronized void stop() {
+        if(flushExecutorService != null) {
+            flushExecutorService.execute(this::flush);
+            stopped = true;
+            flushExecutorService.shutdown();
+            flushExecutorService = null;
+        }
+    }
+
+    @Override
+    public void execute(BulkRequest bulkRequest) {
+        if(bulkRequest == null)
+            return;
+        for(StatisticRequest statisticRequest : bulkRequest.getStatistics()) {
+            stage(new StagedPoint(null, statisticRequest, null, statisticRequest.getTags()));
+        }
+        for(SampleRequest sampleRequest : bulkRequest.getSamples()) {
+            stage(new StagedPoint(sampleRequest, null, null, sampleRequest.getTags()));
+        }
+    }
+
+    @Override
+    public void execute(Map<String, Object> pointValues, Map<String, String> tags) {
+        if(infoReporter == null)
+            throw new IllegalStateException("InfoReporter is not provided for async reporting");
+        stage(new StagedPoint(null, null, pointValues, tags));
+    }
+
+    private void stage(StagedPoint point) {
+        stagingQueue.offer(point);
+        stagedCounter.increment();
+        int size = stagingSize.incrementAndGet();
+        while(size > capacity) {
+            if(stagingQueue.poll() != null) {
+                droppedCounter.increment();
+                size = stagingSize.decrementAndGet();
+            } else {
+                size = stagingSize.get();
+            }
+        }
+        if(size >= flushSize && flushScheduled.compareAndSet(false, true)) {
+            ScheduledExecutorService executorService = flushExecutorService;
+            if(executorService != null && !stopped) {
+                try {
+                    executorService.execute(this::flush);
+                } catch(Throwable throwable) {
+                    flushScheduled.set(false);
+                }
+            } else {
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    void flush() {
+        flushScheduled.set(false);
+        int drained;
+        do {
+            BulkRequest bulkRequest = new BulkRequest();
+            Map<String, StatisticRequest> keyStatisticMap = new LinkedHashMap<>();
+            Map<String, StagedPoint> keyInfoMap = new LinkedHashMap<>();
+            drained = 0;
+            StagedPoint point;
+            while(drained < flushSize && (point = stagingQueue.poll()) != null) {
+                stagingSize.decrementAndGet();
+                drained++;
+                if(point.sampleRequest != null) {
+                    bulkRequest.addSampleRequest(point.sampleRequest);
+                } else if(point.statisticRequest != null) {
+                    String key = keyGenerator.apply(point.tags);
+                    StatisticRequest existing = keyStatisticMap.get(key);
+                    if(existing != null) {
+                        coalescedCounter.increment();
+                        keyStatisticMap.put(key, coalesce(existing, point.statisticRequest));
+                    } else {
+                        keyStatisticMap.put(key, point.statisticRequest);
+                    }
+                } else if(point.info != null) {
+                    String key = keyGenerator.apply(point.tags);
+                    StagedPoint existing = keyInfoMap.get(key);
+                    if(existing != null) {
+                        coalescedCounter.increment();
+                        Map<String, Object> info = new LinkedHashMap<>(existing.info);
+                        info.putAll(point.info);
+                        keyInfoMap.put(key, new StagedPoint(null, null, info, point.tags));
+                    } else {
+                        keyInfoMap.put(key, point);
+                    }
+                }
+            }
+            if(drained == 0)
+                return;
+            bulkRequest.getStatistics().addAll(keyStatisticMap.values());
+
+            long time = System.currentTimeMillis();
+            for(StagedPoint infoPoint : keyInfoMap.values()) {
+                try {
+                    infoReporter.execute(infoPoint.info, infoPoint.tags);
+                } catch(Throwable throwable) {
+                    flushFailedCounter.increment();
+                    logger.error("Report info failed, " + throwable.getMessage());
+                }
+            }
+            if(!bulkRequest.getSamples().isEmpty() || !bulkRequest.getStatistics().isEmpty()) {
+                try {
+                    bulkReporter.execute(bulkRequest);
+                } catch(Throwable throwable) {
+                    flushFailedCounter.increment();
+                    logger.error("Report bulkSampleRequest failed, " + throwable.getMessage());
+                }
+            }
+            flushCounter.increment();
+            lastFlushTakes = System.currentTimeMillis() - time;
+        } while(drained >= flushSize);
+    }
+
+    /**
+     * The newer statistic overwrites the values, except incFields which are increments of each period and are summed.
+     */
+    static StatisticRequest coalesce(StatisticRequest older, StatisticRequest newer) {
+        Statistic olderStatistic = older.getStatistic();
+        Statistic newerStatistic = newer.getStatistic();
+        if(olderStatistic == null || olderStatistic.getValues() == null)
+            return newer;
+        if(newerStatistic == null || newerStatistic.getValues() == null)
+            return older;
+
+        Set<String> incFields = new LinkedHashSet<>();
+        if(olderStatistic.getIncFields() != null)
+            incFields.addAll(olderStatistic.getIncFields());
+        if(newerStatistic.getIncFields() != null)
+            incFields.addAll(newerStatistic.getIncFields());
+
+        Map<String, Number> values = new HashMap<>(olderStatistic.getValues());
+        for(Map.Entry<String, Number> entry : newerStatistic.getValues().entrySet()) {
+            Number value = entry.getValue();
+            if(value == null)
+                continue;
+            Number olderValue = values.get(entry.getKey());
+            if(olderValue != null && incFields.contains(entry.getKey())) {
+                values.put(entry.getKey(), sum(olderValue, value));
+            } else {
+                values.put(entry.getKey(), value);
+            }
+        }
+
+        Statistic statistic = new Statistic();
+        statistic.setDate(newerStatistic.getDate());
+        statistic.setValues(values);
+        statistic.setIncFields(new ArrayList<>(incFields));
+        StatisticRequest statisticRequest = new StatisticRequest();
+        statisticRequest.setTags(newer.getTags());
+        statisticRequest.setStatistic(statistic);
+        return statisticRequest;
+    }
+
+    private static Number sum(Number a, Number b) {
+        if(a instanceof Double || a instanceof Float || b instanceof Double || b instanceof Float)
+            return a.doubleValue() + b.doubleValue();
+        return a.longValue() + b.longValue();
+    }
+
+    public int getStagingSize() {
+        return stagingSize.get();
+    }
+
+    public long getStagedCount() {
+        return stagedCounter.longValue();
+    }
+
+    public long getDroppedCount() {
+        return droppedCounter.longValue();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCounter.longValue();
+    }
+
+    public long getFlushCount() {
+        return flushCounter.longValue();
+    }
+
+    public long getFlushFailedCount() {
+        return flushFailedCounter.longValue();
+    }
+
+    public long getLastFlushTakes() {
+        return lastFlushTakes;
+    }
+
+    private static class StagedPoint {
+        private final SampleRequest sampleRequest;
+        private final StatisticRequest statisticRequest;
+        private final Map<String, Object> info;
+        private final Map<String, String> tags;
+
+        StagedPoint(SampleRequest sampleRequest, StatisticRequest statisticRequest, Map<String, Object> info, Map<String, String> tags) {
+            this.sampleRequest = sampleRequest;
+            this.statisticRequest = statisticRequest;
+            this.info = info;
+            this.tags = tags;
+        }
+    }
+}
@@ -13,6 +13,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
@@ -64,92 +65,64 @@ public class CollectorFactory {
 
     private final ScheduledExecutorService scheduledExecutorService;
     private final AtomicBoolean isStarted = new AtomicBoolean(false);
+    private ScheduledFuture<?> reportFuture;
+
+    /**
+     * async reporting, the reporters are called on the flush thread of AsyncBulkReporter instead of the scheduling thread
+     */
+    private boolean asyncReport = false;
+    private int asyncReportCapacity = 10000;
+    private int asyncReportFlushSize = 500;
+    private long asyncReportFlushIntervalMillis = 1000;
+    private AsyncBulkReporter asyncBulkReporter;
 
     public CollectorFactory() {
         scheduledExecutorService = ExecutorsManager.getInstance().newSingleThreadScheduledExecutor(CollectorFactory.class.getSimpleName());
     }
 
+    /**
+     * Should be called before start, a slow reporter backend will not delay the sampling of other collectors.
+     *
+     * @param capacity max staged points, the oldest points are dropped when exceeded
+     * @param flushSize flush when staged points reach flushSize
+     * @param flushIntervalMillis flush interval
+     */
+    public CollectorFactory withAsyncReport(int capacity, int flushSize, long flushIntervalMillis) {
+        this.asyncReport = true;
+        this.asyncReportCapacity = capacity;
+        this.asyncReportFlushSize = flushSize;
+        this.asyncReportFlushIntervalMillis = flushIntervalMillis;
+        return this;
+    }
+
+    public AsyncBulkReporter getAsyncBulkReporter() {
+        return asyncBulkReporter;
+    }
+
+    private AsyncBulkReporter startAsyncBulkReporter(BulkReporter bulkReporter, InfoReporter infoReporter) {
+        asyncBulkReporter = new AsyncBulkReporter(bulkReporter, infoReporter, this::generateMapKey)
+                .withName(CollectorFactory.class.getSimpleName() + "-report")
+                .withCapacity(asyncReportCapacity)
+                .withFlushSize(asyncReportFlushSize)
+                .withFlushIntervalMillis(asyncReportFlushIntervalMillis)
+                .start();
+        return asyncBulkReporter;
+    }
+
     public void start(BulkReporter bulkReporter, InfoReporter infoReporter) {
         if(isStarted.compareAndSet(false, true)) {
             if (bulkReporter == null || infoReporter == null) {
                 throw new IllegalArgumentException("BulkReporter and InfoReporter should be provided to report " +
                         "collected samples;");
             }
-            scheduledExecutorService.scheduleAtFixedRate(() -> {
-                if (!crcDisposableCollector.isEmpty()) {
-                    // add a backup to avoid network error when report collected info samples
-                    List<String> succeed = new ArrayList<>();
-                    for(String key : crcDisposableCollector.keySet()) {
-                        InfoCollector collector = crcDisposableCollector.remove(key);
-                        collector.collect();
-                        try {
-                            // only report the collected info samples when samples are not empty
-                            if (!collector.result.isEmpty()) {
-                                infoReporter.execute(collector.result, collector.tags());
-                            }
-                            succeed.add(key);
-                        } catch(Throwable throwable) {
-                            throwable.printStackTrace();
-                            logger.error("Report info failed, " + throwable.getMessage());
-                        }
-                    }
-                    // drop the successfully processed collector
-                    for(String key : succeed) {
-                        crcDisposableCollector.remove(key);
-                    }
-                }
-
-                // upload the cached bulkRequest
-                cachedBulkRequestLock.lock();
-                try {
-                    for (BulkRequest bulkRequest : cachedBulkRequest) {
-                        try {
-                            bulkReporter.execute(bulkRequest);
-                        } catch(Throwable throwable) {
-                            throwable.printStackTrace();
-                            logger.error("Report bulkSampleRequest failed, " + throwable.getMessage());
-                        }
-                    }
-                } finally {
-                    // clear cache
-                    cachedBulkRequest.clear();
-                    cachedBulkRequestIdx.clear();
-                    cachedBulkRequestLock.unlock();
-                }
-
-                Date date = new Date();
-                BulkRequest bulkRequest = new BulkRequest();
-
-                // process the statistic collectors
-                for(SampleCollector collector : crcStatisticCollector.values()) {
-                    StatisticRequest statisticRequest = wrapStatisticRequest(collector, date, false);
-                    if (statisticRequest == null) {
-                        continue;
-                    }
-                    bulkRequest.addStatisticRequest(statisticRequest);
-                }
-
-
-                // process the sample collectors
-                for(SampleCollector collector : crcSampleCollector.values()) {
-                    SampleRequest sampleRequest = wrapSampleRequest(collector, date, false);
-                    if (sampleRequest == null) {
-                        continue;
-                    }
-                    bulkRequest.addSampleRequest(sampleRequest);
-                }
-
-                if (bulkRequest.getStatistics().size() ==0 && bulkRequest.getSamples().size() == 0) {
-                    return;
-                }
-
-                try {
-                    bulkReporter.execute(bulkRequest);
-                } catch(Throwable throwable) {
-                    throwable.printStackTrace();
-                    logger.error("Report bulkSampleRequest failed, " + throwable.getMessage());
-                }
-            }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+            if (asyncReport) {
+                AsyncBulkReporter reporter = startAsyncBulkReporter(bulkReporter, infoReporter);
+                bulkReporter = reporter;
+                infoReporter = reporter;
+            }
+            final BulkReporter finalBulkReporter = bulkReporter;
+            final InfoReporter finalInfoReporter = infoReporter;
+            reportFuture = scheduledExecutorService.scheduleAtFixedRate(() -> reportInPeriod(finalBulkReporter, finalInfoReporter), periodSeconds, periodSeconds, TimeUnit.SECONDS);
         }
     }
 
@@ -158,58 +131,105 @@ public class CollectorFactory {
             if (bulkReporter == null) {
                 throw new IllegalArgumentException("BulkReporter should be provided to report collected samples;");
             }
-            scheduledExecutorService.scheduleAtFixedRate(() -> {
-                // upload the cached bulkRequest
-                cachedBulkRequestLock.lock();
-                try {
-                    for (BulkRequest bulkRequest : cachedBulkRequest) {
-                        try {
-                            bulkReporter.execute(bulkRequest);
-                        } catch(Throwable throwable) {
-                            throwable.printStackTrace();
-                            logger.error("Report bulkSampleRequest failed, " + throwable.getMessage());
-                        }
-                    }
-                } finally {
-                    // clear cache
-                    cachedBulkRequest.clear();
-                    cachedBulkRequestIdx.clear();
-                    cachedBulkRequestLock.unlock();
-                }
-
-                Date date = new Date();
-                BulkRequest bulkRequest = new BulkRequest();
-
-                // process the statistic collectors
-                for(SampleCollector collector : crcStatisticCollector.values()) {
-                    StatisticRequest statisticRequest = wrapStatisticRequest(collector, date, false);
-                    if (statisticRequest == null) {
-                        continue;
-                    }
-                    bulkRequest.addStatisticRequest(statisticRequest);
-                }
+            if (asyncReport) {
+                bulkReporter = startAsyncBulkReporter(bulkReporter, null);
+            }
+            final BulkReporter finalBulkReporter = bulkReporter;
+            reportFuture = scheduledExecutorService.scheduleAtFixedRate(() -> reportInPeriod(finalBulkReporter, null), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        }
+    }
 
+    /**
+     * Stop the periodic report, the points staged by async reporting are flushed and its flush thread exits.
+     * The collectors are kept, the factory can be started again.
+     */
+    public synchronized void stop() {
+        if(isStarted.get()) {
+            if(reportFuture != null) {
+                reportFuture.cancel(false);
+                reportFuture = null;
+            }
+            if(asyncBulkReporter != null) {
+                asyncBulkReporter.stop();
+                asyncBulkReporter = null;
+            }
+            isStarted.set(false);
+        }
+    }
 
-                // process the sample collectors
-                for(SampleCollector collector : crcSampleCollector.values()) {
-                    SampleRequest sampleRequest = wrapSampleRequest(collector, date, false);
-                    if (sampleRequest == null) {
-                        continue;
+    private void reportInPeriod(BulkReporter bulkReporter, InfoReporter infoReporter) {
+        if (infoReporter != null && !crcDisposableCollector.isEmpty()) {
+            // add a backup to avoid network error when report collected info samples
+            List<String> succeed = new ArrayList<>();
+            for(String key : crcDisposableCollector.keySet()) {
+                InfoCollector collector = crcDisposableCollector.remove(key);
+                collector.collect();
+                try {
+                    // only report the collected info samples when samples are not empty
+                    if (!collector.result.isEmpty()) {
+                        infoReporter.execute(collector.result, collector.tags());
                     }
-                    bulkRequest.addSampleRequest(sampleRequest);
-                }
-
-                if (bulkRequest.getStatistics().size() ==0 && bulkRequest.getSamples().size() == 0) {
-                    return;
+                    succeed.add(key);
+                } catch(Throwable throwable) {
+                    throwable.printStackTrace();
+                    logger.error("Report info failed, " + throwable.getMessage());
                 }
+            }
+            // drop the successfully processed collector
+            for(String key : succeed) {
+                crcDisposableCollector.remove(key);
+            }
+        }
 
+        // upload the cached bulkRequest
+        cachedBulkRequestLock.lock();
+        try {
+            for (BulkRequest bulkRequest : cachedBulkRequest) {
                 try {
                     bulkReporter.execute(bulkRequest);
                 } catch(Throwable throwable) {
                     throwable.printStackTrace();
                     logger.error("Report bulkSampleRequest failed, " + throwable.getMessage());
                 }
-            }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+            }
+        } finally {
+            // clear cache
+            cachedBulkRequest.clear();
+            cachedBulkRequestIdx.clear();
+            cachedBulkRequestLock.unlock();
+        }
+
+        Date date = new Date();
+        BulkRequest bulkRequest = new BulkRequest();
+
+        // process the statistic collectors
+        for(SampleCollector collector : crcStatisticCollector.values()) {
+            StatisticRequest statisticRequest = wrapStatisticRequest(collector, date, false);
+            if (statisticRequest == null) {
+                continue;
+            }
+            bulkRequest.addStatisticRequest(statisticRequest);
+        }
+
+
+        // process the sample collectors
+        for(SampleCollector collector : crcSampleCollector.values()) {
+            SampleRequest sampleRequest = wrapSampleRequest(collector, date, false);
+            if (sampleRequest == null) {
+                continue;
+            }
+            bulkRequest.addSampleRequest(sampleRequest);
+        }
+
+        if (bulkRequest.getStatistics().size() ==0 && bulkRequest.getSamples().size() == 0) {
+            return;
+        }
+
+        try {
+            bulkReporter.execute(bulkRequest);
+        } catch(Throwable throwable) {
+            throwable.printStackTrace();
+            logger.error("Report bulkSampleRequest failed, " + throwable.getMessage());
         }
     }
 
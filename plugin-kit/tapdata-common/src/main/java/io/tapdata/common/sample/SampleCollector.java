@@ -32,15 +32,20 @@ public class SampleCollector {
      */
     private ScheduledExecutorService scheduleExecutorService;
     private static ScheduledExecutorService globalScheduleExecutorService;
+    /**
+     * 使用独立的定时线程， 不与其他采集器共享全局定时器， stop时关闭
+     */
+    private boolean dedicatedScheduler;
+    private boolean ownScheduler;
     /**
      * 业务自定义的id对应的采集类型实例
      */
     private final Map<String, Sampler> idSamplerMap = new ConcurrentHashMap<>();
 
     /**
-     * 复用的采样结果容器
+     * 复用的采样结果容器， 只在定时上报时使用， 见{@link SampleReporter#execute(Map, Map)}
      */
-//    final Map<String, Number> result = new HashMap<>();
+    private final Map<String, Number> reportResult = new HashMap<>();
 
     private Map<String, String> tags = new ConcurrentHashMap<>();
     private ScheduledFuture<?> reportFuture;
@@ -85,7 +90,15 @@ public class SampleCollector {
         return this;
     }
     public SampleCollector withScheduledExecutorService(ScheduledExecutorService scheduledExecutorService) {
-        this.scheduleExecutorService = scheduleExecutorService;
+        this.scheduleExecutorService = scheduledExecutorService;
+        return this;
+    }
+
+    /**
+     * 每个采集器使用自己的定时线程， 避免所有采集器排队在同一个全局线程上
+     */
+    public SampleCollector withDedicatedScheduler(boolean dedicatedScheduler) {
+        this.dedicatedScheduler = dedicatedScheduler;
         return this;
     }
     /**
@@ -96,6 +109,10 @@ public class SampleCollector {
             throw new IllegalArgumentException("Pointer collector start failed, illegal parameters periodSeconds " + periodSeconds + ", pointerExecutor " + sampleReporter);
         if(sampleReporter != null) {
             synchronized (this) {
+                if(scheduleExecutorService == null && dedicatedScheduler) {
+                    scheduleExecutorService = ExecutorsManager.getInstance().newSingleThreadScheduledExecutor("PointCollector-" + name);
+                    ownScheduler = true;
+                }
                 if(scheduleExecutorService == null) {
                     if(globalScheduleExecutorService == null) {
                         globalScheduleExecutorService = ExecutorsManager.getInstance().newSingleThreadScheduledExecutor("PointCollector-" + name);
@@ -106,13 +123,29 @@ public class SampleCollector {
             if(reportFuture != null) {
                 reportFuture.cancel(false);
             }
-            reportFuture = scheduleExecutorService.scheduleAtFixedRate(this::calculateInPeriod, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+            reportFuture = scheduleExecutorService.scheduleAtFixedRate(this::reportInPeriod, periodSeconds, periodSeconds, TimeUnit.SECONDS);
         }
         return this;
     }
 
+    /**
+     * 定时上报， 采样结果放在复用的容器中
+     */
+    void reportInPeriod() {
+        synchronized (reportResult) {
+            reportResult.clear();
+            calculateInPeriod(reportResult);
+        }
+    }
+
+    /**
+     * 返回新的采样结果， 调用方可以持有该结果
+     */
     Map<String, Number> calculateInPeriod() {
-        Map<String, Number> result = new HashMap<>();
+        return calculateInPeriod(new HashMap<>(Math.max(16, idSamplerMap.size() * 4 / 3 + 1)));
+    }
+
+    Map<String, Number> calculateInPeriod(Map<String, Number> result) {
         try {
             for(Map.Entry<String, Sampler> entry : idSamplerMap.entrySet()) {
                 try {
@@ -253,6 +286,20 @@ public class SampleCollector {
         return (SpeedSampler) idSamplerMap.computeIfAbsent(id, s -> new SpeedSampler());
     }
 
+    /**
+     * 根据业务指定的ID获得滑动窗口速度采集器， 提供窗口平均值， 窗口最大值和EWMA
+     *
+     * @param id
+     * @return
+     */
+    public WindowSpeedSampler getWindowSpeedSampler(String id) {
+        return (WindowSpeedSampler) idSamplerMap.computeIfAbsent(id, s -> new WindowSpeedSampler());
+    }
+
+    public WindowSpeedSampler getWindowSpeedSampler(String id, int windowSize, double ewmaAlpha) {
+        return (WindowSpeedSampler) idSamplerMap.computeIfAbsent(id, s -> new WindowSpeedSampler(windowSize, ewmaAlpha));
+    }
+
 
     public static void main(String... args) {
         SampleCollector p = new SampleCollector((pointValues, tags) -> {
@@ -338,6 +385,13 @@ public class SampleCollector {
         if(reportFuture != null) {
             reportFuture.cancel(true);
         }
+        synchronized (this) {
+            if(ownScheduler && scheduleExecutorService != null) {
+                scheduleExecutorService.shutdownNow();
+                scheduleExecutorService = null;
+                ownScheduler = false;
+            }
+        }
     }
 
     public void pendingCollector() {
@@ -2,31 +2,28 @@ package io.tapdata.common.sample.sampler;
 
 import io.tapdata.common.sample.Sampler;
 
-import java.util.concurrent.atomic.LongAdder;
-
 /**
  * Incremental record value and auto inc counter.
  * Calculate average value and clear when upload.
+ * Counter and total value are kept in the same {@link StripedCells}, so they are always reset together.
  */
 public class AverageSampler implements Sampler {
-    private final LongAdder counter = new LongAdder();
-    private final LongAdder totalValue = new LongAdder();
+    private final StripedCells cells = new StripedCells();
+    private final long[] snapshot = new long[2];
 
     public void add(long value) {
-        counter.increment();
-        totalValue.add(value);
+        cells.add(1, value);
     }
 
     public void add(long cnt, long value) {
-        counter.add(cnt);
-        totalValue.add(value);
+        cells.add(cnt, value);
     }
 
     @Override
-    public Number value() {
-        //TODO Not thread safe between two lines below.
-        long counterValue = counter.sumThenReset();
-        double total = totalValue.sumThenReset();
+    public synchronized Number value() {
+        cells.snapshotThenReset(snapshot);
+        long counterValue = snapshot[0];
+        double total = snapshot[1];
         if(counterValue > 0) {
             return total / counterValue;
         }
@@ -7,7 +7,6 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Incremental record value and last upload time.
@@ -16,7 +15,8 @@ import java.util.concurrent.atomic.LongAdder;
 public class SpeedSampler implements Sampler {
     private static final int BUFFER_LIMIT = 10;
     protected Long lastCalculateTime;
-    protected final LongAdder totalValue = new LongAdder();
+    protected final StripedCells totalValue = new StripedCells();
+    private final long[] snapshot = new long[2];
     protected Double maxValue;
     protected final List<Double> valueList = Lists.newArrayList();
     private BigDecimal totalSamples = BigDecimal.ZERO;
@@ -30,13 +30,13 @@ public class SpeedSampler implements Sampler {
     }
 
     @Override
-    public Number value() {
+    public synchronized Number value() {
         Long temp = lastCalculateTime;
         lastCalculateTime = System.currentTimeMillis();
         if(temp != null) {
             long time = System.currentTimeMillis() - temp;
             if(time > 0) {
-                double v = ((double) totalValue.sumThenReset() / time) * 1000;
+                double v = ((double) totalValue.snapshotThenReset(snapshot)[1] / time) * 1000;
 
                 if (valueList.size() == BUFFER_LIMIT) {
                     totalSamples = totalSamples.add(BigDecimal.valueOf(valueList.stream().mapToDouble(value -> value).sum() + v));
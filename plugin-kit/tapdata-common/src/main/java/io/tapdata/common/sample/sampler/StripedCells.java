@@ -0,0 +1,137 @@
+package io.tapdata.common.sample.sampler;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Striped pairs of count and total, written by many threads and read by the sample thread.
+ *
+ * Each cell is guarded by its own sequence, a writer owns the cell while the sequence is odd, so count and total of a cell always move together.
+ * Threads start on one base cell, the stripes are only created when writers meet on it, like LongAdder.
+ * A snapshot drains every cell under the same sequence, no update is lost or split between two snapshots, which LongAdder#sumThenReset can not promise on Java 8.
+ */
+public class StripedCells {
+    private static final int MAX_STRIPES;
+    static {
+        int stripes = 1;
+        int cpu = Runtime.getRuntime().availableProcessors();
+        while(stripes < cpu && stripes < 64)
+            stripes <<= 1;
+        MAX_STRIPES = stripes;
+    }
+    private static final AtomicReferenceFieldUpdater<StripedCells, Cell[]> CELLS_UPDATER = AtomicReferenceFieldUpdater.newUpdater(StripedCells.class, Cell[].class, "cells");
+
+    private final Cell base = new Cell();
+    private volatile Cell[] cells;
+
+    public void add(long value) {
+        add(1, value);
+    }
+
+    public void add(long count, long value) {
+        Cell[] cs = cells;
+        if(cs == null) {
+            if(base.tryAdd(count, value))
+                return;
+            cs = stripes();
+        }
+        int mask = cs.length - 1;
+        int h = hash(Thread.currentThread().getId());
+        for(int retry = 1; ; retry++) {
+            if(cs[h & mask].tryAdd(count, value))
+                return;
+            h ^= h << 13;
+            h ^= h >>> 17;
+            h ^= h << 5;
+            if((retry & 63) == 0)
+                Thread.yield();
+        }
+    }
+
+    /**
+     * Fill count into buffer[0] and total into buffer[1], the cells keep their values.
+     */
+    public long[] snapshot(long[] buffer) {
+        return drain(buffer, false);
+    }
+
+    /**
+     * Fill count into buffer[0] and total into buffer[1], then reset the drained cells to zero.
+     */
+    public long[] snapshotThenReset(long[] buffer) {
+        return drain(buffer, true);
+    }
+
+    public int stripeCount() {
+        Cell[] cs = cells;
+        return cs == null ? 1 : cs.length + 1;
+    }
+
+    private long[] drain(long[] buffer, boolean reset) {
+        buffer[0] = 0;
+        buffer[1] = 0;
+        base.drain(buffer, reset);
+        Cell[] cs = cells;
+        if(cs != null) {
+            for(Cell cell : cs) {
+                cell.drain(buffer, reset);
+            }
+        }
+        return buffer;
+    }
+
+    private Cell[] stripes() {
+        Cell[] cs = cells;
+        if(cs == null) {
+            Cell[] newCells = new Cell[MAX_STRIPES];
+            for(int i = 0; i < newCells.length; i++) {
+                newCells[i] = new Cell();
+            }
+            if(!CELLS_UPDATER.compareAndSet(this, null, newCells))
+                cs = cells;
+            else
+                cs = newCells;
+        }
+        return cs;
+    }
+
+    private static int hash(long threadId) {
+        int h = (int) (threadId ^ (threadId >>> 32)) * 0x9E3779B9;
+        return h == 0 ? 1 : h;
+    }
+
+    @SuppressWarnings("unused")
+    static final class Cell {
+        private static final AtomicLongFieldUpdater<Cell> SEQ_UPDATER = AtomicLongFieldUpdater.newUpdater(Cell.class, "seq");
+        //Padding to keep cells written by different threads out of the same cache line.
+        long p1, p2, p3, p4, p5, p6, p7;
+        volatile long seq;
+        long count;
+        long total;
+        long q1, q2, q3, q4, q5, q6, q7;
+
+        boolean tryAdd(long c, long value) {
+            long s = seq;
+            if((s & 1) != 0 || !SEQ_UPDATER.compareAndSet(this, s, s + 1))
+                return false;
+            count += c;
+            total += value;
+            seq = s + 2;
+            return true;
+        }
+
+        void drain(long[] buffer, boolean reset) {
+            long s;
+            while(((s = seq) & 1) != 0 || !SEQ_UPDATER.compareAndSet(this, s, s + 1)) {
+                Thread.yield();
+            }
+            buffer[0] += count;
+            buffer[1] += total;
+            if(reset) {
+                count = 0;
+                total = 0;
+            }
+            seq = s + 2;
+        }
+    }
+}
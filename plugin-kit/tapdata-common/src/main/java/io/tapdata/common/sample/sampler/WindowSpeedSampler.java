@@ -0,0 +1,141 @@
+package io.tapdata.common.sample.sampler;
+
+import io.tapdata.common.sample.Sampler;
+
+/**
+ * Incremental record value and last upload time, same as {@link SpeedSampler}, calculate speed when upload.
+ * The speeds are kept in a fixed ring of primitive doubles, the window average, window max and EWMA are updated in O(1) for each speed.
+ * Adding values and calculating speed never allocate.
+ */
+public class WindowSpeedSampler implements Sampler {
+    public static final int DEFAULT_WINDOW_SIZE = 10;
+    public static final double DEFAULT_EWMA_ALPHA = 0.3;
+
+    protected final StripedCells totalValue = new StripedCells();
+    private final long[] snapshot = new long[2];
+    protected long lastCalculateTime;
+
+    private final double alpha;
+    /**
+     * Ring of the speeds, the n-th speed is at n % window.length
+     */
+    private final double[] window;
+    /**
+     * Monotonic decreasing deque of speed sequences, the head is the max of the window
+     */
+    private final long[] maxDeque;
+    private int dequeHead;
+    private int dequeSize;
+    private long sequence;
+    private double windowSum;
+    private double ewma = Double.NaN;
+
+    private long totalCount;
+    private double totalSpeed;
+    private double maxValue = Double.NaN;
+
+    public WindowSpeedSampler() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_EWMA_ALPHA);
+    }
+
+    public WindowSpeedSampler(int windowSize, double alpha) {
+        if(windowSize <= 0)
+            throw new IllegalArgumentException("Illegal windowSize " + windowSize);
+        if(alpha <= 0 || alpha > 1)
+            throw new IllegalArgumentException("Illegal EWMA alpha " + alpha);
+        this.window = new double[windowSize];
+        this.maxDeque = new long[windowSize];
+        this.alpha = alpha;
+    }
+
+    public void add(long value) {
+        totalValue.add(value);
+    }
+
+    public void add() {
+        totalValue.add(1);
+    }
+
+    @Override
+    public synchronized Number value() {
+        long temp = lastCalculateTime;
+        long now = System.currentTimeMillis();
+        lastCalculateTime = now;
+        if(temp > 0) {
+            long time = now - temp;
+            if(time > 0) {
+                double v = ((double) totalValue.snapshotThenReset(snapshot)[1] / time) * 1000;
+                record(v);
+                return v;
+            }
+        }
+        return null;
+    }
+
+    synchronized void record(double v) {
+        int size = window.length;
+        long n = sequence++;
+        int slot = (int) (n % size);
+        if(n >= size)
+            windowSum -= window[slot];
+        //Sequences before n - size + 1 are out of the window
+        if(dequeSize > 0 && maxDeque[dequeHead] <= n - size) {
+            dequeHead = (dequeHead + 1) % size;
+            dequeSize--;
+        }
+        window[slot] = v;
+        windowSum += v;
+        while(dequeSize > 0 && window[(int) (maxDeque[(dequeHead + dequeSize - 1) % size] % size)] <= v) {
+            dequeSize--;
+        }
+        maxDeque[(dequeHead + dequeSize) % size] = n;
+        dequeSize++;
+        if(slot == size - 1) {
+            //Sum again once a round, the floating error of add and subtract is not accumulated
+            double sum = 0;
+            for(double d : window) {
+                sum += d;
+            }
+            windowSum = sum;
+        }
+
+        ewma = Double.isNaN(ewma) ? v : alpha * v + (1 - alpha) * ewma;
+        totalCount++;
+        totalSpeed += v;
+        if(Double.isNaN(maxValue) || v > maxValue)
+            maxValue = v;
+    }
+
+    /**
+     * Max speed since created, same as {@link SpeedSampler#getMaxValue()}
+     */
+    public synchronized Double getMaxValue() {
+        return Double.isNaN(maxValue) ? null : maxValue;
+    }
+
+    /**
+     * Average speed since created, same as {@link SpeedSampler#getAvgValue()}
+     */
+    public synchronized Double getAvgValue() {
+        if(totalCount == 0)
+            return Double.NaN;
+        return Math.round(totalSpeed / totalCount * 100) / 100d;
+    }
+
+    public synchronized double getWindowAvgValue() {
+        long count = Math.min(sequence, window.length);
+        return count == 0 ? Double.NaN : windowSum / count;
+    }
+
+    public synchronized double getWindowMaxValue() {
+        return dequeSize == 0 ? Double.NaN : window[(int) (maxDeque[dequeHead] % window.length)];
+    }
+
+    public synchronized double getEwmaValue() {
+        return ewma;
+    }
+
+    public int getWindowSize() {
+        return window.length;
+    }
+}
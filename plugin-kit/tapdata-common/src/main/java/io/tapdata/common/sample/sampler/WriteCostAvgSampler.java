@@ -3,15 +3,14 @@ package io.tapdata.common.sample.sampler;
 import io.tapdata.common.sample.Sampler;
 
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Incremental record value and auto inc counter.
  * Calculate average value and clear when upload.
  */
 public class WriteCostAvgSampler implements Sampler {
-    private final LongAdder counter = new LongAdder();
-    private final LongAdder totalValue = new LongAdder();
+    private final StripedCells cells = new StripedCells();
+    private final long[] snapshot = new long[2];
 
     private final AtomicLong writeRecordAcceptLastTs = new AtomicLong();
 
@@ -20,19 +19,18 @@ public class WriteCostAvgSampler implements Sampler {
     }
 
     public void add(long value) {
-        counter.increment();
-        totalValue.add(value);
+        cells.add(1, value);
     }
 
     public void add(long cnt, long accetTime) {
-        counter.add(cnt);
-        totalValue.add(accetTime - writeRecordAcceptLastTs.getAndSet(accetTime));
+        cells.add(cnt, accetTime - writeRecordAcceptLastTs.getAndSet(accetTime));
     }
 
     @Override
-    public Number value() {
-        long counterValue = counter.sum();
-        double total = totalValue.sum();
+    public synchronized Number value() {
+        cells.snapshot(snapshot);
+        long counterValue = snapshot[0];
+        double total = snapshot[1];
         if(counterValue > 0) {
             return total / counterValue;
         }
@@ -0,0 +1,136 @@
+package io.tapdata.common.sample;
+
+import io.tapdata.common.sample.request.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncBulkReporterTest {
+    private final CollectorFactory collectorFactory = new CollectorFactory();
+
+    private SampleRequest sampleRequest(String task, long value) {
+        Sample sample = new Sample();
+        sample.setDate(new Date());
+        Map<String, Number> vs = new HashMap<>();
+        vs.put("value", value);
+        sample.setVs(vs);
+        SampleRequest sampleRequest = new SampleRequest();
+        sampleRequest.setTags(Collections.singletonMap("taskId", task));
+        sampleRequest.setSample(sample);
+        return sampleRequest;
+    }
+
+    private StatisticRequest statisticRequest(String task, long inc, long current) {
+        Statistic statistic = new Statistic();
+        statistic.setDate(new Date());
+        Map<String, Number> values = new HashMap<>();
+        values.put("inserted", inc);
+        values.put("current", current);
+        statistic.setValues(values);
+        statistic.setIncFields(Collections.singletonList("inserted"));
+        StatisticRequest statisticRequest = new StatisticRequest();
+        statisticRequest.setTags(Collections.singletonMap("taskId", task));
+        statisticRequest.setStatistic(statistic);
+        return statisticRequest;
+    }
+
+    @Test
+    void slowReporterDoesNotBlockAndDropsOldest() throws InterruptedException {
+        List<SampleRequest> reported = new CopyOnWriteArrayList<>();
+        AsyncBulkReporter reporter = new AsyncBulkReporter(bulkRequest -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(200);
+            } catch (InterruptedException ignored) {
+            }
+            reported.addAll(bulkRequest.getSamples());
+        }, null, collectorFactory::generateMapKey)
+                .withCapacity(50)
+                .withFlushSize(10)
+                .withFlushIntervalMillis(100)
+                .start();
+
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < 200; i++) {
+            BulkRequest bulkRequest = new BulkRequest();
+            bulkRequest.addSampleRequest(sampleRequest("t" + (i % 5), i));
+            reporter.execute(bulkRequest);
+        }
+        long takes = System.currentTimeMillis() - time;
+        assertTrue(takes < 200, "Staging should not wait for the slow reporter, takes " + takes);
+        assertTrue(reporter.getStagingSize() <= 50);
+        assertTrue(reporter.getDroppedCount() > 0);
+
+        long wait = System.currentTimeMillis();
+        while ((reporter.getStagingSize() > 0 || reported.size() + reporter.getDroppedCount() < 200) && System.currentTimeMillis() - wait < 20000) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        reporter.stop();
+        assertEquals(200, reporter.getStagedCount());
+        assertEquals(200, reported.size() + reporter.getDroppedCount());
+        //The oldest are dropped, the latest point is always reported
+        assertEquals(199L, reported.get(reported.size() - 1).getSample().getVs().get("value"));
+    }
+
+    @Test
+    void coalesceStatisticsOfSameCollector() throws InterruptedException {
+        List<BulkRequest> reported = new CopyOnWriteArrayList<>();
+        AsyncBulkReporter reporter = new AsyncBulkReporter(reported::add, null, collectorFactory::generateMapKey)
+                .withFlushSize(100)
+                .withFlushIntervalMillis(60000)
+                .start();
+        for (int i = 1; i <= 3; i++) {
+            BulkRequest bulkRequest = new BulkRequest();
+            bulkRequest.addStatisticRequest(statisticRequest("t1", 10, i));
+            bulkRequest.addStatisticRequest(statisticRequest("t2", 1, i));
+            reporter.execute(bulkRequest);
+        }
+        reporter.flush();
+        reporter.stop();
+
+        assertEquals(1, reported.size());
+        List<StatisticRequest> statistics = reported.get(0).getStatistics();
+        assertEquals(2, statistics.size());
+        assertEquals(4, reporter.getCoalescedCount());
+        Map<String, Number> t1 = statistics.get(0).getStatistic().getValues();
+        assertEquals("t1", statistics.get(0).getTags().get("taskId"));
+        assertEquals(30L, t1.get("inserted"));
+        assertEquals(3L, t1.get("current"));
+        Map<String, Number> t2 = statistics.get(1).getStatistic().getValues();
+        assertEquals(3L, t2.get("inserted"));
+        assertEquals(3L, t2.get("current"));
+    }
+
+    @Test
+    void mergeInfoOfSameCollectorAndFlushOnFactoryStop() throws InterruptedException {
+        List<Map<String, Object>> reported = new CopyOnWriteArrayList<>();
+        CollectorFactory factory = new CollectorFactory().withAsyncReport(100, 100, 60000);
+        factory.start(bulkRequest -> {}, (pointValues, tags) -> reported.add(pointValues));
+        AsyncBulkReporter reporter = factory.getAsyncBulkReporter();
+        Map<String, Object> first = new HashMap<>();
+        first.put("version", "1.0");
+        first.put("cpuUsage", 0.1);
+        reporter.execute(first, Collections.singletonMap("taskId", "t1"));
+        Map<String, Object> second = new HashMap<>();
+        second.put("cpuUsage", 0.2);
+        second.put("memoryUsage", 0.5);
+        reporter.execute(second, Collections.singletonMap("taskId", "t1"));
+
+        //The staged info is flushed by stop, without waiting for the flush interval
+        factory.stop();
+        assertNull(factory.getAsyncBulkReporter());
+        long wait = System.currentTimeMillis();
+        while (reported.isEmpty() && System.currentTimeMillis() - wait < 5000) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(1, reported.size());
+        assertEquals(1, reporter.getCoalescedCount());
+        Map<String, Object> info = reported.get(0);
+        assertEquals("1.0", info.get("version"));
+        assertEquals(0.2, info.get("cpuUsage"));
+        assertEquals(0.5, info.get("memoryUsage"));
+    }
+}
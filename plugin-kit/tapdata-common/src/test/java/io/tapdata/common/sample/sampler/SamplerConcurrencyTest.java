@@ -0,0 +1,107 @@
+package io.tapdata.common.sample.sampler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SamplerConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int LOOPS = 200000;
+
+    private void runWriters(Runnable writer, Runnable reader) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < LOOPS; j++) {
+                    writer.run();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        AtomicBoolean finished = new AtomicBoolean();
+        //An error in the reader thread only kills that thread, keep it for the test thread
+        AtomicReference<Throwable> readerError = new AtomicReference<>();
+        Thread readerThread = new Thread(() -> {
+            try {
+                while (!finished.get()) {
+                    reader.run();
+                }
+            } catch (Throwable throwable) {
+                readerError.set(throwable);
+            }
+        });
+        readerThread.start();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        finished.set(true);
+        readerThread.join();
+        assertNull(readerError.get(), () -> "Reader failed, " + readerError.get());
+    }
+
+    @Test
+    void stripedCellsNoLostUpdate() throws InterruptedException {
+        StripedCells cells = new StripedCells();
+        long[] drained = new long[2];
+        long[] buffer = new long[2];
+        List<String> tornSnapshots = new ArrayList<>();
+        runWriters(() -> cells.add(2, 6), () -> {
+            cells.snapshotThenReset(buffer);
+            if (buffer[0] * 3 != buffer[1])
+                tornSnapshots.add(buffer[0] + "/" + buffer[1]);
+            drained[0] += buffer[0];
+            drained[1] += buffer[1];
+        });
+        assertTrue(tornSnapshots.isEmpty(), "Snapshot split between the cells " + tornSnapshots);
+        cells.snapshotThenReset(buffer);
+        assertEquals((long) THREADS * LOOPS * 2, drained[0] + buffer[0]);
+        assertEquals((long) THREADS * LOOPS * 6, drained[1] + buffer[1]);
+    }
+
+    @Test
+    void averageConsistentUnderContention() throws InterruptedException {
+        AverageSampler sampler = new AverageSampler();
+        List<Number> wrongValues = new ArrayList<>();
+        runWriters(() -> {
+            sampler.add(10);
+            sampler.add(3, 30);
+        }, () -> {
+            Number value = sampler.value();
+            if (value != null && value.doubleValue() != 10d)
+                wrongValues.add(value);
+        });
+        assertTrue(wrongValues.isEmpty(), "Average split between count and total " + wrongValues);
+    }
+
+    @Test
+    void speedConsistentUnderContention() throws InterruptedException {
+        SpeedSampler sampler = new SpeedSampler();
+        //Pretend every period takes 1000 seconds, so the speed times 1000 is the count of the period.
+        long periodMillis = 1000000L;
+        double[] total = new double[1];
+        runWriters(sampler::add, () -> {
+            sampler.lastCalculateTime = System.currentTimeMillis() - periodMillis;
+            Number value = sampler.value();
+            if (value != null)
+                total[0] += value.doubleValue() * periodMillis / 1000;
+        });
+        sampler.lastCalculateTime = System.currentTimeMillis() - periodMillis;
+        total[0] += sampler.value().doubleValue() * periodMillis / 1000;
+        long expected = (long) THREADS * LOOPS;
+        assertEquals(expected, total[0], expected * 0.001);
+    }
+}
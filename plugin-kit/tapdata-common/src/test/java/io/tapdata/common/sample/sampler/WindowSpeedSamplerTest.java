@@ -0,0 +1,99 @@
+package io.tapdata.common.sample.sampler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WindowSpeedSamplerTest {
+
+    @Test
+    void valueTest() {
+        WindowSpeedSampler sampler = new WindowSpeedSampler();
+        assertNull(sampler.value());
+        sampler.add(1000);
+        sampler.lastCalculateTime = System.currentTimeMillis() - 1000;
+        Number value = sampler.value();
+        assertNotNull(value);
+        assertTrue(value.doubleValue() > 0);
+        assertEquals(value.doubleValue(), sampler.getMaxValue());
+        assertEquals(value.doubleValue(), sampler.getWindowMaxValue());
+        assertEquals(value.doubleValue(), sampler.getEwmaValue());
+    }
+
+    @Test
+    void windowStatisticsTest() {
+        int windowSize = 7;
+        double alpha = 0.3;
+        WindowSpeedSampler sampler = new WindowSpeedSampler(windowSize, alpha);
+        assertEquals(Double.NaN, sampler.getAvgValue());
+        assertNull(sampler.getMaxValue());
+        assertTrue(Double.isNaN(sampler.getWindowMaxValue()));
+
+        Random random = new Random(7);
+        double[] values = new double[200];
+        double ewma = Double.NaN;
+        double max = 0;
+        double total = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(1000) / 10d;
+            sampler.record(values[i]);
+            ewma = Double.isNaN(ewma) ? values[i] : alpha * values[i] + (1 - alpha) * ewma;
+            max = Math.max(max, values[i]);
+            total += values[i];
+
+            double windowMax = 0;
+            double windowSum = 0;
+            int from = Math.max(0, i - windowSize + 1);
+            for (int j = from; j <= i; j++) {
+                windowMax = Math.max(windowMax, values[j]);
+                windowSum += values[j];
+            }
+            assertEquals(windowMax, sampler.getWindowMaxValue());
+            assertEquals(windowSum / (i - from + 1), sampler.getWindowAvgValue(), 0.000001);
+            assertEquals(ewma, sampler.getEwmaValue(), 0.000001);
+            assertEquals(max, sampler.getMaxValue());
+            assertEquals(Math.round(total / (i + 1) * 100) / 100d, sampler.getAvgValue());
+        }
+    }
+
+    @Test
+    void benchmarkAgainstSpeedSampler() {
+        int loops = 2000000;
+        //Warm up
+        runSpeedSampler(loops / 10);
+        runWindowSpeedSampler(loops / 10);
+
+        long time = System.nanoTime();
+        runSpeedSampler(loops);
+        long speedSamplerTakes = System.nanoTime() - time;
+
+        time = System.nanoTime();
+        runWindowSpeedSampler(loops);
+        long windowSpeedSamplerTakes = System.nanoTime() - time;
+        assertTrue(windowSpeedSamplerTakes < speedSamplerTakes, "SpeedSampler takes " + speedSamplerTakes / 1000000 + "ms, WindowSpeedSampler takes " + windowSpeedSamplerTakes / 1000000 + "ms");
+    }
+
+    private void runSpeedSampler(int loops) {
+        SpeedSampler sampler = new SpeedSampler();
+        for (int i = 0; i < loops; i++) {
+            sampler.add(i);
+            sampler.lastCalculateTime = System.currentTimeMillis() - 1000;
+            sampler.value();
+            sampler.getAvgValue();
+        }
+        assertNotNull(sampler.getMaxValue());
+    }
+
+    private void runWindowSpeedSampler(int loops) {
+        WindowSpeedSampler sampler = new WindowSpeedSampler();
+        for (int i = 0; i < loops; i++) {
+            sampler.add(i);
+            sampler.lastCalculateTime = System.currentTimeMillis() - 1000;
+            sampler.value();
+            sampler.getAvgValue();
+        }
+        assertNotNull(sampler.getMaxValue());
+    }
+}
@@ -0,0 +1,60 @@
+package io.tapdata.modules.api.net.service.node.connection.entity;
+
+import io.tapdata.entity.serializer.JavaCustomSerializer;
+import io.tapdata.entity.utils.io.DataInputStreamEx;
+import io.tapdata.entity.utils.io.DataOutputStreamEx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Several NodeMessages in one http body, used by batch post between nodes.
+ * The body is the message count followed by each serialized NodeMessage.
+ * The response batch carries one NodeMessage for each request message, matched by id.
+ */
+public class NodeMessageBatch implements JavaCustomSerializer {
+	public static final String PARAM_BATCH = "batch";
+	private List<NodeMessage> nodeMessages;
+	public NodeMessageBatch nodeMessages(List<NodeMessage> nodeMessages) {
+		this.nodeMessages = nodeMessages;
+		return this;
+	}
+
+	@Override
+	public void from(InputStream inputStream) throws IOException {
+		DataInputStreamEx dis = dataInputStream(inputStream);
+		Integer size = dis.readInt();
+		if(size == null)
+			return;
+		nodeMessages = new ArrayList<>(size);
+		for(int i = 0; i < size; i++) {
+			NodeMessage nodeMessage = new NodeMessage();
+			nodeMessage.from(dis);
+			nodeMessages.add(nodeMessage);
+		}
+	}
+
+	@Override
+	public void to(OutputStream outputStream) throws IOException {
+		DataOutputStreamEx dos = dataOutputStream(outputStream);
+		if(nodeMessages == null) {
+			dos.writeInt(null);
+			return;
+		}
+		dos.writeInt(nodeMessages.size());
+		for(NodeMessage nodeMessage : nodeMessages) {
+			nodeMessage.to(dos);
+		}
+	}
+
+	public List<NodeMessage> getNodeMessages() {
+		return nodeMessages;
+	}
+
+	public void setNodeMessages(List<NodeMessage> nodeMessages) {
+		this.nodeMessages = nodeMessages;
+	}
+}
@@ -26,4 +26,6 @@ public interface WSErrors {
 	int ERROR_USER_SESSION_NOT_EXIST = 6023;
 	int ERROR_WRONG_NODE = 6024;
 	int ERROR_CHANNEL_BYE_BYE = 6025;
+	int ERROR_SESSION_DISPATCHER_NO_HANDLER = 6026;
+	int ERROR_SESSION_DISPATCHER_NOT_STARTED = 6027;
 }
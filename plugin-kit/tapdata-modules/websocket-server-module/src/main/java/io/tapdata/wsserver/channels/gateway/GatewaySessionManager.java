@@ -108,6 +108,9 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
     private volatile int roomCounter = 0;
 
     private ConcurrentHashMap<String, SingleThreadBlockingQueue<UserAction>> userIdSingleThreadMap = new ConcurrentHashMap<>();
+    //When enabled, user actions are hashed onto fixed shards instead of one SingleThreadBlockingQueue per user
+    private boolean shardedDispatcherEnabled = CommonUtils.getPropertyBool("gateway_session_sharded_dispatcher", false);
+    private volatile ShardedUserActionDispatcher shardedUserActionDispatcher;
 
     @Bean
     private GatewayChannelModule gatewayChannelModule;
@@ -134,6 +137,17 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
     }
 
     private void handlerStartedState(GatewaySessionManager gatewaySessionManager, StateMachine<Integer, GatewaySessionManager> integerGatewaySessionManagerStateMachine) {
+        //Sized by the netty workers, started before the websocket server accepts any session
+        if(shardedDispatcherEnabled && shardedUserActionDispatcher == null) {
+            UserActionHandler userActionHandler = new UserActionHandler();
+            InstanceFactory.injectBean(userActionHandler);
+            shardedUserActionDispatcher = new ShardedUserActionDispatcher("GatewaySessionShard")
+                    .withShardCount(CommonUtils.getPropertyInt("gateway_session_dispatcher_shards", webSocketManager.getWorkerCount()))
+                    .withHandleSize(100)
+                    .withHandler(userActionHandler)
+                    .withErrorHandler(userActionHandler)
+                    .start();
+        }
         webSocketManager.start();
 
         ExecutorsManager.getInstance().getScheduledExecutorService().scheduleAtFixedRate(() -> {
@@ -204,6 +218,8 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
             closeSession(userId);
         }
         webSocketManager.stop();
+        if(shardedUserActionDispatcher != null)
+            shardedUserActionDispatcher.stop();
         TapLogger.debug(TAG, "RoomSessionManager stopped, takes {}", System.currentTimeMillis() - time);
     }
 
@@ -235,6 +251,14 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
         return queue;
     }
 
+    private void offerUserAction(String userId, UserAction userAction) {
+        if(shardedUserActionDispatcher != null) {
+            shardedUserActionDispatcher.offer(userId, userAction);
+        } else {
+            getUserActionQueue(userId).offer(userAction);
+        }
+    }
+
     public void replaceChannel(GatewaySessionHandler gatewaySessionHandler, String authorisedExpression, String deviceToken, Integer terminal, int code) {
         closeChannel(gatewaySessionHandler.getId(), code);
         UserChannel userChannel = gatewaySessionHandler.getUserChannel();
@@ -313,8 +337,7 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
                             tokenUserIdMap.putIfAbsent(gatewaySessionHandler.getToken(), gatewaySessionHandler.getId());
                             roomCounter++;
 
-                            SingleThreadBlockingQueue<UserAction> queue = getUserActionQueue(gatewaySessionHandler.getId());
-                            queue.offer(new UserAction().handler(gatewaySessionHandler).userId(gatewaySessionHandler.getId()).action(UserAction.ACTION_SESSION_CREATED));
+                            offerUserAction(gatewaySessionHandler.getId(), new UserAction().handler(gatewaySessionHandler).userId(gatewaySessionHandler.getId()).action(UserAction.ACTION_SESSION_CREATED));
                         } else {
                             gatewaySessionHandler = existing;
                         }
@@ -340,8 +363,7 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
             TapLogger.error(TAG, "invokeOnRoomThread ignored, because room doesn't exist for roomId {} closure {}", userId, closure);
             return;
         }
-        SingleThreadBlockingQueue<UserAction> queue = getUserActionQueue(gatewaySessionHandler.getId());
-        queue.offer(new UserAction().handler(gatewaySessionHandler).userId(gatewaySessionHandler.getId()).action(UserAction.ACTION_USER_CLOSURE).closure(closure));
+        offerUserAction(gatewaySessionHandler.getId(), new UserAction().handler(gatewaySessionHandler).userId(gatewaySessionHandler.getId()).action(UserAction.ACTION_USER_CLOSURE).closure(closure));
     }
 
     public void closeSession(String userId) {
@@ -369,8 +391,11 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
         gatewayChannelModule.close(gatewaySessionHandler.getId(), WSErrors.ERROR_CHANNEL_USER_CLOSED);
 
 //        SingleThreadQueueEx<UserAction> queue = getUserActionQueue(gatewaySessionHandler.id)
-        if(queue != null){
-            queue.offer(new UserAction().handler(gatewaySessionHandler).userId(gatewaySessionHandler.getId()).action(UserAction.ACTION_SESSION_DESTROYED));
+        UserAction destroyedAction = new UserAction().handler(gatewaySessionHandler).userId(gatewaySessionHandler.getId()).action(UserAction.ACTION_SESSION_DESTROYED);
+        if(shardedUserActionDispatcher != null) {
+            shardedUserActionDispatcher.offer(gatewaySessionHandler.getId(), destroyedAction);
+        } else if(queue != null){
+            queue.offer(destroyedAction);
         }
     }
 
@@ -388,8 +413,7 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
         }
 
         if (gatewayChannelModule.close(userId, code)) {
-            SingleThreadBlockingQueue<UserAction> queue = getUserActionQueue(userId);
-            queue.offer(new UserAction().handler(gatewaySessionHandler).userId(userId).action(UserAction.ACTION_USER_DISCONNECTED));
+            offerUserAction(userId, new UserAction().handler(gatewaySessionHandler).userId(userId).action(UserAction.ACTION_USER_DISCONNECTED));
         }
     }
 
@@ -417,8 +441,7 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
             throw new CoreException(WSErrors.ERROR_USER_NOT_EXIST, "User {} not exist while receiving incomingData", userId);
 
         //接收消息采用房间的消息单线程来处理， 和房间状态单线程分开
-        SingleThreadBlockingQueue<UserAction> queue = getUserActionQueue(userId/* + "_message" 暂时不考虑每个房间收消息是独立的单线程*/);
-        queue.offer(new UserAction().handler(gatewaySessionHandler).incomingData(incomingData).userId(userId).action(UserAction.ACTION_USER_DATA));
+        offerUserAction(userId/* + "_message" 暂时不考虑每个房间收消息是独立的单线程*/, new UserAction().handler(gatewaySessionHandler).incomingData(incomingData).userId(userId).action(UserAction.ACTION_USER_DATA));
     }
 
     public void receiveIncomingMessage(String userId, IncomingMessage incomingMessage) {
@@ -427,8 +450,7 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
             throw new CoreException(WSErrors.ERROR_USER_NOT_EXIST, "User {} not exist while receiving incomingMessage", userId);
 
         //接收消息采用房间的消息单线程来处理， 和房间状态单线程分开
-        SingleThreadBlockingQueue<UserAction> queue = getUserActionQueue(userId/* + "_message" 暂时不考虑每个房间收消息是独立的单线程*/);
-        queue.offer(new UserAction().handler(gatewaySessionHandler).incomingMessage(incomingMessage).userId(userId).action(UserAction.ACTION_USER_MESSAGE));
+        offerUserAction(userId/* + "_message" 暂时不考虑每个房间收消息是独立的单线程*/, new UserAction().handler(gatewaySessionHandler).incomingMessage(incomingMessage).userId(userId).action(UserAction.ACTION_USER_MESSAGE));
     }
 
     public void receiveIncomingInvocation(String userId, IncomingInvocation incomingInvocation) {
@@ -437,8 +459,7 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
             throw new CoreException(WSErrors.ERROR_USER_NOT_EXIST, "User {} not exist while receiving incomingInvocation", userId);
 
         //接收消息采用房间的消息单线程来处理， 和房间状态单线程分开
-        SingleThreadBlockingQueue<UserAction> queue = getUserActionQueue(userId/* + "_message" 暂时不考虑每个房间收消息是独立的单线程*/);
-        queue.offer(new UserAction().handler(gatewaySessionHandler).incomingInvocation(incomingInvocation).userId(userId).action(UserAction.ACTION_USER_INVOCATION));
+        offerUserAction(userId/* + "_message" 暂时不考虑每个房间收消息是独立的单线程*/, new UserAction().handler(gatewaySessionHandler).incomingInvocation(incomingInvocation).userId(userId).action(UserAction.ACTION_USER_INVOCATION));
     }
 
     public void receiveIncomingRequest(String userId, IncomingRequest incomingRequest) {
@@ -447,8 +468,7 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
             throw new CoreException(WSErrors.ERROR_USER_NOT_EXIST, "User {} not exist while receiving incomingInvocation", userId);
 
         //接收消息采用房间的消息单线程来处理， 和房间状态单线程分开
-        SingleThreadBlockingQueue<UserAction> queue = getUserActionQueue(userId/* + "_message" 暂时不考虑每个房间收消息是独立的单线程*/);
-        queue.offer(new UserAction().handler(gatewaySessionHandler).incomingRequest(incomingRequest).userId(userId).action(UserAction.ACTION_USER_REQUEST));
+        offerUserAction(userId/* + "_message" 暂时不考虑每个房间收消息是独立的单线程*/, new UserAction().handler(gatewaySessionHandler).incomingRequest(incomingRequest).userId(userId).action(UserAction.ACTION_USER_REQUEST));
     }
 
     public void checkState() {
@@ -472,8 +492,7 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
             throw new CoreException(WSErrors.ERROR_USER_NOT_EXIST, "User {} not exist while receiving outgoingMessage", userId);
 
         //接收消息采用房间的消息单线程来处理， 和房间状态单线程分开
-        SingleThreadBlockingQueue<UserAction> queue = getUserActionQueue(userId/* + "_message" 暂时不考虑每个房间收消息是独立的单线程*/);
-        queue.offer(new UserAction().handler(gatewaySessionHandler).outgoingMessage(outgoingMessage).userId(userId).action(UserAction.ACTION_USER_OUTGOING_MESSAGE));
+        offerUserAction(userId/* + "_message" 暂时不考虑每个房间收消息是独立的单线程*/, new UserAction().handler(gatewaySessionHandler).outgoingMessage(outgoingMessage).userId(userId).action(UserAction.ACTION_USER_OUTGOING_MESSAGE));
     }
 
     public void receiveOutgoingData(String userId, OutgoingData outgoingData) {
@@ -482,8 +501,7 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
             throw new CoreException(WSErrors.ERROR_USER_NOT_EXIST, "User {} not exist while receiving outgoingData", userId);
 
         //接收消息采用房间的消息单线程来处理， 和房间状态单线程分开
-        SingleThreadBlockingQueue<UserAction> queue = getUserActionQueue(userId/* + "_message" 暂时不考虑每个房间收消息是独立的单线程*/);
-        queue.offer(new UserAction().handler(gatewaySessionHandler).outgoingData(outgoingData).userId(userId).action(UserAction.ACTION_USER_OUTGOING_DATA));
+        offerUserAction(userId/* + "_message" 暂时不考虑每个房间收消息是独立的单线程*/, new UserAction().handler(gatewaySessionHandler).outgoingData(outgoingData).userId(userId).action(UserAction.ACTION_USER_OUTGOING_DATA));
     }
 
     /**
@@ -510,8 +528,7 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
     public TapEntity channelConnected(GatewaySessionHandler gatewaySessionHandler) {
         try {
             //异步消息
-            SingleThreadBlockingQueue<UserAction> queue = getUserActionQueue(gatewaySessionHandler.getId());
-            queue.offer(new UserAction().handler(gatewaySessionHandler).userId(gatewaySessionHandler.getId()).action(UserAction.ACTION_USER_CONNECTED));
+            offerUserAction(gatewaySessionHandler.getId(), new UserAction().handler(gatewaySessionHandler).userId(gatewaySessionHandler.getId()).action(UserAction.ACTION_USER_CONNECTED));
             //同步消息
 //            return map(entry("cacheTimeMap", gatewaySessionHandler.channelConnected()));
             return null;
@@ -523,8 +540,7 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
 
     public void channelDisconnected(GatewaySessionHandler gatewaySessionHandler) {
         try {
-            SingleThreadBlockingQueue<UserAction> queue = getUserActionQueue(gatewaySessionHandler.getId());
-            queue.offer(new UserAction().handler(gatewaySessionHandler).userId(gatewaySessionHandler.getId()).action(UserAction.ACTION_USER_DISCONNECTED));
+            offerUserAction(gatewaySessionHandler.getId(), new UserAction().handler(gatewaySessionHandler).userId(gatewaySessionHandler.getId()).action(UserAction.ACTION_USER_DISCONNECTED));
         } catch (Throwable t) {
             TapLogger.error(TAG, "channelDisconnected userId:{} error:{}", gatewaySessionHandler.getId(), t);
         }
@@ -580,6 +596,9 @@ public class GatewaySessionManager implements HealthWeightListener, MemoryFetche
             userIdSingleThreadMap.put(entry.getKey(), entry.getValue().memory(keyRegex, memoryLevel));
         }
 
+        if(shardedUserActionDispatcher != null)
+            dataMap.kv("shardedUserActionDispatcher", shardedUserActionDispatcher.memory(keyRegex, memoryLevel));
+
         return dataMap;
     }
 }
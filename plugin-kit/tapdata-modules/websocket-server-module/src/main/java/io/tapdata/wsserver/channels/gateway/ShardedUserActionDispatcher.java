@@ -0,0 +1,274 @@
+package io.tapdata.wsserver.channels.gateway;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.logger.TapLogger;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.utils.DataMap;
+import io.tapdata.pdk.core.utils.CommonUtils;
+import io.tapdata.pdk.core.utils.queue.ListErrorHandler;
+import io.tapdata.pdk.core.utils.queue.ListHandler;
+import io.tapdata.wsserver.channels.error.WSErrors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dispatch user actions onto a fixed number of event loop style shards instead of one {@link io.tapdata.pdk.core.utils.queue.SingleThreadBlockingQueue} per user.
+ * A user id is always hashed onto the same shard, every shard is drained by one thread, so the actions of one user are still handled in order.
+ *
+ * The shard queue is a lock-free {@link ConcurrentLinkedQueue}, the shard thread parks when the queue is empty and is unparked by the producer.
+ */
+public class ShardedUserActionDispatcher implements MemoryFetcher {
+    private static final String TAG = ShardedUserActionDispatcher.class.getSimpleName();
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long STOPPING_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String name;
+    private int shardCount = Runtime.getRuntime().availableProcessors() * 2;
+    private int handleSize = 100;
+    private ListHandler<UserAction> listHandler;
+    private ListErrorHandler<UserAction> listErrorHandler;
+    private Shard[] shards;
+    private final AtomicBoolean isStarted = new AtomicBoolean(false);
+    private volatile boolean isStopping = false;
+    //The offers between the stopping check and the enqueue, the shard threads exit only after they are done
+    private final AtomicInteger offering = new AtomicInteger();
+
+    public ShardedUserActionDispatcher(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Shard count, should match the netty worker count.
+     *
+     * @param shardCount
+     * @return
+     */
+    public ShardedUserActionDispatcher withShardCount(int shardCount) {
+        if(shardCount > 0)
+            this.shardCount = shardCount;
+        return this;
+    }
+
+    /**
+     * The max batch size handed to the handler at one time.
+     *
+     * @param handleSize
+     * @return
+     */
+    public ShardedUserActionDispatcher withHandleSize(int handleSize) {
+        if(handleSize > 0)
+            this.handleSize = handleSize;
+        return this;
+    }
+
+    public ShardedUserActionDispatcher withHandler(ListHandler<UserAction> listHandler) {
+        this.listHandler = listHandler;
+        return this;
+    }
+
+    public ShardedUserActionDispatcher withErrorHandler(ListErrorHandler<UserAction> listErrorHandler) {
+        this.listErrorHandler = listErrorHandler;
+        return this;
+    }
+
+    public ShardedUserActionDispatcher start() {
+        if(listHandler == null)
+            throw new CoreException(WSErrors.ERROR_SESSION_DISPATCHER_NO_HANDLER, "ShardedUserActionDispatcher {} no handler", name);
+        if(isStarted.compareAndSet(false, true)) {
+            Shard[] newShards = new Shard[shardCount];
+            for(int i = 0; i < shardCount; i++) {
+                newShards[i] = new Shard(i);
+            }
+            shards = newShards;
+            for(Shard shard : shards) {
+                shard.thread.start();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Stop accepting actions, the actions already offered will still be handled before shard threads exit.
+     */
+    public void stop() {
+        if(isStarted.get() && !isStopping) {
+            isStopping = true;
+            for(Shard shard : shards) {
+                LockSupport.unpark(shard.thread);
+            }
+        }
+    }
+
+    /**
+     * Offer the action onto the shard of the user.
+     * Called from netty callbacks, so the action offered after stop is dropped instead of throwing back into netty.
+     * An action accepted is always handled, the shard threads wait for the offers racing with stop before they exit.
+     *
+     * @return false if the dispatcher is stopped and the action is dropped
+     */
+    public boolean offer(String userId, UserAction userAction) {
+        Shard[] theShards = shards;
+        if(theShards == null)
+            throw new CoreException(WSErrors.ERROR_SESSION_DISPATCHER_NOT_STARTED, "ShardedUserActionDispatcher {} is not started", name);
+        Shard shard = theShards[shardIndex(userId)];
+        offering.incrementAndGet();
+        try {
+            if(isStopping) {
+                TapLogger.debug(TAG, "ShardedUserActionDispatcher {} is stopped, drop action {} of user {}", name, userAction.getAction(), userId);
+                return false;
+            }
+            userAction.setOfferTime(System.nanoTime());
+            shard.pending.increment();
+            shard.queue.offer(userAction);
+        } finally {
+            offering.decrementAndGet();
+        }
+        if(shard.waiting || isStopping)
+            LockSupport.unpark(shard.thread);
+        return true;
+    }
+
+    public int shardIndex(String userId) {
+        int h = userId.hashCode();
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % shards.length;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * @return the latest lag in milliseconds between offer and handle for each shard.
+     */
+    public long[] shardLags() {
+        long[] lags = new long[shards.length];
+        for(int i = 0; i < shards.length; i++) {
+            lags[i] = TimeUnit.NANOSECONDS.toMillis(shards[i].lastLagNanos);
+        }
+        return lags;
+    }
+
+    /**
+     * @return the actions handled for each shard.
+     */
+    public long[] shardHandled() {
+        long[] handled = new long[shards.length];
+        for(int i = 0; i < shards.length; i++) {
+            handled[i] = shards[i].handled;
+        }
+        return handled;
+    }
+
+    /**
+     * @return the actions not handled yet for each shard.
+     */
+    public long[] shardPendings() {
+        long[] pendings = new long[shards.length];
+        for(int i = 0; i < shards.length; i++) {
+            pendings[i] = shards[i].pending.longValue();
+        }
+        return pendings;
+    }
+
+    @Override
+    public DataMap memory(String keyRegex, String memoryLevel) {
+        DataMap dataMap = DataMap.create().keyRegex(keyRegex)/*.prefix(this.getClass().getSimpleName())*/
+                .kv("name", name)
+                .kv("shardCount", shardCount)
+                .kv("handleSize", handleSize)
+                .kv("isStarted", isStarted.get())
+                .kv("isStopping", isStopping);
+        if(shards != null) {
+            DataMap shardsMap = DataMap.create().keyRegex(keyRegex);
+            dataMap.kv("shards", shardsMap);
+            for(Shard shard : shards) {
+                shardsMap.kv(String.valueOf(shard.index), shard.memory(keyRegex, memoryLevel));
+            }
+        }
+        return dataMap;
+    }
+
+    private class Shard implements Runnable, MemoryFetcher {
+        private final int index;
+        private final Thread thread;
+        private final ConcurrentLinkedQueue<UserAction> queue = new ConcurrentLinkedQueue<>();
+        private final LongAdder pending = new LongAdder();
+        private volatile boolean waiting = false;
+        //Only written by the shard thread
+        private volatile long handled;
+        private volatile long lastLagNanos;
+        private volatile long maxLagNanos;
+        private volatile long totalLagNanos;
+
+        Shard(int index) {
+            this.index = index;
+            thread = new Thread(this, name + "-" + index);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<UserAction> handleList = new ArrayList<>(handleSize);
+            while(true) {
+                UserAction userAction;
+                while(handleList.size() < handleSize && (userAction = queue.poll()) != null) {
+                    handleList.add(userAction);
+                    recordLag(userAction);
+                }
+                if(handleList.isEmpty()) {
+                    if(isStopping && offering.get() == 0 && queue.isEmpty())
+                        break;
+                    waiting = true;
+                    if(queue.isEmpty())
+                        LockSupport.parkNanos(this, isStopping ? STOPPING_PARK_NANOS : PARK_NANOS);
+                    waiting = false;
+                    continue;
+                }
+                execute(handleList);
+                pending.add(-handleList.size());
+                handleList.clear();
+            }
+            TapLogger.debug(TAG, "{} stopped, handled {}", thread.getName(), handled);
+        }
+
+        private void recordLag(UserAction userAction) {
+            long lag = System.nanoTime() - userAction.getOfferTime();
+            lastLagNanos = lag;
+            if(lag > maxLagNanos)
+                maxLagNanos = lag;
+            totalLagNanos = totalLagNanos + lag;
+            handled = handled + 1;
+        }
+
+        private void execute(List<UserAction> list) {
+            try {
+                listHandler.execute(list);
+            } catch(Throwable throwable) {
+                TapLogger.error(TAG, "{} occurred unknown error, {}", thread.getName(), throwable.getMessage());
+                if(listErrorHandler != null) {
+                    CommonUtils.ignoreAnyError(() -> listErrorHandler.error(list, throwable), TAG);
+                }
+            }
+        }
+
+        @Override
+        public DataMap memory(String keyRegex, String memoryLevel) {
+            long handledCount = handled;
+            return DataMap.create().keyRegex(keyRegex)/*.prefix(this.getClass().getSimpleName())*/
+                    .kv("pending", pending.longValue())
+                    .kv("handled", handledCount)
+                    .kv("lastLagMs", TimeUnit.NANOSECONDS.toMillis(lastLagNanos))
+                    .kv("maxLagMs", TimeUnit.NANOSECONDS.toMillis(maxLagNanos))
+                    .kv("avgLagMs", handledCount > 0 ? TimeUnit.NANOSECONDS.toMillis(totalLagNanos / handledCount) : 0)
+                    .kv("waiting", waiting);
+        }
+    }
+}
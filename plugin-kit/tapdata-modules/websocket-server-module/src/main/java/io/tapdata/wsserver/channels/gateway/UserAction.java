@@ -81,6 +81,12 @@ public class UserAction {
         return this;
     }
 
+    private long offerTime;
+    public UserAction offerTime(long offerTime) {
+        this.offerTime = offerTime;
+        return this;
+    }
+
     public GatewaySessionHandler getHandler() {
         return handler;
     }
@@ -168,4 +174,12 @@ public class UserAction {
     public void setOutgoingData(OutgoingData outgoingData) {
         this.outgoingData = outgoingData;
     }
+
+    public long getOfferTime() {
+        return offerTime;
+    }
+
+    public void setOfferTime(long offerTime) {
+        this.offerTime = offerTime;
+    }
 }
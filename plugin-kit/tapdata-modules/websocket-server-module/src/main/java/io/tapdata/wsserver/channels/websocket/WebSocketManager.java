@@ -9,6 +9,8 @@ import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.util.ResourceLeakDetector;
+import io.netty.util.NettyRuntime;
+import io.netty.util.internal.SystemPropertyUtil;
 import io.tapdata.entity.annotations.Bean;
 import io.tapdata.entity.error.CoreException;
 import io.tapdata.entity.logger.TapLogger;
@@ -21,7 +23,9 @@ import io.tapdata.wsserver.channels.websocket.impl.WebSocketProperties;
 public class WebSocketManager {
     private final static String TAG = WebSocketManager.class.getSimpleName();
     private final EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-    private final EventLoopGroup workerGroup = new NioEventLoopGroup();
+    //Same default as netty, decided before the group is created, so the components sized by it don't depend on the start order
+    private final int workerCount = Math.max(1, SystemPropertyUtil.getInt("io.netty.eventLoopThreads", NettyRuntime.availableProcessors() * 2));
+    private final EventLoopGroup workerGroup = new NioEventLoopGroup(workerCount);
 
     @Bean
     private WebSocketProperties webSocketProperties;
@@ -58,6 +62,13 @@ public class WebSocketManager {
         }
     }
 
+    /**
+     * @return the thread count of netty worker group
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
     public WebSocketProperties getWebSocketProperties() {
         return webSocketProperties;
     }
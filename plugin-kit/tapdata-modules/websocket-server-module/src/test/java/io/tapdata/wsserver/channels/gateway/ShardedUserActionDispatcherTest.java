@@ -0,0 +1,249 @@
+package io.tapdata.wsserver.channels.gateway;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.pdk.core.utils.queue.ListHandler;
+import io.tapdata.pdk.core.utils.queue.SingleThreadBlockingQueue;
+import io.tapdata.wsserver.channels.error.WSErrors;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ShardedUserActionDispatcherTest {
+    private static final int SESSIONS = 50000;
+    private static final int ACTIONS_PER_SESSION = 4;
+
+    @Test
+    void testOrderPerUser() throws InterruptedException {
+        int users = 1000;
+        int actions = 50;
+        Map<String, AtomicInteger> lastActions = new ConcurrentHashMap<>();
+        AtomicInteger outOfOrder = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(users * actions);
+        ShardedUserActionDispatcher dispatcher = orderCheckingDispatcher("test", lastActions, outOfOrder, latch).withShardCount(4).start();
+        Thread[] producers = new Thread[4];
+        for (int p = 0; p < producers.length; p++) {
+            final int offset = p;
+            producers[p] = new Thread(() -> {
+                for (int a = 0; a < actions; a++) {
+                    for (int u = offset; u < users; u += producers.length) {
+                        dispatcher.offer("user_" + u, new UserAction().userId("user_" + u).action(a));
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        Assertions.assertTrue(latch.await(30, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, outOfOrder.get());
+        Assertions.assertEquals(users, lastActions.size());
+        //Pending is decreased after the handler returns
+        assertNoPending(dispatcher);
+        Assertions.assertEquals(4, dispatcher.shardLags().length);
+        dispatcher.stop();
+    }
+
+    @Test
+    void testOfferBeforeStartAndAfterStop() {
+        AtomicInteger handled = new AtomicInteger();
+        ShardedUserActionDispatcher dispatcher = new ShardedUserActionDispatcher("test").withShardCount(2).withHandler(list -> handled.addAndGet(list.size()));
+        CoreException coreException = Assertions.assertThrows(CoreException.class, () -> dispatcher.offer("user", new UserAction().userId("user")));
+        Assertions.assertEquals(WSErrors.ERROR_SESSION_DISPATCHER_NOT_STARTED, coreException.getCode());
+
+        dispatcher.start();
+        dispatcher.stop();
+        Assertions.assertFalse(dispatcher.offer("user", new UserAction().userId("user")));
+        Assertions.assertEquals(0, handled.get());
+    }
+
+    @Test
+    void testOfferRacingWithStop() throws InterruptedException {
+        LongAdder handled = new LongAdder();
+        ShardedUserActionDispatcher dispatcher = new ShardedUserActionDispatcher("race").withShardCount(4).withHandler(list -> handled.add(list.size())).start();
+        LongAdder accepted = new LongAdder();
+        CountDownLatch offering = new CountDownLatch(4);
+        Thread[] producers = new Thread[4];
+        for (int p = 0; p < producers.length; p++) {
+            final int offset = p;
+            producers[p] = new Thread(() -> {
+                offering.countDown();
+                for (int i = 0; ; i++) {
+                    if (!dispatcher.offer("user_" + offset + "_" + (i % 100), new UserAction().userId("user_" + offset).action(i)))
+                        break;
+                    accepted.increment();
+                }
+            });
+            producers[p].start();
+        }
+        Assertions.assertTrue(offering.await(10, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        dispatcher.stop();
+        for (Thread producer : producers) {
+            producer.join(10000);
+        }
+        //Every action accepted is handled before the shard threads exit
+        long deadline = System.currentTimeMillis() + 10000;
+        while (handled.sum() < accepted.sum() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(accepted.sum(), handled.sum());
+        assertNoPending(dispatcher);
+    }
+
+    /**
+     * 50k sessions on the shards of the netty worker count, every action is handled once in the order of its user,
+     * and the users are spread evenly enough that no shard takes more than twice of the average.
+     */
+    @Test
+    void testSimulate50kSessions() throws InterruptedException {
+        int shardCount = 8;
+        Map<String, AtomicInteger> lastActions = new ConcurrentHashMap<>();
+        AtomicInteger outOfOrder = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(SESSIONS * ACTIONS_PER_SESSION);
+        ShardedUserActionDispatcher dispatcher = orderCheckingDispatcher("simulate", lastActions, outOfOrder, latch).withShardCount(shardCount).start();
+        for (int a = 0; a < ACTIONS_PER_SESSION; a++) {
+            for (int i = 0; i < SESSIONS; i++) {
+                Assertions.assertTrue(dispatcher.offer("user_" + i, new UserAction().userId("user_" + i).action(a)));
+            }
+        }
+        Assertions.assertTrue(latch.await(60, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, outOfOrder.get());
+        Assertions.assertEquals(SESSIONS, lastActions.size());
+        for (AtomicInteger lastAction : lastActions.values()) {
+            Assertions.assertEquals(ACTIONS_PER_SESSION - 1, lastAction.get());
+        }
+        assertNoPending(dispatcher);
+
+        long total = 0;
+        long average = (long) SESSIONS * ACTIONS_PER_SESSION / shardCount;
+        for (long handled : dispatcher.shardHandled()) {
+            Assertions.assertTrue(handled > 0 && handled < average * 2, "shard handled " + handled + ", average " + average);
+            total += handled;
+        }
+        Assertions.assertEquals((long) SESSIONS * ACTIONS_PER_SESSION, total);
+        dispatcher.stop();
+    }
+
+    /**
+     * 50k sessions against the per user SingleThreadBlockingQueue model with the pool of GatewaySessionManager, measured on the same load.
+     * The queues of the users are retained by the model, the shards are not, so the heap of the sharded model is far less.
+     * Both models hand the actions to a thread pool or a shard thread, the latency is dominated by the backlog of the producer,
+     * the sharded model is not slower than the pool of 100 core threads switching between 50k queues.
+     */
+    @Test
+    void testCompareWithQueuePerUser() throws InterruptedException {
+        long[] queuePerUser = simulateQueuePerUser();
+        long[] sharded = simulateSharded();
+        Assertions.assertTrue(sharded[1] * 10 < queuePerUser[1], "sharded heap " + sharded[1] + " vs queue per user heap " + queuePerUser[1]);
+        Assertions.assertTrue(sharded[0] <= queuePerUser[0] * 2, "sharded avg latency " + sharded[0] + "us vs queue per user avg latency " + queuePerUser[0] + "us");
+    }
+
+    /**
+     * @return the average latency in microseconds and the retained heap in bytes
+     */
+    private long[] simulateQueuePerUser() throws InterruptedException {
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(100, 500, 120, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        LongAdder latency = new LongAdder();
+        CountDownLatch latch = new CountDownLatch(SESSIONS * ACTIONS_PER_SESSION);
+        long heapBefore = usedHeap();
+        Map<String, SingleThreadBlockingQueue<UserAction>> queues = new ConcurrentHashMap<>();
+        for (int i = 0; i < SESSIONS; i++) {
+            String userId = "user_" + i;
+            queues.put(userId, new SingleThreadBlockingQueue<UserAction>("UserActionQueue_" + userId)
+                    .withHandler(latencyHandler(latency, latch))
+                    .withExecutorService(threadPoolExecutor)
+                    .withHandleSize(100)
+                    .withMaxSize(500)
+                    .withMaxWaitMilliSeconds(0)
+                    .start());
+        }
+        long heap = usedHeap() - heapBefore;
+        try {
+            for (int a = 0; a < ACTIONS_PER_SESSION; a++) {
+                for (int i = 0; i < SESSIONS; i++) {
+                    queues.get("user_" + i).offer(new UserAction().userId("user_" + i).action(a).offerTime(System.nanoTime()));
+                }
+            }
+            Assertions.assertTrue(latch.await(60, TimeUnit.SECONDS));
+        } finally {
+            threadPoolExecutor.shutdownNow();
+        }
+        Assertions.assertEquals(SESSIONS, queues.size());
+        return new long[]{TimeUnit.NANOSECONDS.toMicros(latency.sum() / ((long) SESSIONS * ACTIONS_PER_SESSION)), heap};
+    }
+
+    private long[] simulateSharded() throws InterruptedException {
+        LongAdder latency = new LongAdder();
+        CountDownLatch latch = new CountDownLatch(SESSIONS * ACTIONS_PER_SESSION);
+        long heapBefore = usedHeap();
+        ShardedUserActionDispatcher dispatcher = new ShardedUserActionDispatcher("simulate")
+                .withShardCount(8)
+                .withHandler(latencyHandler(latency, latch))
+                .start();
+        long heap = usedHeap() - heapBefore;
+        try {
+            for (int a = 0; a < ACTIONS_PER_SESSION; a++) {
+                for (int i = 0; i < SESSIONS; i++) {
+                    dispatcher.offer("user_" + i, new UserAction().userId("user_" + i).action(a));
+                }
+            }
+            Assertions.assertTrue(latch.await(60, TimeUnit.SECONDS));
+        } finally {
+            dispatcher.stop();
+        }
+        return new long[]{TimeUnit.NANOSECONDS.toMicros(latency.sum() / ((long) SESSIONS * ACTIONS_PER_SESSION)), heap};
+    }
+
+    private ListHandler<UserAction> latencyHandler(LongAdder latency, CountDownLatch latch) {
+        return list -> {
+            long now = System.nanoTime();
+            for (UserAction userAction : list) {
+                latency.add(now - userAction.getOfferTime());
+                latch.countDown();
+            }
+        };
+    }
+
+    private long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        //The least of a few collections, a single System.gc is only a hint
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private ShardedUserActionDispatcher orderCheckingDispatcher(String name, Map<String, AtomicInteger> lastActions, AtomicInteger outOfOrder, CountDownLatch latch) {
+        return new ShardedUserActionDispatcher(name)
+                .withHandler(list -> {
+                    for (UserAction userAction : list) {
+                        AtomicInteger last = lastActions.computeIfAbsent(userAction.getUserId(), k -> new AtomicInteger(-1));
+                        if (last.getAndSet(userAction.getAction()) != userAction.getAction() - 1)
+                            outOfOrder.incrementAndGet();
+                        latch.countDown();
+                    }
+                });
+    }
+
+    private void assertNoPending(ShardedUserActionDispatcher dispatcher) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        long pendings;
+        do {
+            pendings = 0;
+            for (long pending : dispatcher.shardPendings()) {
+                pendings += pending;
+            }
+            if (pendings > 0)
+                Thread.sleep(10);
+        } while (pendings > 0 && System.currentTimeMillis() < deadline);
+        Assertions.assertEquals(0, pendings);
+    }
+}
@@ -2,44 +2,50 @@ package io.tapdata.pdk.apis.consumer;
 
 import io.tapdata.entity.event.TapEvent;
 import io.tapdata.pdk.apis.utils.StateListener;
+import io.tapdata.performance.utils.LagTracker;
 
 import java.util.List;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class StreamReadConsumer implements BiConsumer<List<TapEvent>, Object> {
     public static final int STATE_STREAM_READ_PENDING = 1;
     public static final int STATE_STREAM_READ_STARTED = 10;
     public static final int STATE_STREAM_READ_ENDED = 100;
-    private int state = STATE_STREAM_READ_PENDING;
+    //Read without lock, the reader thread accepting events doesn't contend with the state checks
+    private volatile int state = STATE_STREAM_READ_PENDING;
 
     private BiConsumer<List<TapEvent>, Object> consumer;
     private StateListener<Integer> stateListener;
-    private boolean asyncMethodAndNoRetry = false;
+    private LagTracker lagTracker;
+    private Function<String, StreamReadConsumer> connectionConsumerProvider;
+    private int batchSize;
+    private volatile boolean asyncMethodAndNoRetry = false;
 
     public void asyncMethodAndNoRetry() {
         asyncMethodAndNoRetry = true;
     }
 
-    public synchronized void streamReadStarted() {
-        if(state == STATE_STREAM_READ_STARTED)
-            return;
-
-        int old = state;
-        state = STATE_STREAM_READ_STARTED;
-        if(stateListener != null) {
-            stateListener.stateChanged(old, state);
-        }
+    public void streamReadStarted() {
+        changeState(STATE_STREAM_READ_STARTED);
     }
 
-    public synchronized void streamReadEnded() {
-        if(state == STATE_STREAM_READ_ENDED)
-            return;
+    public void streamReadEnded() {
+        changeState(STATE_STREAM_READ_ENDED);
+    }
 
+    /**
+     * The listener is called once by the thread changing the state, in the transition,
+     * so the listener sees the transitions in the order of the state changes.
+     */
+    private synchronized void changeState(int newState) {
         int old = state;
-        state = STATE_STREAM_READ_ENDED;
+        if(old == newState)
+            return;
+        state = newState;
         if(stateListener != null) {
-            stateListener.stateChanged(old, state);
+            stateListener.stateChanged(old, newState);
         }
     }
 
@@ -65,8 +71,67 @@ public class StreamReadConsumer implements BiConsumer<List<TapEvent>, Object> {
         return this;
     }
 
+    /**
+     * Record the lags of the events before they are accepted.
+     */
+    public StreamReadConsumer lagTracker(LagTracker lagTracker) {
+        this.lagTracker = lagTracker;
+        return this;
+    }
+
+    public LagTracker getLagTracker() {
+        return lagTracker;
+    }
+
+    /**
+     * @param batchSize recommended batch size for the reader of this consumer
+     */
+    public StreamReadConsumer batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @return the recommended batch size, 0 if not recommended, use the batch size given to the stream read then
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Provide the consumers of the connections for {@link io.tapdata.pdk.apis.functions.connector.source.StreamReadMultiConnectionFunction}.
+     */
+    public StreamReadConsumer connectionConsumerProvider(Function<String, StreamReadConsumer> connectionConsumerProvider) {
+        this.connectionConsumerProvider = connectionConsumerProvider;
+        return this;
+    }
+
+    /**
+     * The consumer for the events read by one connection, the runner may queue and merge the connections fairly.
+     *
+     * @param connectionId the id of the connection, unique in the stream read
+     * @return this consumer if the runner doesn't consume the connections separately
+     */
+    public StreamReadConsumer connection(String connectionId) {
+        if(connectionConsumerProvider == null)
+            return this;
+        StreamReadConsumer connectionConsumer = connectionConsumerProvider.apply(connectionId);
+        return connectionConsumer != null ? connectionConsumer : this;
+    }
+
+    /**
+     * Accept the events with a numeric offset, like the position of binlog.
+     * Boxed here, the consumers tracking offsets without boxing override it.
+     * Named apart from {@link #accept(List, Object)}, the callers passing a long there keep getting the boxed offset.
+     */
+    public void acceptLongOffset(List<TapEvent> events, long offset) {
+        accept(events, (Object) offset);
+    }
+
     @Override
     public void accept(List<TapEvent> events, Object offset) {
+        if(lagTracker != null)
+            lagTracker.record(events);
         consumer.accept(events, offset);
     }
 
@@ -0,0 +1,12 @@
+package io.tapdata.pdk.apis.context;
+
+/**
+ * Recommends the batch size for batchRead and streamRead while the task is running,
+ * see {@link TapConnectorContext#recommendedBatchSize(int)}.
+ */
+public interface BatchSizeAdvisor {
+    /**
+     * @return the batch size recommended for the next batch
+     */
+    int getBatchSize();
+}
@@ -21,6 +21,7 @@ public class TapConnectorContext extends TapConnectionContext {
     protected KVMap<Object> globalStateMap;
     protected ConfigContext configContext;
     protected IsomorphismType isomorphism;
+    protected BatchSizeAdvisor batchSizeAdvisor;
 
     public TapConnectorContext(TapNodeSpecification specification, DataMap connectionConfig, DataMap nodeConfig, Log log) {
         super(specification, connectionConfig, nodeConfig, log);
@@ -93,6 +94,29 @@ public class TapConnectorContext extends TapConnectionContext {
         this.isomorphism = isomorphism;
     }
 
+    public BatchSizeAdvisor getBatchSizeAdvisor() {
+        return batchSizeAdvisor;
+    }
+
+    public void setBatchSizeAdvisor(BatchSizeAdvisor batchSizeAdvisor) {
+        this.batchSizeAdvisor = batchSizeAdvisor;
+    }
+
+    /**
+     * The batch size given to batchRead and streamRead is fixed when the method is called,
+     * connectors which read in a loop can ask for the size adapted to the row width and the downstream before each batch.
+     *
+     * @param batchSize the batch size given by the method
+     * @return batch size recommended by the runner, or the given batch size if the runner doesn't adapt it
+     */
+    public int recommendedBatchSize(int batchSize) {
+        BatchSizeAdvisor advisor = batchSizeAdvisor;
+        if(advisor == null)
+            return batchSize;
+        int recommended = advisor.getBatchSize();
+        return recommended > 0 ? recommended : batchSize;
+    }
+
     public String toString() {
         return "TapConnectorContext " + "connectionConfig: " + (connectionConfig != null ? InstanceFactory.instance(JsonParser.class).toJson(connectionConfig) : "") + " nodeConfig: " + (nodeConfig != null ? InstanceFactory.instance(JsonParser.class).toJson(nodeConfig) : "") + " spec: " + specification + " id: " + id;
     }
@@ -0,0 +1,554 @@
+package io.tapdata.pdk.apis.entity;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.error.TapAPIErrorCodes;
+import io.tapdata.entity.schema.TapField;
+import io.tapdata.entity.schema.TapTable;
+import io.tapdata.entity.schema.type.*;
+import io.tapdata.entity.schema.value.DateTime;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * {@link TapAdvanceFilter} compiled against the fields of a {@link TapTable}, for the records filtered in memory.
+ * Compile once and reuse it for all the records, it is immutable and thread safe, the {@link Selector} is not.
+ * <p>
+ * The comparison of each field is decided when compiled by the {@link TapType} of the field, or the class of the operand when the type is unknown,
+ * the operands are converted to the type of the field once, numbers compare as long or double without a BigDecimal unless one side is a decimal.
+ * A record without the field or with a null value does not match an operator.
+ * <p>
+ * The projection is a precomputed field set, applied to the records selected only.
+ * With sort and limit the {@link Selector} keeps the top skip + limit records in a bounded heap instead of sorting all the matched records.
+ * Collate names ending with "_ci" compare strings case insensitively.
+ */
+public class CompiledAdvanceFilter implements Predicate<Map<String, Object>>, Comparator<Map<String, Object>> {
+    private final Condition[] conditions;
+    private final SortKey[] sortKeys;
+    private final String[] includeFields;
+    private final Set<String> excludeFields;
+    private final int skip;
+    private final int limit;
+
+    private CompiledAdvanceFilter(Condition[] conditions, SortKey[] sortKeys, String[] includeFields, Set<String> excludeFields, int skip, int limit) {
+        this.conditions = conditions;
+        this.sortKeys = sortKeys;
+        this.includeFields = includeFields;
+        this.excludeFields = excludeFields;
+        this.skip = skip;
+        this.limit = limit;
+    }
+
+    /**
+     * @param table the fields give the type of the comparisons, may be null to compare by the operand classes
+     */
+    public static CompiledAdvanceFilter compile(TapAdvanceFilter filter, TapTable table) {
+        if(filter == null)
+            filter = TapAdvanceFilter.create();
+        Map<String, TapField> nameFieldMap = table != null ? table.getNameFieldMap() : null;
+        Map<String, String> collateMap = new HashMap<>();
+        if(filter.getCollateList() != null) {
+            for(Collate collate : filter.getCollateList()) {
+                if(collate != null && collate.getFieldName() != null)
+                    collateMap.put(collate.getFieldName(), collate.getCollateName());
+            }
+        }
+
+        List<Condition> conditions = new ArrayList<>();
+        if(filter.getMatch() != null) {
+            for(Map.Entry<String, Object> entry : filter.getMatch().entrySet()) {
+                ValueType valueType = valueType(entry.getKey(), entry.getValue(), nameFieldMap, collateMap);
+                conditions.add(new Condition(entry.getKey(), Condition.EQUALS, valueType, valueType.convert(entry.getValue())));
+            }
+        }
+        if(filter.getOperators() != null) {
+            for(QueryOperator operator : filter.getOperators()) {
+                if(operator == null)
+                    continue;
+                int op = operator.getOperator();
+                if(op != QueryOperator.GT && op != QueryOperator.GTE && op != QueryOperator.LT && op != QueryOperator.LTE)
+                    throw new CoreException(TapAPIErrorCodes.ERROR_ILLEGAL_PARAMETERS, "Unknown operator {} of key {} to compile", op, operator.getKey());
+                ValueType valueType = valueType(operator.getKey(), operator.getValue(), nameFieldMap, collateMap);
+                conditions.add(new Condition(operator.getKey(), op, valueType, valueType.convert(operator.getValue())));
+            }
+        }
+
+        List<SortKey> sortKeys = new ArrayList<>();
+        if(filter.getSortOnList() != null) {
+            for(SortOn sortOn : filter.getSortOnList()) {
+                if(sortOn != null && sortOn.getKey() != null)
+                    sortKeys.add(new SortKey(sortOn.getKey(), valueType(sortOn.getKey(), null, nameFieldMap, collateMap), sortOn.getSort() == SortOn.DESCENDING, sortOn.getNullSort()));
+            }
+        }
+
+        String[] includeFields = null;
+        Set<String> excludeFields = null;
+        Projection projection = filter.getProjection();
+        if(projection != null) {
+            if(projection.getIncludeFields() != null && !projection.getIncludeFields().isEmpty())
+                includeFields = projection.getIncludeFields().toArray(new String[0]);
+            else if(projection.getExcludeFields() != null && !projection.getExcludeFields().isEmpty())
+                excludeFields = new HashSet<>(projection.getExcludeFields());
+        }
+        return new CompiledAdvanceFilter(conditions.toArray(new Condition[0]), sortKeys.toArray(new SortKey[0]), includeFields, excludeFields,
+                filter.getSkip() != null ? Math.max(filter.getSkip(), 0) : 0,
+                filter.getLimit() != null && filter.getLimit() >= 0 ? filter.getLimit() : -1);
+    }
+
+    private static ValueType valueType(String key, Object operand, Map<String, TapField> nameFieldMap, Map<String, String> collateMap) {
+        TapField field = nameFieldMap != null ? nameFieldMap.get(key) : null;
+        TapType tapType = field != null ? field.getTapType() : null;
+        String collateName = collateMap.get(key);
+        if(tapType instanceof TapNumber)
+            return ValueType.NUMBER;
+        if(tapType instanceof TapString)
+            return collateName != null && collateName.toLowerCase().endsWith("_ci") ? ValueType.STRING_CI : ValueType.STRING;
+        if(tapType instanceof TapDateTime || tapType instanceof TapDate)
+            return ValueType.DATETIME;
+        if(tapType instanceof TapBoolean)
+            return ValueType.BOOLEAN;
+        if(tapType == null) {
+            if(operand instanceof Number)
+                return ValueType.NUMBER;
+            if(operand instanceof String)
+                return collateName != null && collateName.toLowerCase().endsWith("_ci") ? ValueType.STRING_CI : ValueType.STRING;
+            if(ValueType.isDateTime(operand))
+                return ValueType.DATETIME;
+            if(operand instanceof Boolean)
+                return ValueType.BOOLEAN;
+        }
+        return ValueType.GENERIC;
+    }
+
+    /**
+     * @return whether the record matches all the match values and operators
+     */
+    @Override
+    public boolean test(Map<String, Object> record) {
+        if(record == null)
+            return false;
+        for(Condition condition : conditions) {
+            if(!condition.test(record))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compare by the sort keys, 0 if there is no sort
+     */
+    @Override
+    public int compare(Map<String, Object> record1, Map<String, Object> record2) {
+        for(SortKey sortKey : sortKeys) {
+            int result = sortKey.compare(record1.get(sortKey.key), record2.get(sortKey.key));
+            if(result != 0)
+                return result;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the record with the projected fields only, the record itself if there is no projection
+     */
+    public Map<String, Object> project(Map<String, Object> record) {
+        if(includeFields != null) {
+            Map<String, Object> projected = new LinkedHashMap<>(includeFields.length * 2);
+            for(String field : includeFields) {
+                Object value = record.get(field);
+                if(value != null || record.containsKey(field))
+                    projected.put(field, value);
+            }
+            return projected;
+        }
+        if(excludeFields != null) {
+            Map<String, Object> projected = new LinkedHashMap<>(record.size() * 2);
+            for(Map.Entry<String, Object> entry : record.entrySet()) {
+                if(!excludeFields.contains(entry.getKey()))
+                    projected.put(entry.getKey(), entry.getValue());
+            }
+            return projected;
+        }
+        return record;
+    }
+
+    public boolean hasSort() {
+        return sortKeys.length > 0;
+    }
+
+    public boolean hasProjection() {
+        return includeFields != null || excludeFields != null;
+    }
+
+    public int getSkip() {
+        return skip;
+    }
+
+    /**
+     * @return the limit, -1 for no limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return a new selector to take the records one by one, for the records given in batches
+     */
+    public Selector selector() {
+        return new Selector();
+    }
+
+    /**
+     * @return the records matched, sorted, skipped, limited and projected
+     */
+    public List<Map<String, Object>> select(Iterable<Map<String, Object>> records) {
+        Selector selector = selector();
+        for(Map<String, Object> record : records) {
+            if(!selector.accept(record))
+                break;
+        }
+        return selector.results();
+    }
+
+    /**
+     * Take the records one by one and give the results of the filter at the end
+     */
+    public class Selector {
+        private final PriorityQueue<Ranked> heap;
+        private final int capacity;
+        private final List<Map<String, Object>> matched;
+        private long sequence;
+        private int skipped;
+
+        private Selector() {
+            if(sortKeys.length > 0 && limit >= 0) {
+                capacity = skip + limit;
+                //The head is the worst record kept
+                heap = new PriorityQueue<>(Math.max(capacity, 1), (ranked1, ranked2) -> ranked2.compareTo(ranked1));
+                matched = null;
+            } else {
+                capacity = -1;
+                heap = null;
+                matched = new ArrayList<>();
+            }
+        }
+
+        /**
+         * @return false if no more record is needed
+         */
+        public boolean accept(Map<String, Object> record) {
+            if(!test(record))
+                return true;
+            if(heap != null) {
+                if(capacity == 0)
+                    return false;
+                if(heap.size() < capacity) {
+                    heap.offer(new Ranked(record, sequence++));
+                } else if(CompiledAdvanceFilter.this.compare(record, heap.peek().record) < 0) {
+                    heap.poll();
+                    heap.offer(new Ranked(record, sequence++));
+                }
+                return true;
+            }
+            if(sortKeys.length > 0) {
+                matched.add(record);
+                return true;
+            }
+            if(skipped < skip) {
+                skipped++;
+                return true;
+            }
+            if(limit >= 0 && matched.size() >= limit)
+                return false;
+            matched.add(record);
+            return limit < 0 || matched.size() < limit;
+        }
+
+        public List<Map<String, Object>> results() {
+            List<Map<String, Object>> records;
+            if(heap != null) {
+                Ranked[] rankedArray = heap.toArray(new Ranked[0]);
+                Arrays.sort(rankedArray);
+                records = new ArrayList<>(Math.max(rankedArray.length - skip, 0));
+                for(int i = skip; i < rankedArray.length; i++) {
+                    records.add(rankedArray[i].record);
+                }
+            } else if(sortKeys.length > 0) {
+                List<Map<String, Object>> sorted = new ArrayList<>(matched);
+                sorted.sort(CompiledAdvanceFilter.this);
+                int from = Math.min(skip, sorted.size());
+                int to = limit >= 0 ? Math.min(from + limit, sorted.size()) : sorted.size();
+                records = sorted.subList(from, to);
+            } else {
+                records = matched;
+            }
+            if(!hasProjection())
+                return new ArrayList<>(records);
+            List<Map<String, Object>> projected = new ArrayList<>(records.size());
+            for(Map<String, Object> record : records) {
+                projected.add(project(record));
+            }
+            return projected;
+        }
+    }
+
+    /**
+     * Record in the heap, the sequence keeps the order of the records equal by the sort keys
+     */
+    private class Ranked implements Comparable<Ranked> {
+        private final Map<String, Object> record;
+        private final long sequence;
+
+        Ranked(Map<String, Object> record, long sequence) {
+            this.record = record;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Ranked o) {
+            int result = CompiledAdvanceFilter.this.compare(record, o.record);
+            return result != 0 ? result : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    private static class Condition {
+        private static final int EQUALS = 0;
+        private final String key;
+        private final int operator;
+        private final ValueType valueType;
+        private final Object operand;
+
+        Condition(String key, int operator, ValueType valueType, Object operand) {
+            this.key = key;
+            this.operator = operator;
+            this.valueType = valueType;
+            this.operand = operand;
+        }
+
+        boolean test(Map<String, Object> record) {
+            Object value = record.get(key);
+            if(operator == EQUALS) {
+                if(operand == null)
+                    return value == null;
+                return value != null && valueType.compare(value, operand) == 0;
+            }
+            if(value == null || operand == null)
+                return false;
+            int result = valueType.compare(value, operand);
+            switch (operator) {
+                case QueryOperator.GT:
+                    return result > 0;
+                case QueryOperator.GTE:
+                    return result >= 0;
+                case QueryOperator.LT:
+                    return result < 0;
+                default:
+                    return result <= 0;
+            }
+        }
+    }
+
+    private static class SortKey {
+        private final String key;
+        private final ValueType valueType;
+        private final boolean descending;
+        private final boolean nullsFirst;
+
+        SortKey(String key, ValueType valueType, boolean descending, int nullSort) {
+            this.key = key;
+            this.valueType = valueType;
+            this.descending = descending;
+            //Null is the smallest by default
+            this.nullsFirst = nullSort == SortOn.DEFAULT_NULL_SORT ? !descending : nullSort == SortOn.NULLS_FIRST;
+        }
+
+        int compare(Object value1, Object value2) {
+            if(value1 == null || value2 == null) {
+                if(value1 == value2)
+                    return 0;
+                return (value1 == null) == nullsFirst ? -1 : 1;
+            }
+            int result = valueType.compare(value1, value2);
+            return descending ? -result : result;
+        }
+    }
+
+    /**
+     * Comparison of the non null values of a field
+     */
+    private enum ValueType {
+        NUMBER {
+            @Override
+            int compare(Object value1, Object value2) {
+                if(!(value1 instanceof Number) || !(value2 instanceof Number))
+                    return GENERIC.compare(value1, value2);
+                if(isIntegral(value1) && isIntegral(value2))
+                    return Long.compare(((Number) value1).longValue(), ((Number) value2).longValue());
+                if(isDecimal(value1) || isDecimal(value2))
+                    return toBigDecimal((Number) value1).compareTo(toBigDecimal((Number) value2));
+                return Double.compare(((Number) value1).doubleValue(), ((Number) value2).doubleValue());
+            }
+
+            @Override
+            Object convert(Object operand) {
+                if(operand instanceof String) {
+                    try {
+                        BigDecimal decimal = new BigDecimal(((String) operand).trim());
+                        try {
+                            return decimal.longValueExact();
+                        } catch(ArithmeticException ignored) {
+                            return decimal;
+                        }
+                    } catch(NumberFormatException ignored) {
+                        return operand;
+                    }
+                }
+                if(operand instanceof BigInteger)
+                    return new BigDecimal((BigInteger) operand);
+                return operand;
+            }
+        },
+        STRING {
+            @Override
+            int compare(Object value1, Object value2) {
+                return value1.toString().compareTo(value2.toString());
+            }
+
+            @Override
+            Object convert(Object operand) {
+                return operand != null ? operand.toString() : null;
+            }
+        },
+        STRING_CI {
+            @Override
+            int compare(Object value1, Object value2) {
+                return String.CASE_INSENSITIVE_ORDER.compare(value1.toString(), value2.toString());
+            }
+
+            @Override
+            Object convert(Object operand) {
+                return operand != null ? operand.toString() : null;
+            }
+        },
+        DATETIME {
+            @Override
+            int compare(Object value1, Object value2) {
+                if(!isDateTime(value1) || !isDateTime(value2))
+                    return GENERIC.compare(value1, value2);
+                int result = Long.compare(epochSecond(value1), epochSecond(value2));
+                return result != 0 ? result : Integer.compare(nano(value1), nano(value2));
+            }
+
+            @Override
+            Object convert(Object operand) {
+                if(operand instanceof Long)
+                    return new DateTime((Long) operand);
+                if(operand instanceof String) {
+                    try {
+                        return DateTime.withDateStr((String) operand);
+                    } catch(IllegalArgumentException ignored) {
+                        return operand;
+                    }
+                }
+                return operand;
+            }
+        },
+        BOOLEAN {
+            @Override
+            int compare(Object value1, Object value2) {
+                if(value1 instanceof Boolean && value2 instanceof Boolean)
+                    return Boolean.compare((Boolean) value1, (Boolean) value2);
+                return GENERIC.compare(value1, value2);
+            }
+
+            @Override
+            Object convert(Object operand) {
+                if(operand instanceof String)
+                    return Boolean.parseBoolean((String) operand);
+                return operand;
+            }
+        },
+        GENERIC {
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            @Override
+            int compare(Object value1, Object value2) {
+                if(value1 instanceof Number && value2 instanceof Number)
+                    return NUMBER.compare(value1, value2);
+                if(isDateTime(value1) && isDateTime(value2))
+                    return DATETIME.compare(value1, value2);
+                if(value1.getClass() == value2.getClass() && value1 instanceof Comparable)
+                    return ((Comparable) value1).compareTo(value2);
+                return value1.toString().compareTo(value2.toString());
+            }
+
+            @Override
+            Object convert(Object operand) {
+                return operand;
+            }
+        };
+
+        abstract int compare(Object value1, Object value2);
+
+        /**
+         * @return the operand in the class compared fastest by this type
+         */
+        abstract Object convert(Object operand);
+
+        private static boolean isIntegral(Object value) {
+            return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+        }
+
+        private static boolean isDecimal(Object value) {
+            return value instanceof BigDecimal || value instanceof BigInteger;
+        }
+
+        private static BigDecimal toBigDecimal(Number number) {
+            if(number instanceof BigDecimal)
+                return (BigDecimal) number;
+            if(number instanceof BigInteger)
+                return new BigDecimal((BigInteger) number);
+            if(isIntegral(number))
+                return BigDecimal.valueOf(number.longValue());
+            return BigDecimal.valueOf(number.doubleValue());
+        }
+
+        static boolean isDateTime(Object value) {
+            return value instanceof DateTime || value instanceof Date || value instanceof Instant || value instanceof LocalDateTime || value instanceof ZonedDateTime;
+        }
+
+        private static long epochSecond(Object value) {
+            if(value instanceof DateTime) {
+                Long seconds = ((DateTime) value).getSeconds();
+                return seconds != null ? seconds : 0L;
+            }
+            if(value instanceof Date)
+                return Math.floorDiv(((Date) value).getTime(), 1000L);
+            if(value instanceof Instant)
+                return ((Instant) value).getEpochSecond();
+            if(value instanceof LocalDateTime)
+                return ((LocalDateTime) value).toEpochSecond(ZoneOffset.UTC);
+            return ((ZonedDateTime) value).toEpochSecond();
+        }
+
+        private static int nano(Object value) {
+            if(value instanceof DateTime) {
+                Integer nano = ((DateTime) value).getNano();
+                return nano != null ? nano : 0;
+            }
+            if(value instanceof java.sql.Timestamp)
+                return ((java.sql.Timestamp) value).getNanos();
+            if(value instanceof Date)
+                return (int) Math.floorMod(((Date) value).getTime(), 1000L) * 1000000;
+            if(value instanceof Instant)
+                return ((Instant) value).getNano();
+            if(value instanceof LocalDateTime)
+                return ((LocalDateTime) value).getNano();
+            return ((ZonedDateTime) value).getNano();
+        }
+    }
+}
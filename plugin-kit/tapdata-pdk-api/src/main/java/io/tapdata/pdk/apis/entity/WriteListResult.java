@@ -26,6 +26,16 @@ public class WriteListResult<T> {
 		return this;
 	}
 
+	/**
+	 * Events merged into others on the same primary key before written, not counted in inserted, modified or removed.
+	 */
+	private long mergedCount;
+
+	public WriteListResult<T> mergedCount(long mergedCount) {
+		this.mergedCount = mergedCount;
+		return this;
+	}
+
 	private Map<T, Throwable> errorMap;
 
 	public WriteListResult<T> addError(T key, Throwable value) {
@@ -74,6 +84,14 @@ public class WriteListResult<T> {
 		this.modifiedCount = modifiedCount;
 	}
 
+	public long getMergedCount() {
+		return mergedCount;
+	}
+
+	public void setMergedCount(long mergedCount) {
+		this.mergedCount = mergedCount;
+	}
+
 	public Map<T, Throwable> getErrorMap() {
 		return errorMap;
 	}
@@ -94,6 +112,10 @@ public class WriteListResult<T> {
 		this.removedCount = this.removedCount + value;
 	}
 
+	public void incrementMerged(long value) {
+		this.mergedCount = this.mergedCount + value;
+	}
+
     public void addErrors(Map<T, Throwable> map) {
 		if (errorMap == null) {
 			errorMap = new HashMap<>();
@@ -14,7 +14,7 @@ public interface BatchReadFunction extends TapConnectorFunction {
      * @param table the table to batch read from
      * @param offsetState if null, means start from very beginning, otherwise is the start point for batch reading.
      *                    type can be any that comfortable for saving offset state.
-     * @param eventBatchSize the batch size for the max record list size when consumer#accept a batch
+     * @param eventBatchSize the batch size for the max record list size when consumer#accept a batch, connectors reading in a loop can adapt it by TapConnectorContext#recommendedBatchSize
      * @param eventsOffsetConsumer accept the records and offsetState.
      */
     void batchRead(TapConnectorContext connectorContext, TapTable table, Object offsetState, int eventBatchSize, BiConsumer<List<TapEvent>, Object> eventsOffsetConsumer) throws Throwable;
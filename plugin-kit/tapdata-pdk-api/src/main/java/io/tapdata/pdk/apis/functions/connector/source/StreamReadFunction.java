@@ -12,7 +12,7 @@ public interface StreamReadFunction extends TapConnectorFunction {
      * @param nodeContext the node context in a DAG
      * @param offsetState if null, means start from very beginning, otherwise is the start point for batch reading.
      *                    type can be any that comfortable for saving offset state.
-     * @param recordSize
+     * @param recordSize the batch size for the max record list size when consumer#accept a batch, connectors reading in a loop can adapt it by TapConnectorContext#recommendedBatchSize
      * @param consumer accept the table and offsetState for the record.
      */
     void streamRead(TapConnectorContext nodeContext, List<String> tableList, Object offsetState, int recordSize, StreamReadConsumer consumer) throws Throwable;
@@ -14,6 +14,7 @@ public interface StreamReadMultiConnectionFunction extends TapConnectorFunction
      *                    type can be any that comfortable for saving offset state.
      * @param batchSize
      * @param consumer accept the table and offsetState for the record.
+     *                 Events read by each connection are better accepted by {@link StreamReadConsumer#connection(String)} for the fairness between the connections.
      */
     void streamRead(TapConnectorContext nodeContext, List<ConnectionConfigWithTables> connectionConfigWithTables, Object offsetState, int batchSize, StreamReadConsumer consumer) throws Throwable;
 }
@@ -23,11 +23,14 @@ import io.tapdata.pdk.apis.spec.TapNodeSpecification;
 import io.tapdata.pdk.core.connector.TapConnectorManager;
 import io.tapdata.pdk.core.dag.TapDAGNode;
 import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+import io.tapdata.pdk.core.executor.ExecutorsManager;
 import io.tapdata.entity.memory.MemoryFetcher;
 import io.tapdata.pdk.core.memory.MemoryManager;
 import io.tapdata.pdk.core.monitor.PDKInvocationMonitor;
 import io.tapdata.pdk.core.tapnode.TapNodeInstance;
+import io.tapdata.pdk.core.utils.timer.HashedWheelTimer;
 
+import java.io.OutputStream;
 import java.text.MessageFormat;
 import java.util.List;
 import java.util.Map;
@@ -444,6 +447,7 @@ public class PDKIntegration {
             memoryManager = MemoryManager.create();
             memoryManager.register(TapConnectorManager.class.getSimpleName(), tapConnectorManager);
             memoryManager.register(PDKInvocationMonitor.class.getSimpleName(), PDKInvocationMonitor.getInstance());
+            memoryManager.register(HashedWheelTimer.class.getSimpleName(), ExecutorsManager.getInstance().getHashedWheelTimer());
         }
     }
 
@@ -497,4 +501,12 @@ public class PDKIntegration {
         init();
         return memoryManager.outputDataMap(keys, keyRegex, memoryLevel);
     }
+
+    /**
+     * Write the memory of fetchers as JSON into the output stream while fetching, see {@link MemoryManager#output(List, String, String, OutputStream, long)}.
+     */
+    public static long outputMemoryFetchers(List<String> keys, String keyRegex, String memoryLevel, OutputStream outputStream, long maxChars) {
+        init();
+        return memoryManager.output(keys, keyRegex, memoryLevel, outputStream, maxChars);
+    }
 }
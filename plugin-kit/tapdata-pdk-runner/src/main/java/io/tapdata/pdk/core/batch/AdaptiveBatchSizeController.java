@@ -0,0 +1,204 @@
+package io.tapdata.pdk.core.batch;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.event.dml.TapRecordEvent;
+import io.tapdata.pdk.apis.context.BatchSizeAdvisor;
+import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Adapt the batch size of batchRead and streamRead by AIMD, additive increase and multiplicative decrease.
+ * 宽表小批， 窄表大批， 下游写不过来时迅速减小批次
+ *
+ * The runner reports what it observes,
+ * <ul>
+ *     <li>the events of each batch read, for the bytes per event by {@link TapEvent#getMemorySize()}, estimated by {@link TapRecordEvent#estimateMemorySize()} for the records not sized yet</li>
+ *     <li>the depth of the queue between the source and the target</li>
+ *     <li>the latency of writing a batch into the target</li>
+ * </ul>
+ * After each batch read, the batch size is multiplied by the decrease factor when the queue is above the high watermark or the write latency is above the target,
+ * otherwise it is increased by the additive step. The size is kept in the bounds and the batch bytes are kept under the max batch bytes.
+ *
+ * Set it into TapConnectorContext as the batch size advisor, connectors read the size by TapConnectorContext#recommendedBatchSize.
+ */
+public class AdaptiveBatchSizeController implements BatchSizeAdvisor {
+    private int minBatchSize = 10;
+    private int maxBatchSize = 5000;
+    private int additiveIncrease = 50;
+    private double multiplicativeDecrease = 0.5;
+    private long maxBatchBytes = 8L * 1024 * 1024;
+    private long targetWriteLatencyMillis = 1000L;
+    private double queueHighWatermark = 0.8;
+    /**
+     * Weight of the latest observation in the moving averages
+     */
+    private double smoothing = 0.3;
+    private ToLongFunction<TapEvent> eventSizer = AdaptiveBatchSizeController::memorySize;
+
+    private volatile int batchSize = 500;
+    private volatile double bytesPerEvent = Double.NaN;
+    private volatile double writeLatencyMillis = Double.NaN;
+    private volatile double queueRatio;
+    private volatile long increasedCount;
+    private volatile long decreasedCount;
+
+    public AdaptiveBatchSizeController withBounds(int minBatchSize, int maxBatchSize) {
+        if(minBatchSize <= 0 || maxBatchSize < minBatchSize)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "Illegal batch size bounds min {} max {}", minBatchSize, maxBatchSize);
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.batchSize = clamp(batchSize);
+        return this;
+    }
+
+    public AdaptiveBatchSizeController withInitialBatchSize(int initialBatchSize) {
+        this.batchSize = clamp(initialBatchSize);
+        return this;
+    }
+
+    public AdaptiveBatchSizeController withAdditiveIncrease(int additiveIncrease) {
+        this.additiveIncrease = Math.max(1, additiveIncrease);
+        return this;
+    }
+
+    public AdaptiveBatchSizeController withMultiplicativeDecrease(double multiplicativeDecrease) {
+        if(multiplicativeDecrease <= 0 || multiplicativeDecrease >= 1)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "Illegal multiplicative decrease {}, expect between 0 and 1", multiplicativeDecrease);
+        this.multiplicativeDecrease = multiplicativeDecrease;
+        return this;
+    }
+
+    public AdaptiveBatchSizeController withMaxBatchBytes(long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+        return this;
+    }
+
+    public AdaptiveBatchSizeController withTargetWriteLatencyMillis(long targetWriteLatencyMillis) {
+        this.targetWriteLatencyMillis = targetWriteLatencyMillis;
+        return this;
+    }
+
+    public AdaptiveBatchSizeController withQueueHighWatermark(double queueHighWatermark) {
+        this.queueHighWatermark = queueHighWatermark;
+        return this;
+    }
+
+    public AdaptiveBatchSizeController withSmoothing(double smoothing) {
+        this.smoothing = smoothing;
+        return this;
+    }
+
+    /**
+     * @param eventSizer bytes of an event, negative if unknown, default by {@link TapEvent#getMemorySize()} and {@link TapRecordEvent#estimateMemorySize()}
+     */
+    public AdaptiveBatchSizeController withEventSizer(ToLongFunction<TapEvent> eventSizer) {
+        this.eventSizer = eventSizer;
+        return this;
+    }
+
+    @Override
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * A batch is read, observe the bytes per event and adjust the batch size for the next batch.
+     */
+    public void onEvents(List<TapEvent> events) {
+        if(events != null && !events.isEmpty()) {
+            long bytes = 0;
+            int sized = 0;
+            for(int i = 0, size = events.size(); i < size; i++) {
+                long eventBytes = eventSizer.applyAsLong(events.get(i));
+                if(eventBytes >= 0) {
+                    bytes += eventBytes;
+                    sized++;
+                }
+            }
+            if(sized > 0)
+                bytesPerEvent = smooth(bytesPerEvent, (double) bytes / sized);
+        }
+        adjust();
+    }
+
+    /**
+     * @param depth    events or batches in the queue to the target
+     * @param capacity capacity of the queue in the same unit
+     */
+    public void onQueueDepth(int depth, int capacity) {
+        queueRatio = capacity > 0 ? (double) depth / capacity : 0;
+    }
+
+    /**
+     * A batch is written into the target.
+     */
+    public void onWriteLatency(long latencyMillis) {
+        writeLatencyMillis = smooth(writeLatencyMillis, latencyMillis);
+    }
+
+    /**
+     * Events which did not go through the codecs have no memory size, the records are estimated by MemorySizeEstimator.
+     */
+    private static long memorySize(TapEvent event) {
+        if(event instanceof TapRecordEvent)
+            return ((TapRecordEvent) event).estimateMemorySize();
+        Long memorySize = event.getMemorySize();
+        return memorySize != null ? memorySize : -1L;
+    }
+
+    private double smooth(double average, double value) {
+        return Double.isNaN(average) ? value : average + smoothing * (value - average);
+    }
+
+    private synchronized void adjust() {
+        int size = batchSize;
+        double latency = writeLatencyMillis;
+        boolean congested = queueRatio >= queueHighWatermark || (!Double.isNaN(latency) && latency > targetWriteLatencyMillis);
+        if(congested) {
+            size = (int) (size * multiplicativeDecrease);
+            decreasedCount++;
+        } else if(size < maxBatchSize) {
+            size += additiveIncrease;
+            increasedCount++;
+        }
+        double perEvent = bytesPerEvent;
+        if(maxBatchBytes > 0 && !Double.isNaN(perEvent) && perEvent > 0)
+            size = (int) Math.min(size, maxBatchBytes / perEvent);
+        batchSize = clamp(size);
+    }
+
+    private int clamp(int size) {
+        return Math.max(minBatchSize, Math.min(maxBatchSize, size));
+    }
+
+    /**
+     * @return moving average of bytes per event, NaN if no event is sized
+     */
+    public double getBytesPerEvent() {
+        return bytesPerEvent;
+    }
+
+    /**
+     * @return moving average of write latency, NaN if no batch is written
+     */
+    public double getWriteLatencyMillis() {
+        return writeLatencyMillis;
+    }
+
+    public long getIncreasedCount() {
+        return increasedCount;
+    }
+
+    public long getDecreasedCount() {
+        return decreasedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveBatchSizeController batchSize " + batchSize + " bounds [" + minBatchSize + ", " + maxBatchSize + "] bytesPerEvent " + bytesPerEvent +
+                " writeLatency " + writeLatencyMillis + "ms queueRatio " + queueRatio + " increased " + increasedCount + " decreased " + decreasedCount;
+    }
+}
@@ -0,0 +1,606 @@
+package io.tapdata.pdk.core.batch;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.logger.TapLogger;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.schema.TapTable;
+import io.tapdata.entity.utils.DataMap;
+import io.tapdata.entity.utils.cache.KVMap;
+import io.tapdata.pdk.apis.context.TapConnectorContext;
+import io.tapdata.pdk.apis.entity.FilterResults;
+import io.tapdata.pdk.apis.entity.QueryOperator;
+import io.tapdata.pdk.apis.entity.SortOn;
+import io.tapdata.pdk.apis.entity.TapAdvanceFilter;
+import io.tapdata.pdk.apis.functions.connector.source.GetReadPartitionOptions;
+import io.tapdata.pdk.apis.functions.connector.source.GetReadPartitionsFunction;
+import io.tapdata.pdk.apis.functions.connector.source.QueryFieldMinMaxValueFunction;
+import io.tapdata.pdk.apis.functions.connector.target.QueryByAdvanceFilterFunction;
+import io.tapdata.pdk.apis.partition.FieldMinMaxValue;
+import io.tapdata.pdk.apis.partition.ReadPartition;
+import io.tapdata.pdk.apis.partition.TapPartitionFilter;
+import io.tapdata.pdk.apis.partition.splitter.TypeSplitter;
+import io.tapdata.pdk.apis.partition.splitter.TypeSplitterMap;
+import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+import io.tapdata.pdk.core.executor.ExecutorsManager;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+import static io.tapdata.entity.simplify.TapSimplify.insertRecordEvent;
+
+/**
+ * Read the initial data of a table by the partitions of {@link GetReadPartitionsFunction} with a pool of workers.
+ * 分区并行全量读取， 慢分区动态拆分给空闲的worker， 已完成的分区记录在KV里， 任务恢复时跳过
+ *
+ * The partitions are queued when the connector generates them, each worker takes the next partition and reads it by {@link QueryByAdvanceFilterFunction},
+ * sorted by the split field in batches of batch size.
+ * A worker finds no partition to take steals work from the straggler, the partition read longer than straggler millis,
+ * the range left after the last key read is split in 2 by the {@link TypeSplitter} of the min and max value of {@link QueryFieldMinMaxValueFunction}.
+ * The straggler stops at the split point, the rest is queued as a new partition, so no record is read twice.
+ *
+ * With a state map, the state of the partitions is stored by the partition id, completed or split into children.
+ * Reading again with the same state map skips the completed partitions and reads the children of the split ones,
+ * the partitions not completed are read from the beginning.
+ * The connector must give the same partition ids, or the same partitions in the same order when the ids are not given.
+ *
+ * The events consumer is called by the workers concurrently, with the events of a partition in the order read.
+ */
+public class PartitionedBatchReader implements MemoryFetcher {
+    private static final String TAG = PartitionedBatchReader.class.getSimpleName();
+    private static final int STATUS_QUEUED = 0;
+    private static final int STATUS_RUNNING = 1;
+    private static final int STATUS_COMPLETED = 2;
+    private static final int STATUS_FAILED = 3;
+
+    private final String name;
+    private TapConnectorContext connectorContext;
+    private TapTable table;
+    private GetReadPartitionsFunction getReadPartitionsFunction;
+    private QueryByAdvanceFilterFunction queryByAdvanceFilterFunction;
+    private QueryFieldMinMaxValueFunction queryFieldMinMaxValueFunction;
+    private GetReadPartitionOptions readPartitionOptions;
+    private TypeSplitterMap typeSplitterMap;
+    private KVMap<ReadPartitionState> stateMap;
+    private ExecutorService executorService;
+    private BiConsumer<ReadPartition, List<TapEvent>> eventsConsumer;
+    private String splitField;
+    private int workers = 4;
+    private int batchSize = 500;
+    private long stragglerMillis = 10000L;
+
+    private final Queue<PartitionTask> queue = new ConcurrentLinkedQueue<>();
+    private final List<PartitionTask> tasks = new CopyOnWriteArrayList<>();
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+    private final AtomicInteger partitionSequence = new AtomicInteger();
+    private final Object splitLock = new Object();
+    private volatile boolean generating;
+    private volatile boolean stopping;
+    private volatile Throwable failure;
+    private volatile long startTime;
+    private volatile long endTime;
+
+    private final LongAdder splitCounter = new LongAdder();
+    private final LongAdder skippedPartitions = new LongAdder();
+    private final LongAdder skippedRecords = new LongAdder();
+    private final LongAdder readRecords = new LongAdder();
+
+    /**
+     * Thrown in the query to stop reading at the split point
+     */
+    private static final RuntimeException SPLIT_POINT_REACHED = new RuntimeException("Split point reached") {
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    };
+
+    private class PartitionTask {
+        //Changed when split, the partition goes on as the first child
+        private volatile String id;
+        private volatile ReadPartition partition;
+        private final String field;
+        private volatile int status = STATUS_QUEUED;
+        private final LongAdder records = new LongAdder();
+        private volatile long startTime;
+        private volatile long endTime;
+        private volatile long splitBaseTime;
+
+        //Guarded by this
+        private Object lastKey;
+        private Object splitPoint;
+        private Comparator<Object> comparator;
+        private boolean reachedSplitPoint;
+        private boolean finished;
+
+        PartitionTask(ReadPartition partition) {
+            this.partition = partition;
+            this.id = partition.getId();
+            this.field = splitFieldOf(partition);
+        }
+
+        PartitionProgress progress() {
+            long end = endTime > 0 ? endTime : System.currentTimeMillis();
+            long elapsed = startTime > 0 ? Math.max(0, end - startTime) : 0;
+            return new PartitionProgress(id, statusText(status), records.sum(), elapsed);
+        }
+    }
+
+    /**
+     * Records read from a partition and the throughput
+     */
+    public static class PartitionProgress {
+        private final String id;
+        private final String status;
+        private final long records;
+        private final long elapsedMillis;
+
+        PartitionProgress(String id, String status, long records, long elapsedMillis) {
+            this.id = id;
+            this.status = status;
+            this.records = records;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public double getRecordsPerSecond() {
+            return elapsedMillis > 0 ? records * 1000.0 / elapsedMillis : 0;
+        }
+
+        @Override
+        public String toString() {
+            return id + " " + status + " " + records + " records in " + elapsedMillis + "ms";
+        }
+    }
+
+    public PartitionedBatchReader(String name) {
+        this.name = name;
+    }
+
+    public PartitionedBatchReader withConnectorContext(TapConnectorContext connectorContext) {
+        this.connectorContext = connectorContext;
+        return this;
+    }
+
+    public PartitionedBatchReader withTable(TapTable table) {
+        this.table = table;
+        return this;
+    }
+
+    public PartitionedBatchReader withGetReadPartitionsFunction(GetReadPartitionsFunction getReadPartitionsFunction) {
+        this.getReadPartitionsFunction = getReadPartitionsFunction;
+        return this;
+    }
+
+    public PartitionedBatchReader withQueryByAdvanceFilterFunction(QueryByAdvanceFilterFunction queryByAdvanceFilterFunction) {
+        this.queryByAdvanceFilterFunction = queryByAdvanceFilterFunction;
+        return this;
+    }
+
+    /**
+     * @param queryFieldMinMaxValueFunction the straggler partitions are not split without it
+     */
+    public PartitionedBatchReader withQueryFieldMinMaxValueFunction(QueryFieldMinMaxValueFunction queryFieldMinMaxValueFunction) {
+        this.queryFieldMinMaxValueFunction = queryFieldMinMaxValueFunction;
+        return this;
+    }
+
+    /**
+     * @param readPartitionOptions the options given to the connector, the consumer of the partitions is replaced
+     */
+    public PartitionedBatchReader withReadPartitionOptions(GetReadPartitionOptions readPartitionOptions) {
+        this.readPartitionOptions = readPartitionOptions;
+        return this;
+    }
+
+    public PartitionedBatchReader withTypeSplitterMap(TypeSplitterMap typeSplitterMap) {
+        this.typeSplitterMap = typeSplitterMap;
+        return this;
+    }
+
+    /**
+     * @param stateMap the state of the partitions for resume, usually the persistent map of {@link io.tapdata.entity.utils.cache.KVMapFactory}
+     */
+    public PartitionedBatchReader withStateMap(KVMap<ReadPartitionState> stateMap) {
+        this.stateMap = stateMap;
+        return this;
+    }
+
+    public PartitionedBatchReader withExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+        return this;
+    }
+
+    /**
+     * @param eventsConsumer called by the workers concurrently
+     */
+    public PartitionedBatchReader withEventsConsumer(BiConsumer<ReadPartition, List<TapEvent>> eventsConsumer) {
+        this.eventsConsumer = eventsConsumer;
+        return this;
+    }
+
+    /**
+     * @param splitField the field the partitions are sorted and split by, by default the field of the partition boundaries or the first primary key
+     */
+    public PartitionedBatchReader withSplitField(String splitField) {
+        this.splitField = splitField;
+        return this;
+    }
+
+    public PartitionedBatchReader withWorkers(int workers) {
+        this.workers = workers;
+        return this;
+    }
+
+    public PartitionedBatchReader withBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param stragglerMillis a partition read longer than it is split for an idle worker, negative not to split
+     */
+    public PartitionedBatchReader withStragglerMillis(long stragglerMillis) {
+        this.stragglerMillis = stragglerMillis;
+        return this;
+    }
+
+    /**
+     * Read all the partitions, return when all are read.
+     */
+    public void read() throws Throwable {
+        if(table == null || getReadPartitionsFunction == null || queryByAdvanceFilterFunction == null || eventsConsumer == null)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "PartitionedBatchReader {} missing table, getReadPartitionsFunction, queryByAdvanceFilterFunction or eventsConsumer", name);
+        if(workers <= 0 || batchSize <= 0)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "PartitionedBatchReader {} illegal workers {} or batchSize {}", name, workers, batchSize);
+        if(executorService == null)
+            executorService = ExecutorsManager.getInstance().getExecutorService();
+        if(typeSplitterMap == null)
+            typeSplitterMap = new TypeSplitterMap();
+        startTime = System.currentTimeMillis();
+        generating = true;
+        CountDownLatch workersLatch = new CountDownLatch(workers);
+        for(int i = 0; i < workers; i++) {
+            executorService.execute(() -> {
+                try {
+                    work();
+                } finally {
+                    workersLatch.countDown();
+                }
+            });
+        }
+        GetReadPartitionOptions options = readPartitionOptions != null ? readPartitionOptions :
+                GetReadPartitionOptions.create().splitType(GetReadPartitionOptions.SPLIT_TYPE_BY_MINMAX).minMaxSplitPieces(workers * 4);
+        if(options.getTypeSplitterMap() == null)
+            options.typeSplitterMap(typeSplitterMap);
+        options.consumer(this::schedule);
+        try {
+            getReadPartitionsFunction.getReadPartitions(connectorContext, table, options);
+        } catch(Throwable throwable) {
+            fail(throwable);
+        } finally {
+            generating = false;
+        }
+        workersLatch.await();
+        endTime = System.currentTimeMillis();
+        if(failure != null)
+            throw new CoreException(PDKRunnerErrorCodes.SOURCE_PARTITIONED_BATCH_READ_FAILED, failure, "PartitionedBatchReader {} read table {} failed, {}", name, table.getId(), failure.getMessage());
+        if(stopping)
+            throw new CoreException(PDKRunnerErrorCodes.SOURCE_PARTITIONED_BATCH_READ_FAILED, "PartitionedBatchReader {} is stopped", name);
+    }
+
+    public void stop() {
+        stopping = true;
+    }
+
+    private void schedule(ReadPartition partition) {
+        if(partition.getId() == null)
+            partition.setId(table.getId() + "_" + partitionSequence.getAndIncrement());
+        ReadPartitionState state = stateMap != null ? stateMap.get(partition.getId()) : null;
+        if(state != null) {
+            if(state.getStatus() == ReadPartitionState.STATUS_COMPLETED) {
+                skippedPartitions.increment();
+                skippedRecords.add(state.getRecords());
+                return;
+            }
+            if(state.getStatus() == ReadPartitionState.STATUS_SPLIT && state.getChildren() != null) {
+                for(ReadPartition child : state.getChildren()) {
+                    schedule(child);
+                }
+                return;
+            }
+        }
+        PartitionTask task = new PartitionTask(partition);
+        tasks.add(task);
+        pendingTasks.incrementAndGet();
+        queue.offer(task);
+    }
+
+    private String splitFieldOf(ReadPartition partition) {
+        if(splitField != null)
+            return splitField;
+        TapPartitionFilter partitionFilter = partition.getPartitionFilter();
+        if(partitionFilter != null) {
+            if(partitionFilter.getLeftBoundary() != null)
+                return partitionFilter.getLeftBoundary().getKey();
+            if(partitionFilter.getRightBoundary() != null)
+                return partitionFilter.getRightBoundary().getKey();
+        }
+        Collection<String> primaryKeys = table.primaryKeys(true);
+        return primaryKeys != null && !primaryKeys.isEmpty() ? primaryKeys.iterator().next() : null;
+    }
+
+    private void work() {
+        try {
+            while(!stopping && failure == null) {
+                PartitionTask task = queue.poll();
+                if(task == null) {
+                    if(!generating && pendingTasks.get() == 0)
+                        break;
+                    if(!splitStraggler())
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(5));
+                    continue;
+                }
+                readPartition(task);
+            }
+        } catch(Throwable throwable) {
+            fail(throwable);
+        }
+    }
+
+    private void fail(Throwable throwable) {
+        if(failure == null)
+            failure = throwable;
+        TapLogger.error(TAG, "PartitionedBatchReader {} failed, {}", name, throwable.getMessage());
+    }
+
+    private void readPartition(PartitionTask task) throws Throwable {
+        task.status = STATUS_RUNNING;
+        task.startTime = System.currentTimeMillis();
+        task.splitBaseTime = task.startTime;
+        ReadPartition partition = task.partition;
+        TapPartitionFilter partitionFilter = partition.getPartitionFilter();
+        TapAdvanceFilter filter = partitionFilter != null ? partitionFilter.toAdvanceFilter() : TapAdvanceFilter.create();
+        filter.batchSize(batchSize);
+        if(task.field != null)
+            filter.sort(SortOn.ascending(task.field));
+        try {
+            queryByAdvanceFilterFunction.query(connectorContext, filter, table, filterResults -> accept(task, filterResults));
+        } catch(Throwable throwable) {
+            boolean reachedSplitPoint;
+            synchronized (task) {
+                reachedSplitPoint = task.reachedSplitPoint;
+            }
+            if(!reachedSplitPoint) {
+                task.status = STATUS_FAILED;
+                task.endTime = System.currentTimeMillis();
+                throw throwable;
+            }
+        }
+        String id;
+        synchronized (task) {
+            task.finished = true;
+            id = task.id;
+        }
+        task.endTime = System.currentTimeMillis();
+        task.status = STATUS_COMPLETED;
+        if(stateMap != null)
+            stateMap.put(id, ReadPartitionState.completed(task.records.sum()));
+        pendingTasks.decrementAndGet();
+    }
+
+    private void accept(PartitionTask task, FilterResults filterResults) {
+        if(stopping || failure != null)
+            throw new CoreException(PDKRunnerErrorCodes.SOURCE_PARTITIONED_BATCH_READ_FAILED, "PartitionedBatchReader {} is stopped", name);
+        if(filterResults == null)
+            return;
+        if(filterResults.getError() != null)
+            throw new CoreException(PDKRunnerErrorCodes.SOURCE_PARTITIONED_BATCH_READ_FAILED, filterResults.getError(), "PartitionedBatchReader {} query partition {} failed, {}", name, task.id, filterResults.getError().getMessage());
+        List<Map<String, Object>> results = filterResults.getResults();
+        if(results == null || results.isEmpty())
+            return;
+        int end = results.size();
+        boolean reachedSplitPoint = false;
+        synchronized (task) {
+            if(task.reachedSplitPoint)
+                throw SPLIT_POINT_REACHED;
+            if(task.splitPoint != null) {
+                for(int i = 0; i < end; i++) {
+                    if(task.comparator.compare(results.get(i).get(task.field), task.splitPoint) >= 0) {
+                        end = i;
+                        reachedSplitPoint = true;
+                        task.reachedSplitPoint = true;
+                        break;
+                    }
+                }
+            }
+            //Split after the last key only, the records emitted are before the split point
+            if(end > 0 && task.field != null)
+                task.lastKey = results.get(end - 1).get(task.field);
+        }
+        if(end > 0) {
+            List<TapEvent> events = new ArrayList<>(end);
+            for(int i = 0; i < end; i++) {
+                events.add(insertRecordEvent(results.get(i), table.getId()));
+            }
+            eventsConsumer.accept(task.partition, events);
+            task.records.add(end);
+            readRecords.add(end);
+        }
+        if(reachedSplitPoint)
+            throw SPLIT_POINT_REACHED;
+    }
+
+    /**
+     * Split the straggler partition read longest, one split at a time
+     *
+     * @return whether a new partition is queued
+     */
+    private boolean splitStraggler() throws Throwable {
+        if(queryFieldMinMaxValueFunction == null || stragglerMillis < 0)
+            return false;
+        synchronized (splitLock) {
+            long now = System.currentTimeMillis();
+            PartitionTask straggler = null;
+            for(PartitionTask task : tasks) {
+                if(task.status == STATUS_RUNNING && task.field != null && now - task.splitBaseTime >= stragglerMillis &&
+                        (straggler == null || task.splitBaseTime < straggler.splitBaseTime))
+                    straggler = task;
+            }
+            if(straggler == null)
+                return false;
+            //Not tried again before straggler millis, even if it can not be split
+            straggler.splitBaseTime = now;
+            return split(straggler);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean split(PartitionTask task) throws Throwable {
+        String field = task.field;
+        TapPartitionFilter partitionFilter = task.partition.getPartitionFilter();
+        if(partitionFilter == null)
+            partitionFilter = TapPartitionFilter.create();
+        Object lastKey;
+        synchronized (task) {
+            if(task.finished || task.reachedSplitPoint)
+                return false;
+            lastKey = task.lastKey;
+        }
+        TapPartitionFilter remaining = TapPartitionFilter.create().resetMatch(partitionFilter.getMatch())
+                .leftBoundary(lastKey != null ? QueryOperator.gt(field, lastKey) : partitionFilter.getLeftBoundary())
+                .rightBoundary(partitionFilter.getRightBoundary());
+        FieldMinMaxValue fieldMinMaxValue = queryFieldMinMaxValueFunction.minMaxValue(connectorContext, table, remaining.toAdvanceFilter(), field);
+        if(fieldMinMaxValue == null || !fieldMinMaxValue.isAvailable() || Objects.equals(fieldMinMaxValue.getMin(), fieldMinMaxValue.getMax()))
+            return false;
+        if(fieldMinMaxValue.getType() == null)
+            fieldMinMaxValue.detectType(fieldMinMaxValue.getMin());
+        TypeSplitter<Object> splitter = (TypeSplitter<Object>) typeSplitterMap.get(fieldMinMaxValue.getType());
+        if(splitter == null)
+            return false;
+        List<TapPartitionFilter> pieces = splitter.split(remaining, fieldMinMaxValue, 2);
+        if(pieces == null || pieces.size() < 2 || pieces.get(0).getRightBoundary() == null)
+            return false;
+        QueryOperator splitBoundary = pieces.get(0).getRightBoundary();
+        List<ReadPartition> children = new ArrayList<>();
+        String parentId;
+        synchronized (task) {
+            if(task.finished || task.reachedSplitPoint || (task.lastKey != null && splitter.compare(task.lastKey, splitBoundary.getValue()) >= 0))
+                return false;
+            parentId = task.id;
+            //The partition goes on as the first child, from its left boundary for resume
+            children.add(ReadPartition.create().id(parentId + "/0").partitionFilter(TapPartitionFilter.create().resetMatch(partitionFilter.getMatch())
+                    .leftBoundary(partitionFilter.getLeftBoundary())
+                    .rightBoundary(splitBoundary)));
+            for(int i = 1; i < pieces.size(); i++) {
+                children.add(ReadPartition.create().id(parentId + "/" + i).partitionFilter(pieces.get(i)));
+            }
+            if(stateMap != null)
+                stateMap.put(parentId, ReadPartitionState.split(children));
+            task.id = children.get(0).getId();
+            task.partition = children.get(0);
+            task.splitPoint = splitBoundary.getValue();
+            task.comparator = splitter;
+            //Pending before the partition may complete
+            pendingTasks.addAndGet(children.size() - 1);
+        }
+        for(int i = 1; i < children.size(); i++) {
+            PartitionTask child = new PartitionTask(children.get(i));
+            tasks.add(child);
+            queue.offer(child);
+        }
+        splitCounter.increment();
+        TapLogger.debug(TAG, "PartitionedBatchReader {} split straggler partition {} at {}", name, parentId, splitBoundary);
+        return true;
+    }
+
+    private static String statusText(int status) {
+        switch (status) {
+            case STATUS_RUNNING:
+                return "running";
+            case STATUS_COMPLETED:
+                return "completed";
+            case STATUS_FAILED:
+                return "failed";
+            default:
+                return "queued";
+        }
+    }
+
+    /**
+     * @return the progress of the partitions read by this reader, in the order queued
+     */
+    public List<PartitionProgress> getPartitionProgresses() {
+        List<PartitionProgress> progresses = new ArrayList<>(tasks.size());
+        for(PartitionTask task : tasks) {
+            progresses.add(task.progress());
+        }
+        return progresses;
+    }
+
+    public long getSplitCount() {
+        return splitCounter.sum();
+    }
+
+    public long getReadRecords() {
+        return readRecords.sum();
+    }
+
+    public long getSkippedPartitions() {
+        return skippedPartitions.sum();
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public DataMap memory(String keyRegex, String memoryLevel) {
+        long end = endTime > 0 ? endTime : System.currentTimeMillis();
+        DataMap dataMap = DataMap.create().keyRegex(keyRegex)
+                .kv("name", name)
+                .kv("table", table != null ? table.getId() : null)
+                .kv("workers", workers)
+                .kv("batchSize", batchSize)
+                .kv("stragglerMillis", stragglerMillis)
+                .kv("generating", generating)
+                .kv("pendingPartitions", pendingTasks.get())
+                .kv("queuedPartitions", queue.size())
+                .kv("splits", splitCounter.sum())
+                .kv("skippedPartitions", skippedPartitions.sum())
+                .kv("skippedRecords", skippedRecords.sum())
+                .kv("readRecords", readRecords.sum())
+                .kv("elapsedMillis", startTime > 0 ? end - startTime : 0)
+                .kv("failure", failure != null ? failure.getMessage() : null);
+        DataMap partitionsMap = DataMap.create().keyRegex(keyRegex);
+        for(PartitionTask task : tasks) {
+            PartitionProgress progress = task.progress();
+            partitionsMap.kv(progress.getId(), DataMap.create().keyRegex(keyRegex)
+                    .kv("status", progress.getStatus())
+                    .kv("records", progress.getRecords())
+                    .kv("elapsedMillis", progress.getElapsedMillis())
+                    .kv("recordsPerSecond", progress.getRecordsPerSecond()));
+        }
+        dataMap.kv("partitions", partitionsMap);
+        return dataMap;
+    }
+}
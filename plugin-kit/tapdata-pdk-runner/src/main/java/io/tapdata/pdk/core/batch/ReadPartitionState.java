@@ -0,0 +1,68 @@
+package io.tapdata.pdk.core.batch;
+
+import io.tapdata.pdk.apis.partition.ReadPartition;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * State of a read partition stored for resume, by the id of the partition.
+ * A completed partition is not read again, a split partition is replaced by its children.
+ */
+public class ReadPartitionState implements Serializable {
+    public static final int STATUS_COMPLETED = 1;
+    public static final int STATUS_SPLIT = 2;
+
+    private int status;
+    public ReadPartitionState status(int status) {
+        this.status = status;
+        return this;
+    }
+    private long records;
+    public ReadPartitionState records(long records) {
+        this.records = records;
+        return this;
+    }
+    private List<ReadPartition> children;
+    public ReadPartitionState children(List<ReadPartition> children) {
+        this.children = children;
+        return this;
+    }
+
+    public static ReadPartitionState completed(long records) {
+        return new ReadPartitionState().status(STATUS_COMPLETED).records(records);
+    }
+
+    public static ReadPartitionState split(List<ReadPartition> children) {
+        return new ReadPartitionState().status(STATUS_SPLIT).children(children);
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public void setRecords(long records) {
+        this.records = records;
+    }
+
+    public List<ReadPartition> getChildren() {
+        return children;
+    }
+
+    public void setChildren(List<ReadPartition> children) {
+        this.children = children;
+    }
+
+    @Override
+    public String toString() {
+        return "ReadPartitionState status " + status + " records " + records + (children != null ? " children " + children.size() : "");
+    }
+}
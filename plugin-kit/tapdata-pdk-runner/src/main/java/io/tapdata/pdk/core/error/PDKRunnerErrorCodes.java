@@ -5,6 +5,7 @@ public interface PDKRunnerErrorCodes {
     int COMMON_UNKNOWN = 10001;
     int COMMON_SINGLE_THREAD_QUEUE_STOPPED = 10002;
     int COMMON_SINGLE_THREAD_BLOCKING_QUEUE_NO_EXECUTOR = 10003;
+    int COMMON_MEMORY_OUTPUT_FAILED = 10004;
 
     int MAIN_DAG_IS_ILLEGAL = 20000;
     int MAIN_CONNECTOR_CLASS_INITIATE_FAILED = 20001;
@@ -62,10 +63,18 @@ public interface PDKRunnerErrorCodes {
     int SOURCE_TARGET_TYPES_GENERATOR_NOT_FOUND = 80003;
     int SOURCE_TABLE_NOT_DISCOVERED = 80004;
     int SOURCE_UNKNOWN_TABLE = 80005;
+    int SOURCE_SCHEMA_LOADING_FAILED = 80006;
+    int SOURCE_SCHEMA_LOADING_INTERRUPTED = 80007;
+    int SOURCE_STREAM_READ_FAN_IN_FAILED = 80008;
+    int SOURCE_STREAM_READ_CONSUMER_FAILED = 80009;
+    int SOURCE_PARTITIONED_BATCH_READ_FAILED = 80010;
+    int SOURCE_STREAM_READ_CONSUMER_CONCURRENT_PRODUCER = 80011;
 
     int TARGET_TABLE_NOT_FOUND_IN_TAPEVENT = 90001;
 
 
     int SUBMIT_SYNC_RUNNABLE_FAILED = 90002;
     int SUBMIT_SYNC_CALLABLE_FAILED = 90003;
+    int TARGET_QUERY_BY_FILTER_FAILED = 90004;
+    int TARGET_PARTITIONED_WRITE_FAILED = 90005;
 }
@@ -3,6 +3,8 @@ package io.tapdata.pdk.core.executor;
 
 import io.tapdata.entity.logger.TapLogger;
 import io.tapdata.pdk.core.utils.CommonUtils;
+import io.tapdata.pdk.core.utils.timer.HashedWheelTimer;
+import io.tapdata.pdk.core.utils.timer.Timeout;
 
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -11,6 +13,8 @@ public class ExecutorsManager {
     private static final String TAG = ExecutorsManager.class.getSimpleName();
     private ExecutorService executorService;
     private ScheduledExecutorService scheduledExecutorService;
+    private HashedWheelTimer hashedWheelTimer;
+    private boolean hashedWheelTimerEnabled;
     private final AtomicBoolean initDone = new AtomicBoolean(false);
 
     private static volatile ExecutorsManager instance;
@@ -46,6 +50,16 @@ public class ExecutorsManager {
             scheduledExecutorService = new ScheduledThreadPoolExecutor(scheduledCoreSize, new io.tapdata.pdk.core.executor.ThreadFactory("EMS"), (r, executor) -> {
                 TapLogger.error(TAG, "ScheduledThread is rejected, runnable {} pool {}", r, executor);
             });
+
+            hashedWheelTimerEnabled = CommonUtils.getPropertyBool("pdk_hashed_wheel_timer", true);
+            int wheelDispatchSize = CommonUtils.getPropertyInt("pdk_wheel_timer_dispatch_thread_size", 4);
+            ThreadPoolExecutor wheelDispatchExecutor = new ThreadPoolExecutor(wheelDispatchSize, wheelDispatchSize, keepAlive, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new io.tapdata.pdk.core.executor.ThreadFactory("EMW", true, null));
+            wheelDispatchExecutor.allowCoreThreadTimeOut(true);
+            hashedWheelTimer = new HashedWheelTimer()
+                    .withName("EMT")
+                    .withTickDuration(CommonUtils.getPropertyInt("pdk_wheel_timer_tick_milliseconds", 10), TimeUnit.MILLISECONDS)
+                    .withWheelSize(CommonUtils.getPropertyInt("pdk_wheel_timer_wheel_size", 512))
+                    .withDispatchExecutor(wheelDispatchExecutor);
         }
     }
 
@@ -57,6 +71,35 @@ public class ExecutorsManager {
         return scheduledExecutorService;
     }
 
+    public HashedWheelTimer getHashedWheelTimer() {
+        return hashedWheelTimer;
+    }
+
+    /**
+     * Schedule the task once on the hashed wheel timer, or on the scheduled executor service when pdk_hashed_wheel_timer is false.
+     */
+    public Timeout newTimeout(Runnable runnable, long delay, TimeUnit unit) {
+        if(hashedWheelTimerEnabled)
+            return hashedWheelTimer.newTimeout(runnable, delay, unit);
+        ScheduledFuture<?> future = scheduledExecutorService.schedule(runnable, delay, unit);
+        return new Timeout() {
+            @Override
+            public boolean cancel() {
+                return future.cancel(false);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return future.isCancelled();
+            }
+
+            @Override
+            public boolean isExpired() {
+                return future.isDone() && !future.isCancelled();
+            }
+        };
+    }
+
     public ScheduledExecutorService newSingleThreadScheduledExecutor(String name) {
         return Executors.newSingleThreadScheduledExecutor(new ThreadFactory(name));
     }
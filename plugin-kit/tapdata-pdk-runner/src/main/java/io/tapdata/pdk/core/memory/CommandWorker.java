@@ -2,6 +2,7 @@ package io.tapdata.pdk.core.memory;
 
 import com.alibaba.fastjson.JSON;
 import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.memory.MemorySink;
 import io.tapdata.entity.utils.DataMap;
 
 import java.util.Date;
@@ -106,6 +107,43 @@ public class CommandWorker implements Runnable {
         return toDataMap(keyMemoryFetcherMap, removedKeyMemoryFetcherMap, keys, keyRegex, memoryLevel);
     }
 
+    /**
+     * Same content as {@link #outputDataMap(List, String, String)}, written into the sink fetcher by fetcher.
+     */
+    public void outputToSink(List<String> keys, String memoryLevel, MemorySink sink) {
+        if(memoryLevel == null) {
+            memoryLevel = MemoryFetcher.MEMORY_LEVEL_SUMMARY;
+        }
+        sink.startObject(null);
+        for(Map.Entry<String, MemoryFetcher> entry : keyMemoryFetcherMap.entrySet()) {
+            if(sink.isFull())
+                break;
+            if((keys == null || matchKeys(keys, entry.getKey())) && sink.matches(entry.getKey())) {
+                sink.startObject(entry.getKey());
+                entry.getValue().writeMemory(memoryLevel, sink);
+                sink.endObject();
+            }
+        }
+        sink.startObject("removed");
+        for(Map.Entry<String, MemoryManager.RemovedMemoryFetcher> entry : removedKeyMemoryFetcherMap.entrySet()) {
+            if(sink.isFull())
+                break;
+            //Removed fetchers are kept for a while only, output them in DataMap
+            if((keys == null || matchKeys(keys, entry.getKey())) && sink.matches(entry.getKey())) {
+                DataMap memory = entry.getValue().getMemoryFetcher().memory(sink.getKeyRegex(), memoryLevel);
+                if(memory != null) {
+                    sink.kv(entry.getKey(),
+                            map(
+                                    entry("deleteTime", new Date(entry.getValue().getDeleteTime())),
+                                    entry("memory", memory)
+                            ));
+                }
+            }
+        }
+        sink.endObject();
+        sink.endObject();
+    }
+
     private String toString(Map<String, MemoryFetcher> finalMap, ConcurrentHashMap<String, MemoryManager.RemovedMemoryFetcher> removedKeyMemoryFetcherMap, List<String> keys, String keyRegex, String memoryLevel) {
         DataMap allMap = toDataMap(finalMap, removedKeyMemoryFetcherMap, keys, keyRegex, memoryLevel);
         return JSON.toJSONString(allMap, true);
@@ -0,0 +1,252 @@
+package io.tapdata.pdk.core.memory;
+
+import com.alibaba.fastjson.JSON;
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.memory.MemorySink;
+import io.tapdata.entity.utils.DataMap;
+import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Write the memory of fetchers as JSON into a writer while fetching.
+ * 边获取边输出， 不再先构造整个 DataMap 树
+ *
+ * The key regex is compiled once for the request.
+ * Once the written chars reach the max chars, the rest keys are dropped and "truncated": true is added into the root object,
+ * the objects started are still closed, so the output is always valid JSON.
+ * The max chars is checked between the keys, the value of one key is written completely.
+ */
+public class JsonMemorySink implements MemorySink, Closeable {
+    private final Writer writer;
+    private final String keyRegex;
+    private final Pattern keyPattern;
+    private long maxChars = Long.MAX_VALUE;
+
+    private long writtenChars;
+    private boolean full;
+    private int depth;
+    /**
+     * Depth of the nested objects in a skipped object, 0 is not skipping
+     */
+    private int skippedDepth;
+    private final BitSet hasKeyDepths = new BitSet();
+
+    public JsonMemorySink(Writer writer, String keyRegex) {
+        this.writer = writer;
+        this.keyRegex = keyRegex;
+        this.keyPattern = DataMap.compileKeyRegex(keyRegex);
+    }
+
+    public JsonMemorySink withMaxChars(long maxChars) {
+        this.maxChars = maxChars;
+        return this;
+    }
+
+    @Override
+    public String getKeyRegex() {
+        return keyRegex;
+    }
+
+    @Override
+    public boolean matches(String key) {
+        return key == null || keyPattern == null || keyPattern.matcher(key).matches();
+    }
+
+    @Override
+    public MemorySink startObject(String key) {
+        if(skippedDepth > 0) {
+            skippedDepth++;
+            return this;
+        }
+        if(depth > 0) {
+            if(full || !matches(key)) {
+                skippedDepth = 1;
+                return this;
+            }
+            writeKey(key);
+        }
+        write('{');
+        depth++;
+        hasKeyDepths.clear(depth);
+        return this;
+    }
+
+    @Override
+    public MemorySink endObject() {
+        if(skippedDepth > 0) {
+            skippedDepth--;
+            return this;
+        }
+        if(depth <= 0)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "No object to end");
+        if(depth == 1 && full) {
+            writeKey("truncated");
+            write("true");
+        }
+        write('}');
+        depth--;
+        if(depth == 0)
+            flush();
+        return this;
+    }
+
+    @Override
+    public MemorySink kv(String key, Object value) {
+        if(skippedDepth > 0 || full || depth == 0 || !matches(key))
+            return this;
+        writeKey(key);
+        writeValue(value);
+        return this;
+    }
+
+    @Override
+    public boolean isFull() {
+        return full;
+    }
+
+    public long getWrittenChars() {
+        return writtenChars;
+    }
+
+    private void writeKey(String key) {
+        if(hasKeyDepths.get(depth))
+            write(',');
+        else
+            hasKeyDepths.set(depth);
+        writeString(key);
+        write(':');
+    }
+
+    private void writeValue(Object value) {
+        if(value == null) {
+            write("null");
+        } else if(value instanceof String || value instanceof Character) {
+            writeString(value.toString());
+        } else if(value instanceof Boolean || value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            write(value.toString());
+        } else if(value instanceof Date) {
+            write(String.valueOf(((Date) value).getTime()));
+        } else if(value instanceof Map) {
+            write('{');
+            boolean first = true;
+            for(Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if(!first)
+                    write(',');
+                first = false;
+                writeString(String.valueOf(entry.getKey()));
+                write(':');
+                writeValue(entry.getValue());
+            }
+            write('}');
+        } else if(value instanceof Collection) {
+            write('[');
+            boolean first = true;
+            for(Object item : (Collection<?>) value) {
+                if(!first)
+                    write(',');
+                first = false;
+                writeValue(item);
+            }
+            write(']');
+        } else if(value.getClass().isArray()) {
+            write('[');
+            for(int i = 0, length = Array.getLength(value); i < length; i++) {
+                if(i > 0)
+                    write(',');
+                writeValue(Array.get(value, i));
+            }
+            write(']');
+        } else {
+            write(JSON.toJSONString(value));
+        }
+    }
+
+    private void writeString(String str) {
+        if(str == null) {
+            write("null");
+            return;
+        }
+        write('"');
+        int start = 0;
+        for(int i = 0, length = str.length(); i < length; i++) {
+            char c = str.charAt(i);
+            if(c >= 0x20 && c != '"' && c != '\\')
+                continue;
+            if(i > start)
+                write(str, start, i - start);
+            switch (c) {
+                case '"':
+                    write("\\\"");
+                    break;
+                case '\\':
+                    write("\\\\");
+                    break;
+                case '\n':
+                    write("\\n");
+                    break;
+                case '\r':
+                    write("\\r");
+                    break;
+                case '\t':
+                    write("\\t");
+                    break;
+                default:
+                    write(String.format("\\u%04x", (int) c));
+            }
+            start = i + 1;
+        }
+        if(start < str.length())
+            write(str, start, str.length() - start);
+        write('"');
+    }
+
+    private void write(char c) {
+        try {
+            writer.write(c);
+        } catch (IOException e) {
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_MEMORY_OUTPUT_FAILED, e, "Write memory failed, {}", e.getMessage());
+        }
+        written(1);
+    }
+
+    private void write(String str) {
+        write(str, 0, str.length());
+    }
+
+    private void write(String str, int offset, int length) {
+        try {
+            writer.write(str, offset, length);
+        } catch (IOException e) {
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_MEMORY_OUTPUT_FAILED, e, "Write memory failed, {}", e.getMessage());
+        }
+        written(length);
+    }
+
+    private void written(int chars) {
+        writtenChars += chars;
+        if(writtenChars >= maxChars)
+            full = true;
+    }
+
+    private void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_MEMORY_OUTPUT_FAILED, e, "Flush memory failed, {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -3,6 +3,7 @@ package io.tapdata.pdk.core.memory;
 import io.tapdata.entity.error.CoreException;
 import io.tapdata.entity.logger.TapLogger;
 import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.memory.MemorySink;
 import io.tapdata.entity.utils.DataMap;
 import io.tapdata.entity.utils.InstanceFactory;
 import io.tapdata.entity.utils.JsonParser;
@@ -12,8 +13,10 @@ import io.tapdata.pdk.core.utils.CommonUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -180,4 +183,26 @@ public class MemoryManager {
                 .removedKeyMemoryFetcherMap(removedKeyMemoryFetcherMap)
                 .outputDataMap(keys, keyRegex, memoryLevel);
     }
+
+    /**
+     * Write the memory into the sink while fetching, without building the DataMap tree of all fetchers.
+     */
+    public void outputToSink(List<String> keys, String memoryLevel, MemorySink sink) {
+        new CommandWorker()
+                .keyMemoryFetcherMap(keyMemoryFetcherMap)
+                .removedKeyMemoryFetcherMap(removedKeyMemoryFetcherMap)
+                .outputToSink(keys, memoryLevel, sink);
+    }
+
+    /**
+     * Write the memory as JSON into the output stream, the output stream is not closed.
+     *
+     * @param maxChars the rest keys are dropped after the max chars are written, see {@link JsonMemorySink}
+     * @return chars written
+     */
+    public long output(List<String> keys, String keyRegex, String memoryLevel, OutputStream outputStream, long maxChars) {
+        JsonMemorySink sink = new JsonMemorySink(new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)), keyRegex).withMaxChars(maxChars);
+        outputToSink(keys, memoryLevel, sink);
+        return sink.getWrittenChars();
+    }
 }
@@ -0,0 +1,110 @@
+package io.tapdata.pdk.core.merge;
+
+import io.tapdata.entity.serializer.JavaCustomSerializer;
+import io.tapdata.entity.utils.io.DataInputStreamEx;
+import io.tapdata.entity.utils.io.DataOutputStreamEx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of the child rows of one join key in {@link MergeLookupIndex}, the row keys and the projected values of the rows.
+ * The first page of a join key also keeps the count of the pages.
+ * Serialized as one flat list, so a page is one value in the KV storage, not one value per row.
+ */
+public class MergeIndexPage implements JavaCustomSerializer {
+    private int pageCount;
+    private int fieldCount;
+    private List<String> rowKeys;
+    private List<Object[]> rows;
+
+    public MergeIndexPage() {
+    }
+
+    public MergeIndexPage(int fieldCount, int capacity) {
+        this.fieldCount = fieldCount;
+        rowKeys = new ArrayList<>(capacity);
+        rows = new ArrayList<>(capacity);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void from(InputStream inputStream) throws IOException {
+        DataInputStreamEx dataInputStreamEx = dataInputStream(inputStream);
+        pageCount = dataInputStreamEx.getDataInputStream().readInt();
+        fieldCount = dataInputStreamEx.getDataInputStream().readInt();
+        List<Object> values = (List<Object>) dataInputStreamEx.readObject();
+        int size = values != null ? values.size() / (fieldCount + 1) : 0;
+        rowKeys = new ArrayList<>(size);
+        rows = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            int offset = i * (fieldCount + 1);
+            rowKeys.add((String) values.get(offset));
+            Object[] row = new Object[fieldCount];
+            for(int j = 0; j < fieldCount; j++) {
+                row[j] = values.get(offset + 1 + j);
+            }
+            rows.add(row);
+        }
+    }
+
+    @Override
+    public void to(OutputStream outputStream) throws IOException {
+        DataOutputStreamEx dataOutputStreamEx = dataOutputStream(outputStream);
+        dataOutputStreamEx.getDataOutputStream().writeInt(pageCount);
+        dataOutputStreamEx.getDataOutputStream().writeInt(fieldCount);
+        List<Object> values = new ArrayList<>(rows.size() * (fieldCount + 1));
+        for(int i = 0; i < rows.size(); i++) {
+            values.add(rowKeys.get(i));
+            for(Object value : rows.get(i)) {
+                values.add(value);
+            }
+        }
+        dataOutputStreamEx.writeObject(values);
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    public int indexOf(String rowKey) {
+        return rowKeys.indexOf(rowKey);
+    }
+
+    public void add(String rowKey, Object[] row) {
+        rowKeys.add(rowKey);
+        rows.add(row);
+    }
+
+    public void set(int index, Object[] row) {
+        rows.set(index, row);
+    }
+
+    public void remove(int index) {
+        rowKeys.remove(index);
+        rows.remove(index);
+    }
+
+    public String getRowKey(int index) {
+        return rowKeys.get(index);
+    }
+
+    public Object[] getRow(int index) {
+        return rows.get(index);
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public void setPageCount(int pageCount) {
+        this.pageCount = pageCount;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+}
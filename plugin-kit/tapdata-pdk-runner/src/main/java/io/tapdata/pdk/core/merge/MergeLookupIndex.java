@@ -0,0 +1,625 @@
+package io.tapdata.pdk.core.merge;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.event.dml.TapDeleteRecordEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.event.dml.TapRecordEvent;
+import io.tapdata.entity.event.dml.TapUpdateRecordEvent;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.schema.TapTable;
+import io.tapdata.entity.schema.value.DateTime;
+import io.tapdata.entity.utils.DataMap;
+import io.tapdata.entity.utils.cache.KVMap;
+import io.tapdata.pdk.apis.entity.CompiledAdvanceFilter;
+import io.tapdata.pdk.apis.entity.merge.MergeLookupResult;
+import io.tapdata.pdk.apis.entity.merge.MergeTableProperties;
+import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Secondary index of a child table on its join keys, stored in a {@link KVMap}, for the lookups of master/detail merges.
+ * 主从合并的子表关联键索引， 按关联键分页存储投影字段， 批量查找
+ * <p>
+ * The rows of a join key are stored in pages of page size rows under ordered keys, the index name, the encoded join key and the page number,
+ * the first page keeps the count of the pages, a lookup reads the pages of the join key in order instead of a value per child record.
+ * Only the projected fields are stored in the pages and returned, the full child records are not read to merge.
+ * <p>
+ * The join keys are the "source" fields of {@link MergeTableProperties#getJoinKeys()} in the child records and the "target" fields in the parent records.
+ * Join values of different number classes are the same key, 1, 1L and 1.0 find the same rows.
+ * <p>
+ * Changes are given in batches, the changes of a join key in a batch read and write its pages once.
+ * An update moves the row to the pages of the new join key when the before of the event has the old join key,
+ * or with the locator map, which keeps the join key of each row key for the updates without before.
+ * Updates and deletes without the join fields in the before need the locator map, they fail without it instead of leaving the row under the old join key.
+ * Inserts and upserts of records have no before, without the locator map they are taken as new rows or rows on the same join key,
+ * give the locator map when a row may be inserted again under another join key, otherwise it is stored under both.
+ * The after of an update may have the changed fields only, the primary keys and join fields missing in it are taken from the before or the locator map,
+ * the projected fields missing in both are kept from the stored row.
+ * Not thread safe, the changes and the lookups of an index are serialized by the caller.
+ */
+public class MergeLookupIndex implements MemoryFetcher {
+    private static final char SEPARATOR = '\u0001';
+    private static final String NULL_VALUE = "\u0000";
+
+    private final String name;
+    private KVMap<MergeIndexPage> pageMap;
+    private KVMap<String> locatorMap;
+    private TapTable table;
+    private MergeTableProperties mergeTableProperties;
+    private String[] joinFields;
+    private String[] parentJoinFields;
+    private String[] primaryKeys;
+    private String[] projectionFields;
+    private int pageSize = 256;
+
+    private final LongAdder pagesRead = new LongAdder();
+    private final LongAdder pagesWritten = new LongAdder();
+    private final LongAdder pagesRemoved = new LongAdder();
+    private final LongAdder rowsChanged = new LongAdder();
+    private final LongAdder lookupKeys = new LongAdder();
+    private final LongAdder rowsReturned = new LongAdder();
+
+    public MergeLookupIndex(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param pageMap the KV storage of the pages, may be shared by the indexes of different names
+     */
+    public MergeLookupIndex withPageMap(KVMap<MergeIndexPage> pageMap) {
+        this.pageMap = pageMap;
+        return this;
+    }
+
+    /**
+     * @param locatorMap the join key of each row key, optional, needed by the updates and deletes without the join fields in the before
+     *                   and by the inserts of rows which may be under another join key
+     */
+    public MergeLookupIndex withLocatorMap(KVMap<String> locatorMap) {
+        this.locatorMap = locatorMap;
+        return this;
+    }
+
+    /**
+     * @param table the child table, its primary keys are the row keys and its fields are projected by default
+     */
+    public MergeLookupIndex withTable(TapTable table) {
+        this.table = table;
+        return this;
+    }
+
+    /**
+     * @param mergeTableProperties the join keys of the child table, "source" is the field of the child and "target" the field of the parent
+     */
+    public MergeLookupIndex withMergeTableProperties(MergeTableProperties mergeTableProperties) {
+        this.mergeTableProperties = mergeTableProperties;
+        return this;
+    }
+
+    /**
+     * @param joinFields the fields of the child to index, when the parent has the same fields
+     */
+    public MergeLookupIndex withJoinFields(List<String> joinFields) {
+        this.joinFields = joinFields.toArray(new String[0]);
+        return this;
+    }
+
+    public MergeLookupIndex withPrimaryKeys(Collection<String> primaryKeys) {
+        this.primaryKeys = primaryKeys.toArray(new String[0]);
+        return this;
+    }
+
+    /**
+     * @param projectionFields the fields stored in the index and returned by the lookups
+     */
+    public MergeLookupIndex withProjection(Collection<String> projectionFields) {
+        this.projectionFields = projectionFields.toArray(new String[0]);
+        return this;
+    }
+
+    public MergeLookupIndex withPageSize(int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Check the settings, called before the first change or lookup
+     */
+    public MergeLookupIndex init() {
+        if(pageMap == null)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "MergeLookupIndex {} missing pageMap", name);
+        if(pageSize <= 0)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "MergeLookupIndex {} illegal pageSize {}", name, pageSize);
+        if(mergeTableProperties != null && mergeTableProperties.getJoinKeys() != null && !mergeTableProperties.getJoinKeys().isEmpty()) {
+            List<Map<String, String>> joinKeys = mergeTableProperties.getJoinKeys();
+            joinFields = new String[joinKeys.size()];
+            parentJoinFields = new String[joinKeys.size()];
+            for(int i = 0; i < joinKeys.size(); i++) {
+                joinFields[i] = joinKeys.get(i).get("source");
+                parentJoinFields[i] = joinKeys.get(i).get("target");
+                if(joinFields[i] == null || parentJoinFields[i] == null)
+                    throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "MergeLookupIndex {} join key {} needs source and target", name, joinKeys.get(i));
+            }
+        }
+        if(joinFields == null || joinFields.length == 0)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "MergeLookupIndex {} missing join fields", name);
+        if(parentJoinFields == null)
+            parentJoinFields = joinFields;
+        if(primaryKeys == null && table != null) {
+            Collection<String> tablePrimaryKeys = table.primaryKeys(true);
+            if(tablePrimaryKeys != null && !tablePrimaryKeys.isEmpty())
+                primaryKeys = tablePrimaryKeys.toArray(new String[0]);
+        }
+        if(primaryKeys == null || primaryKeys.length == 0)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "MergeLookupIndex {} missing primary keys", name);
+        if(projectionFields == null && table != null && table.getNameFieldMap() != null)
+            projectionFields = table.getNameFieldMap().keySet().toArray(new String[0]);
+        if(projectionFields == null || projectionFields.length == 0)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "MergeLookupIndex {} missing projection", name);
+        return this;
+    }
+
+    /**
+     * A change of a row, the rows are deleted by the row key
+     */
+    private static class RowChange {
+        private final String rowKey;
+        private final Object[] row;
+        /**
+         * The projected fields given by the change, null if all of them are given
+         */
+        private final boolean[] present;
+
+        RowChange(String rowKey, Object[] row) {
+            this(rowKey, row, null);
+        }
+
+        RowChange(String rowKey, Object[] row, boolean[] present) {
+            this.rowKey = rowKey;
+            this.row = row;
+            this.present = present;
+        }
+
+        /**
+         * @return the stored row with the fields of the change, a new array, the stored row may be shared by the page cache
+         */
+        Object[] merge(Object[] stored) {
+            if(present == null || stored == null)
+                return row;
+            Object[] merged = Arrays.copyOf(stored, row.length);
+            for(int i = 0; i < row.length; i++) {
+                if(present[i])
+                    merged[i] = row[i];
+            }
+            return merged;
+        }
+    }
+
+    /**
+     * Apply the record events of the child table, in the order of the events for each row
+     */
+    public void apply(List<TapRecordEvent> events) {
+        Map<String, List<RowChange>> keyChangesMap = new LinkedHashMap<>();
+        Map<String, String> locatorChanges = locatorMap != null ? new LinkedHashMap<>() : null;
+        for(TapRecordEvent event : events) {
+            if(event instanceof TapInsertRecordEvent) {
+                upsert(((TapInsertRecordEvent) event).getAfter(), null, false, keyChangesMap, locatorChanges);
+            } else if(event instanceof TapUpdateRecordEvent) {
+                TapUpdateRecordEvent updateRecordEvent = (TapUpdateRecordEvent) event;
+                upsert(updateRecordEvent.getAfter(), updateRecordEvent.getBefore(), true, keyChangesMap, locatorChanges);
+            } else if(event instanceof TapDeleteRecordEvent) {
+                delete(((TapDeleteRecordEvent) event).getBefore(), keyChangesMap, locatorChanges);
+            }
+        }
+        flush(keyChangesMap, locatorChanges);
+    }
+
+    /**
+     * Insert or update the child records
+     */
+    public void upsert(List<Map<String, Object>> records) {
+        Map<String, List<RowChange>> keyChangesMap = new LinkedHashMap<>();
+        Map<String, String> locatorChanges = locatorMap != null ? new LinkedHashMap<>() : null;
+        for(Map<String, Object> record : records) {
+            upsert(record, null, false, keyChangesMap, locatorChanges);
+        }
+        flush(keyChangesMap, locatorChanges);
+    }
+
+    /**
+     * Delete the child records, the records need the join fields and the primary keys
+     */
+    public void delete(List<Map<String, Object>> records) {
+        Map<String, List<RowChange>> keyChangesMap = new LinkedHashMap<>();
+        Map<String, String> locatorChanges = locatorMap != null ? new LinkedHashMap<>() : null;
+        for(Map<String, Object> record : records) {
+            delete(record, keyChangesMap, locatorChanges);
+        }
+        flush(keyChangesMap, locatorChanges);
+    }
+
+    /**
+     * @param update the after of an update may have the changed fields only, the after of an insert is the whole row
+     */
+    private void upsert(Map<String, Object> after, Map<String, Object> before, boolean update, Map<String, List<RowChange>> keyChangesMap, Map<String, String> locatorChanges) {
+        if(after == null)
+            return;
+        //The fields missing in the after of an update are not changed
+        Map<String, Object> keyValues = after;
+        if(before != null && !(containsAll(after, primaryKeys) && containsAll(after, joinFields))) {
+            keyValues = new HashMap<>(before);
+            keyValues.putAll(after);
+        }
+        String rowKey = encode(keyValues, primaryKeys);
+        String oldJoinKey = null;
+        if(before != null && containsAll(before, joinFields)) {
+            oldJoinKey = encode(before, joinFields);
+        } else if(locatorChanges != null) {
+            oldJoinKey = locatorChanges.containsKey(rowKey) ? locatorChanges.get(rowKey) : locatorMap.get(rowKey);
+        } else if(update) {
+            //The join key may be changed by the update, the row would be left under the old join key
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "MergeLookupIndex {} can not locate row {} to update, the join fields {} are not in the before and there is no locator", name, rowKey, Arrays.toString(joinFields));
+        }
+        String joinKey;
+        if(containsAll(keyValues, joinFields))
+            joinKey = encode(keyValues, joinFields);
+        else if(oldJoinKey != null)
+            joinKey = oldJoinKey;
+        else
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "MergeLookupIndex {} can not locate row {}, the join fields {} are neither in the after nor the before and no locator has it", name, rowKey, Arrays.toString(joinFields));
+
+        Object[] row = new Object[projectionFields.length];
+        boolean[] present = null;
+        for(int i = 0; i < projectionFields.length; i++) {
+            String field = projectionFields[i];
+            if(after.containsKey(field)) {
+                row[i] = after.get(field);
+            } else if(before != null && before.containsKey(field)) {
+                row[i] = before.get(field);
+            } else if(update) {
+                //Kept from the stored row
+                if(present == null) {
+                    present = new boolean[projectionFields.length];
+                    Arrays.fill(present, true);
+                }
+                present[i] = false;
+            }
+        }
+        if(oldJoinKey != null && !oldJoinKey.equals(joinKey)) {
+            if(present != null) {
+                //Moved, the fields kept are read from the old join key before the row is removed there
+                row = new RowChange(rowKey, row, present).merge(storedRow(oldJoinKey, rowKey, keyChangesMap.get(oldJoinKey)));
+                present = null;
+            }
+            keyChangesMap.computeIfAbsent(oldJoinKey, key -> new ArrayList<>()).add(new RowChange(rowKey, null));
+        }
+        keyChangesMap.computeIfAbsent(joinKey, key -> new ArrayList<>()).add(new RowChange(rowKey, row, present));
+        if(locatorChanges != null)
+            locatorChanges.put(rowKey, joinKey);
+    }
+
+    /**
+     * @param pendingChanges the changes of the join key not flushed yet, applied on the stored row in order
+     * @return the row of the row key under the join key, null if there is none
+     */
+    private Object[] storedRow(String joinKey, String rowKey, List<RowChange> pendingChanges) {
+        Object[] row = null;
+        for(MergeIndexPage page : readPages(joinKey)) {
+            int index = page.indexOf(rowKey);
+            if(index >= 0) {
+                row = page.getRow(index);
+                break;
+            }
+        }
+        if(pendingChanges != null) {
+            for(RowChange change : pendingChanges) {
+                if(change.rowKey.equals(rowKey))
+                    row = change.row == null ? null : change.merge(row);
+            }
+        }
+        return row;
+    }
+
+    private void delete(Map<String, Object> before, Map<String, List<RowChange>> keyChangesMap, Map<String, String> locatorChanges) {
+        if(before == null)
+            return;
+        String rowKey = encode(before, primaryKeys);
+        String joinKey = null;
+        if(containsAll(before, joinFields))
+            joinKey = encode(before, joinFields);
+        else if(locatorChanges != null)
+            joinKey = locatorChanges.containsKey(rowKey) ? locatorChanges.get(rowKey) : locatorMap.get(rowKey);
+        else
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "MergeLookupIndex {} can not locate row {} to delete, the join fields {} are not in the before and there is no locator", name, rowKey, Arrays.toString(joinFields));
+        //Null if the row is not indexed or deleted already
+        if(joinKey != null)
+            keyChangesMap.computeIfAbsent(joinKey, key -> new ArrayList<>()).add(new RowChange(rowKey, null));
+        if(locatorChanges != null)
+            locatorChanges.put(rowKey, null);
+    }
+
+    private void flush(Map<String, List<RowChange>> keyChangesMap, Map<String, String> locatorChanges) {
+        for(Map.Entry<String, List<RowChange>> entry : keyChangesMap.entrySet()) {
+            applyChanges(entry.getKey(), entry.getValue());
+        }
+        if(locatorChanges != null) {
+            for(Map.Entry<String, String> entry : locatorChanges.entrySet()) {
+                if(entry.getValue() != null)
+                    locatorMap.put(entry.getKey(), entry.getValue());
+                else
+                    locatorMap.remove(entry.getKey());
+            }
+        }
+    }
+
+    private void applyChanges(String joinKey, List<RowChange> changes) {
+        List<MergeIndexPage> pages = readPages(joinKey);
+        int oldPageCount = pages.size();
+        Set<Integer> dirtyPages = new HashSet<>();
+        boolean removed = false;
+        //Located when there are changes enough, appended rows are added to it
+        Map<String, Integer> rowKeyPageMap = null;
+        if(changes.size() > 1 && !pages.isEmpty()) {
+            rowKeyPageMap = new HashMap<>();
+            for(int p = 0; p < pages.size(); p++) {
+                MergeIndexPage page = pages.get(p);
+                for(int i = 0; i < page.size(); i++) {
+                    rowKeyPageMap.put(page.getRowKey(i), p);
+                }
+            }
+        }
+        for(RowChange change : changes) {
+            int pageNo = -1;
+            int index = -1;
+            if(rowKeyPageMap != null) {
+                Integer located = rowKeyPageMap.get(change.rowKey);
+                if(located != null) {
+                    pageNo = located;
+                    index = pages.get(pageNo).indexOf(change.rowKey);
+                }
+            } else {
+                for(int p = 0; p < pages.size() && index < 0; p++) {
+                    index = pages.get(p).indexOf(change.rowKey);
+                    if(index >= 0)
+                        pageNo = p;
+                }
+            }
+            if(change.row == null) {
+                if(index >= 0) {
+                    pages.get(pageNo).remove(index);
+                    if(rowKeyPageMap != null)
+                        rowKeyPageMap.remove(change.rowKey);
+                    removed = true;
+                    rowsChanged.increment();
+                }
+                continue;
+            }
+            if(index >= 0) {
+                MergeIndexPage page = pages.get(pageNo);
+                page.set(index, change.merge(page.getRow(index)));
+            } else {
+                pageNo = pages.size() - 1;
+                if(pageNo < 0 || pages.get(pageNo).size() >= pageSize) {
+                    pages.add(new MergeIndexPage(projectionFields.length, pageSize));
+                    pageNo++;
+                }
+                pages.get(pageNo).add(change.rowKey, change.row);
+                if(rowKeyPageMap != null)
+                    rowKeyPageMap.put(change.rowKey, pageNo);
+            }
+            dirtyPages.add(pageNo);
+            rowsChanged.increment();
+        }
+        if(removed) {
+            //Pack the rows left into full pages, the pages after are removed
+            List<MergeIndexPage> packed = new ArrayList<>();
+            for(MergeIndexPage page : pages) {
+                for(int i = 0; i < page.size(); i++) {
+                    if(packed.isEmpty() || packed.get(packed.size() - 1).size() >= pageSize)
+                        packed.add(new MergeIndexPage(projectionFields.length, pageSize));
+                    packed.get(packed.size() - 1).add(page.getRowKey(i), page.getRow(i));
+                }
+            }
+            pages = packed;
+            dirtyPages.clear();
+            for(int p = 0; p < pages.size(); p++) {
+                dirtyPages.add(p);
+            }
+        }
+        if(pages.size() != oldPageCount)
+            dirtyPages.add(0);
+        for(int p : dirtyPages) {
+            if(p < pages.size()) {
+                MergeIndexPage page = pages.get(p);
+                if(p == 0)
+                    page.setPageCount(pages.size());
+                pageMap.put(pageKey(joinKey, p), page);
+                pagesWritten.increment();
+            }
+        }
+        for(int p = pages.size(); p < oldPageCount; p++) {
+            pageMap.remove(pageKey(joinKey, p));
+            pagesRemoved.increment();
+        }
+    }
+
+    /**
+     * @return the pages of the join key in order, empty if there is no row
+     */
+    private List<MergeIndexPage> readPages(String joinKey) {
+        MergeIndexPage head = pageMap.get(pageKey(joinKey, 0));
+        if(head == null)
+            return new ArrayList<>();
+        pagesRead.increment();
+        List<MergeIndexPage> pages = new ArrayList<>(head.getPageCount());
+        pages.add(head);
+        for(int p = 1; p < head.getPageCount(); p++) {
+            MergeIndexPage page = pageMap.get(pageKey(joinKey, p));
+            if(page == null)
+                break;
+            pagesRead.increment();
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    /**
+     * Look up the child rows of the parent records, each join key is read once for the batch.
+     *
+     * @return the projected child rows of each parent, in the order of the parents, the parents of the same join key share the list
+     */
+    public List<List<Map<String, Object>>> lookup(List<Map<String, Object>> parents) {
+        return lookup(parents, null);
+    }
+
+    /**
+     * @param filter the child rows returned match the filter, only the projected fields can be filtered, its projection, sort and limit are applied to the rows of each parent
+     */
+    public List<List<Map<String, Object>>> lookup(List<Map<String, Object>> parents, CompiledAdvanceFilter filter) {
+        Map<String, List<Map<String, Object>>> keyRowsMap = new HashMap<>();
+        List<List<Map<String, Object>>> results = new ArrayList<>(parents.size());
+        for(Map<String, Object> parent : parents) {
+            if(parent == null || !containsAll(parent, parentJoinFields)) {
+                results.add(Collections.emptyList());
+                continue;
+            }
+            String joinKey = encode(parent, parentJoinFields);
+            List<Map<String, Object>> rows = keyRowsMap.get(joinKey);
+            if(rows == null) {
+                rows = readRows(joinKey, filter);
+                keyRowsMap.put(joinKey, rows);
+                lookupKeys.increment();
+            }
+            rowsReturned.add(rows.size());
+            results.add(rows);
+        }
+        return results;
+    }
+
+    private List<Map<String, Object>> readRows(String joinKey, CompiledAdvanceFilter filter) {
+        List<MergeIndexPage> pages = readPages(joinKey);
+        if(pages.isEmpty())
+            return Collections.emptyList();
+        CompiledAdvanceFilter.Selector selector = filter != null ? filter.selector() : null;
+        List<Map<String, Object>> rows = selector == null ? new ArrayList<>() : null;
+        for(MergeIndexPage page : pages) {
+            for(int i = 0; i < page.size(); i++) {
+                Object[] values = page.getRow(i);
+                Map<String, Object> row = new LinkedHashMap<>(projectionFields.length * 2);
+                for(int j = 0; j < projectionFields.length && j < values.length; j++) {
+                    row.put(projectionFields[j], values[j]);
+                }
+                if(selector == null)
+                    rows.add(row);
+                else if(!selector.accept(row))
+                    return selector.results();
+            }
+        }
+        return selector == null ? rows : selector.results();
+    }
+
+    /**
+     * @return the lookup results of the parents for the merge, one result for each child row
+     */
+    public List<List<MergeLookupResult>> lookupMergeResults(List<Map<String, Object>> parents) {
+        List<List<Map<String, Object>>> rowsList = lookup(parents);
+        List<List<MergeLookupResult>> results = new ArrayList<>(rowsList.size());
+        for(List<Map<String, Object>> rows : rowsList) {
+            List<MergeLookupResult> mergeLookupResults = new ArrayList<>(rows.size());
+            for(Map<String, Object> row : rows) {
+                MergeLookupResult mergeLookupResult = new MergeLookupResult();
+                mergeLookupResult.setProperty(mergeTableProperties);
+                mergeLookupResult.setTapTable(table);
+                mergeLookupResult.setData(row);
+                mergeLookupResults.add(mergeLookupResult);
+            }
+            results.add(mergeLookupResults);
+        }
+        return results;
+    }
+
+    private String pageKey(String joinKey, int pageNo) {
+        return name + SEPARATOR + joinKey + SEPARATOR + pageNo;
+    }
+
+    private static boolean containsAll(Map<String, Object> record, String[] fields) {
+        for(String field : fields) {
+            if(!record.containsKey(field))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Values of the same number, date time or string give the same key, whatever the class
+     */
+    static String encode(Map<String, Object> record, String[] fields) {
+        if(fields.length == 1)
+            return encodeValue(record.get(fields[0]));
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < fields.length; i++) {
+            if(i > 0)
+                builder.append(SEPARATOR);
+            builder.append(encodeValue(record.get(fields[i])));
+        }
+        return builder.toString();
+    }
+
+    private static String encodeValue(Object value) {
+        if(value == null)
+            return NULL_VALUE;
+        if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte || value instanceof BigInteger)
+            return value.toString();
+        if(value instanceof Double || value instanceof Float) {
+            double doubleValue = ((Number) value).doubleValue();
+            if(doubleValue == Math.rint(doubleValue) && !Double.isInfinite(doubleValue) && Math.abs(doubleValue) < 1e18)
+                return Long.toString((long) doubleValue);
+            return BigDecimal.valueOf(doubleValue).stripTrailingZeros().toPlainString();
+        }
+        if(value instanceof BigDecimal)
+            return ((BigDecimal) value).stripTrailingZeros().toPlainString();
+        if(value instanceof DateTime) {
+            DateTime dateTime = (DateTime) value;
+            return dateTime.getSeconds() + "." + dateTime.getNano();
+        }
+        if(value instanceof Date) {
+            long time = ((Date) value).getTime();
+            return Math.floorDiv(time, 1000L) + "." + Math.floorMod(time, 1000L) * 1000000;
+        }
+        return value.toString();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getPagesRead() {
+        return pagesRead.sum();
+    }
+
+    public long getPagesWritten() {
+        return pagesWritten.sum();
+    }
+
+    @Override
+    public DataMap memory(String keyRegex, String memoryLevel) {
+        return DataMap.create().keyRegex(keyRegex)
+                .kv("name", name)
+                .kv("table", table != null ? table.getId() : null)
+                .kv("joinFields", joinFields != null ? Arrays.toString(joinFields) : null)
+                .kv("parentJoinFields", parentJoinFields != null ? Arrays.toString(parentJoinFields) : null)
+                .kv("projectionFields", projectionFields != null ? projectionFields.length : 0)
+                .kv("pageSize", pageSize)
+                .kv("locator", locatorMap != null)
+                .kv("pagesRead", pagesRead.sum())
+                .kv("pagesWritten", pagesWritten.sum())
+                .kv("pagesRemoved", pagesRemoved.sum())
+                .kv("rowsChanged", rowsChanged.sum())
+                .kv("lookupKeys", lookupKeys.sum())
+                .kv("rowsReturned", rowsReturned.sum());
+    }
+}
@@ -3,6 +3,7 @@ package io.tapdata.pdk.core.monitor;
 import io.tapdata.entity.utils.DataMap;
 import io.tapdata.pdk.apis.functions.PDKMethod;
 import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.memory.MemorySink;
 import io.tapdata.pdk.core.utils.CommonUtils;
 
 import java.util.Date;
@@ -82,4 +83,25 @@ public class InvocationCollector implements MemoryFetcher {
 
         return dataMap;
     }
+
+    @Override
+    public void writeMemory(String memoryLevel, MemorySink sink) {
+        sink.kv("counter", counter.longValue())
+                .kv("totalTakes", totalTakes.longValue());
+        if(memoryLevel != null && memoryLevel.equalsIgnoreCase(MemoryFetcher.MEMORY_LEVEL_SUMMARY)) {
+            sink.kv("totalInvocation", invokeIdTimeMap.size());
+            return;
+        }
+        sink.startObject("invokeIdTimeMap");
+        for(Map.Entry<String, Long> entry : invokeIdTimeMap.entrySet()) {
+            if(sink.isFull())
+                break;
+            if(entry.getValue() != null && sink.matches(entry.getKey()))
+                sink.kv(entry.getKey(), map(
+                                entry("runningAt", CommonUtils.dateString(new Date(entry.getValue()))),
+                                entry("usedMilliseconds", System.currentTimeMillis() - entry.getValue())
+                        ));
+        }
+        sink.endObject();
+    }
 }
@@ -3,6 +3,7 @@ package io.tapdata.pdk.core.monitor;
 import io.tapdata.entity.error.CoreException;
 import io.tapdata.entity.logger.TapLogger;
 import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.memory.MemorySink;
 import io.tapdata.entity.utils.DataMap;
 import io.tapdata.exception.TapCodeException;
 import io.tapdata.pdk.apis.functions.PDKMethod;
@@ -258,6 +259,20 @@ public class PDKInvocationMonitor implements MemoryFetcher {
         return dataMap;
     }
 
+    @Override
+    public void writeMemory(String memoryLevel, MemorySink sink) {
+        String keyRegex = sink.getKeyRegex();
+        for(Map.Entry<PDKMethod, InvocationCollector> entry : methodInvocationCollectorMap.entrySet()) {
+            if(sink.isFull())
+                break;
+            if(keyRegex != null && !keyRegex.isEmpty() && !keyRegex.contains(entry.getKey().name()))
+                continue;
+            sink.startObject(entry.getKey().name());
+            entry.getValue().writeMemory(memoryLevel, sink);
+            sink.endObject();
+        }
+    }
+
     /**
      最大重试时间----最大重试次数----重试间隔时间
      |-1.最大重试时间小于0:
@@ -0,0 +1,335 @@
+package io.tapdata.pdk.core.schema;
+
+import io.tapdata.entity.codec.filter.TapCodecsFilterManager;
+import io.tapdata.entity.conversion.TableFieldTypesGenerator;
+import io.tapdata.entity.conversion.TargetTypesGenerator;
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.logger.TapLogger;
+import io.tapdata.entity.mapping.DefaultExpressionMatchingMap;
+import io.tapdata.entity.result.TapResult;
+import io.tapdata.entity.schema.TapField;
+import io.tapdata.entity.schema.TapSchemaMemory;
+import io.tapdata.entity.schema.TapTable;
+import io.tapdata.entity.schema.TapTableMemoryFetcher;
+import io.tapdata.entity.utils.InstanceFactory;
+import io.tapdata.pdk.core.api.ConnectionNode;
+import io.tapdata.pdk.core.api.PDKIntegration;
+import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+import io.tapdata.pdk.core.executor.ThreadFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Load the tables of discoverSchema while the connector is still discovering.
+ * 边发现边处理， 不必等全部表发现完再逐张做类型映射
+ *
+ * Discovered tables are put into a bounded queue, the connector is blocked when the workers fall behind.
+ * Each worker fills the TapTypes from the source data types, interns the field metadata and converts the fields to the target data types,
+ * then hands the table to the table consumer. The consumer is called by the workers concurrently, tables are in the order they are done.
+ *
+ * <pre>
+ *     SchemaLoadingPipeline pipeline = new SchemaLoadingPipeline()
+ *          .withSourceMatchingMap(sourceMatchingMap)
+ *          .withTarget(targetMatchingMap, targetCodecsFilterManager)
+ *          .withTableConsumer(loadedTable -> ...);
+ *     pipeline.load(connectionNode, null, 100);
+ * </pre>
+ */
+public class SchemaLoadingPipeline implements Consumer<List<TapTable>> {
+    private static final String TAG = SchemaLoadingPipeline.class.getSimpleName();
+
+    private String name = TAG;
+    private int parallelism = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private int queueCapacity = 1000;
+    private DefaultExpressionMatchingMap sourceMatchingMap;
+    private DefaultExpressionMatchingMap targetMatchingMap;
+    private TapCodecsFilterManager targetCodecsFilterManager;
+    private TapFieldInterner fieldInterner = new TapFieldInterner();
+    private boolean compactMemory = TapSchemaMemory.isCompactMemory();
+    private Consumer<LoadedTable> tableConsumer;
+    private String memoryKey;
+    private Queue<TapTable> memoryTables;
+
+    private BlockingQueue<TapTable> tableQueue;
+    private ExecutorService executorService;
+    private final List<Future<?>> workerFutures = new ArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean discoveryFinished;
+
+    private final LongAdder discoveredCounter = new LongAdder();
+    private final LongAdder loadedCounter = new LongAdder();
+    private long startTime;
+    private volatile long firstTableTakes = -1;
+    private volatile long takes = -1;
+
+    public SchemaLoadingPipeline withName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public SchemaLoadingPipeline withParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public SchemaLoadingPipeline withQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * Fill TapType of fields from their data types by the source connector's data type expressions.
+     */
+    public SchemaLoadingPipeline withSourceMatchingMap(DefaultExpressionMatchingMap sourceMatchingMap) {
+        this.sourceMatchingMap = sourceMatchingMap;
+        return this;
+    }
+
+    /**
+     * Convert the fields to the target connector's data types, see {@link TargetTypesGenerator}.
+     */
+    public SchemaLoadingPipeline withTarget(DefaultExpressionMatchingMap targetMatchingMap, TapCodecsFilterManager targetCodecsFilterManager) {
+        this.targetMatchingMap = targetMatchingMap;
+        this.targetCodecsFilterManager = targetCodecsFilterManager;
+        return this;
+    }
+
+    /**
+     * @param fieldInterner null to keep the field metadata of every table as discovered
+     */
+    public SchemaLoadingPipeline withFieldInterner(TapFieldInterner fieldInterner) {
+        this.fieldInterner = fieldInterner;
+        return this;
+    }
+
+    /**
+     * Store the loaded tables in the compact memory mode, see {@link TapSchemaMemory}, default by property tap_schema_compact_memory.
+     */
+    public SchemaLoadingPipeline withCompactMemory(boolean compactMemory) {
+        this.compactMemory = compactMemory;
+        return this;
+    }
+
+    /**
+     * Report the memory of the loaded tables by a {@link TapTableMemoryFetcher} registered in {@link PDKIntegration} with the key when started.
+     * The fetcher keeps the loaded tables, it stays registered after loading as long as the tables are cached,
+     * unregister it by {@link PDKIntegration#unregisterMemoryFetcher(String)} when the tables are released.
+     */
+    public SchemaLoadingPipeline withMemoryKey(String memoryKey) {
+        this.memoryKey = memoryKey;
+        return this;
+    }
+
+    public SchemaLoadingPipeline withTableConsumer(Consumer<LoadedTable> tableConsumer) {
+        this.tableConsumer = tableConsumer;
+        return this;
+    }
+
+    /**
+     * Discover the tables by the connection node and load them, return when all tables are loaded.
+     */
+    public void load(ConnectionNode connectionNode, List<String> tables, int tableSize) throws Throwable {
+        start();
+        try {
+            connectionNode.discoverSchema(tables, tableSize, this);
+            finish();
+        } finally {
+            stop();
+        }
+    }
+
+    public synchronized SchemaLoadingPipeline start() {
+        if(executorService != null)
+            return this;
+        if(parallelism <= 0 || queueCapacity <= 0)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "Illegal parameters parallelism {} queueCapacity {} for {}", parallelism, queueCapacity, name);
+        if(targetMatchingMap != null && targetCodecsFilterManager == null)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "Target codecs filter manager is required to convert to target types for {}", name);
+        //TapMappings are built lazily into the matching maps while iterating, build them before the workers share the maps.
+        if(sourceMatchingMap != null)
+            sourceMatchingMap.iterate(expressionValueEntry -> false);
+        if(targetMatchingMap != null)
+            targetMatchingMap.iterate(expressionValueEntry -> false);
+
+        if(memoryKey != null && memoryTables == null) {
+            memoryTables = new ConcurrentLinkedQueue<>();
+            PDKIntegration.registerMemoryFetcher(memoryKey, new TapTableMemoryFetcher(() -> memoryTables));
+        }
+        startTime = System.currentTimeMillis();
+        discoveryFinished = false;
+        tableQueue = new ArrayBlockingQueue<>(queueCapacity);
+        executorService = Executors.newFixedThreadPool(parallelism, new ThreadFactory(name, true, null));
+        for(int i = 0; i < parallelism; i++) {
+            workerFutures.add(executorService.submit(this::work));
+        }
+        return this;
+    }
+
+    /**
+     * Consumer for discoverSchema, blocked when the queue is full.
+     */
+    @Override
+    public void accept(List<TapTable> tables) {
+        if(tables == null)
+            return;
+        if(tableQueue == null)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "{} is not started", name);
+        for(TapTable table : tables) {
+            if(table == null)
+                continue;
+            try {
+                while(!tableQueue.offer(table, 100, TimeUnit.MILLISECONDS)) {
+                    throwIfFailed();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CoreException(PDKRunnerErrorCodes.SOURCE_SCHEMA_LOADING_INTERRUPTED, e, "{} is interrupted after {} tables discovered", name, discoveredCounter.longValue());
+            }
+            discoveredCounter.increment();
+        }
+        throwIfFailed();
+    }
+
+    /**
+     * No more tables will be discovered, wait for the queued tables to be loaded.
+     */
+    public void finish() {
+        discoveryFinished = true;
+        try {
+            for(Future<?> future : workerFutures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CoreException(PDKRunnerErrorCodes.SOURCE_SCHEMA_LOADING_INTERRUPTED, e, "{} is interrupted after {} tables loaded", name, loadedCounter.longValue());
+        } catch (ExecutionException e) {
+            failure.compareAndSet(null, e.getCause());
+        }
+        throwIfFailed();
+        takes = System.currentTimeMillis() - startTime;
+        TapLogger.debug(TAG, "{} loaded {} tables, takes {}ms, first table takes {}ms", name, loadedCounter.longValue(), takes, firstTableTakes);
+    }
+
+    public synchronized void stop() {
+        discoveryFinished = true;
+        if(executorService != null) {
+            executorService.shutdownNow();
+            executorService = null;
+        }
+        workerFutures.clear();
+    }
+
+    private void work() {
+        try {
+            while(failure.get() == null) {
+                TapTable table = tableQueue.poll(100, TimeUnit.MILLISECONDS);
+                if(table == null) {
+                    if(discoveryFinished && tableQueue.isEmpty())
+                        break;
+                    continue;
+                }
+                load(table);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable throwable) {
+            failure.compareAndSet(null, throwable);
+        }
+    }
+
+    private void load(TapTable table) {
+        LinkedHashMap<String, TapField> nameFieldMap = table.getNameFieldMap();
+        TapResult<LinkedHashMap<String, TapField>> targetResult = null;
+        if(nameFieldMap != null) {
+            if(sourceMatchingMap != null)
+                InstanceFactory.instance(TableFieldTypesGenerator.class).autoFill(nameFieldMap, sourceMatchingMap);
+            if(fieldInterner != null)
+                fieldInterner.intern(table);
+            if(targetMatchingMap != null) {
+                targetResult = InstanceFactory.instance(TargetTypesGenerator.class).convert(table.getNameFieldMap(), targetMatchingMap, targetCodecsFilterManager);
+                if(fieldInterner != null && targetResult != null && targetResult.getData() != null)
+                    targetResult.data(fieldInterner.intern(targetResult.getData()));
+            }
+            if(compactMemory) {
+                //Canonicalized by the field interner already if there is one
+                TapSchemaMemory.compact(table, fieldInterner == null);
+                if(targetResult != null && targetResult.getData() != null)
+                    targetResult.data(TapSchemaMemory.compact(targetResult.getData(), fieldInterner == null));
+            }
+        }
+        if(memoryTables != null)
+            memoryTables.add(table);
+        if(firstTableTakes < 0) {
+            synchronized (this) {
+                if(firstTableTakes < 0)
+                    firstTableTakes = System.currentTimeMillis() - startTime;
+            }
+        }
+        loadedCounter.increment();
+        if(tableConsumer != null)
+            tableConsumer.accept(new LoadedTable(table, targetResult));
+    }
+
+    private void throwIfFailed() {
+        Throwable throwable = failure.get();
+        if(throwable != null) {
+            if(throwable instanceof CoreException)
+                throw (CoreException) throwable;
+            throw new CoreException(PDKRunnerErrorCodes.SOURCE_SCHEMA_LOADING_FAILED, throwable, "{} failed after {} tables loaded, {}", name, loadedCounter.longValue(), throwable.getMessage());
+        }
+    }
+
+    public long getDiscoveredCount() {
+        return discoveredCounter.longValue();
+    }
+
+    public long getLoadedCount() {
+        return loadedCounter.longValue();
+    }
+
+    /**
+     * @return milliseconds from start to the first table loaded, -1 if no table is loaded
+     */
+    public long getFirstTableTakes() {
+        return firstTableTakes;
+    }
+
+    /**
+     * @return milliseconds from start to all tables loaded, -1 if not finished
+     */
+    public long getTakes() {
+        return takes;
+    }
+
+    public TapFieldInterner getFieldInterner() {
+        return fieldInterner;
+    }
+
+    public static class LoadedTable {
+        private final TapTable table;
+        private final TapResult<LinkedHashMap<String, TapField>> targetResult;
+
+        public LoadedTable(TapTable table, TapResult<LinkedHashMap<String, TapField>> targetResult) {
+            this.table = table;
+            this.targetResult = targetResult;
+        }
+
+        public TapTable getTable() {
+            return table;
+        }
+
+        /**
+         * @return target fields and the warnings of the conversion, null if no target is given
+         */
+        public TapResult<LinkedHashMap<String, TapField>> getTargetResult() {
+            return targetResult;
+        }
+    }
+}
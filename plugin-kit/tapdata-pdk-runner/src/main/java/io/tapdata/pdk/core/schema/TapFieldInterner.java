@@ -0,0 +1,96 @@
+package io.tapdata.pdk.core.schema;
+
+import io.tapdata.entity.schema.TapField;
+import io.tapdata.entity.schema.TapSchemaMemory;
+import io.tapdata.entity.schema.TapTable;
+import io.tapdata.entity.schema.type.TapType;
+import io.tapdata.entity.schema.type.TapTypeSignature;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Share the repeated metadata of columns between tables, the column names, data types, comments and TapType instances.
+ * 上万张表的列定义大量重复， 相同的字符串和 TapType 只保留一份
+ *
+ * The interned TapType instances are shared by fields, they must not be changed in place after interning, set a new TapType instead.
+ * The interner lives as long as the loading, the tables keep the shared instances after it is gone.
+ * The fields are canonicalized the same way as {@link TapSchemaMemory}, only by the maps of this interner instead of the global ones.
+ */
+public class TapFieldInterner {
+    private final Map<String, String> stringMap = new ConcurrentHashMap<>();
+    private final Map<TapTypeSignature, TapType> tapTypeMap = new ConcurrentHashMap<>();
+    private final LongAdder fieldCounter = new LongAdder();
+    private final LongAdder sharedStringCounter = new LongAdder();
+    private final LongAdder sharedTapTypeCounter = new LongAdder();
+
+    public TapTable intern(TapTable table) {
+        LinkedHashMap<String, TapField> nameFieldMap = table.getNameFieldMap();
+        if(nameFieldMap == null || nameFieldMap.isEmpty())
+            return table;
+        table.setNameFieldMap(intern(nameFieldMap));
+        return table;
+    }
+
+    public LinkedHashMap<String, TapField> intern(LinkedHashMap<String, TapField> nameFieldMap) {
+        if(nameFieldMap == null)
+            return null;
+        LinkedHashMap<String, TapField> internedMap = new LinkedHashMap<>((int) (nameFieldMap.size() / 0.75f) + 1);
+        for(Map.Entry<String, TapField> entry : nameFieldMap.entrySet()) {
+            TapField field = intern(entry.getValue());
+            internedMap.put(intern(entry.getKey()), field);
+        }
+        return internedMap;
+    }
+
+    public TapField intern(TapField field) {
+        if(field == null)
+            return null;
+        fieldCounter.increment();
+        return TapSchemaMemory.canonicalize(field, this::intern, this::intern);
+    }
+
+    public String intern(String str) {
+        if(str == null)
+            return null;
+        String interned = stringMap.putIfAbsent(str, str);
+        if(interned == null)
+            return str;
+        if(interned != str)
+            sharedStringCounter.increment();
+        return interned;
+    }
+
+    public TapType intern(TapType tapType) {
+        if(tapType == null)
+            return null;
+        TapType interned = tapTypeMap.putIfAbsent(TapTypeSignature.of(tapType), tapType);
+        if(interned == null)
+            return tapType;
+        if(interned != tapType)
+            sharedTapTypeCounter.increment();
+        return interned;
+    }
+
+    public long getFieldCount() {
+        return fieldCounter.longValue();
+    }
+
+    public int getDistinctStringCount() {
+        return stringMap.size();
+    }
+
+    public int getDistinctTapTypeCount() {
+        return tapTypeMap.size();
+    }
+
+    public long getSharedStringCount() {
+        return sharedStringCounter.longValue();
+    }
+
+    public long getSharedTapTypeCount() {
+        return sharedTapTypeCounter.longValue();
+    }
+}
@@ -0,0 +1,380 @@
+package io.tapdata.pdk.core.stream;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.logger.TapLogger;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.utils.DataMap;
+import io.tapdata.pdk.apis.consumer.StreamReadConsumer;
+import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+import io.tapdata.pdk.core.executor.ExecutorsManager;
+import io.tapdata.performance.utils.LagTracker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * StreamReadConsumer handing off the accepted batches through a single producer ring buffer, for high rate CDC readers.
+ * 读线程只写环形缓冲， 不加锁， 下游由消费线程批量调用
+ *
+ * The reader thread of the connector is the only producer, it writes the batch and the offset into the slot and publishes the sequence.
+ * The consumer thread drains the published slots, merges the continuous batches up to max batch events into one acceptance of the downstream
+ * with the offset of the last batch. Offsets accepted by {@link #acceptLongOffset(List, long)} are kept in a long array,
+ * boxed once for each merged acceptance, or not boxed at all with the long offset downstream.
+ * The reader waits when the ring is full, the consumer parks when it is empty.
+ * {@link #connection(String)} returns this consumer, the readers of the connections share the ring and must accept from one thread at a time,
+ * a thread accepting while another one is accepting is rejected.
+ *
+ * The state methods keep the semantics of {@link StreamReadConsumer}.
+ */
+public class RingBufferStreamReadConsumer extends StreamReadConsumer implements MemoryFetcher {
+    private static final String TAG = RingBufferStreamReadConsumer.class.getSimpleName();
+    //A missed unpark delays at most the park timeout
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    //Yield before parking, the other side is usually about to move
+    private static final int YIELDS_BEFORE_PARK = 100;
+
+    public interface LongOffsetConsumer {
+        void accept(List<TapEvent> events, long offset);
+    }
+
+    private String name;
+    private BiConsumer<List<TapEvent>, Object> downstream;
+    private LongOffsetConsumer longOffsetDownstream;
+    private ExecutorService executorService;
+    private int capacity = 1024;
+    private int maxBatchEvents = 1000;
+
+    private Object[] eventSlots;
+    private Object[] offsetSlots;
+    private long[] longOffsetSlots;
+    private boolean[] longOffsetFlags;
+    private int mask;
+
+    //Published by the producer
+    private final AtomicLong tail = new AtomicLong();
+    //Released by the consumer
+    private final AtomicLong head = new AtomicLong();
+    //The thread accepting a batch, the ring has a single producer
+    private final AtomicReference<Thread> producer = new AtomicReference<>();
+    //By the producer only
+    private long cachedHead;
+    //By the consumer only
+    private long cachedTail;
+    private volatile boolean producerWaiting;
+    private volatile Thread producerThread;
+    private volatile boolean consumerWaiting;
+    private volatile Thread consumerThread;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private volatile boolean stopping;
+    private volatile Throwable failure;
+
+    private volatile long deliveredSequence;
+    private volatile long deliveredEvents;
+    private volatile long deliveries;
+    private volatile Object deliveredOffset;
+    private volatile long deliveredLongOffset;
+    private volatile long producerWaits;
+
+    public RingBufferStreamReadConsumer(String name) {
+        this.name = name;
+    }
+
+    public RingBufferStreamReadConsumer withDownstream(BiConsumer<List<TapEvent>, Object> downstream) {
+        this.downstream = downstream;
+        return this;
+    }
+
+    /**
+     * @param longOffsetDownstream accepts the merged batches ending with a long offset without boxing, the downstream accepts them if null
+     */
+    public RingBufferStreamReadConsumer withLongOffsetDownstream(LongOffsetConsumer longOffsetDownstream) {
+        this.longOffsetDownstream = longOffsetDownstream;
+        return this;
+    }
+
+    public RingBufferStreamReadConsumer withExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+        return this;
+    }
+
+    /**
+     * @param capacity slots of the ring, rounded up to a power of 2
+     */
+    public RingBufferStreamReadConsumer withCapacity(int capacity) {
+        this.capacity = capacity;
+        return this;
+    }
+
+    /**
+     * @param maxBatchEvents max events merged into one acceptance of the downstream, a larger batch is not split
+     */
+    public RingBufferStreamReadConsumer withMaxBatchEvents(int maxBatchEvents) {
+        this.maxBatchEvents = maxBatchEvents;
+        return this;
+    }
+
+    public RingBufferStreamReadConsumer start() {
+        if(downstream == null)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "RingBufferStreamReadConsumer {} missing downstream", name);
+        if(capacity <= 0 || capacity > (1 << 30) || maxBatchEvents <= 0)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "RingBufferStreamReadConsumer {} illegal capacity {} or maxBatchEvents {}", name, capacity, maxBatchEvents);
+        if(started.compareAndSet(false, true)) {
+            int size = 1;
+            while(size < capacity)
+                size <<= 1;
+            eventSlots = new Object[size];
+            offsetSlots = new Object[size];
+            longOffsetSlots = new long[size];
+            longOffsetFlags = new boolean[size];
+            mask = size - 1;
+            if(executorService == null)
+                executorService = ExecutorsManager.getInstance().getExecutorService();
+            executorService.execute(this::consume);
+        }
+        return this;
+    }
+
+    @Override
+    public void accept(List<TapEvent> events, Object offset) {
+        publish(events, offset, 0L, false);
+    }
+
+    @Override
+    public void acceptLongOffset(List<TapEvent> events, long offset) {
+        publish(events, null, offset, true);
+    }
+
+    private void publish(List<TapEvent> events, Object offset, long longOffset, boolean isLongOffset) {
+        checkFailure();
+        if(eventSlots == null)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "RingBufferStreamReadConsumer {} is not started", name);
+        Thread current = Thread.currentThread();
+        if(!producer.compareAndSet(null, current))
+            throw new CoreException(PDKRunnerErrorCodes.SOURCE_STREAM_READ_CONSUMER_CONCURRENT_PRODUCER, "RingBufferStreamReadConsumer {} accepts from one thread at a time, {} is accepting while {} accepts", name, producer.get(), current);
+        try {
+            write(events, offset, longOffset, isLongOffset);
+        } finally {
+            //Released for the next batch, the reader may move to another thread after it
+            producer.set(null);
+        }
+    }
+
+    private void write(List<TapEvent> events, Object offset, long longOffset, boolean isLongOffset) {
+        long sequence = tail.get();
+        long wrapPoint = sequence - eventSlots.length;
+        if(cachedHead <= wrapPoint) {
+            cachedHead = head.get();
+            if(cachedHead <= wrapPoint)
+                waitForSpace(wrapPoint);
+        }
+        int index = (int) sequence & mask;
+        eventSlots[index] = events;
+        offsetSlots[index] = offset;
+        longOffsetSlots[index] = longOffset;
+        longOffsetFlags[index] = isLongOffset;
+        tail.set(sequence + 1);
+        if(consumerWaiting)
+            unpark(consumerThread);
+    }
+
+    private void waitForSpace(long wrapPoint) {
+        producerThread = Thread.currentThread();
+        producerWaiting = true;
+        producerWaits++;
+        try {
+            int yields = 0;
+            while((cachedHead = head.get()) <= wrapPoint) {
+                checkFailure();
+                if(yields++ < YIELDS_BEFORE_PARK)
+                    Thread.yield();
+                else
+                    LockSupport.parkNanos(this, PARK_NANOS);
+            }
+        } finally {
+            producerWaiting = false;
+        }
+    }
+
+    private void consume() {
+        consumerThread = Thread.currentThread();
+        try {
+            int yields = 0;
+            while(!stopping) {
+                long sequence = head.get();
+                if(sequence >= cachedTail) {
+                    cachedTail = tail.get();
+                    if(sequence >= cachedTail) {
+                        if(yields++ < YIELDS_BEFORE_PARK) {
+                            Thread.yield();
+                            continue;
+                        }
+                        consumerWaiting = true;
+                        cachedTail = tail.get();
+                        if(sequence >= cachedTail && !stopping)
+                            LockSupport.parkNanos(this, PARK_NANOS);
+                        consumerWaiting = false;
+                        continue;
+                    }
+                }
+                yields = 0;
+                drain(sequence, cachedTail);
+            }
+        } catch(Throwable throwable) {
+            failure = throwable;
+            TapLogger.error(TAG, "RingBufferStreamReadConsumer {} downstream failed, {}", name, throwable.getMessage());
+            unpark(producerThread);
+        } finally {
+            consumerThread = null;
+        }
+    }
+
+    /**
+     * Merge the continuous batches from the sequence and accept them by the downstream once
+     */
+    @SuppressWarnings("unchecked")
+    private void drain(long start, long end) {
+        long sequence = start;
+        List<TapEvent> first = null;
+        List<TapEvent> merged = null;
+        int events = 0;
+        Object offset = null;
+        long longOffset = 0;
+        boolean isLongOffset = false;
+        while(sequence < end) {
+            int index = (int) sequence & mask;
+            List<TapEvent> batch = (List<TapEvent>) eventSlots[index];
+            int size = batch != null ? batch.size() : 0;
+            if(sequence > start && events + size > maxBatchEvents)
+                break;
+            if(size > 0) {
+                if(first == null) {
+                    first = batch;
+                } else {
+                    //Added one by one, addAll copies the batch into a new array first
+                    if(merged == null) {
+                        merged = new ArrayList<>(Math.max(maxBatchEvents, events + size));
+                        for(int i = 0, firstSize = first.size(); i < firstSize; i++)
+                            merged.add(first.get(i));
+                    }
+                    for(int i = 0; i < size; i++)
+                        merged.add(batch.get(i));
+                }
+            }
+            offset = offsetSlots[index];
+            longOffset = longOffsetSlots[index];
+            isLongOffset = longOffsetFlags[index];
+            eventSlots[index] = null;
+            offsetSlots[index] = null;
+            events += size;
+            sequence++;
+        }
+        //Released before the downstream is called, the slots are read
+        head.set(sequence);
+        if(producerWaiting)
+            unpark(producerThread);
+
+        List<TapEvent> tapEvents = merged != null ? merged : (first != null ? first : new ArrayList<>());
+        LagTracker lagTracker = getLagTracker();
+        if(lagTracker != null && !tapEvents.isEmpty())
+            lagTracker.record(tapEvents);
+        if(isLongOffset) {
+            if(longOffsetDownstream != null)
+                longOffsetDownstream.accept(tapEvents, longOffset);
+            else
+                downstream.accept(tapEvents, longOffset);
+            deliveredLongOffset = longOffset;
+            deliveredOffset = null;
+        } else {
+            downstream.accept(tapEvents, offset);
+            deliveredOffset = offset;
+        }
+        deliveredEvents += events;
+        deliveries++;
+        deliveredSequence = sequence;
+    }
+
+    private static void unpark(Thread thread) {
+        if(thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    private void checkFailure() {
+        Throwable throwable = failure;
+        if(throwable != null)
+            throw new CoreException(PDKRunnerErrorCodes.SOURCE_STREAM_READ_CONSUMER_FAILED, throwable, "RingBufferStreamReadConsumer {} failed, {}", name, throwable.getMessage());
+        if(stopping)
+            throw new CoreException(PDKRunnerErrorCodes.SOURCE_STREAM_READ_CONSUMER_FAILED, "RingBufferStreamReadConsumer {} is stopped", name);
+    }
+
+    /**
+     * Wait until the accepted batches are accepted by the downstream.
+     *
+     * @return false if timeout or failed
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while(failure == null) {
+            if(deliveredSequence >= tail.get())
+                return true;
+            if(System.currentTimeMillis() >= deadline)
+                return false;
+            Thread.sleep(1);
+        }
+        return false;
+    }
+
+    public void stop() {
+        stopping = true;
+        unpark(consumerThread);
+        unpark(producerThread);
+    }
+
+    /**
+     * @return the offset of the last batch accepted by the downstream, null if it is a long offset
+     */
+    public Object getDeliveredOffset() {
+        return deliveredOffset;
+    }
+
+    public long getDeliveredLongOffset() {
+        return deliveredLongOffset;
+    }
+
+    public long getDeliveredEvents() {
+        return deliveredEvents;
+    }
+
+    public long getDeliveries() {
+        return deliveries;
+    }
+
+    public long getAcceptedBatches() {
+        return tail.get();
+    }
+
+    @Override
+    public DataMap memory(String keyRegex, String memoryLevel) {
+        return DataMap.create().keyRegex(keyRegex)
+                .kv("name", name)
+                .kv("state", getState())
+                .kv("capacity", eventSlots != null ? eventSlots.length : capacity)
+                .kv("maxBatchEvents", maxBatchEvents)
+                .kv("acceptedBatches", tail.get())
+                .kv("releasedBatches", head.get())
+                .kv("deliveries", deliveries)
+                .kv("deliveredEvents", deliveredEvents)
+                .kv("deliveredOffset", deliveredOffset)
+                .kv("deliveredLongOffset", deliveredLongOffset)
+                .kv("producerWaits", producerWaits)
+                .kv("stopping", stopping)
+                .kv("failure", failure != null ? failure.getMessage() : null);
+    }
+}
@@ -0,0 +1,470 @@
+package io.tapdata.pdk.core.stream;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.logger.TapLogger;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.utils.DataMap;
+import io.tapdata.pdk.apis.consumer.StreamReadConsumer;
+import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+import io.tapdata.pdk.core.executor.ExecutorsManager;
+import io.tapdata.performance.utils.LagTracker;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Merge the events read by the connections of {@link io.tapdata.pdk.apis.functions.connector.source.StreamReadMultiConnectionFunction} fairly.
+ * 多连接增量读取的扇入调度， 每个连接有自己的有界队列， 按权重公平合并， 一个快连接不会把慢连接饿死
+ *
+ * Each connection gets its own {@link StreamReadConsumer} by {@link StreamReadConsumer#connection(String)},
+ * the events are queued into the lock free queue of the connection, the reader of the connection waits on the connection when max queued events is reached,
+ * and is notified by the scheduler when the events are handed off.
+ * One scheduler thread merges the queues by deficit round robin, each round a connection may hand off quantum * weight events,
+ * and hands off the events to the downstream consumer, so the downstream is called by one thread without lock.
+ * The stream read started and ended are reported to the downstream once by the scheduler thread too.
+ * The order of the events of one connection is kept.
+ *
+ * Lags from the reference time of the events and the time queued are recorded for each connection.
+ */
+public class StreamReadFanIn implements MemoryFetcher {
+    private static final String TAG = StreamReadFanIn.class.getSimpleName();
+    public static final String DEFAULT_CONNECTION = "default";
+    private String name;
+    private StreamReadConsumer downstream;
+    private ExecutorService executorService;
+    private int maxQueuedEvents = 10000;
+    private int quantum = 100;
+    private int batchSize = 500;
+
+    private final Map<String, Connection> connectionMap = new ConcurrentHashMap<>();
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private volatile boolean stopping;
+    private volatile Thread schedulerThread;
+    private volatile Throwable failure;
+    private volatile boolean anyStarted;
+    private boolean startedReported;
+    private volatile boolean allEnded;
+    private boolean endedReported;
+
+    private final LongAdder roundCounter = new LongAdder();
+    private final LongAdder parkCounter = new LongAdder();
+
+    private static class Entry {
+        private final List<TapEvent> events;
+        private final Object offset;
+        private final int size;
+        private final long queuedNanos;
+
+        Entry(List<TapEvent> events, Object offset) {
+            this.events = events;
+            this.offset = offset;
+            this.size = events != null ? events.size() : 0;
+            this.queuedNanos = System.nanoTime();
+        }
+
+        /**
+         * An offset without events still takes a turn
+         */
+        int cost() {
+            return Math.max(1, size);
+        }
+    }
+
+    private class Connection {
+        private final String id;
+        private volatile int weight;
+        private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queuedEvents = new AtomicInteger();
+        private final LagTracker lagTracker = new LagTracker();
+        private final StreamReadConsumer consumer;
+        private volatile boolean ended;
+        private volatile boolean offered;
+        //Readers waiting for the queue not full, changed with the lock of the connection
+        private volatile int waitingReaders;
+        //By the scheduler thread only
+        private long deficit;
+        private volatile long maxQueueNanos;
+
+        private final LongAdder receivedEvents = new LongAdder();
+        private final LongAdder deliveredEvents = new LongAdder();
+        private final LongAdder deliveredBatches = new LongAdder();
+        private final LongAdder queueNanos = new LongAdder();
+        private final LongAdder blockedNanos = new LongAdder();
+
+        Connection(String id, int weight) {
+            this.id = id;
+            this.weight = weight;
+            consumer = StreamReadConsumer.create(this::offer)
+                    .stateListener((from, to) -> {
+                        if(to == StreamReadConsumer.STATE_STREAM_READ_STARTED)
+                            started();
+                        else if(to == StreamReadConsumer.STATE_STREAM_READ_ENDED)
+                            ended();
+                    });
+        }
+
+        private void ended() {
+            ended = true;
+            for(Connection connection : connections) {
+                //The default connection is not used if the events are accepted by the consumers of the connections
+                if(!connection.ended && (connection.offered || !DEFAULT_CONNECTION.equals(connection.id)))
+                    return;
+            }
+            allEnded = true;
+            wakeUp();
+        }
+
+        void offer(List<TapEvent> events, Object offset) {
+            checkFailure();
+            offered = true;
+            Entry entry = new Entry(events, offset);
+            //A batch larger than max queued events is accepted when the queue is empty
+            if(isFull(entry)) {
+                long time = System.nanoTime();
+                synchronized (this) {
+                    waitingReaders++;
+                    try {
+                        //The queue is never drained after the scheduler fails
+                        while(isFull(entry) && !stopping && failure == null) {
+                            wait();
+                        }
+                    } catch(InterruptedException interruptedException) {
+                        Thread.currentThread().interrupt();
+                        throw new CoreException(PDKRunnerErrorCodes.SOURCE_STREAM_READ_FAN_IN_FAILED, interruptedException, "StreamReadFanIn {} connection {} is interrupted while the queue is full", name, id);
+                    } finally {
+                        waitingReaders--;
+                    }
+                }
+                blockedNanos.add(System.nanoTime() - time);
+                checkFailure();
+            }
+            queuedEvents.addAndGet(entry.size);
+            receivedEvents.add(entry.size);
+            queue.offer(entry);
+            wakeUp();
+        }
+
+        private boolean isFull(Entry entry) {
+            int queued = queuedEvents.get();
+            return queued > 0 && queued + entry.size > maxQueuedEvents;
+        }
+
+        /**
+         * The waiting flag is read after the queued events are changed, the reader checks the queued events after setting it, no signal is lost
+         */
+        void signalNotFull() {
+            if(waitingReaders > 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        void deliver(Entry entry) {
+            long now = System.nanoTime();
+            long queued = now - entry.queuedNanos;
+            queueNanos.add(queued);
+            if(queued > maxQueueNanos)
+                maxQueueNanos = queued;
+            if(entry.size > 0)
+                lagTracker.record(entry.events);
+            downstream.accept(entry.events, entry.offset);
+            queuedEvents.addAndGet(-entry.size);
+            signalNotFull();
+            deliveredEvents.add(entry.size);
+            deliveredBatches.increment();
+        }
+
+        DataMap memory(String keyRegex) {
+            long batches = deliveredBatches.sum();
+            return DataMap.create().keyRegex(keyRegex)
+                    .kv("weight", weight)
+                    .kv("batchSize", consumer.getBatchSize())
+                    .kv("ended", ended)
+                    .kv("queuedEvents", queuedEvents.get())
+                    .kv("queuedBatches", queue.size())
+                    .kv("received", receivedEvents.sum())
+                    .kv("delivered", deliveredEvents.sum())
+                    .kv("deliveredBatches", batches)
+                    .kv("blockedMillis", TimeUnit.NANOSECONDS.toMillis(blockedNanos.sum()))
+                    .kv("avgQueueMillis", batches > 0 ? queueNanos.sum() / batches / 1000000.0 : null)
+                    .kv("maxQueueMillis", maxQueueNanos / 1000000.0)
+                    .kv("lag", lagTracker.snapshot().toString());
+        }
+    }
+
+    public StreamReadFanIn(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param downstream called by the scheduler thread only
+     */
+    public StreamReadFanIn withDownstream(StreamReadConsumer downstream) {
+        this.downstream = downstream;
+        return this;
+    }
+
+    public StreamReadFanIn withExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+        return this;
+    }
+
+    /**
+     * @param maxQueuedEvents max events queued for each connection, the reader of the connection waits when reached
+     */
+    public StreamReadFanIn withMaxQueuedEvents(int maxQueuedEvents) {
+        this.maxQueuedEvents = maxQueuedEvents;
+        return this;
+    }
+
+    /**
+     * @param quantum events handed off for a connection of weight 1 in a round
+     */
+    public StreamReadFanIn withQuantum(int quantum) {
+        this.quantum = quantum;
+        return this;
+    }
+
+    /**
+     * @param batchSize the batch size of the stream read, split to the connections by weights
+     */
+    public StreamReadFanIn withBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Add a connection or change its weight, the connections not added have weight 1.
+     */
+    public StreamReadFanIn connection(String connectionId, int weight) {
+        if(weight <= 0)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "StreamReadFanIn {} illegal weight {} for connection {}", name, weight, connectionId);
+        Connection connection = connectionMap.computeIfAbsent(connectionId, id -> {
+            Connection newConnection = new Connection(id, weight);
+            connections.add(newConnection);
+            return newConnection;
+        });
+        connection.weight = weight;
+        updateBatchSizes();
+        return this;
+    }
+
+    public StreamReadFanIn start() {
+        if(downstream == null)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "StreamReadFanIn {} missing downstream", name);
+        if(maxQueuedEvents <= 0 || quantum <= 0 || batchSize <= 0)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "StreamReadFanIn {} illegal maxQueuedEvents {}, quantum {} or batchSize {}", name, maxQueuedEvents, quantum, batchSize);
+        if(started.compareAndSet(false, true)) {
+            if(executorService == null)
+                executorService = ExecutorsManager.getInstance().getExecutorService();
+            executorService.execute(this::schedule);
+        }
+        return this;
+    }
+
+    /**
+     * The consumer given to the stream read, events accepted by it directly go to the default connection.
+     */
+    public StreamReadConsumer createStreamReadConsumer() {
+        //The default connection is added when used, not to take the batch size of the connections
+        return StreamReadConsumer.create((events, offset) -> connectionOf(DEFAULT_CONNECTION).offer(events, offset))
+                .batchSize(batchSize)
+                .connectionConsumerProvider(connectionId -> connectionOf(connectionId).consumer)
+                .stateListener((from, to) -> {
+                    if(to == StreamReadConsumer.STATE_STREAM_READ_STARTED) {
+                        started();
+                    } else if(to == StreamReadConsumer.STATE_STREAM_READ_ENDED) {
+                        for(Connection connection : connections) {
+                            connection.ended();
+                        }
+                    }
+                });
+    }
+
+    public StreamReadConsumer connectionConsumer(String connectionId) {
+        return connectionOf(connectionId).consumer;
+    }
+
+    private Connection connectionOf(String connectionId) {
+        Connection connection = connectionMap.get(connectionId);
+        if(connection == null) {
+            connection(connectionId, 1);
+            connection = connectionMap.get(connectionId);
+        }
+        return connection;
+    }
+
+    /**
+     * The batch size of the stream read split by weights, at least 1 and at most max queued events for each connection
+     */
+    private void updateBatchSizes() {
+        long totalWeight = 0;
+        for(Connection connection : connections) {
+            totalWeight += connection.weight;
+        }
+        for(Connection connection : connections) {
+            long size = batchSize * connection.weight / Math.max(1, totalWeight);
+            connection.consumer.batchSize((int) Math.max(1, Math.min(maxQueuedEvents, size)));
+        }
+    }
+
+    /**
+     * Reported by the scheduler thread, once for the consumer and the connections
+     */
+    private void started() {
+        anyStarted = true;
+        wakeUp();
+    }
+
+    private void wakeUp() {
+        Thread thread = schedulerThread;
+        if(thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    private void checkFailure() {
+        Throwable throwable = failure;
+        if(throwable != null)
+            throw new CoreException(PDKRunnerErrorCodes.SOURCE_STREAM_READ_FAN_IN_FAILED, throwable, "StreamReadFanIn {} failed, {}", name, throwable.getMessage());
+        if(stopping)
+            throw new CoreException(PDKRunnerErrorCodes.SOURCE_STREAM_READ_FAN_IN_FAILED, "StreamReadFanIn {} is stopped", name);
+    }
+
+    private void schedule() {
+        schedulerThread = Thread.currentThread();
+        try {
+            while(!stopping) {
+                roundCounter.increment();
+                if(anyStarted && !startedReported) {
+                    startedReported = true;
+                    downstream.streamReadStarted();
+                }
+                boolean pending = false;
+                for(Connection connection : connections) {
+                    Entry entry = connection.queue.peek();
+                    if(entry == null) {
+                        //Idle connections don't save credits
+                        connection.deficit = 0;
+                        continue;
+                    }
+                    connection.deficit += (long) quantum * connection.weight;
+                    while(entry != null && entry.cost() <= connection.deficit) {
+                        connection.queue.poll();
+                        connection.deficit -= entry.cost();
+                        connection.deliver(entry);
+                        entry = connection.queue.peek();
+                    }
+                    if(entry == null)
+                        connection.deficit = 0;
+                    else
+                        pending = true;
+                }
+                if(!pending && isEmpty()) {
+                    if(allEnded && !endedReported) {
+                        endedReported = true;
+                        downstream.streamReadEnded();
+                    }
+                    parkCounter.increment();
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                }
+            }
+        } catch(Throwable throwable) {
+            failure = throwable;
+            TapLogger.error(TAG, "StreamReadFanIn {} hand off to downstream failed, {}", name, throwable.getMessage());
+            signalReaders();
+        } finally {
+            schedulerThread = null;
+        }
+    }
+
+    private boolean isEmpty() {
+        for(Connection connection : connections) {
+            if(!connection.queue.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wait until the queued events are handed off to the downstream.
+     *
+     * @return false if timeout or failed
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while(failure == null) {
+            boolean empty = true;
+            for(Connection connection : connections) {
+                if(connection.queuedEvents.get() > 0 || !connection.queue.isEmpty()) {
+                    empty = false;
+                    break;
+                }
+            }
+            if(empty)
+                return true;
+            if(System.currentTimeMillis() >= deadline)
+                return false;
+            Thread.sleep(5);
+        }
+        return false;
+    }
+
+    public void stop() {
+        stopping = true;
+        wakeUp();
+        for(Connection connection : connections) {
+            connection.queue.clear();
+            connection.queuedEvents.set(0);
+        }
+        signalReaders();
+    }
+
+    private void signalReaders() {
+        for(Connection connection : connections) {
+            connection.signalNotFull();
+        }
+    }
+
+    public LagTracker getLagTracker(String connectionId) {
+        Connection connection = connectionMap.get(connectionId);
+        return connection != null ? connection.lagTracker : null;
+    }
+
+    public long getDeliveredEvents(String connectionId) {
+        Connection connection = connectionMap.get(connectionId);
+        return connection != null ? connection.deliveredEvents.sum() : 0;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public DataMap memory(String keyRegex, String memoryLevel) {
+        DataMap dataMap = DataMap.create().keyRegex(keyRegex)
+                .kv("name", name)
+                .kv("maxQueuedEvents", maxQueuedEvents)
+                .kv("quantum", quantum)
+                .kv("batchSize", batchSize)
+                .kv("rounds", roundCounter.sum())
+                .kv("parks", parkCounter.sum())
+                .kv("allEnded", allEnded)
+                .kv("stopping", stopping)
+                .kv("failure", failure != null ? failure.getMessage() : null);
+        DataMap connectionsMap = DataMap.create().keyRegex(keyRegex);
+        for(Connection connection : connections) {
+            connectionsMap.kv(connection.id, connection.memory(keyRegex));
+        }
+        dataMap.kv("connections", connectionsMap);
+        return dataMap;
+    }
+}
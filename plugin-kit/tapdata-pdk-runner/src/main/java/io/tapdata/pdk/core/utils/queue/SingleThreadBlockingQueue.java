@@ -1,5 +1,7 @@
 package io.tapdata.pdk.core.utils.queue;
 
+import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.event.dml.TapRecordEvent;
 import io.tapdata.entity.logger.TapLogger;
 import io.tapdata.entity.error.CoreException;
 import io.tapdata.entity.utils.DataMap;
@@ -16,6 +18,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
 
 /**
  *
@@ -39,6 +42,13 @@ public class SingleThreadBlockingQueue<T> implements Runnable, MemoryFetcher {
     private LongAdder counter = new LongAdder();
     private int notifySize;
     private LongAdder notifyCounter = new LongAdder();
+    private long maxBytes = -1;
+    private ToLongFunction<T> sizer = SingleThreadBlockingQueue::memorySizeOf;
+    /**
+     * Bytes of the queued elements, changed in input and consumed, guarded by this
+     */
+    private long queuedBytes;
+    private boolean fullByBytes;
 
 
 //    private SingleThreadQueue<T> ensureSingleThreadInputQueue;
@@ -96,6 +106,49 @@ public class SingleThreadBlockingQueue<T> implements Runnable, MemoryFetcher {
         return this;
     }
 
+    /**
+     * Queue max bytes, sized by {@link #withSizer(ToLongFunction)}.
+     * The element making the queued bytes reach the max bytes is still queued,
+     * then the queue will block enqueue thread until the queued bytes drop to half of the max bytes.
+     *
+     * @param maxBytes not limited when it is not positive
+     * @return
+     */
+    public SingleThreadBlockingQueue<T> withMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Bytes of an element, default by {@link TapRecordEvent#estimateMemorySize()} for record events, {@link TapEvent#getMemorySize()} for the other TapEvents
+     * and the sum of them for the collections of TapEvent.
+     * The size of an element should not change while it is queued.
+     *
+     * @param sizer
+     * @return
+     */
+    public SingleThreadBlockingQueue<T> withSizer(ToLongFunction<T> sizer) {
+        this.sizer = sizer;
+        return this;
+    }
+
+    private static long memorySizeOf(Object t) {
+        if(t instanceof TapRecordEvent)
+            return ((TapRecordEvent) t).estimateMemorySize();
+        if(t instanceof TapEvent) {
+            Long memorySize = ((TapEvent) t).getMemorySize();
+            return memorySize != null ? memorySize : 0;
+        }
+        if(t instanceof Collection) {
+            long size = 0;
+            for(Object element : (Collection<?>) t) {
+                size += memorySizeOf(element);
+            }
+            return size;
+        }
+        return 0;
+    }
+
     public SingleThreadBlockingQueue<T> withMaxWaitMilliSeconds(int maxWaitMilliSeconds) {
         this.maxWaitMilliSeconds = maxWaitMilliSeconds;
         return this;
@@ -181,21 +234,34 @@ public class SingleThreadBlockingQueue<T> implements Runnable, MemoryFetcher {
         if(!full) {
             isFull.set(true);
 //                TapLogger.info(TAG, "{} queue is full, wait polling to add more {}", name, queue.size());
-            while(isFull.get()) {
-                try {
-                    this.wait(120000);
-                } catch (InterruptedException interruptedException) {
-                    interruptedException.printStackTrace();
-                    TapLogger.error(TAG, "{} is interrupted, {}", name, interruptedException.getMessage());
-                    Thread.currentThread().interrupt();
-                }
-            }
+            waitNotFull();
 //                    TapLogger.info(TAG, "wake up to add {}", t);
             offer(t);
+        } else if(maxBytes > 0) {
+            queuedBytes += sizer.applyAsLong(t);
+            if(queuedBytes >= maxBytes) {
+                fullByBytes = true;
+                isFull.set(true);
+                //The consumer may not be started yet for the first elements
+                startPrivate();
+                waitNotFull();
+            }
         }
 
     }
 
+    private void waitNotFull() {
+        while(isFull.get()) {
+            try {
+                this.wait(120000);
+            } catch (InterruptedException interruptedException) {
+                interruptedException.printStackTrace();
+                TapLogger.error(TAG, "{} is interrupted, {}", name, interruptedException.getMessage());
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     public void add(T t) {
         offer(t);
     }
@@ -217,8 +283,9 @@ public class SingleThreadBlockingQueue<T> implements Runnable, MemoryFetcher {
         }
     }
 
-    public void clear() {
+    public synchronized void clear() {
         queue.clear();
+        queuedBytes = 0;
     }
 
     public ListHandler<T> getHandler() {
@@ -235,9 +302,13 @@ public class SingleThreadBlockingQueue<T> implements Runnable, MemoryFetcher {
 
     protected synchronized void consumed(T t) {
 //        logger.info("queue size {}", getQueue().size());
+        if(maxBytes > 0)
+            queuedBytes = Math.max(0, queuedBytes - sizer.applyAsLong(t));
         if(isFull.get()) {
             notifyCounter.increment();
-            if(notifyCounter.longValue() > notifySize || queue.isEmpty()) {
+            boolean bytesDrained = maxBytes <= 0 || queuedBytes <= maxBytes / 2;
+            if(queue.isEmpty() || (bytesDrained && (notifyCounter.longValue() > notifySize || fullByBytes))) {
+                fullByBytes = false;
 //                logger.info("123 queue size {} notifyCounter {} notifySize {}", getQueue().size(), notifyCounter.longValue(), notifySize);
                 if(isFull.compareAndSet(true, false)) {
 //                    synchronized (this) {
@@ -302,6 +373,10 @@ public class SingleThreadBlockingQueue<T> implements Runnable, MemoryFetcher {
         return counter.longValue();
     }
 
+    public synchronized long queuedBytes() {
+        return queuedBytes;
+    }
+
     @Override
     public DataMap memory(String keyRegex, String memoryLevel) {
         return DataMap.create().keyRegex(keyRegex)/*.prefix(this.getClass().getSimpleName())*/
@@ -311,6 +386,8 @@ public class SingleThreadBlockingQueue<T> implements Runnable, MemoryFetcher {
                 .kv("maxWaitMilliSeconds", maxWaitMilliSeconds)
                 .kv("isFull", isFull.get())
                 .kv("queueSize", queue.size())
+                .kv("maxBytes", maxBytes)
+                .kv("queuedBytes", queuedBytes)
                 .kv("threadPoolExecutor", threadPoolExecutor.toString())
                 .kv("isRunning", isRunning)
                 .kv("isStopping",isStopping)
@@ -41,7 +41,7 @@ public class AccurateTickTimer {
                     thePeriod = 0;
                 }
                 if(!isStopped.get()) {
-                    ExecutorsManager.getInstance().getScheduledExecutorService().schedule(this, thePeriod, TimeUnit.MILLISECONDS);
+                    ExecutorsManager.getInstance().newTimeout(this, thePeriod, TimeUnit.MILLISECONDS);
                 } else {
                     callFinishListener();
                 }
@@ -61,7 +61,7 @@ public class AccurateTickTimer {
     public void start() {
         if(isStarted.compareAndSet(false, true)) {
             long delay = delayMilliseconds != null ? delayMilliseconds : 0;
-            ExecutorsManager.getInstance().getScheduledExecutorService().schedule(runnable, delay, TimeUnit.MILLISECONDS);
+            ExecutorsManager.getInstance().newTimeout(runnable, delay, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -0,0 +1,400 @@
+package io.tapdata.pdk.core.utils.timer;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.logger.TapLogger;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.utils.DataMap;
+import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+import io.tapdata.pdk.core.executor.ThreadFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timer of a hashed wheel, for a large number of timers which don't need the precision under a tick.
+ * 大量的节点定时器共用一个时间轮， 调度和取消都是O(1)， 到期的任务派发到执行器里执行， 慢任务不影响其他定时器
+ *
+ * A single wheel thread moves one bucket forward each tick, the timeouts of the bucket with no rounds remaining are expired and dispatched to the executor.
+ * New and cancelled timeouts are queued and handled by the wheel thread at the next tick, no lock for the callers.
+ *
+ * Jitter is the time from the deadline to the task started in the executor,
+ * overrun is counted when the wheel thread wakes up later than a tick after the deadline of the tick, by GC pauses or an overloaded CPU.
+ */
+public class HashedWheelTimer implements MemoryFetcher {
+    private static final String TAG = HashedWheelTimer.class.getSimpleName();
+    /**
+     * Max timeouts moved into the buckets each tick, the rest wait for the next tick to keep the wheel on time.
+     */
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
+    private static final AtomicIntegerFieldUpdater<WheelTimeout> STATE_UPDATER = AtomicIntegerFieldUpdater.newUpdater(WheelTimeout.class, "state");
+
+    private String name = "WheelTimer";
+    private long tickNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    private Bucket[] wheel = createWheel(512);
+    private int mask = wheel.length - 1;
+    private Executor dispatchExecutor;
+
+    private final Queue<WheelTimeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<WheelTimeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private volatile boolean stopped;
+    private volatile long startTime;
+    private Thread wheelThread;
+    private long tick;
+
+    private final LongAdder scheduledCounter = new LongAdder();
+    private final LongAdder expiredCounter = new LongAdder();
+    private final LongAdder cancelledCounter = new LongAdder();
+    private final LongAdder rejectedCounter = new LongAdder();
+    private final LongAdder failedCounter = new LongAdder();
+    private final LongAdder pendingCounter = new LongAdder();
+    private final LongAdder totalJitterNanos = new LongAdder();
+    private final AtomicLong maxJitterNanos = new AtomicLong();
+    private final LongAdder overrunCounter = new LongAdder();
+    private volatile long maxOverrunNanos;
+
+    public HashedWheelTimer withName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public HashedWheelTimer withTickDuration(long tickDuration, TimeUnit unit) {
+        if(tickDuration <= 0)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "Illegal tick duration {} {}", tickDuration, unit);
+        checkNotStarted();
+        this.tickNanos = unit.toNanos(tickDuration);
+        return this;
+    }
+
+    /**
+     * @param wheelSize buckets of the wheel, rounded up to the power of 2
+     */
+    public HashedWheelTimer withWheelSize(int wheelSize) {
+        if(wheelSize <= 0 || wheelSize > (1 << 30))
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "Illegal wheel size {}", wheelSize);
+        checkNotStarted();
+        int size = 1;
+        while(size < wheelSize)
+            size <<= 1;
+        this.wheel = createWheel(size);
+        this.mask = size - 1;
+        return this;
+    }
+
+    /**
+     * @param dispatchExecutor executor of the expired tasks, the wheel thread runs them if it is null
+     */
+    public HashedWheelTimer withDispatchExecutor(Executor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+        return this;
+    }
+
+    private static Bucket[] createWheel(int size) {
+        Bucket[] buckets = new Bucket[size];
+        for(int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+        return buckets;
+    }
+
+    private void checkNotStarted() {
+        if(started.get())
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "HashedWheelTimer {} is started already", name);
+    }
+
+    private void start() {
+        if(started.compareAndSet(false, true)) {
+            startTime = System.nanoTime();
+            wheelThread = new ThreadFactory(name, true, null).newThread(this::work);
+            wheelThread.start();
+        }
+    }
+
+    /**
+     * Stop the wheel thread, the timeouts not expired are dropped.
+     *
+     * @return count of the dropped timeouts
+     */
+    public long stop() {
+        stopped = true;
+        Thread thread = wheelThread;
+        if(thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.NANOSECONDS.toMillis(tickNanos) + 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long dropped = pendingCounter.sum();
+        pendingCounter.add(-dropped);
+        pendingTimeouts.clear();
+        cancelledTimeouts.clear();
+        return dropped;
+    }
+
+    /**
+     * Schedule the task to run once after the delay, O(1).
+     * The task without delay is dispatched to the executor at once instead of waiting for the next tick.
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if(task == null)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "Task is null for HashedWheelTimer {}", name);
+        if(stopped)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "HashedWheelTimer {} is stopped", name);
+        start();
+        long delayNanos = Math.max(0, unit.toNanos(delay));
+        long deadline = System.nanoTime() + delayNanos - startTime;
+        WheelTimeout timeout = new WheelTimeout(task, deadline);
+        scheduledCounter.increment();
+        pendingCounter.increment();
+        if(delayNanos == 0 && dispatchExecutor != null) {
+            if(timeout.expire())
+                dispatch(timeout);
+            return timeout;
+        }
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    private void work() {
+        while(!stopped) {
+            if(!waitForNextTick())
+                break;
+            removeCancelled();
+            transferTimeoutsToBuckets();
+            wheel[(int) (tick & mask)].expireTimeouts();
+            tick++;
+        }
+    }
+
+    /**
+     * @return false if stopped
+     */
+    private boolean waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while(true) {
+            long currentTime = System.nanoTime() - startTime;
+            long sleepNanos = deadline - currentTime;
+            if(sleepNanos <= 0) {
+                long late = -sleepNanos;
+                if(late > tickNanos) {
+                    overrunCounter.increment();
+                    if(late > maxOverrunNanos)
+                        maxOverrunNanos = late;
+                }
+                return true;
+            }
+            try {
+                long sleepMillis = TimeUnit.NANOSECONDS.toMillis(sleepNanos);
+                Thread.sleep(sleepMillis, (int) (sleepNanos - TimeUnit.MILLISECONDS.toNanos(sleepMillis)));
+            } catch (InterruptedException e) {
+                if(stopped)
+                    return false;
+            }
+        }
+    }
+
+    private void transferTimeoutsToBuckets() {
+        for(int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+            WheelTimeout timeout = pendingTimeouts.poll();
+            if(timeout == null)
+                break;
+            if(timeout.state != WheelTimeout.ST_INIT)
+                continue;
+            long calculated = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (calculated - tick) / wheel.length;
+            //Expired already, put it into the current bucket
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        WheelTimeout timeout;
+        while((timeout = cancelledTimeouts.poll()) != null) {
+            if(timeout.bucket != null)
+                timeout.bucket.remove(timeout);
+        }
+    }
+
+    private void dispatch(WheelTimeout timeout) {
+        pendingCounter.decrement();
+        expiredCounter.increment();
+        Executor executor = dispatchExecutor;
+        if(executor == null) {
+            timeout.run();
+            return;
+        }
+        try {
+            executor.execute(timeout);
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            TapLogger.error(TAG, "HashedWheelTimer {} dispatch rejected, task {}, {}", name, timeout.task, e.getMessage());
+        }
+    }
+
+    private static class Bucket {
+        private WheelTimeout head;
+        private WheelTimeout tail;
+
+        void add(WheelTimeout timeout) {
+            timeout.bucket = this;
+            if(head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(WheelTimeout timeout) {
+            WheelTimeout next = timeout.next;
+            if(timeout.prev != null)
+                timeout.prev.next = next;
+            if(next != null)
+                next.prev = timeout.prev;
+            if(timeout == head)
+                head = next;
+            if(timeout == tail)
+                tail = timeout.prev;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        void expireTimeouts() {
+            WheelTimeout timeout = head;
+            while(timeout != null) {
+                WheelTimeout next = timeout.next;
+                if(timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    if(timeout.expire())
+                        timeout.timer().dispatch(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+
+    private final class WheelTimeout implements Timeout, Runnable {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        volatile int state = ST_INIT;
+        private long remainingRounds;
+        //Accessed by the wheel thread only
+        private Bucket bucket;
+        private WheelTimeout prev;
+        private WheelTimeout next;
+
+        WheelTimeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        HashedWheelTimer timer() {
+            return HashedWheelTimer.this;
+        }
+
+        boolean expire() {
+            return STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED);
+        }
+
+        @Override
+        public boolean cancel() {
+            if(!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED))
+                return false;
+            pendingCounter.decrement();
+            cancelledCounter.increment();
+            //Removed from the bucket by the wheel thread
+            cancelledTimeouts.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return state == ST_EXPIRED;
+        }
+
+        @Override
+        public void run() {
+            long jitter = System.nanoTime() - startTime - deadline;
+            if(jitter > 0) {
+                totalJitterNanos.add(jitter);
+                maxJitterNanos.accumulateAndGet(jitter, Math::max);
+            }
+            try {
+                task.run();
+            } catch (Throwable throwable) {
+                failedCounter.increment();
+                TapLogger.error(TAG, "HashedWheelTimer {} task {} failed, {}", name, task, throwable.getMessage());
+            }
+        }
+    }
+
+    public long getPendingCount() {
+        return pendingCounter.sum();
+    }
+
+    public long getExpiredCount() {
+        return expiredCounter.sum();
+    }
+
+    public long getCancelledCount() {
+        return cancelledCounter.sum();
+    }
+
+    public long getOverrunCount() {
+        return overrunCounter.sum();
+    }
+
+    public long getMaxJitterMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxJitterNanos.get());
+    }
+
+    public double getAverageJitterMillis() {
+        long expired = expiredCounter.sum();
+        return expired > 0 ? totalJitterNanos.sum() / 1000000.0 / expired : 0;
+    }
+
+    @Override
+    public DataMap memory(String keyRegex, String memoryLevel) {
+        return DataMap.create().keyRegex(keyRegex)
+                .kv("name", name)
+                .kv("tickMillis", TimeUnit.NANOSECONDS.toMillis(tickNanos))
+                .kv("wheelSize", wheel.length)
+                .kv("tick", tick)
+                .kv("started", started.get())
+                .kv("stopped", stopped)
+                .kv("scheduled", scheduledCounter.sum())
+                .kv("pending", pendingCounter.sum())
+                .kv("expired", expiredCounter.sum())
+                .kv("cancelled", cancelledCounter.sum())
+                .kv("rejected", rejectedCounter.sum())
+                .kv("failed", failedCounter.sum())
+                .kv("averageJitterMillis", getAverageJitterMillis())
+                .kv("maxJitterMillis", getMaxJitterMillis())
+                .kv("overrun", overrunCounter.sum())
+                .kv("maxOverrunMillis", TimeUnit.NANOSECONDS.toMillis(maxOverrunNanos))
+                .kv("dispatchExecutor", dispatchExecutor != null ? dispatchExecutor.toString() : null);
+    }
+}
@@ -6,7 +6,6 @@ import io.tapdata.entity.utils.TapUtils;
 import io.tapdata.pdk.core.executor.ExecutorsManager;
 
 import java.util.Date;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -18,7 +17,7 @@ public class MaxFrequencyLimiter {
     private long touch = 0;
     private long maxPeriodMilliseconds = 500;
     private ActionListener actionListener;
-    private ScheduledFuture scheduledFuture;
+    private Timeout scheduledTimeout;
     private boolean reschedule = false;
     private boolean hit = false;
 
@@ -46,8 +45,8 @@ public class MaxFrequencyLimiter {
 
     public void stop() {
         actionListener = null;
-        if(scheduledFuture != null) {
-            scheduledFuture.cancel(false);
+        if(scheduledTimeout != null) {
+            scheduledTimeout.cancel();
         }
     }
 
@@ -65,13 +64,13 @@ public class MaxFrequencyLimiter {
         long currentTime = System.currentTimeMillis();
         long time = currentTime - touch;
 
-        if(scheduledFuture == null) {
+        if(scheduledTimeout == null) {
             synchronized (this) {
-                if(scheduledFuture == null) {
+                if(scheduledTimeout == null) {
                     if(time > maxPeriodMilliseconds) {
-                        scheduledFuture = ExecutorsManager.getInstance().getScheduledExecutorService().schedule(this::handleScheduledAction, 0, TimeUnit.MILLISECONDS);
+                        scheduledTimeout = ExecutorsManager.getInstance().newTimeout(this::handleScheduledAction, 0, TimeUnit.MILLISECONDS);
                     } else {
-                        scheduledFuture = ExecutorsManager.getInstance().getScheduledExecutorService().schedule(this::handleScheduledAction, maxPeriodMilliseconds - time, TimeUnit.MILLISECONDS);
+                        scheduledTimeout = ExecutorsManager.getInstance().newTimeout(this::handleScheduledAction, maxPeriodMilliseconds - time, TimeUnit.MILLISECONDS);
                     }
                 }
             }
@@ -89,9 +88,9 @@ public class MaxFrequencyLimiter {
             synchronized (this) {
                 if(hit) {//在action执行期间来的动作， 需要reschedule
                     hit = false;
-                    scheduledFuture = ExecutorsManager.getInstance().getScheduledExecutorService().schedule(this::handleScheduledAction, maxPeriodMilliseconds, TimeUnit.MILLISECONDS);
+                    scheduledTimeout = ExecutorsManager.getInstance().newTimeout(this::handleScheduledAction, maxPeriodMilliseconds, TimeUnit.MILLISECONDS);
                 } else {
-                    scheduledFuture = null;
+                    scheduledTimeout = null;
                 }
                 reschedule = false;
             }
@@ -0,0 +1,15 @@
+package io.tapdata.pdk.core.utils.timer;
+
+/**
+ * Handle of a scheduled task
+ */
+public interface Timeout {
+    /**
+     * @return false if the task is expired or cancelled already
+     */
+    boolean cancel();
+
+    boolean isCancelled();
+
+    boolean isExpired();
+}
@@ -0,0 +1,115 @@
+package io.tapdata.pdk.core.write;
+
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.utils.DataMap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Primary keys known to exist in the target, a bounded key set for each table.
+ * 已确认在目标端存在的主键， 每张表一个有上限的LRU集合， 删除事件使其失效
+ *
+ * Only positive existence is cached, a key missing from the cache is unknown and looked up again.
+ * The least recently used keys are evicted when a table is over the max keys.
+ */
+public class ExistenceKeyCache implements MemoryFetcher {
+    private int maxKeysPerTable = 100000;
+    private final Map<String, KeySet> tableKeySetMap = new ConcurrentHashMap<>();
+    private final LongAdder hitCounter = new LongAdder();
+    private final LongAdder missCounter = new LongAdder();
+    private final LongAdder evictedCounter = new LongAdder();
+
+    public ExistenceKeyCache withMaxKeysPerTable(int maxKeysPerTable) {
+        this.maxKeysPerTable = maxKeysPerTable;
+        return this;
+    }
+
+    private class KeySet extends LinkedHashMap<Object, Boolean> {
+        KeySet() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Boolean> eldest) {
+            if(size() > maxKeysPerTable) {
+                evictedCounter.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public boolean exists(String table, Object key) {
+        KeySet keySet = tableKeySetMap.get(table);
+        boolean exists = false;
+        if(keySet != null) {
+            synchronized (keySet) {
+                exists = keySet.get(key) != null;
+            }
+        }
+        if(exists)
+            hitCounter.increment();
+        else
+            missCounter.increment();
+        return exists;
+    }
+
+    public void add(String table, Object key) {
+        if(maxKeysPerTable <= 0)
+            return;
+        KeySet keySet = tableKeySetMap.computeIfAbsent(table, t -> new KeySet());
+        synchronized (keySet) {
+            keySet.put(key, Boolean.TRUE);
+        }
+    }
+
+    public void remove(String table, Object key) {
+        KeySet keySet = tableKeySetMap.get(table);
+        if(keySet != null) {
+            synchronized (keySet) {
+                keySet.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Forget the keys of the table, when the table is dropped, cleared or the writes failed.
+     */
+    public void invalidate(String table) {
+        tableKeySetMap.remove(table);
+    }
+
+    public int size(String table) {
+        KeySet keySet = tableKeySetMap.get(table);
+        if(keySet == null)
+            return 0;
+        synchronized (keySet) {
+            return keySet.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCounter.sum();
+    }
+
+    public long getMissCount() {
+        return missCounter.sum();
+    }
+
+    @Override
+    public DataMap memory(String keyRegex, String memoryLevel) {
+        DataMap tableSizeMap = DataMap.create().keyRegex(keyRegex);
+        for(String table : tableKeySetMap.keySet()) {
+            tableSizeMap.kv(table, size(table));
+        }
+        return DataMap.create().keyRegex(keyRegex)
+                .kv("maxKeysPerTable", maxKeysPerTable)
+                .kv("hit", hitCounter.sum())
+                .kv("miss", missCounter.sum())
+                .kv("evicted", evictedCounter.sum())
+                .kv("tables", tableSizeMap);
+    }
+}
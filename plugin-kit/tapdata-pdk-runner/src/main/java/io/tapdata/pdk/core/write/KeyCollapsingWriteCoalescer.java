@@ -0,0 +1,250 @@
+package io.tapdata.pdk.core.write;
+
+import io.tapdata.entity.event.dml.TapDeleteRecordEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.event.dml.TapRecordEvent;
+import io.tapdata.entity.event.dml.TapUpdateRecordEvent;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.schema.TapTable;
+import io.tapdata.entity.utils.DataMap;
+import io.tapdata.pdk.apis.context.TapConnectorContext;
+import io.tapdata.pdk.apis.entity.WriteListResult;
+import io.tapdata.pdk.apis.functions.connector.target.WriteRecordFunction;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Collapse the events on the same primary key in a batch before calling the {@link WriteRecordFunction} it wraps, opt in by wrapping the function.
+ * 同一批次内同一主键的多个事件合并成一个， 热点行被反复更新时减少写入目标端的事件数
+ *
+ * The events of a key are collapsed in order by whether the row exists before the batch, decided by the first event, and after the batch,
+ * <ul>
+ *     <li>missing before and after, the last delete, insert then delete</li>
+ *     <li>missing before and existing after, an insert with the updates merged into its after</li>
+ *     <li>existing before and missing after, the last delete</li>
+ *     <li>existing before and after, an update with the merged after, a replace update if any replace update or delete then insert is collapsed</li>
+ * </ul>
+ * The collapsed event takes the position of the first event of the key and the offsets of the last one.
+ * So the order across keys changes, the final state of a key is written before the events of other keys between its first and last events,
+ * wrap only the targets whose rows are independent by the primary keys, a unique index on other columns may be violated by the new order.
+ * Events not following a valid sequence, like an insert on an existing row, or with removed fields are not collapsed, a new sequence of the key starts from it.
+ * An update changing the primary key values is not collapsed, no event after it is collapsed into the sequences before it.
+ * The merged count is reported by {@link WriteListResult#getMergedCount()}.
+ */
+public class KeyCollapsingWriteCoalescer implements WriteRecordFunction, MemoryFetcher {
+    private final WriteRecordFunction writeRecordFunction;
+    private final LongAdder inputCounter = new LongAdder();
+    private final LongAdder outputCounter = new LongAdder();
+
+    public KeyCollapsingWriteCoalescer(WriteRecordFunction writeRecordFunction) {
+        this.writeRecordFunction = writeRecordFunction;
+    }
+
+    @Override
+    public void writeRecord(TapConnectorContext connectorContext, List<TapRecordEvent> recordEvents, TapTable table, Consumer<WriteListResult<TapRecordEvent>> consumer) throws Throwable {
+        List<TapRecordEvent> collapsedEvents = collapse(recordEvents, table.primaryKeys(true));
+        int merged = recordEvents.size() - collapsedEvents.size();
+        inputCounter.add(recordEvents.size());
+        outputCounter.add(collapsedEvents.size());
+        AtomicBoolean reported = new AtomicBoolean(false);
+        writeRecordFunction.writeRecord(connectorContext, collapsedEvents, table, result -> {
+            //Once for the partial results
+            if(result != null && reported.compareAndSet(false, true))
+                result.incrementMerged(merged);
+            consumer.accept(result);
+        });
+    }
+
+    /**
+     * @return the events collapsed by the primary keys, the same list if nothing collapsed
+     */
+    public static List<TapRecordEvent> collapse(List<TapRecordEvent> recordEvents, Collection<String> primaryKeys) {
+        if(recordEvents == null || recordEvents.size() < 2 || primaryKeys == null || primaryKeys.isEmpty())
+            return recordEvents;
+        String[] keyNames = primaryKeys.toArray(new String[0]);
+        PrimaryKeyIndex index = new PrimaryKeyIndex(recordEvents.size());
+        List<KeySequence> sequences = new ArrayList<>(recordEvents.size());
+        for(TapRecordEvent recordEvent : recordEvents) {
+            Object[] key = keyOf(recordEvent, keyNames);
+            if(key != null && recordEvent instanceof TapUpdateRecordEvent && keyChanged((TapUpdateRecordEvent) recordEvent, keyNames, key)) {
+                //An ordering barrier like the one of PartitionedRecordWriter, the events after it are not collapsed into the sequences before it
+                index.clear(recordEvents.size());
+                sequences.add(new KeySequence(recordEvent));
+                continue;
+            }
+            if(key != null) {
+                int position = index.get(key);
+                if(position >= 0 && sequences.get(position).collapse(recordEvent))
+                    continue;
+                index.put(key, sequences.size());
+            }
+            sequences.add(new KeySequence(recordEvent));
+        }
+        if(sequences.size() == recordEvents.size())
+            return recordEvents;
+        List<TapRecordEvent> collapsedEvents = new ArrayList<>(sequences.size());
+        for(KeySequence sequence : sequences) {
+            collapsedEvents.add(sequence.toEvent());
+        }
+        return collapsedEvents;
+    }
+
+    /**
+     * @return null if any value of the primary keys is missing
+     */
+    static Object[] keyOf(TapRecordEvent recordEvent, String[] keyNames) {
+        Map<String, Object> values;
+        if(recordEvent instanceof TapInsertRecordEvent) {
+            values = ((TapInsertRecordEvent) recordEvent).getAfter();
+        } else if(recordEvent instanceof TapUpdateRecordEvent) {
+            TapUpdateRecordEvent updateRecordEvent = (TapUpdateRecordEvent) recordEvent;
+            values = updateRecordEvent.getBefore() != null ? updateRecordEvent.getBefore() : updateRecordEvent.getAfter();
+        } else if(recordEvent instanceof TapDeleteRecordEvent) {
+            values = ((TapDeleteRecordEvent) recordEvent).getBefore();
+        } else {
+            return null;
+        }
+        if(values == null)
+            return null;
+        Object[] key = new Object[keyNames.length];
+        for(int i = 0; i < keyNames.length; i++) {
+            key[i] = values.get(keyNames[i]);
+            if(key[i] == null)
+                return null;
+        }
+        return key;
+    }
+
+    /**
+     * @return whether the update changes the values of the primary keys, the events after it are on the new key
+     */
+    static boolean keyChanged(TapUpdateRecordEvent updateRecordEvent, String[] keyNames, Object[] key) {
+        Map<String, Object> after = updateRecordEvent.getAfter();
+        if(after == null)
+            return false;
+        for(int i = 0; i < keyNames.length; i++) {
+            Object value = after.get(keyNames[i]);
+            if(value != null && !Objects.deepEquals(value, key[i]))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean hasRemovedFields(TapRecordEvent recordEvent) {
+        List<String> removedFields = null;
+        if(recordEvent instanceof TapInsertRecordEvent)
+            removedFields = ((TapInsertRecordEvent) recordEvent).getRemovedFields();
+        else if(recordEvent instanceof TapUpdateRecordEvent)
+            removedFields = ((TapUpdateRecordEvent) recordEvent).getRemovedFields();
+        return removedFields != null && !removedFields.isEmpty();
+    }
+
+    /**
+     * The events of a key collapsed so far
+     */
+    private static class KeySequence {
+        private final TapRecordEvent first;
+        private TapRecordEvent last;
+        private int count;
+        private final boolean existsBefore;
+        private final boolean collapsible;
+        private boolean exists;
+        private Map<String, Object> after;
+        //The after is copied before merging into it, not to change the events
+        private boolean copied;
+        private boolean replace;
+
+        KeySequence(TapRecordEvent recordEvent) {
+            first = recordEvent;
+            existsBefore = !(recordEvent instanceof TapInsertRecordEvent);
+            exists = existsBefore;
+            collapsible = !hasRemovedFields(recordEvent);
+            apply(recordEvent);
+        }
+
+        boolean collapse(TapRecordEvent recordEvent) {
+            if(!collapsible || hasRemovedFields(recordEvent))
+                return false;
+            if(recordEvent instanceof TapInsertRecordEvent) {
+                if(exists)
+                    return false;
+            } else if(recordEvent instanceof TapUpdateRecordEvent) {
+                if(!exists || ((TapUpdateRecordEvent) recordEvent).getAfter() == null)
+                    return false;
+            } else if(!exists) {
+                return false;
+            }
+            apply(recordEvent);
+            return true;
+        }
+
+        private void apply(TapRecordEvent recordEvent) {
+            last = recordEvent;
+            count++;
+            if(recordEvent instanceof TapInsertRecordEvent) {
+                exists = true;
+                after = ((TapInsertRecordEvent) recordEvent).getAfter();
+                copied = false;
+                replace = true;
+            } else if(recordEvent instanceof TapUpdateRecordEvent) {
+                TapUpdateRecordEvent updateRecordEvent = (TapUpdateRecordEvent) recordEvent;
+                if(after == null || Boolean.TRUE.equals(updateRecordEvent.getIsReplaceEvent())) {
+                    after = updateRecordEvent.getAfter();
+                    copied = false;
+                    replace = Boolean.TRUE.equals(updateRecordEvent.getIsReplaceEvent());
+                } else {
+                    if(!copied) {
+                        after = new LinkedHashMap<>(after);
+                        copied = true;
+                    }
+                    after.putAll(updateRecordEvent.getAfter());
+                }
+            } else {
+                exists = false;
+                after = null;
+                copied = false;
+                replace = false;
+            }
+        }
+
+        TapRecordEvent toEvent() {
+            if(count == 1 || !exists)
+                return last;
+            if(!existsBefore) {
+                if(last instanceof TapInsertRecordEvent)
+                    return last;
+                TapInsertRecordEvent insertRecordEvent = new TapInsertRecordEvent();
+                last.clone(insertRecordEvent);
+                insertRecordEvent.setAfter(after);
+                return insertRecordEvent;
+            }
+            TapUpdateRecordEvent updateRecordEvent;
+            if(last instanceof TapUpdateRecordEvent) {
+                updateRecordEvent = ((TapUpdateRecordEvent) last).copyOnWriteClone();
+            } else {
+                updateRecordEvent = new TapUpdateRecordEvent();
+                last.clone(updateRecordEvent);
+            }
+            Map<String, Object> before = first instanceof TapUpdateRecordEvent ? ((TapUpdateRecordEvent) first).getBefore() : ((TapDeleteRecordEvent) first).getBefore();
+            updateRecordEvent.setBefore(before);
+            updateRecordEvent.setAfter(after);
+            updateRecordEvent.setIsReplaceEvent(replace);
+            return updateRecordEvent;
+        }
+    }
+
+    public long getMergedCount() {
+        return inputCounter.sum() - outputCounter.sum();
+    }
+
+    @Override
+    public DataMap memory(String keyRegex, String memoryLevel) {
+        return DataMap.create().keyRegex(keyRegex)
+                .kv("input", inputCounter.sum())
+                .kv("output", outputCounter.sum())
+                .kv("merged", getMergedCount());
+    }
+}
@@ -0,0 +1,475 @@
+package io.tapdata.pdk.core.write;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.event.ddl.TapDDLEvent;
+import io.tapdata.entity.event.dml.TapRecordEvent;
+import io.tapdata.entity.event.dml.TapUpdateRecordEvent;
+import io.tapdata.entity.logger.TapLogger;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.schema.TapTable;
+import io.tapdata.entity.utils.DataMap;
+import io.tapdata.pdk.apis.context.TapConnectorContext;
+import io.tapdata.pdk.apis.entity.WriteListResult;
+import io.tapdata.pdk.apis.functions.connector.target.TransactionBeginFunction;
+import io.tapdata.pdk.apis.functions.connector.target.TransactionCommitFunction;
+import io.tapdata.pdk.apis.functions.connector.target.WriteRecordFunction;
+import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+import io.tapdata.pdk.core.executor.ExecutorsManager;
+import io.tapdata.pdk.core.utils.queue.ListHandler;
+import io.tapdata.pdk.core.utils.queue.SingleThreadBlockingQueue;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Write records with concurrent calls of {@link WriteRecordFunction}, for the targets scaling with connections.
+ * 按主键哈希把事件分到多个通道并发写入， 同一主键的事件总在同一通道内按顺序写入
+ *
+ * The record events of a write are split into lanes by the hash of the primary key values, each lane writes its events on its own thread in order,
+ * at most max in flight batches of each lane are queued or being written, the write blocks when a lane is full.
+ * The results of the lanes are merged into one {@link WriteListResult} for each write, the merged results are consumed in the order of the writes.
+ *
+ * Events are written serially after the lanes are drained when the order across keys matters,
+ * <ul>
+ *     <li>DDL events, handled by the DDL event handler</li>
+ *     <li>between {@link #beginTransaction()} and {@link #commitTransaction()}, the transaction is bound to one connection</li>
+ *     <li>tables without primary keys, events missing primary key values, updates changing primary key values</li>
+ * </ul>
+ * Once a lane batch fails, the batches queued in the lanes are not written, their events are reported as errors in the results with the failure,
+ * the following writes throw the failure.
+ * The connector must support concurrent calls of {@link WriteRecordFunction}.
+ * Write and the transaction methods are called by one thread, other events than record and DDL events are ignored.
+ */
+public class PartitionedRecordWriter implements MemoryFetcher {
+    private static final String TAG = PartitionedRecordWriter.class.getSimpleName();
+    private String name;
+    private TapConnectorContext connectorContext;
+    private TapTable table;
+    private WriteRecordFunction writeRecordFunction;
+    private TransactionBeginFunction transactionBeginFunction;
+    private TransactionCommitFunction transactionCommitFunction;
+    private ListHandler<TapDDLEvent> ddlEventHandler;
+    private ExecutorService executorService;
+    private int lanes = 4;
+    private int maxInFlightBatches = 2;
+    private Consumer<WriteListResult<TapRecordEvent>> resultConsumer;
+    private Consumer<Throwable> errorConsumer;
+
+    private String[] keyNames;
+    private List<SingleThreadBlockingQueue<LaneBatch>> laneQueues;
+    /**
+     * Segments written by the lanes and not consumed yet, in the order of writes
+     */
+    private final LinkedList<Segment> pendingSegments = new LinkedList<>();
+    private final Object resultLock = new Object();
+    private volatile Throwable failure;
+    private boolean inTransaction;
+
+    private LongAdder[] laneEventCounters;
+    private final LongAdder parallelSegmentCounter = new LongAdder();
+    private final LongAdder serialSegmentCounter = new LongAdder();
+    private final LongAdder serialEventCounter = new LongAdder();
+    private final LongAdder ddlCounter = new LongAdder();
+    private final LongAdder transactionCounter = new LongAdder();
+    private final LongAdder noKeyCounter = new LongAdder();
+    private final LongAdder keyChangedCounter = new LongAdder();
+    private final LongAdder failedCounter = new LongAdder();
+    private final LongAdder skippedCounter = new LongAdder();
+
+    /**
+     * Events written by the lanes in parallel, the result is consumed when all the lanes finish
+     */
+    private static class Segment {
+        private final WriteListResult<TapRecordEvent> result = new WriteListResult<>();
+        private int remaining;
+    }
+
+    private static class LaneBatch {
+        private final Segment segment;
+        private final List<TapRecordEvent> recordEvents;
+
+        LaneBatch(Segment segment, List<TapRecordEvent> recordEvents) {
+            this.segment = segment;
+            this.recordEvents = recordEvents;
+        }
+    }
+
+    public PartitionedRecordWriter(String name) {
+        this.name = name;
+    }
+
+    public PartitionedRecordWriter withConnectorContext(TapConnectorContext connectorContext) {
+        this.connectorContext = connectorContext;
+        return this;
+    }
+
+    public PartitionedRecordWriter withTable(TapTable table) {
+        this.table = table;
+        return this;
+    }
+
+    public PartitionedRecordWriter withWriteRecordFunction(WriteRecordFunction writeRecordFunction) {
+        this.writeRecordFunction = writeRecordFunction;
+        return this;
+    }
+
+    public PartitionedRecordWriter withTransactionBeginFunction(TransactionBeginFunction transactionBeginFunction) {
+        this.transactionBeginFunction = transactionBeginFunction;
+        return this;
+    }
+
+    public PartitionedRecordWriter withTransactionCommitFunction(TransactionCommitFunction transactionCommitFunction) {
+        this.transactionCommitFunction = transactionCommitFunction;
+        return this;
+    }
+
+    /**
+     * @param ddlEventHandler handles the continuous DDL events after the record events before them are written, DDL events are ignored if null
+     */
+    public PartitionedRecordWriter withDDLEventHandler(ListHandler<TapDDLEvent> ddlEventHandler) {
+        this.ddlEventHandler = ddlEventHandler;
+        return this;
+    }
+
+    public PartitionedRecordWriter withExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+        return this;
+    }
+
+    /**
+     * @param lanes concurrent writers, better not more than the connections of the target
+     */
+    public PartitionedRecordWriter withLanes(int lanes) {
+        this.lanes = lanes;
+        return this;
+    }
+
+    /**
+     * @param maxInFlightBatches max batches queued for each lane besides the one being written
+     */
+    public PartitionedRecordWriter withMaxInFlightBatches(int maxInFlightBatches) {
+        this.maxInFlightBatches = maxInFlightBatches;
+        return this;
+    }
+
+    public PartitionedRecordWriter withResultConsumer(Consumer<WriteListResult<TapRecordEvent>> resultConsumer) {
+        this.resultConsumer = resultConsumer;
+        return this;
+    }
+
+    public PartitionedRecordWriter withErrorConsumer(Consumer<Throwable> errorConsumer) {
+        this.errorConsumer = errorConsumer;
+        return this;
+    }
+
+    public PartitionedRecordWriter start() {
+        if(table == null || writeRecordFunction == null)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "PartitionedRecordWriter {} missing table {} or writeRecordFunction {}", name, table, writeRecordFunction);
+        if(lanes <= 0 || maxInFlightBatches <= 0)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "PartitionedRecordWriter {} illegal lanes {} or maxInFlightBatches {}", name, lanes, maxInFlightBatches);
+        if(executorService == null)
+            executorService = ExecutorsManager.getInstance().getExecutorService();
+        Collection<String> primaryKeys = table.primaryKeys(true);
+        keyNames = primaryKeys != null ? primaryKeys.toArray(new String[0]) : new String[0];
+        laneEventCounters = new LongAdder[lanes];
+        laneQueues = new ArrayList<>(lanes);
+        for(int i = 0; i < lanes; i++) {
+            laneEventCounters[i] = new LongAdder();
+            laneQueues.add(new SingleThreadBlockingQueue<LaneBatch>(name + "_lane_" + i)
+                    .withMaxSize(maxInFlightBatches)
+                    .withHandleSize(1)
+                    .withExecutorService(executorService)
+                    .withHandler(this::writeLane)
+                    .start());
+        }
+        return this;
+    }
+
+    /**
+     * Write the record events by lanes and handle the DDL events in order.
+     * Returns when the events are queued into the lanes, the serial events are written.
+     *
+     * @throws CoreException if any lane failed
+     */
+    public void write(List<? extends TapEvent> events) throws Throwable {
+        checkFailure();
+        if(events == null || events.isEmpty())
+            return;
+        List<TapRecordEvent>[] laneEvents = newLaneEvents();
+        List<TapRecordEvent> serialEvents = new ArrayList<>();
+        List<TapDDLEvent> ddlEvents = new ArrayList<>();
+        for(TapEvent event : events) {
+            if(event instanceof TapDDLEvent) {
+                if(!serialEvents.isEmpty()) {
+                    writeSerial(serialEvents);
+                    serialEvents = new ArrayList<>();
+                }
+                if(dispatch(laneEvents))
+                    laneEvents = newLaneEvents();
+                ddlEvents.add((TapDDLEvent) event);
+            } else if(event instanceof TapRecordEvent) {
+                if(!ddlEvents.isEmpty()) {
+                    handleDDL(ddlEvents);
+                    ddlEvents = new ArrayList<>();
+                }
+                TapRecordEvent recordEvent = (TapRecordEvent) event;
+                int lane = laneOf(recordEvent);
+                if(lane >= 0) {
+                    if(!serialEvents.isEmpty()) {
+                        writeSerial(serialEvents);
+                        serialEvents = new ArrayList<>();
+                    }
+                    laneEvents[lane].add(recordEvent);
+                } else {
+                    if(dispatch(laneEvents))
+                        laneEvents = newLaneEvents();
+                    serialEvents.add(recordEvent);
+                }
+            }
+        }
+        if(!serialEvents.isEmpty())
+            writeSerial(serialEvents);
+        dispatch(laneEvents);
+        if(!ddlEvents.isEmpty())
+            handleDDL(ddlEvents);
+    }
+
+    /**
+     * Drain the lanes and begin the transaction, the events are written serially until committed.
+     */
+    public void beginTransaction() throws Throwable {
+        drain();
+        if(transactionBeginFunction != null)
+            transactionBeginFunction.begin(connectorContext);
+        inTransaction = true;
+        transactionCounter.increment();
+    }
+
+    public void commitTransaction() throws Throwable {
+        drain();
+        if(transactionCommitFunction != null)
+            transactionCommitFunction.commit(connectorContext);
+        inTransaction = false;
+    }
+
+    /**
+     * Wait until the events in the lanes are written or failed.
+     *
+     * @return false if timeout
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        synchronized (resultLock) {
+            while(!pendingSegments.isEmpty()) {
+                long waitMillis = deadline - System.currentTimeMillis();
+                if(waitMillis <= 0)
+                    return false;
+                resultLock.wait(waitMillis);
+            }
+        }
+        return true;
+    }
+
+    public void stop() {
+        if(laneQueues != null) {
+            for(SingleThreadBlockingQueue<LaneBatch> laneQueue : laneQueues) {
+                laneQueue.stop();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<TapRecordEvent>[] newLaneEvents() {
+        List<TapRecordEvent>[] laneEvents = new List[lanes];
+        for(int i = 0; i < lanes; i++) {
+            laneEvents[i] = new ArrayList<>();
+        }
+        return laneEvents;
+    }
+
+    /**
+     * @return the lane by the hash of the primary key values, -1 if the event needs to be written serially
+     */
+    private int laneOf(TapRecordEvent recordEvent) {
+        if(inTransaction || keyNames.length == 0)
+            return -1;
+        Object[] key = KeyCollapsingWriteCoalescer.keyOf(recordEvent, keyNames);
+        if(key == null) {
+            noKeyCounter.increment();
+            return -1;
+        }
+        //The events after the update go to the lane of the new key, which may be written before the update
+        if(recordEvent instanceof TapUpdateRecordEvent && KeyCollapsingWriteCoalescer.keyChanged((TapUpdateRecordEvent) recordEvent, keyNames, key)) {
+            keyChangedCounter.increment();
+            return -1;
+        }
+        return Math.floorMod(PrimaryKeyIndex.hash(key), lanes);
+    }
+
+    /**
+     * @return whether any events are dispatched
+     */
+    private boolean dispatch(List<TapRecordEvent>[] laneEvents) {
+        Segment segment = new Segment();
+        for(List<TapRecordEvent> recordEvents : laneEvents) {
+            if(!recordEvents.isEmpty())
+                segment.remaining++;
+        }
+        if(segment.remaining == 0)
+            return false;
+        parallelSegmentCounter.increment();
+        synchronized (resultLock) {
+            pendingSegments.add(segment);
+        }
+        for(int i = 0; i < lanes; i++) {
+            if(!laneEvents[i].isEmpty()) {
+                laneEventCounters[i].add(laneEvents[i].size());
+                laneQueues.get(i).offer(new LaneBatch(segment, laneEvents[i]));
+            }
+        }
+        return true;
+    }
+
+    private void writeSerial(List<TapRecordEvent> recordEvents) throws Throwable {
+        drain();
+        serialSegmentCounter.increment();
+        serialEventCounter.add(recordEvents.size());
+        WriteListResult<TapRecordEvent> mergedResult = new WriteListResult<>();
+        writeRecordFunction.writeRecord(connectorContext, recordEvents, table, result -> merge(mergedResult, result));
+        consume(mergedResult);
+    }
+
+    private void handleDDL(List<TapDDLEvent> ddlEvents) throws Throwable {
+        drain();
+        ddlCounter.add(ddlEvents.size());
+        if(ddlEventHandler != null)
+            ddlEventHandler.execute(ddlEvents);
+    }
+
+    private void drain() throws InterruptedException {
+        synchronized (resultLock) {
+            while(!pendingSegments.isEmpty()) {
+                resultLock.wait();
+            }
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        Throwable throwable = failure;
+        if(throwable != null)
+            throw new CoreException(PDKRunnerErrorCodes.TARGET_PARTITIONED_WRITE_FAILED, throwable, "PartitionedRecordWriter {} failed, {}", name, throwable.getMessage());
+    }
+
+    private void writeLane(List<LaneBatch> laneBatches) {
+        for(LaneBatch laneBatch : laneBatches) {
+            try {
+                Throwable previousFailure = failure;
+                if(previousFailure != null) {
+                    //Not written after a failure, the events after the failed ones on the same keys would be written out of order
+                    skippedCounter.add(laneBatch.recordEvents.size());
+                    addErrors(laneBatch, previousFailure);
+                    continue;
+                }
+                writeRecordFunction.writeRecord(connectorContext, laneBatch.recordEvents, table, result -> {
+                    synchronized (laneBatch.segment) {
+                        merge(laneBatch.segment.result, result);
+                    }
+                });
+            } catch(Throwable throwable) {
+                failedCounter.add(laneBatch.recordEvents.size());
+                if(failure == null)
+                    failure = throwable;
+                addErrors(laneBatch, throwable);
+                TapLogger.error(TAG, "PartitionedRecordWriter {} failed to write {} events, {}", name, laneBatch.recordEvents.size(), throwable.getMessage());
+                if(errorConsumer != null)
+                    errorConsumer.accept(throwable);
+            } finally {
+                laneFinished(laneBatch.segment);
+            }
+        }
+    }
+
+    private static void addErrors(LaneBatch laneBatch, Throwable throwable) {
+        synchronized (laneBatch.segment) {
+            for(TapRecordEvent recordEvent : laneBatch.recordEvents) {
+                laneBatch.segment.result.addError(recordEvent, throwable);
+            }
+        }
+    }
+
+    private void laneFinished(Segment segment) {
+        synchronized (resultLock) {
+            segment.remaining--;
+            //The results are consumed in the order of writes
+            while(!pendingSegments.isEmpty() && pendingSegments.getFirst().remaining == 0) {
+                consume(pendingSegments.removeFirst().result);
+            }
+            resultLock.notifyAll();
+        }
+    }
+
+    private void consume(WriteListResult<TapRecordEvent> result) {
+        if(resultConsumer == null)
+            return;
+        try {
+            resultConsumer.accept(result);
+        } catch(Throwable throwable) {
+            TapLogger.error(TAG, "PartitionedRecordWriter {} consume result failed, {}", name, throwable.getMessage());
+        }
+    }
+
+    private static void merge(WriteListResult<TapRecordEvent> mergedResult, WriteListResult<TapRecordEvent> result) {
+        if(result == null)
+            return;
+        mergedResult.incrementInserted(result.getInsertedCount());
+        mergedResult.incrementModified(result.getModifiedCount());
+        mergedResult.incrementRemove(result.getRemovedCount());
+        mergedResult.incrementMerged(result.getMergedCount());
+        if(result.getErrorMap() != null && !result.getErrorMap().isEmpty())
+            mergedResult.addErrors(result.getErrorMap());
+    }
+
+    public long getParallelSegmentCount() {
+        return parallelSegmentCounter.sum();
+    }
+
+    public long getSerialEventCount() {
+        return serialEventCounter.sum();
+    }
+
+    @Override
+    public DataMap memory(String keyRegex, String memoryLevel) {
+        DataMap dataMap = DataMap.create().keyRegex(keyRegex)
+                .kv("name", name)
+                .kv("table", table != null ? table.getId() : null)
+                .kv("lanes", lanes)
+                .kv("maxInFlightBatches", maxInFlightBatches)
+                .kv("inTransaction", inTransaction)
+                .kv("parallelSegments", parallelSegmentCounter.sum())
+                .kv("serialSegments", serialSegmentCounter.sum())
+                .kv("serialEvents", serialEventCounter.sum())
+                .kv("ddl", ddlCounter.sum())
+                .kv("transactions", transactionCounter.sum())
+                .kv("noKeyEvents", noKeyCounter.sum())
+                .kv("keyChangedEvents", keyChangedCounter.sum())
+                .kv("failed", failedCounter.sum())
+                .kv("skipped", skippedCounter.sum())
+                .kv("failure", failure != null ? failure.getMessage() : null);
+        synchronized (resultLock) {
+            dataMap.kv("pendingSegments", pendingSegments.size());
+        }
+        if(laneQueues != null) {
+            for(int i = 0; i < laneQueues.size(); i++) {
+                dataMap.kv("lane_" + i, DataMap.create().keyRegex(keyRegex)
+                        .kv("events", laneEventCounters[i].sum())
+                        .kv("queue", laneQueues.get(i).memory(keyRegex, memoryLevel)));
+            }
+        }
+        return dataMap;
+    }
+}
@@ -0,0 +1,142 @@
+package io.tapdata.pdk.core.write;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Index from primary key values to an int, open addressing with linear probing.
+ * 主键值到序号的开放寻址索引， 不为每个键创建Map或List
+ *
+ * Keys are the arrays of primary key values in the order of the primary keys, compared by the values, byte arrays by their contents.
+ * Not thread safe, cleared and reused for each batch.
+ */
+public class PrimaryKeyIndex {
+    private int[] values;
+    private int[] hashes;
+    private Object[][] keys;
+    private boolean[] used;
+    //The used slots in the order of put, to clear them without filling the arrays
+    private int[] slots;
+    private int mask;
+    private int size;
+
+    public PrimaryKeyIndex(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        //Load factor at most 1/2 for short probes
+        while(capacity < expectedSize * 2L)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        values = new int[capacity];
+        hashes = new int[capacity];
+        keys = new Object[capacity][];
+        used = new boolean[capacity];
+        slots = new int[capacity / 2];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    public static int hash(Object[] key) {
+        int hash = 1;
+        for(Object value : key) {
+            int valueHash;
+            if(value instanceof byte[])
+                valueHash = Arrays.hashCode((byte[]) value);
+            else
+                valueHash = value != null ? value.hashCode() : 0;
+            hash = 31 * hash + valueHash;
+        }
+        //Spread the high bits for the mask
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return the value of the key, -1 if absent
+     */
+    public int get(Object[] key) {
+        int hash = hash(key);
+        for(int i = hash & mask; used[i]; i = (i + 1) & mask) {
+            if(hashes[i] == hash && equals(keys[i], key))
+                return values[i];
+        }
+        return -1;
+    }
+
+    /**
+     * @param value not negative
+     */
+    public void put(Object[] key, int value) {
+        if((size + 1) * 2L > values.length)
+            resize();
+        int hash = hash(key);
+        int i = hash & mask;
+        for(; used[i]; i = (i + 1) & mask) {
+            if(hashes[i] == hash && equals(keys[i], key)) {
+                values[i] = value;
+                return;
+            }
+        }
+        used[i] = true;
+        hashes[i] = hash;
+        keys[i] = key;
+        values[i] = value;
+        slots[size++] = i;
+    }
+
+    private void resize() {
+        int[] oldValues = values;
+        int[] oldHashes = hashes;
+        Object[][] oldKeys = keys;
+        boolean[] oldUsed = used;
+        allocate(oldValues.length * 2);
+        for(int j = 0; j < oldValues.length; j++) {
+            if(oldUsed[j]) {
+                int i = oldHashes[j] & mask;
+                while(used[i])
+                    i = (i + 1) & mask;
+                used[i] = true;
+                hashes[i] = oldHashes[j];
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+                slots[size++] = i;
+            }
+        }
+    }
+
+    private static boolean equals(Object[] a, Object[] b) {
+        if(a.length != b.length)
+            return false;
+        for(int i = 0; i < a.length; i++) {
+            if(!Objects.deepEquals(a[i], b[i]))
+                return false;
+        }
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Clear for the next batch, the arrays are kept unless they are much larger than the expected size.
+     * Only the used slots are cleared, clearing a few keys out of a large capacity is cheap.
+     */
+    public void clear(int expectedSize) {
+        int capacity = capacityFor(expectedSize);
+        if(values.length > capacity * 4 || values.length < capacity) {
+            allocate(capacity);
+        } else {
+            for(int j = 0; j < size; j++) {
+                used[slots[j]] = false;
+                keys[slots[j]] = null;
+            }
+            size = 0;
+        }
+    }
+}
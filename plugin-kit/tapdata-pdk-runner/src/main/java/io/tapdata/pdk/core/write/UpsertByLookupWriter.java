@@ -0,0 +1,403 @@
+package io.tapdata.pdk.core.write;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.event.dml.TapDeleteRecordEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.event.dml.TapRecordEvent;
+import io.tapdata.entity.event.dml.TapUpdateRecordEvent;
+import io.tapdata.entity.logger.TapLogger;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.schema.TapTable;
+import io.tapdata.entity.utils.DataMap;
+import io.tapdata.pdk.apis.context.TapConnectorContext;
+import io.tapdata.pdk.apis.entity.FilterResult;
+import io.tapdata.pdk.apis.entity.TapFilter;
+import io.tapdata.pdk.apis.entity.WriteListResult;
+import io.tapdata.pdk.apis.functions.connector.target.QueryByFilterFunction;
+import io.tapdata.pdk.apis.functions.connector.target.WriteRecordFunction;
+import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+import io.tapdata.pdk.core.executor.ExecutorsManager;
+import io.tapdata.pdk.core.utils.queue.SingleThreadBlockingQueue;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Upsert by looking up the existence of the primary keys with {@link QueryByFilterFunction}, for the connectors without native upsert.
+ * 目标端不支持upsert时， 先按主键查询是否存在， 再决定插入还是更新
+ *
+ * Two stages run on their own threads,
+ * <ul>
+ *     <li>lookup, takes up to the lookup window size of events across the written batches, deduplicates their keys,
+ *     queries the keys not in the {@link ExistenceKeyCache} in one call, then resolves the events in order,
+ *     an insert of an existing key becomes a replace update, an update of a missing key becomes an insert</li>
+ *     <li>write, calls {@link WriteRecordFunction} with the resolved events</li>
+ * </ul>
+ * The lookup of the next window runs while the resolved window is being written, at most max pending writes windows are waiting for the writer.
+ * The keys of the windows not written yet are resolved by the states those windows leave, the target doesn't have them yet.
+ *
+ * Deletes remove the keys from the cache, the table is invalidated in the cache when a write fails.
+ */
+public class UpsertByLookupWriter implements MemoryFetcher {
+    private static final String TAG = UpsertByLookupWriter.class.getSimpleName();
+    private String name;
+    private TapConnectorContext connectorContext;
+    private TapTable table;
+    private QueryByFilterFunction queryByFilterFunction;
+    private WriteRecordFunction writeRecordFunction;
+    private ExistenceKeyCache existenceKeyCache;
+    private ExecutorService executorService;
+    private int lookupWindowSize = 500;
+    private int maxPendingWrites = 1;
+    private Consumer<WriteListResult<TapRecordEvent>> resultConsumer;
+    private Consumer<Throwable> errorConsumer;
+
+    private SingleThreadBlockingQueue<TapRecordEvent> lookupQueue;
+    private SingleThreadBlockingQueue<Window> writeQueue;
+    /**
+     * Key to the latest window not written yet which touches the key
+     */
+    private final Map<Object, Window> pendingKeyWindowMap = new ConcurrentHashMap<>();
+    private final Object finishLock = new Object();
+    private long offeredCount;
+    private long finishedCount;
+
+    private final LongAdder lookupCounter = new LongAdder();
+    private final LongAdder lookupKeyCounter = new LongAdder();
+    private final LongAdder duplicatedKeyCounter = new LongAdder();
+    private final LongAdder cachedKeyCounter = new LongAdder();
+    private final LongAdder insertToUpdateCounter = new LongAdder();
+    private final LongAdder updateToInsertCounter = new LongAdder();
+    private final LongAdder writeCounter = new LongAdder();
+    private final LongAdder failedCounter = new LongAdder();
+
+    private static class Window {
+        private final List<TapRecordEvent> recordEvents;
+        /**
+         * Whether the key exists after the window is written
+         */
+        private final Map<Object, Boolean> keyExistsMap;
+
+        Window(List<TapRecordEvent> recordEvents, Map<Object, Boolean> keyExistsMap) {
+            this.recordEvents = recordEvents;
+            this.keyExistsMap = keyExistsMap;
+        }
+    }
+
+    public UpsertByLookupWriter(String name) {
+        this.name = name;
+    }
+
+    public UpsertByLookupWriter withConnectorContext(TapConnectorContext connectorContext) {
+        this.connectorContext = connectorContext;
+        return this;
+    }
+
+    public UpsertByLookupWriter withTable(TapTable table) {
+        this.table = table;
+        return this;
+    }
+
+    public UpsertByLookupWriter withQueryByFilterFunction(QueryByFilterFunction queryByFilterFunction) {
+        this.queryByFilterFunction = queryByFilterFunction;
+        return this;
+    }
+
+    public UpsertByLookupWriter withWriteRecordFunction(WriteRecordFunction writeRecordFunction) {
+        this.writeRecordFunction = writeRecordFunction;
+        return this;
+    }
+
+    /**
+     * @param existenceKeyCache may be shared by the writers of a target, default a cache for this writer
+     */
+    public UpsertByLookupWriter withExistenceKeyCache(ExistenceKeyCache existenceKeyCache) {
+        this.existenceKeyCache = existenceKeyCache;
+        return this;
+    }
+
+    public UpsertByLookupWriter withExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+        return this;
+    }
+
+    /**
+     * @param lookupWindowSize max events taken for one lookup, the keys of them are queried in one call
+     */
+    public UpsertByLookupWriter withLookupWindowSize(int lookupWindowSize) {
+        this.lookupWindowSize = lookupWindowSize;
+        return this;
+    }
+
+    /**
+     * @param maxPendingWrites max resolved windows waiting for the writer, the lookup blocks when it is reached
+     */
+    public UpsertByLookupWriter withMaxPendingWrites(int maxPendingWrites) {
+        this.maxPendingWrites = maxPendingWrites;
+        return this;
+    }
+
+    public UpsertByLookupWriter withResultConsumer(Consumer<WriteListResult<TapRecordEvent>> resultConsumer) {
+        this.resultConsumer = resultConsumer;
+        return this;
+    }
+
+    public UpsertByLookupWriter withErrorConsumer(Consumer<Throwable> errorConsumer) {
+        this.errorConsumer = errorConsumer;
+        return this;
+    }
+
+    public UpsertByLookupWriter start() {
+        if(table == null || queryByFilterFunction == null || writeRecordFunction == null)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "UpsertByLookupWriter {} missing table {}, queryByFilterFunction {} or writeRecordFunction {}", name, table, queryByFilterFunction, writeRecordFunction);
+        if(lookupWindowSize <= 0 || maxPendingWrites <= 0)
+            throw new CoreException(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, "UpsertByLookupWriter {} illegal lookupWindowSize {} or maxPendingWrites {}", name, lookupWindowSize, maxPendingWrites);
+        if(existenceKeyCache == null)
+            existenceKeyCache = new ExistenceKeyCache();
+        if(executorService == null)
+            executorService = ExecutorsManager.getInstance().getExecutorService();
+        writeQueue = new SingleThreadBlockingQueue<Window>(name + "_write")
+                .withMaxSize(maxPendingWrites)
+                .withHandleSize(1)
+                .withExecutorService(executorService)
+                .withHandler(this::writeWindows)
+                .withErrorHandler((list, throwable) -> {
+                    for(Window window : list) {
+                        written(window);
+                        failed(window.recordEvents.size(), throwable);
+                    }
+                })
+                .start();
+        lookupQueue = new SingleThreadBlockingQueue<TapRecordEvent>(name + "_lookup")
+                .withMaxSize(lookupWindowSize * 2)
+                .withHandleSize(lookupWindowSize)
+                .withExecutorService(executorService)
+                .withHandler(this::lookup)
+                .withErrorHandler((list, throwable) -> failed(list.size(), throwable))
+                .start();
+        return this;
+    }
+
+    /**
+     * Queue the events, blocked when the lookup queue is full.
+     */
+    public void write(List<TapRecordEvent> recordEvents) {
+        if(recordEvents == null || recordEvents.isEmpty())
+            return;
+        synchronized (finishLock) {
+            offeredCount += recordEvents.size();
+        }
+        for(TapRecordEvent recordEvent : recordEvents) {
+            lookupQueue.offer(recordEvent);
+        }
+    }
+
+    /**
+     * Wait until the queued events are written or failed.
+     *
+     * @return false if timeout
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        synchronized (finishLock) {
+            while(finishedCount < offeredCount) {
+                long waitMillis = deadline - System.currentTimeMillis();
+                if(waitMillis <= 0)
+                    return false;
+                finishLock.wait(waitMillis);
+            }
+        }
+        return true;
+    }
+
+    public void stop() {
+        if(lookupQueue != null)
+            lookupQueue.stop();
+        if(writeQueue != null)
+            writeQueue.stop();
+    }
+
+    private void finished(int count) {
+        synchronized (finishLock) {
+            finishedCount += count;
+            finishLock.notifyAll();
+        }
+    }
+
+    private void failed(int count, Throwable throwable) {
+        failedCounter.add(count);
+        existenceKeyCache.invalidate(table.getId());
+        TapLogger.error(TAG, "UpsertByLookupWriter {} failed to write {} events, {}", name, count, throwable.getMessage());
+        if(errorConsumer != null)
+            errorConsumer.accept(throwable);
+        finished(count);
+    }
+
+    private void lookup(List<TapRecordEvent> recordEvents) throws Throwable {
+        String tableId = table.getId();
+        Collection<String> primaryKeys = table.primaryKeys(true);
+        if(primaryKeys == null || primaryKeys.isEmpty()) {
+            writeQueue.offer(new Window(recordEvents, Collections.emptyMap()));
+            return;
+        }
+        //The first event of each key decides whether it needs the lookup, a key deleted first is known missing
+        List<Object> keys = new ArrayList<>(recordEvents.size());
+        Map<Object, Boolean> existsMap = new HashMap<>();
+        Set<Object> lookupKeys = new HashSet<>();
+        Map<TapFilter, Object> filterKeyMap = new IdentityHashMap<>();
+        List<TapFilter> filters = new ArrayList<>();
+        for(TapRecordEvent recordEvent : recordEvents) {
+            Map<String, Object> filter = recordEvent.getFilter(primaryKeys);
+            Object key = new ArrayList<>(filter.values());
+            keys.add(key);
+            if(existsMap.containsKey(key) || lookupKeys.contains(key)) {
+                duplicatedKeyCounter.increment();
+                continue;
+            }
+            Window pendingWindow = pendingKeyWindowMap.get(key);
+            if(recordEvent instanceof TapDeleteRecordEvent) {
+                existsMap.put(key, false);
+            } else if(pendingWindow != null) {
+                existsMap.put(key, pendingWindow.keyExistsMap.get(key));
+            } else if(existenceKeyCache.exists(tableId, key)) {
+                cachedKeyCounter.increment();
+                existsMap.put(key, true);
+            } else {
+                TapFilter tapFilter = TapFilter.create();
+                tapFilter.setMatch(DataMap.create(filter));
+                lookupKeys.add(key);
+                filterKeyMap.put(tapFilter, key);
+                filters.add(tapFilter);
+            }
+        }
+        if(!filters.isEmpty())
+            query(filters, filterKeyMap, existsMap);
+
+        List<TapRecordEvent> resolvedEvents = new ArrayList<>(recordEvents.size());
+        for(int i = 0; i < recordEvents.size(); i++) {
+            TapRecordEvent recordEvent = recordEvents.get(i);
+            Object key = keys.get(i);
+            boolean exists = Boolean.TRUE.equals(existsMap.get(key));
+            if(recordEvent instanceof TapDeleteRecordEvent) {
+                existsMap.put(key, false);
+                existenceKeyCache.remove(tableId, key);
+                resolvedEvents.add(recordEvent);
+                continue;
+            }
+            if(recordEvent instanceof TapInsertRecordEvent && exists) {
+                TapUpdateRecordEvent updateRecordEvent = new TapUpdateRecordEvent();
+                recordEvent.clone(updateRecordEvent);
+                updateRecordEvent.setIsReplaceEvent(true);
+                recordEvent = updateRecordEvent;
+                insertToUpdateCounter.increment();
+            } else if(recordEvent instanceof TapUpdateRecordEvent && !exists) {
+                TapInsertRecordEvent insertRecordEvent = new TapInsertRecordEvent();
+                recordEvent.clone(insertRecordEvent);
+                recordEvent = insertRecordEvent;
+                updateToInsertCounter.increment();
+            }
+            existsMap.put(key, true);
+            existenceKeyCache.add(tableId, key);
+            resolvedEvents.add(recordEvent);
+        }
+        Window window = new Window(resolvedEvents, existsMap);
+        for(Object key : existsMap.keySet()) {
+            pendingKeyWindowMap.put(key, window);
+        }
+        writeQueue.offer(window);
+    }
+
+    private void query(List<TapFilter> filters, Map<TapFilter, Object> filterKeyMap, Map<Object, Boolean> existsMap) throws Throwable {
+        lookupCounter.increment();
+        lookupKeyCounter.add(filters.size());
+        queryByFilterFunction.query(connectorContext, filters, table, filterResults -> {
+            if(filterResults == null)
+                return;
+            for(FilterResult filterResult : filterResults) {
+                if(filterResult == null)
+                    continue;
+                if(filterResult.getError() != null)
+                    throw new CoreException(PDKRunnerErrorCodes.TARGET_QUERY_BY_FILTER_FAILED, filterResult.getError(), "UpsertByLookupWriter {} query by filter {} failed, {}",
+                            name, filterResult.getFilter() != null ? filterResult.getFilter().getMatch() : null, filterResult.getError().getMessage());
+                Object key = filterKeyMap.get(filterResult.getFilter());
+                if(key != null && filterResult.getResult() != null && !filterResult.getResult().isEmpty())
+                    existsMap.put(key, true);
+            }
+        });
+    }
+
+    private void writeWindows(List<Window> windows) throws Throwable {
+        for(Window window : windows) {
+            writeCounter.increment();
+            writeRecordFunction.writeRecord(connectorContext, window.recordEvents, table, result -> {
+                if(result != null && result.getErrorMap() != null && !result.getErrorMap().isEmpty())
+                    existenceKeyCache.invalidate(table.getId());
+                if(resultConsumer != null)
+                    resultConsumer.accept(result);
+            });
+            written(window);
+            finished(window.recordEvents.size());
+        }
+    }
+
+    /**
+     * The target has the keys of the window, unless a later window touches them again
+     */
+    private void written(Window window) {
+        for(Object key : window.keyExistsMap.keySet()) {
+            pendingKeyWindowMap.remove(key, window);
+        }
+    }
+
+    public long getLookupCount() {
+        return lookupCounter.sum();
+    }
+
+    public long getLookupKeyCount() {
+        return lookupKeyCounter.sum();
+    }
+
+    public long getCachedKeyCount() {
+        return cachedKeyCounter.sum();
+    }
+
+    public long getWriteCount() {
+        return writeCounter.sum();
+    }
+
+    public ExistenceKeyCache getExistenceKeyCache() {
+        return existenceKeyCache;
+    }
+
+    @Override
+    public DataMap memory(String keyRegex, String memoryLevel) {
+        DataMap dataMap = DataMap.create().keyRegex(keyRegex)
+                .kv("name", name)
+                .kv("table", table != null ? table.getId() : null)
+                .kv("lookupWindowSize", lookupWindowSize)
+                .kv("maxPendingWrites", maxPendingWrites)
+                .kv("pendingKeys", pendingKeyWindowMap.size())
+                .kv("lookup", lookupCounter.sum())
+                .kv("lookupKeys", lookupKeyCounter.sum())
+                .kv("duplicatedKeys", duplicatedKeyCounter.sum())
+                .kv("cachedKeys", cachedKeyCounter.sum())
+                .kv("insertToUpdate", insertToUpdateCounter.sum())
+                .kv("updateToInsert", updateToInsertCounter.sum())
+                .kv("write", writeCounter.sum())
+                .kv("failed", failedCounter.sum());
+        synchronized (finishLock) {
+            dataMap.kv("offered", offeredCount).kv("finished", finishedCount);
+        }
+        if(existenceKeyCache != null)
+            dataMap.kv("existenceKeyCache", existenceKeyCache.memory(keyRegex, memoryLevel));
+        if(lookupQueue != null)
+            dataMap.kv("lookupQueue", lookupQueue.memory(keyRegex, memoryLevel));
+        if(writeQueue != null)
+            dataMap.kv("writeQueue", writeQueue.memory(keyRegex, memoryLevel));
+        return dataMap;
+    }
+}
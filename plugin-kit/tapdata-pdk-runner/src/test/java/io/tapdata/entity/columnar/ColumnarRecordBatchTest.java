@@ -0,0 +1,217 @@
+package io.tapdata.entity.columnar;
+
+import io.tapdata.entity.codec.TapCodecsRegistry;
+import io.tapdata.entity.codec.filter.TapCodecsFilterManager;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.event.dml.TapRecordEvent;
+import io.tapdata.entity.schema.TapTable;
+import io.tapdata.entity.schema.value.TapDateTimeValue;
+import io.tapdata.entity.schema.value.TapMapValue;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static io.tapdata.entity.simplify.TapSimplify.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarRecordBatchTest {
+	@Test
+	void rowView() {
+		TapTable table = table("t").add(field("id", "bigint")).add(field("name", "varchar")).add(field("note", "varchar"));
+		FieldIndex fieldIndex = FieldIndex.of(table);
+		ColumnarRecordBatch batch = new ColumnarRecordBatch("t", fieldIndex, 1);
+		Map<String, Object> values = new LinkedHashMap<>();
+		values.put("id", 1L);
+		values.put("name", null);
+		batch.addRow(values);
+		values = new LinkedHashMap<>();
+		values.put("id", 2L);
+		values.put("name", "b");
+		values.put("extra", true);
+		batch.addRow(values);
+
+		assertEquals(2, batch.size());
+		assertEquals(4, batch.columnCount());
+		//The shared index is not changed by the new field
+		assertEquals(3, fieldIndex.size());
+
+		Map<String, Object> first = batch.row(0);
+		assertEquals(2, first.size());
+		assertTrue(first.containsKey("name"));
+		assertNull(first.get("name"));
+		assertFalse(first.containsKey("note"));
+		assertFalse(first.containsKey("extra"));
+		assertEquals(batch.copyRow(0), new HashMap<>(first));
+
+		first.put("note", "n");
+		first.remove("id");
+		assertEquals("n", batch.get(0, batch.column("note")));
+		assertFalse(batch.contains(0, batch.column("id")));
+		for (Map.Entry<String, Object> entry : first.entrySet()) {
+			entry.setValue(entry.getKey() + "_changed");
+		}
+		assertEquals("name_changed", batch.get(0, batch.column("name")));
+
+		List<TapRecordEvent> recordEvents = batch.toInsertRecordEvents();
+		assertEquals(2, recordEvents.size());
+		Map<String, Object> after = ((TapInsertRecordEvent) recordEvents.get(1)).getAfter();
+		assertEquals(batch.copyRow(1), after);
+		assertEquals(true, after.get("extra"));
+		assertEquals("t", recordEvents.get(1).getTableId());
+	}
+
+	@Test
+	void matchAndRetain() {
+		ColumnarRecordBatch batch = ColumnarRecordBatch.create("t", FieldIndex.of(Arrays.asList("id", "value")));
+		for (long i = 0; i < 100; i++) {
+			int row = batch.addRow();
+			batch.set(row, 0, i);
+			if (i % 3 != 0)
+				batch.set(row, 1, "v" + i);
+		}
+		BitSet rows = batch.match(0, value -> (Long) value % 2 == 0);
+		rows.and(batch.match(1, Objects::nonNull));
+		assertEquals(67, batch.retain(rows));
+		assertEquals(33, batch.size());
+		for (int row = 0; row < batch.size(); row++) {
+			long id = (Long) batch.get(row, 0);
+			assertTrue(id % 2 == 0 && id % 3 != 0);
+			assertEquals("v" + id, batch.get(row, 1));
+		}
+		batch.transformColumn(1, value -> ((String) value).toUpperCase());
+		assertEquals("V2", batch.get(0, 1));
+	}
+
+	/**
+	 * Batch read, codec to TapValue and back, then the target reads the values, by a map for each record or by the columnar batch.
+	 * Both give the same values, the timings of the best of 10 rounds are printed.
+	 */
+	@Test
+	void codecBenchmark() {
+		TapTable table = table("t");
+		int columnCount = 30;
+		for (int c = 0; c < columnCount; c++) {
+			switch (c % 5) {
+				case 0:
+					table.add(field("c" + c, "bigint").tapType(tapNumber()));
+					break;
+				case 1:
+				case 2:
+					table.add(field("c" + c, "varchar").tapType(tapString()));
+					break;
+				case 3:
+					table.add(field("c" + c, "datetime").tapType(tapDateTime()));
+					break;
+				default:
+					table.add(field("c" + c, "map").tapType(tapMap()));
+			}
+		}
+		TapCodecsFilterManager codecsFilterManager = TapCodecsFilterManager.create(TapCodecsRegistry.create());
+		FieldIndex fieldIndex = FieldIndex.of(table);
+		int rows = 10000;
+		Object[][] source = new Object[rows][columnCount];
+		Random random = new Random(11);
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < columnCount; c++) {
+				Object value;
+				switch (c % 5) {
+					case 0:
+						//Not qualified by the type sometimes
+						value = random.nextInt(50) == 0 ? String.valueOf(random.nextLong()) : random.nextLong();
+						break;
+					case 1:
+					case 2:
+						value = random.nextInt(10) == 0 ? null : "s" + random.nextInt();
+						break;
+					case 3:
+						value = new Date(random.nextInt() & 0xffffffffL);
+						break;
+					default:
+						Map<String, Object> nested = new HashMap<>();
+						nested.put("a", random.nextInt());
+						value = nested;
+				}
+				source[r][c] = value;
+			}
+		}
+
+		List<Map<String, Object>> mapResult = mapPath(source, fieldIndex, table, codecsFilterManager);
+		ColumnarRecordBatch batchResult = columnarPath(source, fieldIndex, table, codecsFilterManager);
+		assertEquals(rows, batchResult.size());
+		for (int r = 0; r < rows; r++) {
+			assertEquals(mapResult.get(r), batchResult.copyRow(r), "row " + r);
+		}
+
+		long mapNanos = Long.MAX_VALUE, columnarNanos = Long.MAX_VALUE;
+		for (int i = 0; i < 10; i++) {
+			long time = System.nanoTime();
+			mapPath(source, fieldIndex, table, codecsFilterManager);
+			mapNanos = Math.min(mapNanos, System.nanoTime() - time);
+			time = System.nanoTime();
+			columnarPath(source, fieldIndex, table, codecsFilterManager);
+			columnarNanos = Math.min(columnarNanos, System.nanoTime() - time);
+		}
+		//Not slower than the map path
+		assertTrue(columnarNanos < mapNanos * 2, "map " + mapNanos / 1_000_000 + "ms, columnar " + columnarNanos / 1_000_000 + "ms");
+	}
+
+	private static List<Map<String, Object>> mapPath(Object[][] source, FieldIndex fieldIndex, TapTable table, TapCodecsFilterManager codecsFilterManager) {
+		List<Map<String, Object>> records = new ArrayList<>(source.length);
+		for (Object[] values : source) {
+			Map<String, Object> record = new HashMap<>();
+			for (int c = 0; c < values.length; c++) {
+				record.put(fieldIndex.name(c), copy(values[c]));
+			}
+			records.add(record);
+		}
+		List<TapRecordEvent> recordEvents = new ArrayList<>(records.size());
+		for (Map<String, Object> record : records) {
+			recordEvents.add(insertRecordEvent(record, table.getId()));
+		}
+		for (TapRecordEvent recordEvent : recordEvents) {
+			codecsFilterManager.transformToTapValueMap(((TapInsertRecordEvent) recordEvent).getAfter(), table.getNameFieldMap());
+		}
+		for (TapRecordEvent recordEvent : recordEvents) {
+			codecsFilterManager.transformFromTapValueMap(((TapInsertRecordEvent) recordEvent).getAfter(), table.getNameFieldMap());
+		}
+		write(records);
+		return records;
+	}
+
+	private static ColumnarRecordBatch columnarPath(Object[][] source, FieldIndex fieldIndex, TapTable table, TapCodecsFilterManager codecsFilterManager) {
+		ColumnarRecordBatch batch = new ColumnarRecordBatch(table.getId(), fieldIndex, source.length);
+		for (Object[] values : source) {
+			int row = batch.addRow();
+			for (int c = 0; c < values.length; c++) {
+				batch.set(row, c, copy(values[c]));
+			}
+		}
+		codecsFilterManager.transformToTapValue(batch, table.getNameFieldMap());
+		assertTrue(batch.get(0, 3) instanceof TapDateTimeValue);
+		assertTrue(batch.get(0, 4) instanceof TapMapValue);
+		codecsFilterManager.transformFromTapValue(batch, table.getNameFieldMap());
+		List<Map<String, Object>> records = new ArrayList<>(batch.size());
+		for (TapRecordEvent recordEvent : batch.toInsertRecordEvents()) {
+			records.add(((TapInsertRecordEvent) recordEvent).getAfter());
+		}
+		write(records);
+		return batch;
+	}
+
+	private static Object copy(Object value) {
+		return value instanceof Map ? new HashMap<>((Map<?, ?>) value) : value;
+	}
+
+	/**
+	 * Target reads every value of the records
+	 */
+	private static long write(List<Map<String, Object>> records) {
+		long hash = 0;
+		for (Map<String, Object> record : records) {
+			for (Map.Entry<String, Object> entry : record.entrySet()) {
+				hash = hash * 31 + entry.getKey().hashCode() + Objects.hashCode(entry.getValue());
+			}
+		}
+		return hash;
+	}
+}
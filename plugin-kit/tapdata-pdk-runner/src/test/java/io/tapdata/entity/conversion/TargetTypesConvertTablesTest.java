@@ -0,0 +1,106 @@
+package io.tapdata.entity.conversion;
+
+import io.tapdata.entity.codec.TapCodecsRegistry;
+import io.tapdata.entity.codec.filter.TapCodecsFilterManager;
+import io.tapdata.entity.conversion.impl.TableFieldTypesGeneratorImpl;
+import io.tapdata.entity.conversion.impl.TargetTypesGeneratorImpl;
+import io.tapdata.entity.mapping.DefaultExpressionMatchingMap;
+import io.tapdata.entity.result.ResultItem;
+import io.tapdata.entity.result.TapResult;
+import io.tapdata.entity.schema.TapField;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TargetTypesConvertTablesTest {
+    private static final String SOURCE_TYPES = "{\n" +
+            "    \"tinyint[($bit)][unsigned][zerofill]\": {\"bit\": 1, \"unsigned\": \"unsigned\", \"to\": \"TapNumber\"},\n" +
+            "    \"smallint[($bit)][unsigned][zerofill]\": {\"bit\": 4, \"unsigned\": \"unsigned\", \"to\": \"TapNumber\"},\n" +
+            "    \"int[($bit)][unsigned][zerofill]\": {\"bit\": 32, \"unsigned\": \"unsigned\", \"zerofill\": \"zerofill\", \"to\": \"TapNumber\"},\n" +
+            "    \"bigint[unsigned][zerofill]\": {\"bit\": 256, \"unsigned\": \"unsigned\", \"to\": \"TapNumber\"},\n" +
+            "    \"double[($bit)][unsigned][zerofill]\": {\"bit\": 256, \"unsigned\": \"unsigned\", \"to\": \"TapNumber\"},\n" +
+            "    \"decimal($precision,$scale)[theUnsigned][theZerofill]\": {\"precision\":[1, 65], \"scale\": [-3, 30], \"unsigned\": \"theUnsigned\", \"zerofill\": \"theZerofill\", \"precisionDefault\": 10, \"scaleDefault\": 0, \"to\": \"TapNumber\"},\n" +
+            "    \"date\": {\"range\": [\"1000-01-01\", \"9999-12-31\"], \"gmt\": 8, \"to\": \"TapDate\"},\n" +
+            "    \"time\": {\"range\": [\"-838:59:59\",\"838:59:59\"], \"gmt\": 8, \"to\": \"TapTime\"},\n" +
+            "    \"year\": {\"range\": [1901, 2155], \"to\": \"TapYear\"},\n" +
+            "    \"datetime\": {\"range\": [\"1000-01-01 00:00:00\", \"9999-12-31 23:59:59\"], \"gmt\": 8, \"to\": \"TapDateTime\"},\n" +
+            "    \"char[($byte)]\": {\"byte\": 255, \"to\": \"TapString\"},\n" +
+            "    \"varchar[($byte)]\": {\"byte\": \"64k\", \"byteRatio\": 3, \"fixed\": false, \"to\": \"TapString\"},\n" +
+            "    \"longtext\": {\"byte\": \"4g\", \"to\": \"TapString\"},\n" +
+            "    \"blob\": {\"byte\": \"64k\", \"to\": \"TapBinary\"},\n" +
+            "    \"binary($byte)\": {\"byte\": 255, \"to\": \"TapBinary\"},\n" +
+            "    \"json\": {\"to\": \"TapJson\"}\n" +
+            "}";
+    private static final String TARGET_TYPES = "{\n" +
+            "    \"boolean\":{\"bit\":8, \"unsigned\":\"\", \"to\":\"TapNumber\"},\n" +
+            "    \"smallint\":{\"bit\":16, \"to\":\"TapNumber\"},\n" +
+            "    \"int\":{\"bit\":32, \"to\":\"TapNumber\"},\n" +
+            "    \"bigint\":{\"bit\":64, \"to\":\"TapNumber\"},\n" +
+            "    \"double\":{\"bit\":64, \"to\":\"TapNumber\"},\n" +
+            "    \"decimal[($precision,$scale)]\":{\"precision\": [1, 27], \"defaultPrecision\": 10, \"scale\": [0, 9], \"defaultScale\": 0, \"to\": \"TapNumber\"},\n" +
+            "    \"date\":{\"byte\":3, \"range\":[\"0000-01-01\", \"9999-12-31\"], \"to\":\"TapDate\"},\n" +
+            "    \"datetime\":{\"byte\":8, \"range\":[\"0000-01-01 00:00:00\",\"9999-12-31 23:59:59\"],\"to\":\"TapDateTime\"},\n" +
+            "    \"char[($byte)]\":{\"byte\":255, \"byteRatio\": 2, \"to\": \"TapString\", \"defaultByte\": 1},\n" +
+            "    \"varchar[($byte)]\":{\"byte\":\"65535\", \"to\":\"TapString\"},\n" +
+            "    \"string\":{\"byte\":\"2147483643\", \"to\":\"TapString\", \"pkEnablement\": false}\n" +
+            "}";
+    private static final String[] DATA_TYPES = {
+            "tinyint", "tinyint unsigned", "smallint", "int", "int(11) unsigned", "bigint", "bigint unsigned", "double",
+            "decimal(10,2)", "decimal(65,30)", "decimal(27,-3)", "date", "time", "year", "datetime",
+            "char(10)", "char(200)", "varchar(32)", "varchar(20000)", "longtext", "blob", "binary(16)", "json"
+    };
+
+    @Test
+    void sameResultAsScoringEveryField() {
+        Random random = new Random(33);
+        LinkedHashMap<String, LinkedHashMap<String, TapField>> tables = new LinkedHashMap<>();
+        TableFieldTypesGeneratorImpl tableFieldTypesGenerator = new TableFieldTypesGeneratorImpl();
+        DefaultExpressionMatchingMap sourceMatchingMap = DefaultExpressionMatchingMap.map(SOURCE_TYPES);
+        for (int t = 0; t < 300; t++) {
+            LinkedHashMap<String, TapField> fields = new LinkedHashMap<>();
+            int columns = 1 + random.nextInt(40);
+            for (int c = 0; c < columns; c++) {
+                String name = "f" + c;
+                fields.put(name, new TapField(name, DATA_TYPES[random.nextInt(DATA_TYPES.length)]).isPrimaryKey(c == 0 && random.nextBoolean()));
+            }
+            tableFieldTypesGenerator.autoFill(fields, sourceMatchingMap);
+            tables.put("table" + t, fields);
+        }
+
+        //Collecting possible data types scores every field without the signature cache
+        TargetTypesGeneratorImpl expectedGenerator = new TargetTypesGeneratorImpl();
+        TapCodecsFilterManager expectedCodecsFilterManager = TapCodecsFilterManager.create(TapCodecsRegistry.create());
+        DefaultExpressionMatchingMap expectedMatchingMap = DefaultExpressionMatchingMap.map(TARGET_TYPES);
+        Map<String, TapResult<LinkedHashMap<String, TapField>>> expected = new LinkedHashMap<>();
+        for (Map.Entry<String, LinkedHashMap<String, TapField>> entry : tables.entrySet()) {
+            expected.put(entry.getKey(), expectedGenerator.convert(entry.getValue(), expectedMatchingMap, expectedCodecsFilterManager, new HashMap<>()));
+        }
+
+        TargetTypesGenerator targetTypesGenerator = new TargetTypesGeneratorImpl();
+        LinkedHashMap<String, TapResult<LinkedHashMap<String, TapField>>> actual = targetTypesGenerator.convertTables(tables, DefaultExpressionMatchingMap.map(TARGET_TYPES), TapCodecsFilterManager.create(TapCodecsRegistry.create()), 4);
+
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+        for (Map.Entry<String, TapResult<LinkedHashMap<String, TapField>>> entry : expected.entrySet()) {
+            TapResult<LinkedHashMap<String, TapField>> expectedResult = entry.getValue();
+            TapResult<LinkedHashMap<String, TapField>> actualResult = actual.get(entry.getKey());
+            assertEquals(expectedResult.getResult(), actualResult.getResult(), entry.getKey());
+            assertEquals(new ArrayList<>(expectedResult.getData().keySet()), new ArrayList<>(actualResult.getData().keySet()));
+            for (TapField field : expectedResult.getData().values()) {
+                assertEquals(field.getDataType(), actualResult.getData().get(field.getName()).getDataType(), entry.getKey() + "." + field.getName());
+            }
+            assertEquals(itemStrings(expectedResult.getResultItems()), itemStrings(actualResult.getResultItems()), entry.getKey());
+        }
+    }
+
+    private List<String> itemStrings(List<ResultItem> resultItems) {
+        List<String> strings = new ArrayList<>();
+        if (resultItems != null) {
+            for (ResultItem resultItem : resultItems) {
+                strings.add(resultItem.toString());
+            }
+        }
+        return strings;
+    }
+}
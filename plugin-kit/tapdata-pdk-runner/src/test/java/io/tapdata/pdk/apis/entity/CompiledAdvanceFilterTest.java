@@ -0,0 +1,179 @@
+package io.tapdata.pdk.apis.entity;
+
+import io.tapdata.entity.schema.TapField;
+import io.tapdata.entity.schema.TapTable;
+import io.tapdata.entity.schema.type.TapDateTime;
+import io.tapdata.entity.schema.type.TapNumber;
+import io.tapdata.entity.schema.type.TapString;
+import io.tapdata.entity.schema.value.DateTime;
+import io.tapdata.entity.utils.DataMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompiledAdvanceFilterTest {
+    private static TapTable table() {
+        return new TapTable("orders")
+                .add(new TapField("id", "bigint").tapType(new TapNumber()))
+                .add(new TapField("amount", "double").tapType(new TapNumber()))
+                .add(new TapField("status", "varchar").tapType(new TapString()))
+                .add(new TapField("created", "datetime").tapType(new TapDateTime()));
+    }
+
+    private static Map<String, Object> record(long id, Object amount, String status, Object created) {
+        Map<String, Object> record = new HashMap<>();
+        record.put("id", id);
+        record.put("amount", amount);
+        record.put("status", status);
+        record.put("created", created);
+        return record;
+    }
+
+    @Test
+    void typedComparisons() {
+        TapAdvanceFilter filter = TapAdvanceFilter.create()
+                .match(DataMap.create().kv("status", "ACTIVE"))
+                .op(QueryOperator.gte("amount", "10"))
+                .op(QueryOperator.lt("amount", 20L))
+                .op(QueryOperator.gt("created", new Date(1000L)));
+        filter.setCollateList(Collections.singletonList(new Collate("status", "utf8mb4_general_ci")));
+        CompiledAdvanceFilter compiled = CompiledAdvanceFilter.compile(filter, table());
+
+        assertTrue(compiled.test(record(1, 10, "active", new DateTime(2000L))));
+        assertTrue(compiled.test(record(2, 19.5d, "Active", new Date(1001L))));
+        assertTrue(compiled.test(record(3, new java.math.BigDecimal("15.25"), "ACTIVE", new DateTime(2000L))));
+        assertFalse(compiled.test(record(4, 20, "active", new DateTime(2000L))));
+        assertFalse(compiled.test(record(5, 9.99d, "active", new DateTime(2000L))));
+        assertFalse(compiled.test(record(6, 15, "closed", new DateTime(2000L))));
+        assertFalse(compiled.test(record(7, 15, "active", new Date(1000L))));
+        assertFalse(compiled.test(record(8, null, "active", new DateTime(2000L))));
+    }
+
+    @Test
+    void selectSkipLimitProjection() {
+        List<Map<String, Object>> records = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            records.add(record(i, i % 2 == 0 ? null : (double) (i % 10), "active", new DateTime(i * 1000L)));
+        }
+        TapAdvanceFilter filter = TapAdvanceFilter.create()
+                .sort(new SortOn("amount", SortOn.DESCENDING, SortOn.NULLS_LAST))
+                .sort(SortOn.ascending("id"))
+                .skip(3)
+                .limit(5)
+                .projection(Projection.create().include("id").include("amount"));
+        List<Map<String, Object>> results = CompiledAdvanceFilter.compile(filter, table()).select(records);
+        assertEquals(5, results.size());
+        assertEquals(Arrays.asList(39L, 49L, 59L, 69L, 79L), ids(results));
+        assertEquals(new HashSet<>(Arrays.asList("id", "amount")), results.get(0).keySet());
+
+        //Nulls are the smallest ascending
+        filter = TapAdvanceFilter.create().sort(SortOn.ascending("amount")).sort(SortOn.descending("id")).limit(3);
+        assertEquals(Arrays.asList(98L, 96L, 94L), ids(CompiledAdvanceFilter.compile(filter, table()).select(records)));
+
+        //No sort, stops at the limit
+        filter = TapAdvanceFilter.create().op(QueryOperator.gte("id", 10)).skip(2).limit(3);
+        assertEquals(Arrays.asList(12L, 13L, 14L), ids(CompiledAdvanceFilter.compile(filter, null).select(records)));
+    }
+
+    private static List<Object> ids(List<Map<String, Object>> records) {
+        List<Object> ids = new ArrayList<>();
+        for (Map<String, Object> record : records) {
+            ids.add(record.get("id"));
+        }
+        return ids;
+    }
+
+    /**
+     * The local evaluation without compiling, Comparable casts on each record and a full sort
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<Map<String, Object>> genericSelect(TapAdvanceFilter filter, List<Map<String, Object>> records) {
+        List<Map<String, Object>> matched = new ArrayList<>();
+        for (Map<String, Object> record : records) {
+            boolean match = true;
+            for (Map.Entry<String, Object> entry : filter.getMatch().entrySet()) {
+                if (!Objects.equals(record.get(entry.getKey()), entry.getValue())) {
+                    match = false;
+                    break;
+                }
+            }
+            if (!match)
+                continue;
+            for (QueryOperator operator : filter.getOperators()) {
+                Object value = record.get(operator.getKey());
+                int result = value == null ? -2 : ((Comparable) value).compareTo(operator.getValue());
+                if (value == null ||
+                        (operator.getOperator() == QueryOperator.GT && result <= 0) ||
+                        (operator.getOperator() == QueryOperator.GTE && result < 0) ||
+                        (operator.getOperator() == QueryOperator.LT && result >= 0) ||
+                        (operator.getOperator() == QueryOperator.LTE && result > 0)) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match)
+                matched.add(record);
+        }
+        matched.sort((record1, record2) -> {
+            for (SortOn sortOn : filter.getSortOnList()) {
+                int result = ((Comparable) record1.get(sortOn.getKey())).compareTo(record2.get(sortOn.getKey()));
+                if (result != 0)
+                    return sortOn.getSort() == SortOn.DESCENDING ? -result : result;
+            }
+            return 0;
+        });
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Map<String, Object> record : matched.subList(filter.getSkip(), Math.min(filter.getSkip() + filter.getLimit(), matched.size()))) {
+            Map<String, Object> projected = new LinkedHashMap<>();
+            for (String field : filter.getProjection().getIncludeFields()) {
+                projected.put(field, record.get(field));
+            }
+            results.add(projected);
+        }
+        return results;
+    }
+
+    @Test
+    void millionRecordsBenchmark() {
+        int count = 1_000_000;
+        Random random = new Random(7);
+        String[] statuses = {"active", "closed", "pending"};
+        List<Map<String, Object>> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> record = new HashMap<>();
+            record.put("id", (long) i);
+            record.put("amount", (double) random.nextInt(100000) / 100);
+            record.put("status", statuses[random.nextInt(statuses.length)]);
+            records.add(record);
+        }
+        TapAdvanceFilter filter = TapAdvanceFilter.create()
+                .match(DataMap.create().kv("status", "active"))
+                .op(QueryOperator.gte("amount", 100d))
+                .op(QueryOperator.lt("amount", 900d))
+                .sort(SortOn.descending("amount"))
+                .sort(SortOn.ascending("id"))
+                .skip(10)
+                .limit(100)
+                .projection(Projection.create().include("id").include("amount"));
+        TapTable table = table();
+
+        long genericTime = Long.MAX_VALUE;
+        long compiledTime = Long.MAX_VALUE;
+        List<Map<String, Object>> genericResults = null;
+        List<Map<String, Object>> compiledResults = null;
+        for (int round = 0; round < 5; round++) {
+            long time = System.nanoTime();
+            genericResults = genericSelect(filter, records);
+            genericTime = Math.min(genericTime, System.nanoTime() - time);
+
+            time = System.nanoTime();
+            compiledResults = CompiledAdvanceFilter.compile(filter, table).select(records);
+            compiledTime = Math.min(compiledTime, System.nanoTime() - time);
+        }
+        assertEquals(100, compiledResults.size());
+        assertEquals(genericResults, compiledResults);
+        assertTrue(compiledTime < genericTime, "generic " + genericTime / 1000000 + "ms, compiled " + compiledTime / 1000000 + "ms");
+    }
+}
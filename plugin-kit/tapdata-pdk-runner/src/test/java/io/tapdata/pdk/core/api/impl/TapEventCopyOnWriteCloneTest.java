@@ -0,0 +1,227 @@
+package io.tapdata.pdk.core.api.impl;
+
+import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.event.dml.TapDeleteRecordEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.event.dml.TapUpdateRecordEvent;
+import io.tapdata.entity.utils.CopyOnWriteMap;
+import io.tapdata.entity.utils.InstanceFactory;
+import io.tapdata.entity.utils.ObjectSerializable;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TapEventCopyOnWriteCloneTest {
+    private static final int EVENTS = 20000;
+
+    private Map<String, Object> record(int id) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("id", id);
+        for (int i = 0; i < 20; i++) {
+            record.put("field" + i, "value" + i);
+        }
+        List<Object> tags = new ArrayList<>();
+        tags.add("a");
+        record.put("tags", tags);
+        return record;
+    }
+
+    private TapInsertRecordEvent insertEvent(int id) {
+        TapInsertRecordEvent event = TapInsertRecordEvent.create().table("t1").after(record(id));
+        event.addInfo("stage", "cdc");
+        return event;
+    }
+
+    private TapUpdateRecordEvent updateEvent(int id) {
+        TapUpdateRecordEvent event = TapUpdateRecordEvent.create().table("t1").before(record(id)).after(record(id));
+        event.addInfo("stage", "cdc");
+        return event;
+    }
+
+    private TapDeleteRecordEvent deleteEvent(int id) {
+        TapDeleteRecordEvent event = TapDeleteRecordEvent.create().table("t1").before(record(id));
+        event.addInfo("stage", "cdc");
+        return event;
+    }
+
+    @Test
+    void branchesDoNotSeeEachOther() {
+        TapUpdateRecordEvent source = updateEvent(1);
+        Map<String, Object> sourceAfter = source.getAfter();
+        Map<String, Object> sourceInfo = source.getInfo();
+        TapUpdateRecordEvent branch1 = source.copyOnWriteClone();
+        TapUpdateRecordEvent branch2 = branch1.copyOnWriteClone();
+        //The source keeps its own maps
+        assertSame(sourceAfter, source.getAfter());
+        assertSame(sourceInfo, source.getInfo());
+        assertEquals(source.getAfter(), branch1.getAfter());
+        assertEquals("t1", branch2.getTableId());
+
+        branch1.getAfter().put("field0", "changed");
+        List<Object> tags = new ArrayList<>((List<?>) branch2.getBefore().get("tags"));
+        tags.add("b");
+        branch2.getBefore().put("tags", tags);
+        branch2.addInfo("branch", 2);
+        branch1.getAfter().remove("field1");
+
+        assertEquals("value0", source.getAfter().get("field0"));
+        assertEquals("value0", branch2.getAfter().get("field0"));
+        assertEquals("changed", branch1.getAfter().get("field0"));
+        assertEquals(1, ((List<?>) source.getBefore().get("tags")).size());
+        assertEquals(1, ((List<?>) branch1.getBefore().get("tags")).size());
+        assertEquals(2, ((List<?>) branch2.getBefore().get("tags")).size());
+        assertNull(source.getInfo("branch"));
+        assertNull(branch1.getInfo("branch"));
+        assertTrue(source.getAfter().containsKey("field1"));
+        assertFalse(branch1.getAfter().containsKey("field1"));
+        assertTrue(branch2.getAfter().containsKey("field1"));
+
+        for (Map.Entry<String, Object> entry : branch2.getAfter().entrySet()) {
+            if (entry.getValue() instanceof String)
+                entry.setValue(((String) entry.getValue()).toUpperCase());
+        }
+        assertEquals("VALUE2", branch2.getAfter().get("field2"));
+        assertEquals("value2", source.getAfter().get("field2"));
+        assertEquals("value2", branch1.getAfter().get("field2"));
+    }
+
+    @Test
+    void readsDoNotCopy() {
+        TapUpdateRecordEvent source = updateEvent(1);
+        TapUpdateRecordEvent branch = source.copyOnWriteClone();
+        //Reading the values which are not containers does not copy
+        assertEquals("value0", branch.getAfter().get("field0"));
+        for (Map.Entry<String, Object> entry : branch.getBefore().entrySet()) {
+            if (!entry.getKey().equals("tags"))
+                assertNotNull(entry.getValue());
+        }
+        assertTrue(((CopyOnWriteMap<String, Object>) branch.getAfter()).isShared());
+        assertTrue(((CopyOnWriteMap<String, Object>) branch.getBefore()).isShared());
+
+        branch.addInfo("branch", 1);
+        assertFalse(((CopyOnWriteMap<String, Object>) branch.getInfo()).isShared());
+        //Copied the same way as clone() does, into ConcurrentHashMap
+        assertThrows(NullPointerException.class, () -> branch.addInfo("nullValue", null));
+    }
+
+    @Test
+    void nestedContainersAreNotShared() {
+        TapInsertRecordEvent source = insertEvent(1);
+        Map<String, Object> address = new LinkedHashMap<>();
+        address.put("city", "a");
+        address.put("lines", new ArrayList<>(Collections.singletonList("line1")));
+        source.getAfter().put("address", address);
+        source.getAfter().put("bytes", new byte[]{1, 2});
+        source.getAfter().put("points", new Object[]{new ArrayList<>(Collections.singletonList(1))});
+        source.removedFields(new ArrayList<>(Collections.singletonList("removed")));
+        TapInsertRecordEvent branch1 = source.copyOnWriteClone();
+        TapInsertRecordEvent branch2 = source.copyOnWriteClone();
+
+        //Changed in place the way the codecs do
+        Map<String, Object> branchAddress = (Map<String, Object>) branch1.getAfter().get("address");
+        assertFalse(((CopyOnWriteMap<String, Object>) branch1.getAfter()).isShared());
+        branchAddress.put("city", "b");
+        ((List<Object>) branchAddress.get("lines")).add("line2");
+        ((byte[]) branch1.getAfter().get("bytes"))[0] = 9;
+        for (Map.Entry<String, Object> entry : branch2.getAfter().entrySet()) {
+            if (entry.getValue() instanceof Object[])
+                ((List<Object>) ((Object[]) entry.getValue())[0]).add(2);
+        }
+        branch1.getRemovedFields().add("removed2");
+
+        assertEquals("a", address.get("city"));
+        assertEquals(1, ((List<?>) address.get("lines")).size());
+        assertEquals(1, ((byte[]) source.getAfter().get("bytes"))[0]);
+        assertEquals(1, ((List<?>) ((Object[]) source.getAfter().get("points"))[0]).size());
+        assertEquals(1, ((List<?>) ((Object[]) branch1.getAfter().get("points"))[0]).size());
+        assertEquals(2, ((List<?>) ((Object[]) branch2.getAfter().get("points"))[0]).size());
+        assertEquals("a", ((Map<?, ?>) branch2.getAfter().get("address")).get("city"));
+        assertEquals(1, source.getRemovedFields().size());
+        assertEquals(1, branch2.getRemovedFields().size());
+    }
+
+    @Test
+    void serializeClones() throws Exception {
+        TapUpdateRecordEvent source = updateEvent(1);
+        TapUpdateRecordEvent branch = source.copyOnWriteClone();
+        branch.getAfter().put("field0", "changed");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(branch);
+        }
+        TapUpdateRecordEvent read;
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            read = (TapUpdateRecordEvent) ois.readObject();
+        }
+        assertEquals(branch.getAfter(), read.getAfter());
+        assertEquals(branch.getBefore(), read.getBefore());
+        assertEquals("cdc", read.getInfo("stage"));
+
+        ObjectSerializable objectSerializable = InstanceFactory.instance(ObjectSerializable.class);
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("after", branch.getAfter());
+        Map<String, Object> readMap = (Map<String, Object>) objectSerializable.toObject(objectSerializable.fromObject(map));
+        assertEquals(branch.getAfter(), readMap.get("after"));
+    }
+
+    @Test
+    void cheapToString() {
+        TapInsertRecordEvent event = insertEvent(1);
+        String str = event.copyOnWriteClone().toString();
+        assertTrue(str.startsWith("TapInsertRecordEvent{tableId=t1"), str);
+        assertTrue(str.contains("field19=value19"), str);
+    }
+
+    @Test
+    void allocationReduction() {
+        assertAllocationReduced("TapInsertRecordEvent", this::insertEvent);
+        assertAllocationReduced("TapUpdateRecordEvent", this::updateEvent);
+        assertAllocationReduced("TapDeleteRecordEvent", this::deleteEvent);
+    }
+
+    private void assertAllocationReduced(String name, Function<Integer, TapEvent> eventCreator) {
+        List<TapEvent> events = new ArrayList<>();
+        for (int i = 0; i < EVENTS; i++) {
+            events.add(eventCreator.apply(i));
+        }
+        //Warm up
+        cloneAll(events, 1000, event -> (TapEvent) event.clone());
+        cloneAll(events, 1000, TapEvent::copyOnWriteClone);
+
+        long cloneBytes = allocatedBytes(() -> cloneAll(events, EVENTS, event -> (TapEvent) event.clone()));
+        long copyOnWriteBytes = allocatedBytes(() -> cloneAll(events, EVENTS, TapEvent::copyOnWriteClone));
+        assertTrue(copyOnWriteBytes * 4 < cloneBytes, name + " clone " + cloneBytes + " copyOnWriteClone " + copyOnWriteBytes);
+    }
+
+    private List<TapEvent> cloneAll(List<TapEvent> events, int count, Function<TapEvent, TapEvent> cloner) {
+        List<TapEvent> clones = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            clones.add(cloner.apply(events.get(i)));
+        }
+        return clones;
+    }
+
+    private long allocatedBytes(Supplier<?> supplier) {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        Object result = supplier.get();
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+        assertNotNull(result);
+        return allocated;
+    }
+}
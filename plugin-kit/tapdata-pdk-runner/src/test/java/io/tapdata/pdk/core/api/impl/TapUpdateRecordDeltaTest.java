@@ -0,0 +1,183 @@
+package io.tapdata.pdk.core.api.impl;
+
+import io.tapdata.entity.event.dml.TapDeleteRecordEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.event.dml.TapUpdateRecordDelta;
+import io.tapdata.entity.event.dml.TapUpdateRecordEvent;
+import io.tapdata.entity.serializer.JavaCustomSerializer;
+import io.tapdata.entity.utils.InstanceFactory;
+import io.tapdata.entity.utils.ObjectSerializable;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TapUpdateRecordDeltaTest {
+    private static final int COLUMNS = 200;
+    private static final int EVENTS = 5000;
+    private static final List<String> PRIMARY_KEYS = Collections.singletonList("id");
+
+    private final ObjectSerializable objectSerializable = InstanceFactory.instance(ObjectSerializable.class);
+
+    private Map<String, Object> wideRecord(int id) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("id", id);
+        for (int i = 0; i < COLUMNS; i++) {
+            record.put("column" + i, "value of column " + i);
+        }
+        return record;
+    }
+
+    private TapUpdateRecordEvent updateEvent(int id) {
+        Map<String, Object> after = wideRecord(id);
+        after.put("column7", "changed");
+        after.put("column99", 99);
+        return TapUpdateRecordEvent.create().table("wide").before(wideRecord(id)).after(after);
+    }
+
+    @Test
+    void compactAndMaterialize() {
+        TapUpdateRecordEvent event = updateEvent(1).compact(PRIMARY_KEYS);
+        assertTrue(event.isCompact());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("column7", "column99")), event.getChangedFields());
+        assertEquals(3, event.getDelta().size());
+        assertEquals(1, event.getFilter(PRIMARY_KEYS).get("id"));
+
+        event.transformValues(value -> value.replaceAll((k, v) -> v instanceof String ? ((String) v).toUpperCase() : v));
+        assertEquals("CHANGED", event.getDelta().get("column7"));
+        assertTrue(event.isCompact());
+
+        Map<String, Object> after = event.getAfter();
+        assertFalse(event.isCompact());
+        assertEquals(COLUMNS + 1, after.size());
+        assertEquals("CHANGED", after.get("column7"));
+        assertEquals(99, after.get("column99"));
+        assertEquals("VALUE OF COLUMN 8", after.get("column8"));
+        assertEquals("VALUE OF COLUMN 8", event.getBefore().get("column8"));
+    }
+
+    @Test
+    void givenChangedFieldsAndRemovedFields() {
+        TapUpdateRecordEvent event = updateEvent(1).changedFields(Collections.singletonList("column7")).compact(PRIMARY_KEYS);
+        assertEquals(2, event.getDelta().size());
+        event.removeAfterValue("column8");
+        event.putAfterValue("column9", "put");
+        assertTrue(event.getChangedFields().contains("column9"));
+
+        Map<String, Object> after = event.getAfter();
+        assertFalse(after.containsKey("column8"));
+        assertEquals("put", after.get("column9"));
+        //column99 is not declared as changed
+        assertEquals("value of column 99", after.get("column99"));
+    }
+
+    @Test
+    void cloneDoesNotChangeSource() {
+        TapUpdateRecordEvent event = updateEvent(2).compact(PRIMARY_KEYS);
+        event.transformValues(value -> value.replaceAll((k, v) -> v instanceof String ? ((String) v).toUpperCase() : v));
+        TapInsertRecordEvent insert = new TapInsertRecordEvent();
+        event.clone(insert);
+        TapDeleteRecordEvent delete = new TapDeleteRecordEvent();
+        event.clone(delete);
+        assertTrue(event.isCompact());
+        assertEquals(COLUMNS + 1, insert.getAfter().size());
+        assertEquals("CHANGED", insert.getAfter().get("column7"));
+        assertEquals("VALUE OF COLUMN 8", insert.getAfter().get("column8"));
+        assertEquals("VALUE OF COLUMN 8", delete.getBefore().get("column8"));
+
+        assertEquals(insert.getAfter(), event.getAfter());
+        assertFalse(event.isCompact());
+        assertEquals(delete.getBefore(), event.getBefore());
+    }
+
+    @Test
+    void cloneWithoutBefore() {
+        byte[] data = objectSerializable.fromObject(new TapUpdateRecordDelta(updateEvent(5), PRIMARY_KEYS));
+        TapUpdateRecordEvent received = ((TapUpdateRecordDelta) objectSerializable.toObject(data)).getEvent();
+        TapInsertRecordEvent insert = new TapInsertRecordEvent();
+        received.clone(insert);
+        TapDeleteRecordEvent delete = new TapDeleteRecordEvent();
+        received.clone(delete);
+        assertTrue(received.isCompact());
+        assertNull(received.getBefore());
+        assertEquals(received.getDelta(), insert.getAfter());
+        assertEquals("changed", insert.getAfter().get("column7"));
+        assertEquals(5, delete.getBefore().get("id"));
+    }
+
+    @Test
+    void serializeDelta() {
+        TapUpdateRecordEvent event = updateEvent(3);
+        event.setReferenceTime(123L);
+        event.setExactlyOnceId("exactly-once-3");
+        event.setNamespaces(Arrays.asList("db", "wide"));
+        event.addInfo("stage", "cdc");
+        Map<String, Object> traceMap = new HashMap<>();
+        traceMap.put("trace", 3);
+        event.setTraceMap(traceMap);
+        byte[] data = objectSerializable.fromObject(new TapUpdateRecordDelta(event, PRIMARY_KEYS));
+        //Serializing does not compact the event
+        assertFalse(event.isCompact());
+        assertEquals(COLUMNS + 1, event.getAfter().size());
+
+        TapUpdateRecordEvent received = ((TapUpdateRecordDelta) objectSerializable.toObject(data)).getEvent();
+        assertTrue(received.isCompact());
+        assertEquals("wide", received.getTableId());
+        assertEquals(123L, received.getReferenceTime());
+        assertEquals("exactly-once-3", received.getExactlyOnceId());
+        assertEquals(Arrays.asList("db", "wide"), received.getNamespaces());
+        assertEquals("cdc", received.getInfo("stage"));
+        assertEquals(3, received.getTraceMap().get("trace"));
+        TapUpdateRecordEvent expected = updateEvent(3).compact(PRIMARY_KEYS);
+        assertEquals(expected.getChangedFields(), received.getChangedFields());
+        assertEquals(expected.getDelta(), received.getDelta());
+        assertNull(received.getBefore());
+        //No base image, the partial row is only given by getDelta
+        assertNull(received.getAfter());
+        assertTrue(received.isCompact());
+
+        //Receiver holding the previous image gets the full after
+        received.setBefore(wideRecord(3));
+        assertEquals(updateEvent(3).getAfter(), received.getAfter());
+    }
+
+    @Test
+    void serializeWithoutBefore() {
+        TapUpdateRecordEvent event = TapUpdateRecordEvent.create().table("wide").after(wideRecord(4));
+        byte[] data = objectSerializable.fromObject(new TapUpdateRecordDelta(event, PRIMARY_KEYS));
+        TapUpdateRecordEvent received = ((TapUpdateRecordDelta) objectSerializable.toObject(data)).getEvent();
+        assertFalse(received.isCompact());
+        assertEquals(wideRecord(4), received.getAfter());
+    }
+
+    @Test
+    void wideTableBenchmark() {
+        //Warm up
+        serializeAll(EVENTS / 10, false);
+        serializeAll(EVENTS / 10, true);
+
+        long time = System.nanoTime();
+        long fullBytes = serializeAll(EVENTS, false);
+        long fullTakes = System.nanoTime() - time;
+
+        time = System.nanoTime();
+        long deltaBytes = serializeAll(EVENTS, true);
+        long deltaTakes = System.nanoTime() - time;
+        assertTrue(deltaBytes * 20 < fullBytes, "full " + fullBytes + " delta " + deltaBytes);
+        assertTrue(deltaTakes < fullTakes, "full takes " + fullTakes / 1000000 + "ms, delta takes " + deltaTakes / 1000000 + "ms");
+    }
+
+    private long serializeAll(int count, boolean delta) {
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            TapUpdateRecordEvent event = updateEvent(i);
+            Object object = delta ? new TapUpdateRecordDelta(event, PRIMARY_KEYS) : event;
+            byte[] data = objectSerializable.fromObject(object);
+            bytes += data.length;
+            Object received = objectSerializable.toObject(data);
+            assertTrue(delta ? received instanceof JavaCustomSerializer : received instanceof TapUpdateRecordEvent);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,206 @@
+package io.tapdata.pdk.core.batch;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.event.ddl.table.TapCreateTableEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.pdk.apis.context.TapConnectorContext;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveBatchSizeControllerTest {
+    private static final long MAX_BATCH_BYTES = 8L * 1024 * 1024;
+
+    /**
+     * Simulate a source reading batches into a bounded queue and a target writing batches out of it, on a virtual clock.
+     * Writing a batch takes overhead + bytes / bandwidth, reading takes the time per event.
+     */
+    private static class Simulation {
+        final int eventBytes;
+        final double readMillisPerEvent;
+        final long writeOverheadMillis;
+        final double writeBytesPerMillis;
+        final int queueCapacity;
+
+        long writtenEvents;
+        long maxBatchBytes;
+        long maxWriteLatency;
+        long latencyOverTarget;
+        int batches;
+        final List<Integer> sizes = new ArrayList<>();
+
+        Simulation(int eventBytes, double readMillisPerEvent, long writeOverheadMillis, double writeBytesPerMillis, int queueCapacity) {
+            this.eventBytes = eventBytes;
+            this.readMillisPerEvent = readMillisPerEvent;
+            this.writeOverheadMillis = writeOverheadMillis;
+            this.writeBytesPerMillis = writeBytesPerMillis;
+            this.queueCapacity = queueCapacity;
+        }
+
+        /**
+         * @param controller null for the fixed batch size
+         */
+        Simulation run(AdaptiveBatchSizeController controller, int fixedBatchSize, long durationMillis, long targetLatency) {
+            TapConnectorContext context = new TapConnectorContext(null, null, null, null);
+            context.setBatchSizeAdvisor(controller);
+            //Arrival time and size of the batches in the queue
+            LinkedList<long[]> queue = new LinkedList<>();
+            long sourceTime = 0;
+            long targetFree = 0;
+            while (sourceTime < durationMillis) {
+                int batchSize = context.recommendedBatchSize(fixedBatchSize);
+                sourceTime += (long) Math.ceil(batchSize * readMillisPerEvent);
+                //The target takes the batches queued before the source time
+                while (!queue.isEmpty() && Math.max(targetFree, queue.peek()[0]) <= sourceTime) {
+                    long[] batch = queue.poll();
+                    targetFree = Math.max(targetFree, batch[0]) + write((int) batch[1], controller, targetLatency);
+                }
+                //The source blocks until the target takes a batch when the queue is full
+                while (queue.size() >= queueCapacity) {
+                    long[] batch = queue.poll();
+                    long writeStart = Math.max(targetFree, batch[0]);
+                    targetFree = writeStart + write((int) batch[1], controller, targetLatency);
+                    sourceTime = Math.max(sourceTime, writeStart);
+                }
+                queue.add(new long[]{sourceTime, batchSize});
+                sizes.add(batchSize);
+                batches++;
+                if (controller != null) {
+                    controller.onQueueDepth(queue.size(), queueCapacity);
+                    controller.onEvents(events(batchSize));
+                }
+            }
+            return this;
+        }
+
+        long write(int batchSize, AdaptiveBatchSizeController controller, long targetLatency) {
+            long bytes = (long) batchSize * eventBytes;
+            long latency = writeOverheadMillis + (long) (bytes / writeBytesPerMillis);
+            writtenEvents += batchSize;
+            maxBatchBytes = Math.max(maxBatchBytes, bytes);
+            maxWriteLatency = Math.max(maxWriteLatency, latency);
+            if (latency > targetLatency)
+                latencyOverTarget++;
+            if (controller != null)
+                controller.onWriteLatency(latency);
+            return latency;
+        }
+
+        List<TapEvent> events(int batchSize) {
+            List<TapEvent> events = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                TapInsertRecordEvent event = new TapInsertRecordEvent();
+                event.setMemorySize((long) eventBytes);
+                events.add(event);
+            }
+            return events;
+        }
+
+        double averageOfLastBatches(int count) {
+            long sum = 0;
+            int from = Math.max(0, sizes.size() - count);
+            for (int i = from; i < sizes.size(); i++) {
+                sum += sizes.get(i);
+            }
+            return (double) sum / (sizes.size() - from);
+        }
+    }
+
+    private AdaptiveBatchSizeController controller() {
+        return new AdaptiveBatchSizeController()
+                .withBounds(10, 5000)
+                .withInitialBatchSize(100)
+                .withAdditiveIncrease(100)
+                .withMaxBatchBytes(MAX_BATCH_BYTES)
+                .withTargetWriteLatencyMillis(1000);
+    }
+
+    @Test
+    void narrowTable() {
+        //200 bytes per event, the reader takes 0.05ms per event, the writer takes 2ms per batch and 20MB/s
+        Simulation fixed = new Simulation(200, 0.05, 2, 20 * 1024, 10).run(null, 100, 600000, 1000);
+        AdaptiveBatchSizeController controller = controller();
+        Simulation adaptive = new Simulation(200, 0.05, 2, 20 * 1024, 10).run(controller, 100, 600000, 1000);
+
+        assertEquals(5000, controller.getBatchSize());
+        assertTrue(adaptive.averageOfLastBatches(100) > 4500);
+        //Same events with much less batches, less overhead of each write
+        assertTrue(adaptive.writtenEvents > fixed.writtenEvents * 0.9, "fixed " + fixed.writtenEvents + " adaptive " + adaptive.writtenEvents);
+        assertTrue(adaptive.batches < fixed.batches / 10, "fixed " + fixed.batches + " adaptive " + adaptive.batches);
+        assertEquals(200, controller.getBytesPerEvent(), 0.001);
+    }
+
+    @Test
+    void wideTable() {
+        //200KB per event, the reader takes 5ms per event, the writer takes 20ms per batch and 100MB/s, 1000 events a batch takes 200MB in memory
+        int eventBytes = 200 * 1024;
+        Simulation fixed = new Simulation(eventBytes, 5, 20, 100 * 1024, 10).run(null, 1000, 600000, 1000);
+        AdaptiveBatchSizeController controller = controller();
+        Simulation adaptive = new Simulation(eventBytes, 5, 20, 100 * 1024, 10).run(controller, 1000, 600000, 1000);
+
+        assertTrue(fixed.maxBatchBytes > MAX_BATCH_BYTES * 20);
+        //The first batch is sized before any event observed
+        assertTrue(adaptive.maxBatchBytes <= Math.max(MAX_BATCH_BYTES, 100L * eventBytes), "max batch bytes " + adaptive.maxBatchBytes);
+        assertTrue(adaptive.averageOfLastBatches(100) * eventBytes <= MAX_BATCH_BYTES);
+        assertEquals(MAX_BATCH_BYTES / eventBytes, controller.getBatchSize());
+        assertTrue(adaptive.maxWriteLatency < fixed.maxWriteLatency / 5);
+        assertTrue(adaptive.writtenEvents > fixed.writtenEvents * 0.9, "fixed " + fixed.writtenEvents + " adaptive " + adaptive.writtenEvents);
+    }
+
+    @Test
+    void writeLatency() {
+        //1KB per event, the reader takes 1ms per event, the writer takes 50ms per batch and 2MB/s, batches over 1900 events take more than 1s to write
+        Simulation simulation = new Simulation(1024, 1, 50, 2 * 1024, 4);
+        AdaptiveBatchSizeController controller = controller();
+        simulation.run(controller, 100, 3600000, 1000);
+
+        assertTrue(controller.getDecreasedCount() > 0);
+        //Sawtooth between half of the size written in target latency and a little above it
+        double average = simulation.averageOfLastBatches(500);
+        assertTrue(average > 800 && average < 2200, "average " + average);
+        assertTrue(simulation.maxWriteLatency < 1500, "max latency " + simulation.maxWriteLatency);
+        assertTrue(simulation.latencyOverTarget < simulation.batches / 4, "over target " + simulation.latencyOverTarget + " of " + simulation.batches);
+    }
+
+    @Test
+    void queueDepthAndBounds() {
+        AdaptiveBatchSizeController controller = controller().withInitialBatchSize(1000);
+        controller.onQueueDepth(9, 10);
+        controller.onEvents(null);
+        assertEquals(500, controller.getBatchSize());
+        for (int i = 0; i < 20; i++) {
+            controller.onEvents(null);
+        }
+        assertEquals(10, controller.getBatchSize());
+
+        controller.onQueueDepth(0, 10);
+        controller.onEvents(null);
+        assertEquals(110, controller.getBatchSize());
+
+        //Events without memory size are not counted, except the records which are estimated
+        controller.onEvents(new Simulation(0, 0, 0, 1, 1).events(3));
+        assertEquals(0, controller.getBytesPerEvent(), 0.001);
+        List<TapEvent> unknown = new ArrayList<>();
+        unknown.add(new TapCreateTableEvent());
+        controller.onEvents(unknown);
+        assertEquals(0, controller.getBytesPerEvent(), 0.001);
+        TapInsertRecordEvent notEncoded = new TapInsertRecordEvent().init().after(Collections.singletonMap("name", "not encoded"));
+        assertNull(notEncoded.getMemorySize());
+        controller.onEvents(Collections.singletonList(notEncoded));
+        assertEquals(0.3 * notEncoded.getMemorySize(), controller.getBytesPerEvent(), 0.001);
+
+        TapConnectorContext context = new TapConnectorContext(null, null, null, null);
+        assertEquals(100, context.recommendedBatchSize(100));
+        context.setBatchSizeAdvisor(controller);
+        assertEquals(controller.getBatchSize(), context.recommendedBatchSize(100));
+
+        assertThrows(CoreException.class, () -> controller.withBounds(0, 10));
+        assertThrows(CoreException.class, () -> controller.withMultiplicativeDecrease(1));
+    }
+}
@@ -0,0 +1,235 @@
+package io.tapdata.pdk.core.batch;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.schema.TapField;
+import io.tapdata.entity.schema.TapTable;
+import io.tapdata.entity.utils.cache.KVMap;
+import io.tapdata.pdk.apis.context.TapConnectorContext;
+import io.tapdata.pdk.apis.entity.FilterResults;
+import io.tapdata.pdk.apis.entity.QueryOperator;
+import io.tapdata.pdk.apis.entity.TapAdvanceFilter;
+import io.tapdata.pdk.apis.functions.connector.source.GetReadPartitionOptions;
+import io.tapdata.pdk.apis.partition.FieldMinMaxValue;
+import io.tapdata.pdk.apis.partition.ReadPartition;
+import io.tapdata.pdk.apis.partition.TapPartitionFilter;
+import io.tapdata.pdk.apis.partition.splitter.NumberSplitter;
+import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionedBatchReaderTest {
+    private static final int DENSE = 6000;
+    private static final int SPARSE = 1000;
+
+    /**
+     * In memory skewed table, the ids are dense at the beginning and sparse after, sleeps for each batch as the latency of a database
+     */
+    private static class SkewedSource {
+        private final TreeMap<Long, Map<String, Object>> records = new TreeMap<>();
+        private final TapTable table = new TapTable("skewed").add(new TapField("id", "long").isPrimaryKey(true).primaryKeyPos(1));
+        private final long batchSleepMillis;
+
+        SkewedSource(long batchSleepMillis) {
+            this.batchSleepMillis = batchSleepMillis;
+            for (long id = 0; id < DENSE; id++) {
+                record(id);
+            }
+            for (long k = 0; k < SPARSE; k++) {
+                record(DENSE + k * 1000);
+            }
+        }
+
+        private void record(long id) {
+            Map<String, Object> record = new HashMap<>();
+            record.put("id", id);
+            record.put("name", "name_" + id);
+            records.put(id, record);
+        }
+
+        private NavigableMap<Long, Map<String, Object>> range(TapAdvanceFilter filter) {
+            NavigableMap<Long, Map<String, Object>> range = records;
+            if (filter.getOperators() != null) {
+                for (QueryOperator operator : filter.getOperators()) {
+                    long value = ((Number) operator.getValue()).longValue();
+                    boolean integral = ((Number) operator.getValue()).doubleValue() == value;
+                    switch (operator.getOperator()) {
+                        case QueryOperator.GT:
+                            range = range.tailMap(value, false);
+                            break;
+                        case QueryOperator.GTE:
+                            range = range.tailMap(value, integral);
+                            break;
+                        case QueryOperator.LT:
+                            range = range.headMap(value, !integral);
+                            break;
+                        case QueryOperator.LTE:
+                            range = range.headMap(value, true);
+                            break;
+                    }
+                }
+            }
+            return range;
+        }
+
+        void getReadPartitions(TapConnectorContext connectorContext, TapTable table, GetReadPartitionOptions options) {
+            FieldMinMaxValue minMaxValue = minMaxValue(connectorContext, table, TapAdvanceFilter.create(), "id");
+            List<TapPartitionFilter> filters = NumberSplitter.INSTANCE.split(TapPartitionFilter.create(), minMaxValue, options.getMinMaxSplitPieces());
+            for (int i = 0; i < filters.size(); i++) {
+                options.getConsumer().accept(ReadPartition.create().id("p" + i).partitionFilter(filters.get(i)));
+            }
+        }
+
+        void query(TapConnectorContext connectorContext, TapAdvanceFilter filter, TapTable table, Consumer<FilterResults> consumer) throws InterruptedException {
+            FilterResults filterResults = new FilterResults();
+            for (Map<String, Object> record : range(filter).values()) {
+                filterResults.add(new HashMap<>(record));
+                if (filterResults.resultSize() >= filter.getBatchSize()) {
+                    Thread.sleep(batchSleepMillis);
+                    consumer.accept(filterResults);
+                    filterResults = new FilterResults();
+                }
+            }
+            if (filterResults.resultSize() > 0)
+                consumer.accept(filterResults);
+        }
+
+        FieldMinMaxValue minMaxValue(TapConnectorContext connectorContext, TapTable table, TapAdvanceFilter filter, String fieldName) {
+            NavigableMap<Long, Map<String, Object>> range = range(filter);
+            if (range.isEmpty())
+                return FieldMinMaxValue.create().fieldName(fieldName);
+            return FieldMinMaxValue.create().fieldName(fieldName).min(range.firstKey()).max(range.lastKey()).detectType(range.firstKey());
+        }
+    }
+
+    private static class MemoryStateMap implements KVMap<ReadPartitionState> {
+        private final Map<String, ReadPartitionState> map = new ConcurrentHashMap<>();
+
+        @Override
+        public void init(String mapKey, Class<ReadPartitionState> valueClass) {
+        }
+
+        @Override
+        public void put(String key, ReadPartitionState state) {
+            map.put(key, state);
+        }
+
+        @Override
+        public ReadPartitionState putIfAbsent(String key, ReadPartitionState state) {
+            return map.putIfAbsent(key, state);
+        }
+
+        @Override
+        public ReadPartitionState remove(String key) {
+            return map.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public void reset() {
+            map.clear();
+        }
+
+        @Override
+        public ReadPartitionState get(String key) {
+            return map.get(key);
+        }
+    }
+
+    private static PartitionedBatchReader reader(SkewedSource source, ExecutorService executorService, int workers, long stragglerMillis) {
+        return new PartitionedBatchReader("test")
+                .withTable(source.table)
+                .withGetReadPartitionsFunction(source::getReadPartitions)
+                .withQueryByAdvanceFilterFunction(source::query)
+                .withQueryFieldMinMaxValueFunction(source::minMaxValue)
+                .withReadPartitionOptions(GetReadPartitionOptions.create().splitType(GetReadPartitionOptions.SPLIT_TYPE_BY_MINMAX).minMaxSplitPieces(4))
+                .withExecutorService(executorService)
+                .withWorkers(workers)
+                .withBatchSize(100)
+                .withStragglerMillis(stragglerMillis);
+    }
+
+    private static long id(TapEvent event) {
+        return (Long) ((TapInsertRecordEvent) event).getAfter().get("id");
+    }
+
+    private static void read(SkewedSource source, int workers, long stragglerMillis, Map<Long, Integer> deliveredMap) throws Throwable {
+        ExecutorService executorService = Executors.newFixedThreadPool(workers);
+        try {
+            PartitionedBatchReader reader = reader(source, executorService, workers, stragglerMillis)
+                    .withEventsConsumer((partition, events) -> events.forEach(event -> deliveredMap.merge(id(event), 1, Integer::sum)));
+            reader.read();
+            assertEquals(source.records.size(), reader.getReadRecords());
+            assertNotNull(reader.memory(null, MemoryFetcher.MEMORY_LEVEL_SUMMARY));
+            if (stragglerMillis >= 0)
+                assertTrue(reader.getSplitCount() > 0);
+            else
+                assertEquals(0, reader.getSplitCount());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void splitStragglers() throws Throwable {
+        SkewedSource source = new SkewedSource(2);
+        Map<Long, Integer> unsplitMap = new ConcurrentHashMap<>();
+        read(source, 4, -1, unsplitMap);
+        Map<Long, Integer> splitMap = new ConcurrentHashMap<>();
+        read(source, 4, 20, splitMap);
+
+        for (Map<Long, Integer> deliveredMap : Arrays.asList(unsplitMap, splitMap)) {
+            assertEquals(source.records.keySet(), deliveredMap.keySet());
+            deliveredMap.forEach((id, count) -> assertEquals(1, count, "id " + id));
+        }
+    }
+
+    @Test
+    void resumeFromState() throws Throwable {
+        SkewedSource source = new SkewedSource(1);
+        MemoryStateMap stateMap = new MemoryStateMap();
+        Map<Long, Integer> firstMap = new ConcurrentHashMap<>();
+        AtomicLong counter = new AtomicLong();
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            PartitionedBatchReader first = reader(source, executorService, 2, 10)
+                    .withStateMap(stateMap)
+                    .withEventsConsumer((partition, events) -> {
+                        if (counter.addAndGet(events.size()) > 3000)
+                            throw new IllegalStateException("Target down");
+                        events.forEach(event -> firstMap.merge(id(event), 1, Integer::sum));
+                    });
+            CoreException coreException = assertThrows(CoreException.class, first::read);
+            assertEquals(PDKRunnerErrorCodes.SOURCE_PARTITIONED_BATCH_READ_FAILED, coreException.getCode());
+            assertFalse(stateMap.map.isEmpty());
+
+            Map<Long, Integer> secondMap = new ConcurrentHashMap<>();
+            PartitionedBatchReader second = reader(source, executorService, 2, 10)
+                    .withStateMap(stateMap)
+                    .withEventsConsumer((partition, events) -> events.forEach(event -> secondMap.merge(id(event), 1, Integer::sum)));
+            second.read();
+            assertTrue(second.getSkippedPartitions() > 0);
+            assertTrue(secondMap.size() < source.records.size());
+            secondMap.forEach((id, count) -> assertEquals(1, count, "id " + id));
+            Set<Long> union = new HashSet<>(firstMap.keySet());
+            union.addAll(secondMap.keySet());
+            assertEquals(source.records.keySet(), union);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
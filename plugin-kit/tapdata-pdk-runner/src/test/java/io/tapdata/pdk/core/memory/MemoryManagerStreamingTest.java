@@ -0,0 +1,155 @@
+package io.tapdata.pdk.core.memory;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.memory.MemorySink;
+import io.tapdata.entity.utils.DataMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryManagerStreamingTest {
+    private static final int FETCHERS = 10000;
+    private static final int KEYS = 50;
+
+    /**
+     * Half of the fetchers build DataMap only, the others write into the sink directly.
+     */
+    private MemoryManager engine(int fetchers, MemoryFetcher probe) {
+        MemoryManager memoryManager = MemoryManager.create();
+        for (int i = 0; i < fetchers; i++) {
+            final int id = i;
+            if (i % 2 == 0) {
+                memoryManager.register("fetcher_" + i, (keyRegex, memoryLevel) -> {
+                    DataMap dataMap = DataMap.create().keyRegex(keyRegex);
+                    for (int k = 0; k < KEYS; k++) {
+                        dataMap.kv("key_" + k, "value " + k + " of fetcher " + id + " in " + memoryLevel);
+                    }
+                    return dataMap.kv("nested", DataMap.create().kv("count", id).kv("list", Arrays.asList(1, 2, 3)));
+                });
+            } else {
+                memoryManager.register("fetcher_" + i, new MemoryFetcher() {
+                    @Override
+                    public DataMap memory(String keyRegex, String memoryLevel) {
+                        DataMap dataMap = DataMap.create().keyRegex(keyRegex);
+                        for (int k = 0; k < KEYS; k++) {
+                            dataMap.kv("key_" + k, "value " + k + " of fetcher " + id + " in " + memoryLevel);
+                        }
+                        return dataMap.kv("nested", DataMap.create().kv("count", id).kv("list", Arrays.asList(1, 2, 3)));
+                    }
+
+                    @Override
+                    public void writeMemory(String memoryLevel, MemorySink sink) {
+                        for (int k = 0; k < KEYS; k++) {
+                            sink.kv("key_" + k, "value " + k + " of fetcher " + id + " in " + memoryLevel);
+                        }
+                        sink.kv("nested", DataMap.create().kv("count", id).kv("list", Arrays.asList(1, 2, 3)));
+                    }
+                });
+            }
+        }
+        if (probe != null)
+            memoryManager.register("probe", probe);
+        return memoryManager;
+    }
+
+    @Test
+    void dumpUnderMemoryCap() {
+        AtomicLong probeHeap = new AtomicLong();
+        MemoryFetcher probe = (keyRegex, memoryLevel) -> {
+            probeHeap.accumulateAndGet(usedHeap(), Math::max);
+            return DataMap.create();
+        };
+        MemoryManager memoryManager = engine(FETCHERS, probe);
+        long baseHeap = usedHeap();
+
+        //Build the DataMap tree of all fetchers and the JSON string of it
+        DataMap dataMap = memoryManager.outputDataMap(null, null, MemoryFetcher.MEMORY_LEVEL_IN_DETAIL);
+        String json = JSON.toJSONString(dataMap);
+        long treePeak = Math.max(probeHeap.get(), usedHeap()) - baseHeap;
+        assertNotNull(json);
+        dataMap = null;
+        json = null;
+
+        probeHeap.set(0);
+        baseHeap = usedHeap();
+        CountingOutputStream outputStream = new CountingOutputStream();
+        long chars = memoryManager.output(null, null, MemoryFetcher.MEMORY_LEVEL_IN_DETAIL, outputStream, Long.MAX_VALUE);
+        long streamPeak = Math.max(probeHeap.get(), usedHeap()) - baseHeap;
+        assertTrue(chars > 0 && outputStream.count >= chars);
+        assertTrue(streamPeak < treePeak / 5, "tree peak " + treePeak + " streaming peak " + streamPeak);
+
+        //Drop the rest after the max chars, still valid JSON
+        ByteArrayOutputStream capped = new ByteArrayOutputStream();
+        long cappedChars = memoryManager.output(null, null, MemoryFetcher.MEMORY_LEVEL_IN_DETAIL, capped, 64 * 1024);
+        assertTrue(cappedChars < 64 * 1024 + 8 * 1024, "capped chars " + cappedChars);
+        JSONObject cappedObject = JSON.parseObject(new String(capped.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(Boolean.TRUE, cappedObject.get("truncated"));
+        assertTrue(cappedObject.size() < FETCHERS / 10);
+    }
+
+    @Test
+    void sameContentAsDataMap() {
+        MemoryManager memoryManager = engine(200, null);
+        memoryManager.unregister("fetcher_10");
+        memoryManager.unregister("fetcher_11");
+        for (String keyRegex : new String[]{null, "fetcher_1\\d*|removed|nested|key_\\d|count"}) {
+            for (String memoryLevel : new String[]{MemoryFetcher.MEMORY_LEVEL_SUMMARY, MemoryFetcher.MEMORY_LEVEL_IN_DETAIL}) {
+                JSONObject expected = JSON.parseObject(JSON.toJSONString(memoryManager.outputDataMap(null, keyRegex, memoryLevel)));
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                memoryManager.output(null, keyRegex, memoryLevel, outputStream, Long.MAX_VALUE);
+                JSONObject actual = JSON.parseObject(new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+                assertEquals(expected, actual, keyRegex + " " + memoryLevel);
+                assertEquals(2, actual.getJSONObject("removed").size());
+            }
+        }
+    }
+
+    @Test
+    void escapeAndSkip() {
+        StringWriter writer = new StringWriter();
+        JsonMemorySink sink = new JsonMemorySink(writer, "a|b|c");
+        sink.startObject(null)
+                .kv("a", "quote \" backslash \\ newline \n tab \t \u0001")
+                .kv("x", "skipped")
+                .startObject("y").kv("a", 1).startObject("b").endObject().endObject()
+                .startObject("b").kv("c", 1.5).kv("a", new int[]{1, 2}).endObject()
+                .endObject();
+        JSONObject object = JSON.parseObject(writer.toString());
+        assertEquals("quote \" backslash \\ newline \n tab \t \u0001", object.getString("a"));
+        assertFalse(object.containsKey("x"));
+        assertFalse(object.containsKey("y"));
+        assertEquals(1.5, object.getJSONObject("b").getDoubleValue("c"));
+        assertEquals(2, object.getJSONObject("b").getJSONArray("a").size());
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    private long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,327 @@
+package io.tapdata.pdk.core.merge;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.event.dml.TapRecordEvent;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.schema.TapField;
+import io.tapdata.entity.schema.TapTable;
+import io.tapdata.entity.schema.type.TapNumber;
+import io.tapdata.entity.utils.cache.KVMap;
+import io.tapdata.pdk.apis.entity.CompiledAdvanceFilter;
+import io.tapdata.pdk.apis.entity.QueryOperator;
+import io.tapdata.pdk.apis.entity.SortOn;
+import io.tapdata.pdk.apis.entity.TapAdvanceFilter;
+import io.tapdata.pdk.apis.entity.merge.MergeLookupResult;
+import io.tapdata.pdk.apis.entity.merge.MergeTableProperties;
+import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+import io.tapdata.pdk.core.utils.cache.EhcacheKVMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static io.tapdata.entity.simplify.TapSimplify.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MergeLookupIndexTest {
+    private static class MemoryKVMap<T> implements KVMap<T> {
+        private final Map<String, T> map = new HashMap<>();
+
+        @Override
+        public void init(String mapKey, Class<T> valueClass) {
+        }
+
+        @Override
+        public void put(String key, T t) {
+            map.put(key, t);
+        }
+
+        @Override
+        public T putIfAbsent(String key, T t) {
+            return map.putIfAbsent(key, t);
+        }
+
+        @Override
+        public T remove(String key) {
+            return map.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public void reset() {
+            map.clear();
+        }
+
+        @Override
+        public T get(String key) {
+            return map.get(key);
+        }
+    }
+
+    private static MergeTableProperties properties() {
+        MergeTableProperties properties = new MergeTableProperties();
+        properties.setTableName("order_items");
+        properties.setMergeType(MergeTableProperties.MergeType.updateIntoArray);
+        Map<String, String> joinKey = new HashMap<>();
+        joinKey.put("source", "orderId");
+        joinKey.put("target", "id");
+        properties.setJoinKeys(Collections.singletonList(joinKey));
+        return properties;
+    }
+
+    private static TapTable table() {
+        return new TapTable("order_items")
+                .add(new TapField("itemId", "bigint").isPrimaryKey(true).primaryKeyPos(1))
+                .add(new TapField("orderId", "bigint"))
+                .add(new TapField("sku", "varchar"))
+                .add(new TapField("price", "double").tapType(new TapNumber()));
+    }
+
+    private static Map<String, Object> item(long itemId, Object orderId, String sku, double price) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("itemId", itemId);
+        item.put("orderId", orderId);
+        item.put("sku", sku);
+        item.put("price", price);
+        item.put("note", "not projected " + itemId);
+        return item;
+    }
+
+    private static Map<String, Object> order(Object id) {
+        Map<String, Object> order = new HashMap<>();
+        order.put("id", id);
+        return order;
+    }
+
+    private static List<Object> itemIds(List<Map<String, Object>> rows) {
+        List<Object> itemIds = new ArrayList<>();
+        for (Map<String, Object> row : rows) {
+            itemIds.add(row.get("itemId"));
+        }
+        return itemIds;
+    }
+
+    @Test
+    void changesAndLookup() {
+        MemoryKVMap<MergeIndexPage> pageMap = new MemoryKVMap<>();
+        MergeLookupIndex index = new MergeLookupIndex("items")
+                .withPageMap(pageMap)
+                .withLocatorMap(new MemoryKVMap<>())
+                .withTable(table())
+                .withMergeTableProperties(properties())
+                .withProjection(Arrays.asList("itemId", "sku", "price"))
+                .withPageSize(4)
+                .init();
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (long i = 0; i < 10; i++) {
+            items.add(item(i, 1L, "sku" + i, i));
+        }
+        for (long i = 10; i < 13; i++) {
+            items.add(item(i, 2, "sku" + i, i));
+        }
+        index.upsert(items);
+        assertEquals(3 + 1, pageMap.map.size());
+
+        List<List<Map<String, Object>>> rowsList = index.lookup(Arrays.asList(order(1), order(2.0d), order(3L), order(1L)));
+        assertEquals(10, rowsList.get(0).size());
+        assertEquals(Arrays.asList(10L, 11L, 12L), itemIds(rowsList.get(1)));
+        assertTrue(rowsList.get(2).isEmpty());
+        assertEquals(10, rowsList.get(3).size());
+        assertEquals(new HashSet<>(Arrays.asList("itemId", "sku", "price")), rowsList.get(0).get(0).keySet());
+
+        List<TapRecordEvent> events = new ArrayList<>();
+        //Moved by the before, moved by the locator, updated in place and deleted
+        events.add(updateDMLEvent(item(0, 1L, "sku0", 0), item(0, 2L, "sku0", 0), "order_items"));
+        events.add(updateDMLEvent(null, item(1, 2L, "sku1", 1), "order_items"));
+        events.add(updateDMLEvent(null, item(12, 2L, "changed", 12), "order_items"));
+        events.add(deleteDMLEvent(item(2, 1L, "sku2", 2), "order_items"));
+        events.add(insertRecordEvent(item(13, 3L, "sku13", 13), "order_items"));
+        index.apply(events);
+
+        rowsList = index.lookup(Arrays.asList(order(1L), order(2L), order(3L)));
+        assertEquals(Arrays.asList(3L, 4L, 5L, 6L, 7L, 8L, 9L), itemIds(rowsList.get(0)));
+        assertEquals(Arrays.asList(10L, 11L, 12L, 0L, 1L), itemIds(rowsList.get(1)));
+        assertEquals("changed", rowsList.get(1).get(2).get("sku"));
+        assertEquals(Arrays.asList(13L), itemIds(rowsList.get(2)));
+        //7 rows of order 1 in 2 pages, 5 of order 2 in 2 pages, 1 of order 3
+        assertEquals(2 + 2 + 1, pageMap.map.size());
+
+        TapAdvanceFilter filter = TapAdvanceFilter.create().op(QueryOperator.gte("price", 5)).sort(SortOn.descending("price")).limit(2);
+        rowsList = index.lookup(Collections.singletonList(order(1L)), CompiledAdvanceFilter.compile(filter, table()));
+        assertEquals(Arrays.asList(9L, 8L), itemIds(rowsList.get(0)));
+
+        List<List<MergeLookupResult>> results = index.lookupMergeResults(Collections.singletonList(order(3L)));
+        assertEquals(1, results.get(0).size());
+        assertEquals("order_items", results.get(0).get(0).getProperty().getTableName());
+        assertEquals(13L, results.get(0).get(0).getData().get("itemId"));
+
+        //Inserted again under another join key, moved by the locator instead of stored twice
+        index.apply(Collections.singletonList(insertRecordEvent(item(13, 1L, "sku13", 13), "order_items")));
+        rowsList = index.lookup(Arrays.asList(order(1L), order(3L)));
+        assertEquals(Arrays.asList(3L, 4L, 5L, 6L, 7L, 8L, 9L, 13L), itemIds(rowsList.get(0)));
+        assertTrue(rowsList.get(1).isEmpty());
+        assertNotNull(index.memory(null, MemoryFetcher.MEMORY_LEVEL_SUMMARY));
+    }
+
+    @Test
+    void partialAfterUpdates() {
+        MemoryKVMap<MergeIndexPage> pageMap = new MemoryKVMap<>();
+        MergeLookupIndex index = new MergeLookupIndex("items")
+                .withPageMap(pageMap)
+                .withLocatorMap(new MemoryKVMap<>())
+                .withTable(table())
+                .withMergeTableProperties(properties())
+                .withProjection(Arrays.asList("itemId", "sku", "price"))
+                .withPageSize(4)
+                .init();
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (long i = 0; i < 6; i++) {
+            items.add(item(i, 1L, "sku" + i, i));
+        }
+        index.upsert(items);
+
+        List<TapRecordEvent> events = new ArrayList<>();
+        //Changed fields only, the join key by the locator, twice in the batch
+        Map<String, Object> price = new HashMap<>();
+        price.put("itemId", 0L);
+        price.put("price", 100d);
+        events.add(updateDMLEvent(null, price, "order_items"));
+        Map<String, Object> sku = new HashMap<>();
+        sku.put("itemId", 0L);
+        sku.put("sku", "changed");
+        events.add(updateDMLEvent(null, sku, "order_items"));
+        //Moved with the primary key in the before only, the fields not in the after are kept from the stored row
+        Map<String, Object> before = new HashMap<>();
+        before.put("itemId", 1L);
+        before.put("orderId", 1L);
+        Map<String, Object> moved = new HashMap<>();
+        moved.put("orderId", 2L);
+        events.add(updateDMLEvent(before, moved, "order_items"));
+        //Changed then moved in the same batch
+        Map<String, Object> changedBeforeMove = new HashMap<>();
+        changedBeforeMove.put("itemId", 2L);
+        changedBeforeMove.put("price", 200d);
+        events.add(updateDMLEvent(null, changedBeforeMove, "order_items"));
+        Map<String, Object> movedAfterChange = new HashMap<>();
+        movedAfterChange.put("itemId", 2L);
+        movedAfterChange.put("orderId", 2L);
+        events.add(updateDMLEvent(null, movedAfterChange, "order_items"));
+        index.apply(events);
+
+        List<List<Map<String, Object>>> rowsList = index.lookup(Arrays.asList(order(1L), order(2L)));
+        assertEquals(Arrays.asList(0L, 3L, 4L, 5L), itemIds(rowsList.get(0)));
+        assertEquals("changed", rowsList.get(0).get(0).get("sku"));
+        assertEquals(100d, rowsList.get(0).get(0).get("price"));
+        assertEquals("sku3", rowsList.get(0).get(1).get("sku"));
+        assertEquals(Arrays.asList(1L, 2L), itemIds(rowsList.get(1)));
+        assertEquals("sku1", rowsList.get(1).get(0).get("sku"));
+        assertEquals(1d, rowsList.get(1).get(0).get("price"));
+        assertEquals("sku2", rowsList.get(1).get(1).get("sku"));
+        assertEquals(200d, rowsList.get(1).get(1).get("price"));
+
+        //Without the join fields or a locator the row can not be found
+        MergeLookupIndex noLocator = new MergeLookupIndex("noLocator")
+                .withPageMap(pageMap)
+                .withTable(table())
+                .withMergeTableProperties(properties())
+                .init();
+        CoreException coreException = assertThrows(CoreException.class, () -> noLocator.apply(Collections.singletonList(updateDMLEvent(null, price, "order_items"))));
+        assertEquals(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, coreException.getCode());
+        //The update may move the row and the delete may be of any join key, they fail instead of leaving the row
+        assertThrows(CoreException.class, () -> noLocator.apply(Collections.singletonList(updateDMLEvent(null, item(0, 2L, "sku0", 0), "order_items"))));
+        Map<String, Object> deletedKey = new HashMap<>();
+        deletedKey.put("itemId", 0L);
+        coreException = assertThrows(CoreException.class, () -> noLocator.delete(Collections.singletonList(deletedKey)));
+        assertEquals(PDKRunnerErrorCodes.COMMON_ILLEGAL_PARAMETERS, coreException.getCode());
+    }
+
+    /**
+     * Merge the child table on local disk, the records by primary key and the child keys of each parent, against the index of the projected fields.
+     * Run with -Dmerge.lookup.benchmark.rows=10000000 for the 10 million rows child table.
+     */
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void diskMergeBenchmark() {
+        int rows = Integer.parseInt(System.getProperty("merge.lookup.benchmark.rows", "100000"));
+        int childrenPerParent = 20;
+        int parents = rows / childrenPerParent;
+        int lookups = Math.min(parents, 5000);
+        String suffix = String.valueOf(System.currentTimeMillis());
+        EhcacheKVMap<Map> recordMap = EhcacheKVMap.create("mergeRecords" + suffix, Map.class).cachePath("target/merge-lookup-benchmark").maxHeapEntries(100).maxDiskMB(16384).init();
+        EhcacheKVMap<List> childKeysMap = EhcacheKVMap.create("mergeChildKeys" + suffix, List.class).cachePath("target/merge-lookup-benchmark").maxHeapEntries(100).maxDiskMB(4096).init();
+        EhcacheKVMap<MergeIndexPage> pageMap = EhcacheKVMap.create("mergePages" + suffix, MergeIndexPage.class).cachePath("target/merge-lookup-benchmark").maxHeapEntries(100).maxDiskMB(8192).init();
+        try {
+            MergeLookupIndex index = new MergeLookupIndex("items")
+                    .withPageMap(pageMap)
+                    .withTable(table())
+                    .withMergeTableProperties(properties())
+                    .withProjection(Arrays.asList("itemId", "sku", "price"))
+                    .init();
+
+            Map<Long, List<String>> childKeys = new HashMap<>();
+            List<Map<String, Object>> batch = new ArrayList<>(1000);
+            for (long i = 0; i < rows; i++) {
+                Map<String, Object> item = item(i, i % parents, "sku" + i, i % 1000);
+                for (int f = 0; f < 8; f++) {
+                    item.put("field" + f, "value of field " + f + " " + i);
+                }
+                recordMap.put(String.valueOf(i), item);
+                childKeys.computeIfAbsent(i % parents, key -> new ArrayList<>()).add(String.valueOf(i));
+                batch.add(item);
+                if (batch.size() == 1000 || i == rows - 1) {
+                    index.upsert(batch);
+                    batch.clear();
+                }
+            }
+            for (Map.Entry<Long, List<String>> entry : childKeys.entrySet()) {
+                childKeysMap.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+            childKeys = null;
+
+            Random random = new Random(11);
+            List<Map<String, Object>> orders = new ArrayList<>(lookups);
+            for (int i = 0; i < lookups; i++) {
+                orders.add(order((long) random.nextInt(parents)));
+            }
+
+            long time = System.nanoTime();
+            List<List<Map<String, Object>>> walked = new ArrayList<>(lookups);
+            for (Map<String, Object> order : orders) {
+                List<String> keys = childKeysMap.get(String.valueOf(order.get("id")));
+                List<Map<String, Object>> children = new ArrayList<>();
+                for (String key : keys) {
+                    Map<String, Object> record = recordMap.get(key);
+                    Map<String, Object> projected = new LinkedHashMap<>();
+                    projected.put("itemId", record.get("itemId"));
+                    projected.put("sku", record.get("sku"));
+                    projected.put("price", record.get("price"));
+                    children.add(projected);
+                }
+                walked.add(children);
+            }
+            long walkTime = System.nanoTime() - time;
+
+            long pagesRead = index.getPagesRead();
+            time = System.nanoTime();
+            List<List<Map<String, Object>>> indexed = new ArrayList<>(lookups);
+            for (int i = 0; i < lookups; i += 100) {
+                indexed.addAll(index.lookup(orders.subList(i, Math.min(i + 100, lookups))));
+            }
+            long indexTime = System.nanoTime() - time;
+            pagesRead = index.getPagesRead() - pagesRead;
+
+            assertEquals(walked, indexed);
+            //One page read for each parent at most, against the child keys and each child record
+            long walkReads = (long) lookups * (childrenPerParent + 1);
+            assertTrue(pagesRead <= lookups, "page reads " + pagesRead + " walk reads " + walkReads);
+            assertTrue(indexTime < walkTime, "walk child keys " + walkTime / 1000000 + "ms for " + walkReads + " reads, index " + indexTime / 1000000 + "ms for " + pagesRead + " page reads");
+        } finally {
+            recordMap.reset();
+            childKeysMap.reset();
+            pageMap.reset();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package io.tapdata.pdk.core.schema;
+
+import io.tapdata.entity.codec.TapCodecsRegistry;
+import io.tapdata.entity.codec.filter.TapCodecsFilterManager;
+import io.tapdata.entity.conversion.TableFieldTypesGenerator;
+import io.tapdata.entity.conversion.TargetTypesGenerator;
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.mapping.DefaultExpressionMatchingMap;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.schema.CompactFieldMap;
+import io.tapdata.entity.schema.TapField;
+import io.tapdata.entity.schema.TapTable;
+import io.tapdata.entity.schema.type.TapType;
+import io.tapdata.entity.utils.DataMap;
+import io.tapdata.entity.utils.InstanceFactory;
+import io.tapdata.pdk.core.api.PDKIntegration;
+import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SchemaLoadingPipelineTest {
+    private static final int TABLES = 20000;
+    private static final int FIELDS = 20;
+    private static final String SOURCE_TYPES = "{\n" +
+            "    \"int[($bit)][unsigned]\": {\"bit\": 32, \"unsigned\": \"unsigned\", \"to\": \"TapNumber\"},\n" +
+            "    \"bigint[unsigned]\": {\"bit\": 64, \"unsigned\": \"unsigned\", \"to\": \"TapNumber\"},\n" +
+            "    \"decimal($precision,$scale)\": {\"precision\":[1, 65], \"scale\": [0, 30], \"to\": \"TapNumber\"},\n" +
+            "    \"datetime\": {\"range\": [\"1000-01-01 00:00:00\", \"9999-12-31 23:59:59\"], \"to\": \"TapDateTime\"},\n" +
+            "    \"varchar($byte)\": {\"byte\": \"64k\", \"fixed\": false, \"to\": \"TapString\"},\n" +
+            "    \"text\": {\"byte\": \"64k\", \"to\": \"TapString\"}\n" +
+            "}";
+    private static final String TARGET_TYPES = "{\n" +
+            "    \"int\":{\"bit\":32, \"to\":\"TapNumber\"},\n" +
+            "    \"bigint\":{\"bit\":64, \"to\":\"TapNumber\"},\n" +
+            "    \"decimal[($precision,$scale)]\":{\"precision\": [1, 38], \"scale\": [0, 30], \"to\": \"TapNumber\"},\n" +
+            "    \"timestamp\":{\"range\":[\"1000-01-01 00:00:00\",\"9999-12-31 23:59:59\"],\"to\":\"TapDateTime\"},\n" +
+            "    \"varchar[($byte)]\":{\"byte\":\"65535\", \"to\":\"TapString\"},\n" +
+            "    \"string\":{\"byte\":\"2147483643\", \"to\":\"TapString\"}\n" +
+            "}";
+    private static final String[] DATA_TYPES = {"int", "int unsigned", "bigint", "decimal(10,2)", "decimal(20,4)", "datetime", "varchar(32)", "varchar(255)", "text"};
+
+    /**
+     * Discovery emits batches of 100 tables, strings are new instances like the ones read from a database.
+     */
+    private void discover(Consumer<List<TapTable>> consumer) {
+        List<TapTable> batch = new ArrayList<>();
+        for (int t = 0; t < TABLES; t++) {
+            TapTable table = new TapTable("table_" + t);
+            for (int f = 0; f < FIELDS; f++) {
+                table.add(new TapField(new String("column_" + f), new String(DATA_TYPES[(t + f) % DATA_TYPES.length])).comment(new String("comment of column " + f)).isPrimaryKey(f == 0));
+            }
+            batch.add(table);
+            if (batch.size() == 100) {
+                consumer.accept(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty())
+            consumer.accept(batch);
+    }
+
+    private SchemaLoadingPipeline pipeline(Collection<SchemaLoadingPipeline.LoadedTable> loadedTables) {
+        return new SchemaLoadingPipeline()
+                .withParallelism(4)
+                .withQueueCapacity(500)
+                .withSourceMatchingMap(DefaultExpressionMatchingMap.map(SOURCE_TYPES))
+                .withTarget(DefaultExpressionMatchingMap.map(TARGET_TYPES), TapCodecsFilterManager.create(TapCodecsRegistry.create()))
+                .withTableConsumer(loadedTables::add);
+    }
+
+    @Test
+    void loadWhileDiscovering() {
+        //Serial, convert the tables one by one after all of them are discovered
+        long time = System.currentTimeMillis();
+        List<TapTable> serialTables = new ArrayList<>();
+        discover(serialTables::addAll);
+        DefaultExpressionMatchingMap sourceMatchingMap = DefaultExpressionMatchingMap.map(SOURCE_TYPES);
+        DefaultExpressionMatchingMap targetMatchingMap = DefaultExpressionMatchingMap.map(TARGET_TYPES);
+        TapCodecsFilterManager codecsFilterManager = TapCodecsFilterManager.create(TapCodecsRegistry.create());
+        long serialFirstTableTakes = -1;
+        List<LinkedHashMap<String, TapField>> serialTargetFields = new ArrayList<>();
+        for (TapTable table : serialTables) {
+            InstanceFactory.instance(TableFieldTypesGenerator.class).autoFill(table.getNameFieldMap(), sourceMatchingMap);
+            serialTargetFields.add(InstanceFactory.instance(TargetTypesGenerator.class).convert(table.getNameFieldMap(), targetMatchingMap, codecsFilterManager).getData());
+            if (serialFirstTableTakes < 0)
+                serialFirstTableTakes = System.currentTimeMillis() - time;
+        }
+        long serialHeap = usedHeap();
+
+        Queue<SchemaLoadingPipeline.LoadedTable> loadedTables = new ConcurrentLinkedQueue<>();
+        SchemaLoadingPipeline pipeline = pipeline(loadedTables).start();
+        try {
+            discover(pipeline);
+            pipeline.finish();
+        } finally {
+            pipeline.stop();
+        }
+        serialTables = null;
+        serialTargetFields.clear();
+        long pipelineHeap = usedHeap();
+        assertTrue(pipelineHeap < serialHeap, "serial heap " + serialHeap / 1024 / 1024 + "MB pipeline heap " + pipelineHeap / 1024 / 1024 + "MB");
+
+        assertEquals(TABLES, pipeline.getDiscoveredCount());
+        assertEquals(TABLES, pipeline.getLoadedCount());
+        assertEquals(TABLES, loadedTables.size());
+        assertTrue(pipeline.getFirstTableTakes() < serialFirstTableTakes, "first table " + pipeline.getFirstTableTakes() + " serial " + serialFirstTableTakes);
+
+        Set<TapType> tapTypes = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<String> dataTypes = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (SchemaLoadingPipeline.LoadedTable loadedTable : loadedTables) {
+            assertEquals(FIELDS, loadedTable.getTable().getNameFieldMap().size());
+            assertEquals(FIELDS, loadedTable.getTargetResult().getData().size());
+            for (TapField field : loadedTable.getTable().getNameFieldMap().values()) {
+                assertNotNull(field.getTapType(), field.getName());
+                tapTypes.add(field.getTapType());
+                dataTypes.add(field.getDataType());
+            }
+            for (TapField field : loadedTable.getTargetResult().getData().values()) {
+                assertNotNull(field.getDataType(), field.getName());
+                dataTypes.add(field.getDataType());
+            }
+        }
+        assertEquals(pipeline.getFieldInterner().getDistinctTapTypeCount(), tapTypes.size());
+        assertTrue(dataTypes.size() < DATA_TYPES.length * 3, "distinct data type instances " + dataTypes.size());
+    }
+
+    @Test
+    void sameTargetTypesAsSerial() {
+        List<TapTable> serialTables = new ArrayList<>();
+        discover(serialTables::addAll);
+        DefaultExpressionMatchingMap sourceMatchingMap = DefaultExpressionMatchingMap.map(SOURCE_TYPES);
+        DefaultExpressionMatchingMap targetMatchingMap = DefaultExpressionMatchingMap.map(TARGET_TYPES);
+        TapCodecsFilterManager codecsFilterManager = TapCodecsFilterManager.create(TapCodecsRegistry.create());
+        Map<String, LinkedHashMap<String, TapField>> expected = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            TapTable table = serialTables.get(i);
+            InstanceFactory.instance(TableFieldTypesGenerator.class).autoFill(table.getNameFieldMap(), sourceMatchingMap);
+            expected.put(table.getId(), InstanceFactory.instance(TargetTypesGenerator.class).convert(table.getNameFieldMap(), targetMatchingMap, codecsFilterManager).getData());
+        }
+
+        Queue<SchemaLoadingPipeline.LoadedTable> loadedTables = new ConcurrentLinkedQueue<>();
+        SchemaLoadingPipeline pipeline = pipeline(loadedTables).start();
+        discover(pipeline);
+        pipeline.finish();
+        pipeline.stop();
+        int compared = 0;
+        for (SchemaLoadingPipeline.LoadedTable loadedTable : loadedTables) {
+            LinkedHashMap<String, TapField> expectedFields = expected.get(loadedTable.getTable().getId());
+            if (expectedFields == null)
+                continue;
+            compared++;
+            for (TapField field : expectedFields.values()) {
+                assertEquals(field.getDataType(), loadedTable.getTargetResult().getData().get(field.getName()).getDataType());
+            }
+        }
+        assertEquals(100, compared);
+    }
+
+    @Test
+    void compactTablesReportedToMemoryManager() {
+        String memoryKey = "SchemaLoadingPipelineTest_" + System.currentTimeMillis();
+        Queue<SchemaLoadingPipeline.LoadedTable> loadedTables = new ConcurrentLinkedQueue<>();
+        SchemaLoadingPipeline pipeline = pipeline(loadedTables).withCompactMemory(true).withMemoryKey(memoryKey).start();
+        try {
+            discover(pipeline);
+            pipeline.finish();
+        } finally {
+            pipeline.stop();
+        }
+        try {
+            for (SchemaLoadingPipeline.LoadedTable loadedTable : loadedTables) {
+                assertTrue(loadedTable.getTable().getNameFieldMap() instanceof CompactFieldMap);
+                assertTrue(loadedTable.getTargetResult().getData() instanceof CompactFieldMap);
+            }
+            DataMap memory = (DataMap) PDKIntegration.outputMemoryFetchersInDataMap(Collections.singletonList(memoryKey), null, MemoryFetcher.MEMORY_LEVEL_SUMMARY).get(memoryKey);
+            assertNotNull(memory);
+            assertEquals(TABLES, memory.get("tables"));
+            assertEquals(TABLES, memory.get("compactTables"));
+            assertEquals((long) TABLES * FIELDS, memory.get("fields"));
+        } finally {
+            PDKIntegration.unregisterMemoryFetcher(memoryKey);
+        }
+    }
+
+    @Test
+    void failureStopsDiscovery() {
+        SchemaLoadingPipeline pipeline = new SchemaLoadingPipeline()
+                .withParallelism(2)
+                .withQueueCapacity(10)
+                .withTableConsumer(loadedTable -> {
+                    throw new IllegalStateException("consumer failed");
+                }).start();
+        try {
+            CoreException coreException = assertThrows(CoreException.class, () -> discover(pipeline));
+            assertEquals(PDKRunnerErrorCodes.SOURCE_SCHEMA_LOADING_FAILED, coreException.getCode());
+            assertTrue(pipeline.getDiscoveredCount() < TABLES);
+        } finally {
+            pipeline.stop();
+        }
+    }
+
+    private long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,268 @@
+package io.tapdata.pdk.core.stream;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.pdk.apis.consumer.StreamReadConsumer;
+import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.tapdata.entity.simplify.TapSimplify.insertRecordEvent;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RingBufferStreamReadConsumerTest {
+    private static List<TapEvent> batch(long from, int size) {
+        List<TapEvent> events = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> after = new HashMap<>();
+            after.put("seq", from + i);
+            events.add(insertRecordEvent(after, "t"));
+        }
+        return events;
+    }
+
+    @Test
+    void orderAndOffsets() throws Throwable {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        AtomicLong nextSeq = new AtomicLong();
+        AtomicLong violations = new AtomicLong();
+        AtomicLong boxedOffsets = new AtomicLong();
+        RingBufferStreamReadConsumer consumer = new RingBufferStreamReadConsumer("order")
+                .withCapacity(16)
+                .withMaxBatchEvents(50)
+                .withExecutorService(executorService)
+                .withDownstream((events, offset) -> {
+                    for (TapEvent event : events) {
+                        if ((Long) ((TapInsertRecordEvent) event).getAfter().get("seq") != nextSeq.getAndIncrement())
+                            violations.incrementAndGet();
+                    }
+                    //Object offsets are the sequence after the batch in text
+                    if (offset instanceof Long)
+                        boxedOffsets.incrementAndGet();
+                    else if (!String.valueOf(nextSeq.get()).equals(offset))
+                        violations.incrementAndGet();
+                })
+                .withLongOffsetDownstream((events, offset) -> {
+                    for (TapEvent event : events) {
+                        if ((Long) ((TapInsertRecordEvent) event).getAfter().get("seq") != nextSeq.getAndIncrement())
+                            violations.incrementAndGet();
+                    }
+                    if (offset != nextSeq.get())
+                        violations.incrementAndGet();
+                })
+                .start();
+        consumer.streamReadStarted();
+        Random random = new Random(3);
+        long seq = 0;
+        for (int b = 0; b < 20000; b++) {
+            int size = random.nextInt(20);
+            List<TapEvent> events = batch(seq, size);
+            seq += size;
+            if (random.nextInt(10) == 0)
+                consumer.accept(events, String.valueOf(seq));
+            else
+                consumer.acceptLongOffset(events, seq);
+        }
+        assertTrue(consumer.flush(30, TimeUnit.SECONDS));
+        assertNotNull(consumer.memory(null, MemoryFetcher.MEMORY_LEVEL_SUMMARY));
+        consumer.stop();
+        executorService.shutdown();
+
+        assertEquals(0, violations.get());
+        assertEquals(0, boxedOffsets.get());
+        assertEquals(seq, nextSeq.get());
+        assertEquals(seq, consumer.getDeliveredEvents());
+        assertEquals(20000, consumer.getAcceptedBatches());
+        //Continuous batches are merged
+        assertTrue(consumer.getDeliveries() < 20000);
+        assertEquals(StreamReadConsumer.STATE_STREAM_READ_STARTED, consumer.getState());
+    }
+
+    @Test
+    void concurrentProducerRejected() throws Throwable {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        CountDownLatch accepting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RingBufferStreamReadConsumer consumer = new RingBufferStreamReadConsumer("producers")
+                .withCapacity(2)
+                .withExecutorService(executorService)
+                .withDownstream((events, offset) -> {
+                    accepting.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                })
+                .start();
+        //The first reader is blocked in accepting by the full ring, more batches than the blocked delivery and the ring can take
+        Thread reader = new Thread(() -> {
+            for (long offset = 0; offset < 8; offset++) {
+                consumer.acceptLongOffset(batch(offset, 1), offset);
+            }
+        });
+        reader.start();
+        assertTrue(accepting.await(10, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (reader.getState() != Thread.State.TIMED_WAITING && reader.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(reader.isAlive());
+        CoreException coreException = assertThrows(CoreException.class, () -> consumer.acceptLongOffset(batch(100, 1), 100));
+        assertEquals(PDKRunnerErrorCodes.SOURCE_STREAM_READ_CONSUMER_CONCURRENT_PRODUCER, coreException.getCode());
+        assertSame(consumer, consumer.connection("another"));
+
+        release.countDown();
+        reader.join(10000);
+        assertTrue(consumer.flush(10, TimeUnit.SECONDS));
+        //Accepting from another thread after the reader is done is fine
+        consumer.acceptLongOffset(batch(8, 1), 8);
+        assertTrue(consumer.flush(10, TimeUnit.SECONDS));
+        assertEquals(9, consumer.getDeliveredEvents());
+        assertEquals(8, consumer.getDeliveredLongOffset());
+        consumer.stop();
+        executorService.shutdown();
+    }
+
+    @Test
+    void stateChangedOnce() throws Throwable {
+        AtomicInteger startedCount = new AtomicInteger();
+        AtomicInteger endedCount = new AtomicInteger();
+        StreamReadConsumer consumer = StreamReadConsumer.create((events, offset) -> {
+        }).stateListener((from, to) -> {
+            if (to == StreamReadConsumer.STATE_STREAM_READ_STARTED)
+                startedCount.incrementAndGet();
+            else if (to == StreamReadConsumer.STATE_STREAM_READ_ENDED)
+                endedCount.incrementAndGet();
+        });
+        assertEquals(StreamReadConsumer.STATE_STREAM_READ_PENDING, consumer.getState());
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executorService.submit(() -> {
+                latch.await();
+                for (int j = 0; j < 1000; j++) {
+                    consumer.streamReadStarted();
+                }
+                return null;
+            }));
+        }
+        latch.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        assertEquals(1, startedCount.get());
+        consumer.streamReadEnded();
+        consumer.streamReadEnded();
+        assertEquals(1, endedCount.get());
+        assertEquals(StreamReadConsumer.STATE_STREAM_READ_ENDED, consumer.getState());
+        //Started again after ended, as before
+        consumer.streamReadStarted();
+        assertEquals(2, startedCount.get());
+    }
+
+    /**
+     * Accept 10 events a batch with long offsets from the reader thread, while the runner checks the state.
+     * The baseline hands off each batch through a blocking queue with boxed offsets.
+     * Both are warmed up, the best of 3 rounds is reported.
+     */
+    @Test
+    void throughputBenchmark() throws Throwable {
+        List<TapEvent> events = batch(0, 10);
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        baselineRate(events, 300_000);
+        ringRate(events, 300_000, executorService);
+        long baselineRate = 0, ringRate = 0;
+        for (int i = 0; i < 3; i++) {
+            baselineRate = Math.max(baselineRate, baselineRate(events, 3_000_000));
+            ringRate = Math.max(ringRate, ringRate(events, 3_000_000, executorService));
+        }
+        executorService.shutdown();
+        assertTrue(ringRate > 1_000_000, "baseline " + baselineRate + " events/s, ring buffer " + ringRate + " events/s");
+    }
+
+    private static long baselineRate(List<TapEvent> events, long totalEvents) throws InterruptedException {
+        BlockingQueue<Object[]> queue = new LinkedBlockingQueue<>(1024);
+        AtomicLong handedOff = new AtomicLong();
+        Thread handOffThread = new Thread(() -> {
+            try {
+                while (true) {
+                    Object[] entry = queue.take();
+                    if (entry.length == 0)
+                        break;
+                    handedOff.addAndGet(((List<?>) entry[0]).size());
+                }
+            } catch (InterruptedException ignored) {
+            }
+        });
+        handOffThread.start();
+        StreamReadConsumer baseline = StreamReadConsumer.create((list, offset) -> {
+            try {
+                queue.put(new Object[]{list, offset});
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        long rate = run(baseline, events, totalEvents, () -> {
+            try {
+                queue.put(new Object[0]);
+                handOffThread.join();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        assertEquals(totalEvents, handedOff.get());
+        return rate;
+    }
+
+    private static long ringRate(List<TapEvent> events, long totalEvents, ExecutorService executorService) throws InterruptedException {
+        AtomicLong handedOff = new AtomicLong();
+        AtomicLong lastOffset = new AtomicLong();
+        RingBufferStreamReadConsumer ring = new RingBufferStreamReadConsumer("benchmark")
+                .withExecutorService(executorService)
+                .withDownstream((list, offset) -> handedOff.addAndGet(list.size()))
+                .withLongOffsetDownstream((list, offset) -> {
+                    handedOff.addAndGet(list.size());
+                    lastOffset.set(offset);
+                })
+                .start();
+        long rate = run(ring, events, totalEvents, () -> {
+            try {
+                ring.flush(30, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        ring.stop();
+        assertEquals(totalEvents, handedOff.get());
+        assertEquals(totalEvents, lastOffset.get());
+        return rate;
+    }
+
+    private static long run(StreamReadConsumer consumer, List<TapEvent> events, long totalEvents, Runnable finish) throws InterruptedException {
+        AtomicInteger stateChecks = new AtomicInteger();
+        Thread checker = new Thread(() -> {
+            while (consumer.getState() != StreamReadConsumer.STATE_STREAM_READ_ENDED) {
+                stateChecks.incrementAndGet();
+                Thread.yield();
+            }
+        });
+        consumer.streamReadStarted();
+        checker.start();
+        long time = System.nanoTime();
+        for (long offset = events.size(); offset <= totalEvents; offset += events.size()) {
+            consumer.acceptLongOffset(events, offset);
+        }
+        finish.run();
+        long nanos = System.nanoTime() - time;
+        consumer.streamReadEnded();
+        checker.join();
+        return totalEvents * 1_000_000_000L / nanos;
+    }
+}
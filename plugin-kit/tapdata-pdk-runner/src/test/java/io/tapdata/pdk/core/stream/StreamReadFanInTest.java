@@ -0,0 +1,217 @@
+package io.tapdata.pdk.core.stream;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.pdk.apis.consumer.StreamReadConsumer;
+import io.tapdata.pdk.core.error.PDKRunnerErrorCodes;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.tapdata.entity.simplify.TapSimplify.insertRecordEvent;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamReadFanInTest {
+    /**
+     * Synthetic connection, reads batches of events with the sequence and the reference time, sleeps between batches if rate limited
+     */
+    private static Thread connection(StreamReadConsumer consumer, String connectionId, int batchSize, long sleepMillis, int maxBatches, AtomicBoolean running) {
+        Thread thread = new Thread(() -> {
+            StreamReadConsumer connectionConsumer = consumer.connection(connectionId);
+            connectionConsumer.streamReadStarted();
+            long seq = 0;
+            try {
+                for (int b = 0; b < maxBatches && running.get(); b++) {
+                    List<TapEvent> events = new ArrayList<>(batchSize);
+                    for (int i = 0; i < batchSize; i++) {
+                        Map<String, Object> after = new HashMap<>();
+                        after.put("seq", seq++);
+                        events.add(insertRecordEvent(after, connectionId).referenceTime(System.currentTimeMillis()));
+                    }
+                    connectionConsumer.accept(events, connectionId + "_" + seq);
+                    if (sleepMillis > 0)
+                        Thread.sleep(sleepMillis);
+                }
+                connectionConsumer.streamReadEnded();
+            } catch (CoreException | InterruptedException ignored) {
+                //Stopped
+            }
+        }, connectionId);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Downstream checks the order of each connection and counts the events, slow as a target
+     */
+    private static StreamReadConsumer downstream(Map<String, AtomicLong> deliveredMap, AtomicLong orderViolations, List<String> handOffs, AtomicInteger state) {
+        Map<String, Long> lastSeqMap = new HashMap<>();
+        return StreamReadConsumer.create((events, offset) -> {
+            String connectionId = ((TapInsertRecordEvent) events.get(0)).getTableId();
+            for (TapEvent event : events) {
+                long seq = (Long) ((TapInsertRecordEvent) event).getAfter().get("seq");
+                Long last = lastSeqMap.put(connectionId, seq);
+                if (last != null && last + 1 != seq)
+                    orderViolations.incrementAndGet();
+            }
+            deliveredMap.computeIfAbsent(connectionId, id -> new AtomicLong()).addAndGet(events.size());
+            if (handOffs != null)
+                handOffs.add(connectionId);
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }).stateListener((from, to) -> state.set(to));
+    }
+
+    @Test
+    void weightedFairness() throws Throwable {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Map<String, AtomicLong> deliveredMap = new ConcurrentHashMap<>();
+        AtomicLong orderViolations = new AtomicLong();
+        List<String> handOffs = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger state = new AtomicInteger();
+        StreamReadFanIn fanIn = new StreamReadFanIn("fairness")
+                .withDownstream(downstream(deliveredMap, orderViolations, handOffs, state))
+                .withExecutorService(executorService)
+                .withMaxQueuedEvents(200)
+                .withQuantum(10)
+                .withBatchSize(200)
+                .connection("heavy", 3)
+                .connection("light", 1)
+                .start();
+        StreamReadConsumer consumer = fanIn.createStreamReadConsumer();
+        assertEquals(150, consumer.connection("heavy").getBatchSize());
+        assertEquals(50, consumer.connection("light").getBatchSize());
+        AtomicBoolean running = new AtomicBoolean(true);
+        //Both saturated
+        Thread heavy = connection(consumer, "heavy", 10, 0, Integer.MAX_VALUE, running);
+        Thread light = connection(consumer, "light", 10, 0, Integer.MAX_VALUE, running);
+        long deadline = System.currentTimeMillis() + 30000;
+        while (handOffs.size() < 1200 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        running.set(false);
+        fanIn.stop();
+        heavy.join(5000);
+        light.join(5000);
+        executorService.shutdown();
+
+        List<String> window;
+        synchronized (handOffs) {
+            window = new ArrayList<>(handOffs.subList(200, 1200));
+        }
+        long heavyCount = window.stream().filter("heavy"::equals).count();
+        long lightCount = window.size() - heavyCount;
+        assertEquals(0, orderViolations.get());
+        assertEquals(StreamReadConsumer.STATE_STREAM_READ_STARTED, state.get());
+        double ratio = (double) heavyCount / lightCount;
+        assertTrue(ratio > 2.5 && ratio < 3.5, "heavy " + heavyCount + " light " + lightCount + " hand offs in the window");
+    }
+
+    @Test
+    void skewedRates() throws Throwable {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Map<String, AtomicLong> deliveredMap = new ConcurrentHashMap<>();
+        AtomicLong orderViolations = new AtomicLong();
+        AtomicInteger state = new AtomicInteger();
+        StreamReadFanIn fanIn = new StreamReadFanIn("skewed")
+                .withDownstream(downstream(deliveredMap, orderViolations, null, state))
+                .withExecutorService(executorService)
+                .withMaxQueuedEvents(500)
+                .withQuantum(50)
+                .start();
+        StreamReadConsumer consumer = fanIn.createStreamReadConsumer();
+        AtomicBoolean running = new AtomicBoolean(true);
+        //The fast one reads 100 events a batch without pause, the slow one 5 events every 5 milliseconds
+        Thread fast = connection(consumer, "fast", 100, 0, 300, running);
+        Thread slow = connection(consumer, "slow", 5, 5, 200, running);
+        fast.join(60000);
+        slow.join(60000);
+        assertTrue(fanIn.flush(30, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (state.get() != StreamReadConsumer.STATE_STREAM_READ_ENDED && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(fanIn.memory(null, MemoryFetcher.MEMORY_LEVEL_SUMMARY));
+        fanIn.stop();
+        executorService.shutdown();
+
+        assertEquals(0, orderViolations.get());
+        assertEquals(30000, deliveredMap.get("fast").get());
+        assertEquals(1000, deliveredMap.get("slow").get());
+        assertEquals(30000, fanIn.getDeliveredEvents("fast"));
+        //Ended after all the connections ended and the events handed off
+        assertEquals(StreamReadConsumer.STATE_STREAM_READ_ENDED, state.get());
+        //The slow connection is not queued behind the fast one
+        Long slowLag = fanIn.getLagTracker("slow").percentile(null, 99);
+        Long fastLag = fanIn.getLagTracker("fast").percentile(null, 99);
+        assertNotNull(slowLag);
+        assertNotNull(fastLag);
+        assertTrue(slowLag < fastLag, "slow p99 lag " + slowLag + " fast p99 lag " + fastLag);
+    }
+
+    @Test
+    void downstreamFailureReleasesBlockedReader() {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        StreamReadFanIn fanIn = new StreamReadFanIn("failure")
+                .withDownstream(StreamReadConsumer.create((events, offset) -> {
+                    throw new IllegalStateException("downstream failed");
+                }))
+                .withExecutorService(executorService)
+                .withMaxQueuedEvents(20)
+                .start();
+        StreamReadConsumer connectionConsumer = fanIn.createStreamReadConsumer().connection("failing");
+        try {
+            //The reader is blocked by the full queue when the scheduler fails, it fails instead of waiting forever
+            CoreException coreException = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(CoreException.class, () -> {
+                for (long seq = 0; ; seq++) {
+                    Map<String, Object> after = new HashMap<>();
+                    after.put("seq", seq);
+                    connectionConsumer.accept(Collections.singletonList(insertRecordEvent(after, "failing")), String.valueOf(seq));
+                }
+            }));
+            assertEquals(PDKRunnerErrorCodes.SOURCE_STREAM_READ_FAN_IN_FAILED, coreException.getCode());
+            assertTrue(fanIn.getFailure() instanceof IllegalStateException);
+        } finally {
+            fanIn.stop();
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    void startedReportedByScheduler() throws Throwable {
+        ExecutorService executorService = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "scheduler"));
+        List<String> startedThreads = Collections.synchronizedList(new ArrayList<>());
+        StreamReadFanIn fanIn = new StreamReadFanIn("started")
+                .withDownstream(StreamReadConsumer.create((events, offset) -> {
+                }).stateListener((from, to) -> {
+                    if (to == StreamReadConsumer.STATE_STREAM_READ_STARTED)
+                        startedThreads.add(Thread.currentThread().getName());
+                }))
+                .withExecutorService(executorService)
+                .start();
+        StreamReadConsumer consumer = fanIn.createStreamReadConsumer();
+        consumer.streamReadStarted();
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread a = connection(consumer, "a", 10, 0, 10, running);
+        Thread b = connection(consumer, "b", 10, 0, 10, running);
+        a.join();
+        b.join();
+        assertTrue(fanIn.flush(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("scheduler"), startedThreads);
+        fanIn.stop();
+        executorService.shutdown();
+    }
+}
@@ -0,0 +1,98 @@
+package io.tapdata.pdk.core.utils.queue;
+
+import io.tapdata.entity.codec.TapCodecsRegistry;
+import io.tapdata.entity.codec.filter.TapCodecsFilterManager;
+import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.schema.TapField;
+import io.tapdata.entity.schema.value.TapBinaryValue;
+import io.tapdata.pdk.core.executor.ExecutorsManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.tapdata.entity.simplify.TapSimplify.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SingleThreadBlockingQueueBytesTest {
+    private static final int EVENTS = 2000;
+    private static final long MAX_BYTES = 4L * 1024 * 1024;
+    private static final byte[] SMALL = new byte[200];
+    private static final byte[] LARGE = new byte[512 * 1024];
+
+    private final TapCodecsFilterManager codecsFilterManager = TapCodecsFilterManager.create(TapCodecsRegistry.create());
+    private final Map<String, TapField> nameFieldMap = new LinkedHashMap<>();
+
+    {
+        nameFieldMap.put("id", field("id", "bigint").tapType(tapNumber()));
+        nameFieldMap.put("data", field("data", "blob").tapType(tapBinary()));
+    }
+
+    /**
+     * One of ten rows is 512KB, the others are 200 bytes.
+     */
+    private TapInsertRecordEvent event(int i) {
+        Map<String, Object> after = new LinkedHashMap<>();
+        after.put("id", 100000L + i);
+        after.put("data", i % 10 == 0 ? LARGE : SMALL);
+        TapInsertRecordEvent event = insertRecordEvent(after, "t");
+        codecsFilterManager.transformToTapValue(event, nameFieldMap);
+        return event;
+    }
+
+    @Test
+    void sizedInCodecTransform() {
+        TapInsertRecordEvent event = event(0);
+        assertTrue(event.getAfter().get("data") instanceof TapBinaryValue);
+        long transformed = event.getMemorySize();
+        assertTrue(transformed > LARGE.length && transformed < LARGE.length + 1024, "memory size " + transformed);
+
+        codecsFilterManager.transformFromTapValue(event, nameFieldMap);
+        assertTrue(event.getAfter().get("data") instanceof byte[]);
+        assertTrue(event.getMemorySize() < transformed);
+    }
+
+    @Test
+    void boundedByBytes() throws InterruptedException {
+        long countBoundedPeak = run(Long.MAX_VALUE);
+        long bytesBoundedPeak = run(MAX_BYTES);
+        assertTrue(bytesBoundedPeak <= MAX_BYTES + LARGE.length + 1024, "peak " + bytesBoundedPeak);
+        assertTrue(countBoundedPeak > bytesBoundedPeak * 5, "count bounded peak " + countBoundedPeak + " bytes bounded peak " + bytesBoundedPeak);
+    }
+
+    /**
+     * A slow consumer, returns the peak of queued bytes.
+     * The count bounded queue tracks the bytes with max bytes never reached.
+     */
+    private long run(long maxBytes) throws InterruptedException {
+        AtomicLong peak = new AtomicLong();
+        AtomicLong consumed = new AtomicLong();
+        CountDownLatch latch = new CountDownLatch(1);
+        SingleThreadBlockingQueue<TapEvent> queue = new SingleThreadBlockingQueue<TapEvent>("bytes")
+                .withMaxSize(500)
+                .withMaxBytes(maxBytes)
+                .withHandleSize(10)
+                .withExecutorService(ExecutorsManager.getInstance().getExecutorService())
+                .withHandler((List<TapEvent> list) -> {
+                    Thread.sleep(1);
+                    if (consumed.addAndGet(list.size()) >= EVENTS)
+                        latch.countDown();
+                })
+                .start();
+        for (int i = 0; i < EVENTS; i++) {
+            TapInsertRecordEvent event = event(i);
+            //Bytes queued after the event is offered
+            peak.accumulateAndGet(queue.queuedBytes() + event.getMemorySize(), Math::max);
+            queue.offer(event);
+        }
+        assertTrue(latch.await(60, TimeUnit.SECONDS));
+        assertEquals(0, queue.queuedBytes());
+        queue.stop();
+        return peak.get();
+    }
+}
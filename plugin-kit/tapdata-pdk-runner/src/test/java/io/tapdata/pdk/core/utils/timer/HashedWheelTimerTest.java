@@ -0,0 +1,149 @@
+package io.tapdata.pdk.core.utils.timer;
+
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.utils.DataMap;
+import io.tapdata.pdk.core.executor.ExecutorsManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashedWheelTimerTest {
+    private static final int TIMERS = 100000;
+
+    @Test
+    void hundredThousandTimers() throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        HashedWheelTimer timer = new HashedWheelTimer().withName("test").withTickDuration(10, TimeUnit.MILLISECONDS).withWheelSize(128).withDispatchExecutor(executorService);
+        try {
+            AtomicInteger fired = new AtomicInteger();
+            AtomicInteger early = new AtomicInteger();
+            AtomicInteger firedCancelled = new AtomicInteger();
+            CountDownLatch latch = new CountDownLatch(TIMERS - TIMERS / 10);
+            Timeout[] timeouts = new Timeout[TIMERS];
+
+            long time = System.nanoTime();
+            for (int i = 0; i < TIMERS; i++) {
+                //Up to 3 seconds, longer than a round of the wheel, the ones to cancel expire after the scheduling
+                boolean cancelled = i % 10 == 0;
+                long delay = cancelled ? 2000 + i % 1000 : i % 3000;
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+                timeouts[i] = timer.newTimeout(() -> {
+                    if (cancelled)
+                        firedCancelled.incrementAndGet();
+                    if (System.nanoTime() < deadline)
+                        early.incrementAndGet();
+                    fired.incrementAndGet();
+                    latch.countDown();
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+            long scheduleTakes = System.nanoTime() - time;
+            for (int i = 0; i < TIMERS; i += 10) {
+                assertTrue(timeouts[i].cancel());
+            }
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(scheduleTakes) < 5000, "scheduled in " + TimeUnit.NANOSECONDS.toMillis(scheduleTakes) + "ms");
+            assertEquals((long) TIMERS, timer.memory(null, MemoryFetcher.MEMORY_LEVEL_SUMMARY).get("scheduled"));
+
+            assertEquals(TIMERS - TIMERS / 10, fired.get());
+            assertEquals(0, firedCancelled.get());
+            assertEquals(0, early.get());
+            assertEquals(TIMERS - TIMERS / 10, timer.getExpiredCount());
+            assertEquals(TIMERS / 10, timer.getCancelledCount());
+            assertEquals(0, timer.getPendingCount());
+            assertFalse(timeouts[0].cancel());
+            assertTrue(timeouts[0].isCancelled());
+            assertTrue(timeouts[1].isExpired());
+            assertFalse(timeouts[1].cancel());
+            assertTrue(timer.getAverageJitterMillis() < 200, "average jitter " + timer.getAverageJitterMillis());
+        } finally {
+            timer.stop();
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void slowTaskNotDelayOthers() throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        HashedWheelTimer timer = new HashedWheelTimer().withName("slow").withDispatchExecutor(executorService);
+        try {
+            CountDownLatch slowStarted = new CountDownLatch(1);
+            timer.newTimeout(() -> {
+                slowStarted.countDown();
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException ignored) {
+                }
+            }, 0, TimeUnit.MILLISECONDS);
+            assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+
+            AtomicLong maxLate = new AtomicLong();
+            CountDownLatch latch = new CountDownLatch(10);
+            for (int i = 0; i < 10; i++) {
+                long delay = 50L * i;
+                long deadline = System.currentTimeMillis() + delay;
+                timer.newTimeout(() -> {
+                    maxLate.accumulateAndGet(System.currentTimeMillis() - deadline, Math::max);
+                    latch.countDown();
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+            assertTrue(latch.await(1500, TimeUnit.MILLISECONDS), "late " + maxLate.get());
+            assertTrue(timer.stop() >= 0);
+            assertThrows(RuntimeException.class, () -> timer.newTimeout(() -> {
+            }, 0, TimeUnit.MILLISECONDS));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void noDelayNotWaitForTick() throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(1);
+        HashedWheelTimer timer = new HashedWheelTimer().withName("immediate").withTickDuration(1, TimeUnit.SECONDS).withDispatchExecutor(executorService);
+        try {
+            CountDownLatch latch = new CountDownLatch(1);
+            Timeout timeout = timer.newTimeout(latch::countDown, 0, TimeUnit.MILLISECONDS);
+            assertTrue(latch.await(500, TimeUnit.MILLISECONDS));
+            assertTrue(timeout.isExpired());
+            assertFalse(timeout.cancel());
+            assertEquals(1, timer.getExpiredCount());
+            assertEquals(0, timer.getPendingCount());
+        } finally {
+            timer.stop();
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void accurateTickTimerAndLimiter() throws InterruptedException {
+        AtomicInteger ticks = new AtomicInteger();
+        CountDownLatch finished = new CountDownLatch(1);
+        AccurateTickTimer tickTimer = new AccurateTickTimer("test", 20, ticks::incrementAndGet);
+        tickTimer.setFinishListener(finished::countDown);
+        tickTimer.start();
+        Thread.sleep(500);
+        tickTimer.stop();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertTrue(ticks.get() >= 10, "ticks " + ticks.get());
+
+        AtomicInteger actions = new AtomicInteger();
+        MaxFrequencyLimiter limiter = new MaxFrequencyLimiter(100, actions::incrementAndGet);
+        long time = System.currentTimeMillis();
+        while (System.currentTimeMillis() - time < 550) {
+            limiter.touch();
+            Thread.sleep(1);
+        }
+        Thread.sleep(300);
+        limiter.stop();
+        assertTrue(actions.get() >= 4 && actions.get() <= 8, "actions " + actions.get());
+
+        DataMap memory = ExecutorsManager.getInstance().getHashedWheelTimer().memory(null, MemoryFetcher.MEMORY_LEVEL_SUMMARY);
+        assertTrue((Long) memory.get("expired") > 0, memory.toString());
+    }
+}
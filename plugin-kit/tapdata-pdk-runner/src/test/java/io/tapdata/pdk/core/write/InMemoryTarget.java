@@ -0,0 +1,110 @@
+package io.tapdata.pdk.core.write;
+
+import io.tapdata.entity.event.dml.TapDeleteRecordEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.event.dml.TapRecordEvent;
+import io.tapdata.entity.event.dml.TapUpdateRecordEvent;
+import io.tapdata.entity.schema.TapTable;
+import io.tapdata.pdk.apis.context.TapConnectorContext;
+import io.tapdata.pdk.apis.entity.FilterResult;
+import io.tapdata.pdk.apis.entity.TapFilter;
+import io.tapdata.pdk.apis.entity.WriteListResult;
+import io.tapdata.pdk.apis.functions.connector.target.QueryByFilterFunction;
+import io.tapdata.pdk.apis.functions.connector.target.WriteRecordFunction;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Target without upsert, rows by primary key values in memory, counting the calls.
+ * Inserting an existing key, updating a missing key or changing the key to an existing one is an error, like the databases do.
+ */
+public class InMemoryTarget implements QueryByFilterFunction, WriteRecordFunction {
+    final Map<List<Object>, Map<String, Object>> rows = new HashMap<>();
+    final AtomicLong queryCalls = new AtomicLong();
+    final AtomicLong queriedFilters = new AtomicLong();
+    final AtomicLong writeCalls = new AtomicLong();
+    final AtomicLong writtenEvents = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    long queryLatencyMillis;
+    long writeLatencyMillis;
+
+    static List<Object> key(Map<String, Object> values, Collection<String> primaryKeys) {
+        List<Object> key = new ArrayList<>();
+        for (String primaryKey : primaryKeys) {
+            key.add(values.get(primaryKey));
+        }
+        return key;
+    }
+
+    @Override
+    public void query(TapConnectorContext nodeContext, List<TapFilter> filters, TapTable table, Consumer<List<FilterResult>> consumer) throws Throwable {
+        queryCalls.incrementAndGet();
+        queriedFilters.addAndGet(filters.size());
+        sleep(queryLatencyMillis);
+        List<FilterResult> results = new ArrayList<>();
+        synchronized (rows) {
+            for (TapFilter filter : filters) {
+                Map<String, Object> row = rows.get(key(filter.getMatch(), table.primaryKeys(true)));
+                results.add(new FilterResult().filter(filter).result(row != null ? new HashMap<>(row) : null));
+            }
+        }
+        consumer.accept(results);
+    }
+
+    @Override
+    public void writeRecord(TapConnectorContext connectorContext, List<TapRecordEvent> recordEvents, TapTable table, Consumer<WriteListResult<TapRecordEvent>> consumer) throws Throwable {
+        writeCalls.incrementAndGet();
+        writtenEvents.addAndGet(recordEvents.size());
+        sleep(writeLatencyMillis);
+        WriteListResult<TapRecordEvent> result = new WriteListResult<>();
+        Collection<String> primaryKeys = table.primaryKeys(true);
+        synchronized (rows) {
+            for (TapRecordEvent recordEvent : recordEvents) {
+                if (!apply(recordEvent, primaryKeys)) {
+                    errors.incrementAndGet();
+                    result.addError(recordEvent, new IllegalStateException("Duplicated or missing key " + recordEvent));
+                }
+            }
+        }
+        consumer.accept(result);
+    }
+
+    /**
+     * @return false for inserting an existing key, updating a missing key or changing the key to an existing one
+     */
+    boolean apply(TapRecordEvent recordEvent, Collection<String> primaryKeys) {
+        if (recordEvent instanceof TapInsertRecordEvent) {
+            Map<String, Object> after = ((TapInsertRecordEvent) recordEvent).getAfter();
+            return rows.putIfAbsent(key(after, primaryKeys), new HashMap<>(after)) == null;
+        } else if (recordEvent instanceof TapUpdateRecordEvent) {
+            TapUpdateRecordEvent updateRecordEvent = (TapUpdateRecordEvent) recordEvent;
+            Map<String, Object> before = updateRecordEvent.getBefore();
+            List<Object> key = key(before != null ? before : updateRecordEvent.getFilter(primaryKeys), primaryKeys);
+            Map<String, Object> row = rows.get(key);
+            if (row == null)
+                return false;
+            Map<String, Object> updated = Boolean.TRUE.equals(updateRecordEvent.getIsReplaceEvent()) ? new HashMap<>() : new HashMap<>(row);
+            updated.putAll(updateRecordEvent.getAfter());
+            //The row moves to the new key if the update changes the primary key values
+            List<Object> updatedKey = key(updated, primaryKeys);
+            if (!updatedKey.equals(key)) {
+                if (rows.containsKey(updatedKey))
+                    return false;
+                rows.remove(key);
+            }
+            rows.put(updatedKey, updated);
+            return true;
+        } else if (recordEvent instanceof TapDeleteRecordEvent) {
+            rows.remove(key(((TapDeleteRecordEvent) recordEvent).getBefore(), primaryKeys));
+            return true;
+        }
+        return false;
+    }
+
+    private static void sleep(long millis) throws InterruptedException {
+        if (millis > 0)
+            Thread.sleep(millis);
+    }
+}
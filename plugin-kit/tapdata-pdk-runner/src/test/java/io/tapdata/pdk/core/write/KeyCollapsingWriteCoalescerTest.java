@@ -0,0 +1,206 @@
+package io.tapdata.pdk.core.write;
+
+import io.tapdata.entity.event.dml.TapDeleteRecordEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.event.dml.TapRecordEvent;
+import io.tapdata.entity.event.dml.TapUpdateRecordEvent;
+import io.tapdata.entity.schema.TapTable;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.tapdata.entity.simplify.TapSimplify.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyCollapsingWriteCoalescerTest {
+    private static final String[] COLUMNS = {"a", "b", "c"};
+    private final TapTable table = table("t").add(field("id", "bigint").primaryKeyPos(1)).add(field("tenant", "varchar").primaryKeyPos(2))
+            .add(field("a", "varchar")).add(field("b", "varchar")).add(field("c", "varchar"));
+
+    private static Map<String, Object> key(long id) {
+        Map<String, Object> key = new LinkedHashMap<>();
+        key.put("id", id);
+        key.put("tenant", "tenant" + id % 3);
+        return key;
+    }
+
+    private static Map<String, Object> partial(long id) {
+        Map<String, Object> partial = new LinkedHashMap<>(key(id));
+        partial.put("b", "b2");
+        return partial;
+    }
+
+    /**
+     * A valid CDC stream by the rows of the model, inserts of missing rows, updates and deletes of existing rows.
+     * Updates are partial or replace, some of them change the primary key values to a missing key.
+     */
+    private static TapRecordEvent nextEvent(Random random, Map<List<Object>, Map<String, Object>> model, int keys) {
+        long id = random.nextInt(3) == 0 ? random.nextInt(10) : random.nextInt(keys);
+        Map<String, Object> key = key(id);
+        List<Object> modelKey = new ArrayList<>(key.values());
+        Map<String, Object> row = model.get(modelKey);
+        String value = "v" + random.nextInt(1000000);
+        if (row == null) {
+            Map<String, Object> after = new LinkedHashMap<>(key);
+            for (String column : COLUMNS) {
+                if (random.nextBoolean())
+                    after.put(column, column + value);
+            }
+            model.put(modelKey, new HashMap<>(after));
+            return insertRecordEvent(after, "t");
+        }
+        if (random.nextInt(30) == 0) {
+            Map<String, Object> newKey = key(random.nextInt(keys));
+            List<Object> newModelKey = new ArrayList<>(newKey.values());
+            if (!model.containsKey(newModelKey)) {
+                Map<String, Object> after = new LinkedHashMap<>(newKey);
+                after.put(COLUMNS[random.nextInt(COLUMNS.length)], value);
+                model.remove(modelKey);
+                row.putAll(after);
+                model.put(newModelKey, row);
+                return updateDMLEvent(key, after, "t");
+            }
+        }
+        int type = random.nextInt(10);
+        if (type < 6) {
+            Map<String, Object> after = new LinkedHashMap<>(key);
+            after.put(COLUMNS[random.nextInt(COLUMNS.length)], value);
+            row.putAll(after);
+            return updateDMLEvent(key, after, "t");
+        } else if (type < 8) {
+            Map<String, Object> after = new LinkedHashMap<>(key);
+            after.put("c", value);
+            row.clear();
+            row.putAll(after);
+            TapUpdateRecordEvent updateRecordEvent = updateDMLEvent(key, after, "t");
+            updateRecordEvent.setIsReplaceEvent(true);
+            return updateRecordEvent;
+        }
+        model.remove(modelKey);
+        return deleteDMLEvent(key, "t");
+    }
+
+    @Test
+    void randomizedDifferential() throws Throwable {
+        for (int seed = 0; seed < 5; seed++) {
+            Random random = new Random(seed);
+            Map<List<Object>, Map<String, Object>> model = new HashMap<>();
+            InMemoryTarget expected = new InMemoryTarget();
+            InMemoryTarget target = new InMemoryTarget();
+            KeyCollapsingWriteCoalescer coalescer = new KeyCollapsingWriteCoalescer(target);
+            AtomicLong merged = new AtomicLong();
+            long events = 0;
+            for (int b = 0; b < 300; b++) {
+                List<TapRecordEvent> batch = new ArrayList<>();
+                int size = 1 + random.nextInt(300);
+                for (int i = 0; i < size; i++) {
+                    batch.add(nextEvent(random, model, 200));
+                }
+                events += size;
+                List<TapRecordEvent> copies = new ArrayList<>();
+                for (TapRecordEvent event : batch) {
+                    copies.add((TapRecordEvent) event.clone());
+                }
+                expected.writeRecord(null, batch, table, result -> assertEquals(0, result.getMergedCount()));
+                coalescer.writeRecord(null, copies, table, result -> merged.addAndGet(result.getMergedCount()));
+                //The events are not changed by collapsing
+                for (int i = 0; i < batch.size(); i++) {
+                    assertEquals(batch.get(i).toString(), copies.get(i).toString());
+                }
+            }
+            assertEquals(0, expected.errors.get());
+            assertEquals(0, target.errors.get(), "seed " + seed);
+            assertEquals(expected.rows, target.rows, "seed " + seed);
+            assertEquals(events - target.writtenEvents.get(), merged.get());
+            assertEquals(merged.get(), coalescer.getMergedCount());
+            assertTrue(merged.get() > events / 4, "merged " + merged + " of " + events);
+        }
+    }
+
+    @Test
+    void collapseSequences() {
+        Map<String, Object> key = key(1);
+        Map<String, Object> full = new LinkedHashMap<>(key);
+        full.put("a", "a1");
+        full.put("b", "b1");
+        Map<String, Object> partial = partial(1);
+        Collection<String> primaryKeys = table.primaryKeys(true);
+
+        //Insert then update is an insert with the merged after
+        List<TapRecordEvent> events = KeyCollapsingWriteCoalescer.collapse(Arrays.asList(insertRecordEvent(full, "t"), updateDMLEvent(key, partial, "t").referenceTime(100L)), primaryKeys);
+        assertEquals(1, events.size());
+        TapInsertRecordEvent insertRecordEvent = (TapInsertRecordEvent) events.get(0);
+        assertEquals("a1", insertRecordEvent.getAfter().get("a"));
+        assertEquals("b2", insertRecordEvent.getAfter().get("b"));
+        assertEquals(100L, insertRecordEvent.getReferenceTime());
+        assertEquals("b1", full.get("b"));
+
+        //Delete then insert is a replace update
+        events = KeyCollapsingWriteCoalescer.collapse(Arrays.asList(deleteDMLEvent(key, "t"), insertRecordEvent(full, "t"), updateDMLEvent(key, partial, "t")), primaryKeys);
+        assertEquals(1, events.size());
+        TapUpdateRecordEvent updateRecordEvent = (TapUpdateRecordEvent) events.get(0);
+        assertTrue(updateRecordEvent.getIsReplaceEvent());
+        assertEquals("b2", updateRecordEvent.getAfter().get("b"));
+
+        //Partial updates stay partial
+        events = KeyCollapsingWriteCoalescer.collapse(Arrays.asList(updateDMLEvent(key, partial, "t"), updateDMLEvent(key, full, "t")), primaryKeys);
+        assertEquals(1, events.size());
+        assertFalse(((TapUpdateRecordEvent) events.get(0)).getIsReplaceEvent());
+
+        //Insert then delete leaves the delete at the position of the insert, before the other key
+        TapRecordEvent other = insertRecordEvent(key(2), "t");
+        events = KeyCollapsingWriteCoalescer.collapse(Arrays.asList(insertRecordEvent(full, "t"), other, updateDMLEvent(key, partial, "t"), deleteDMLEvent(key, "t")), primaryKeys);
+        assertEquals(2, events.size());
+        assertTrue(events.get(0) instanceof TapDeleteRecordEvent);
+        assertSame(other, events.get(1));
+
+        //Update changing the key is a barrier, the update of the old key and the delete of the new key stay before it
+        Map<String, Object> moved = new LinkedHashMap<>(key(2));
+        moved.put("a", "moved");
+        events = KeyCollapsingWriteCoalescer.collapse(Arrays.asList(updateDMLEvent(key, partial, "t"), deleteDMLEvent(key(2), "t"), updateDMLEvent(key, moved, "t"),
+                insertRecordEvent(key, "t"), updateDMLEvent(key(2), partial(2), "t"), updateDMLEvent(key, partial, "t")), primaryKeys);
+        assertEquals(5, events.size());
+        assertTrue(events.get(1) instanceof TapDeleteRecordEvent);
+        assertEquals("moved", ((TapUpdateRecordEvent) events.get(2)).getAfter().get("a"));
+        assertTrue(events.get(3) instanceof TapInsertRecordEvent);
+        assertEquals("b2", ((TapInsertRecordEvent) events.get(3)).getAfter().get("b"));
+        assertEquals(key(2).get("id"), ((TapUpdateRecordEvent) events.get(4)).getBefore().get("id"));
+
+        //Insert on an existing row is not collapsed
+        List<TapRecordEvent> invalid = Arrays.asList(insertRecordEvent(full, "t"), insertRecordEvent(full, "t"));
+        assertSame(invalid, KeyCollapsingWriteCoalescer.collapse(invalid, primaryKeys));
+    }
+
+    @Test
+    void primaryKeyIndex() {
+        PrimaryKeyIndex index = new PrimaryKeyIndex(4);
+        for (int i = 0; i < 10000; i++) {
+            index.put(new Object[]{(long) i, new byte[]{(byte) i, (byte) (i >> 8)}}, i);
+        }
+        assertEquals(10000, index.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, index.get(new Object[]{(long) i, new byte[]{(byte) i, (byte) (i >> 8)}}));
+        }
+        assertEquals(-1, index.get(new Object[]{1L, new byte[]{2, 0}}));
+        index.put(new Object[]{1L, new byte[]{1, 0}}, 5);
+        assertEquals(5, index.get(new Object[]{1L, new byte[]{1, 0}}));
+        assertEquals(10000, index.size());
+        index.clear(10);
+        assertEquals(0, index.size());
+        assertEquals(-1, index.get(new Object[]{1L, new byte[]{1, 0}}));
+
+        //Clearing within the capacity keeps the arrays and clears the used slots only
+        index = new PrimaryKeyIndex(1000);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++) {
+                index.put(new Object[]{(long) (round * 100 + i)}, i);
+            }
+            assertEquals(100, index.size());
+            assertEquals(-1, index.get(new Object[]{(long) (round * 100 - 1)}));
+            assertEquals(99, index.get(new Object[]{(long) (round * 100 + 99)}));
+            index.clear(1000);
+            assertEquals(0, index.size());
+        }
+    }
+}
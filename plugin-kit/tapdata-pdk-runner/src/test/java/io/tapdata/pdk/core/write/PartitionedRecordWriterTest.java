@@ -0,0 +1,241 @@
+package io.tapdata.pdk.core.write;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.event.TapEvent;
+import io.tapdata.entity.event.ddl.TapDDLEvent;
+import io.tapdata.entity.event.ddl.table.TapNewFieldEvent;
+import io.tapdata.entity.event.dml.TapDeleteRecordEvent;
+import io.tapdata.entity.event.dml.TapInsertRecordEvent;
+import io.tapdata.entity.event.dml.TapRecordEvent;
+import io.tapdata.entity.event.dml.TapUpdateRecordEvent;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.schema.TapTable;
+import io.tapdata.pdk.apis.context.TapConnectorContext;
+import io.tapdata.pdk.apis.entity.WriteListResult;
+import io.tapdata.pdk.apis.functions.connector.target.TransactionBeginFunction;
+import io.tapdata.pdk.apis.functions.connector.target.TransactionCommitFunction;
+import io.tapdata.pdk.apis.functions.connector.target.WriteRecordFunction;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static io.tapdata.entity.simplify.TapSimplify.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionedRecordWriterTest {
+    private final TapTable table = table("t").add(field("id", "bigint").primaryKeyPos(1)).add(field("seq", "bigint")).add(field("value", "varchar"));
+
+    /**
+     * Multi-threaded target checking the order, the sequence of the events on each key must be increasing.
+     * Writes in a transaction must be on the thread which begins it without other writes in flight.
+     */
+    static class OrderCheckingTarget implements WriteRecordFunction, TransactionBeginFunction, TransactionCommitFunction {
+        final Map<Object, Long> keySeqMap = new ConcurrentHashMap<>();
+        final AtomicLong writtenEvents = new AtomicLong();
+        final AtomicLong orderViolations = new AtomicLong();
+        final AtomicLong transactionViolations = new AtomicLong();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        volatile Thread transactionThread;
+        long writeLatencyMillis = 2;
+        long failAtEvents = -1;
+
+        @Override
+        public void writeRecord(TapConnectorContext connectorContext, List<TapRecordEvent> recordEvents, TapTable table, Consumer<WriteListResult<TapRecordEvent>> consumer) throws Throwable {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+                if (transactionThread != null && (transactionThread != Thread.currentThread() || current != 1))
+                    transactionViolations.incrementAndGet();
+                Thread.sleep(writeLatencyMillis);
+                if (failAtEvents >= 0 && writtenEvents.get() >= failAtEvents)
+                    throw new IllegalStateException("Target failed");
+                WriteListResult<TapRecordEvent> result = new WriteListResult<>();
+                for (TapRecordEvent recordEvent : recordEvents) {
+                    Map<String, Object> values;
+                    if (recordEvent instanceof TapInsertRecordEvent) {
+                        values = ((TapInsertRecordEvent) recordEvent).getAfter();
+                        result.incrementInserted(1);
+                    } else if (recordEvent instanceof TapUpdateRecordEvent) {
+                        TapUpdateRecordEvent updateRecordEvent = (TapUpdateRecordEvent) recordEvent;
+                        values = updateRecordEvent.getAfter();
+                        //The old key is updated too
+                        check(updateRecordEvent.getBefore().get("id"), (Long) values.get("seq"));
+                        result.incrementModified(1);
+                    } else {
+                        values = ((TapDeleteRecordEvent) recordEvent).getBefore();
+                        result.incrementRemove(1);
+                    }
+                    check(values.get("id"), (Long) values.get("seq"));
+                }
+                writtenEvents.addAndGet(recordEvents.size());
+                consumer.accept(result);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private void check(Object key, long seq) {
+            Long previous = keySeqMap.put(key, seq);
+            if (previous != null && previous > seq)
+                orderViolations.incrementAndGet();
+        }
+
+        @Override
+        public void begin(TapConnectorContext connectorContext) {
+            transactionThread = Thread.currentThread();
+        }
+
+        @Override
+        public void commit(TapConnectorContext connectorContext) {
+            transactionThread = null;
+        }
+    }
+
+    private static Map<String, Object> row(long id, long seq) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", id);
+        row.put("seq", seq);
+        row.put("value", "v" + seq);
+        return row;
+    }
+
+    @Test
+    void orderingVerification() throws Throwable {
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        OrderCheckingTarget target = new OrderCheckingTarget();
+        //Record events written before each DDL event
+        Map<TapDDLEvent, Long> ddlPositionMap = new IdentityHashMap<>();
+        AtomicLong ddlViolations = new AtomicLong();
+        AtomicLong resultEvents = new AtomicLong();
+        AtomicLong resultErrors = new AtomicLong();
+        PartitionedRecordWriter writer = new PartitionedRecordWriter("test")
+                .withTable(table)
+                .withWriteRecordFunction(target)
+                .withTransactionBeginFunction(target)
+                .withTransactionCommitFunction(target)
+                .withExecutorService(executorService)
+                .withLanes(4)
+                .withDDLEventHandler(ddlEvents -> {
+                    if (target.inFlight.get() != 0 || target.writtenEvents.get() != ddlPositionMap.get(ddlEvents.get(0)))
+                        ddlViolations.incrementAndGet();
+                })
+                .withResultConsumer(result -> {
+                    resultEvents.addAndGet(result.getInsertedCount() + result.getModifiedCount() + result.getRemovedCount());
+                    if (result.getErrorMap() != null)
+                        resultErrors.addAndGet(result.getErrorMap().size());
+                })
+                .start();
+
+        Random random = new Random(7);
+        long seq = 0;
+        long recordEvents = 0;
+        for (int b = 0; b < 200; b++) {
+            List<TapEvent> events = new ArrayList<>();
+            int size = 1 + random.nextInt(400);
+            for (int i = 0; i < size; i++) {
+                seq++;
+                //Hot keys
+                long id = random.nextInt(4) == 0 ? random.nextInt(8) : random.nextInt(1000);
+                int type = random.nextInt(100);
+                if (type < 30) {
+                    events.add(insertRecordEvent(row(id, seq), "t"));
+                } else if (type < 80) {
+                    events.add(updateDMLEvent(row(id, seq), row(id, seq), "t"));
+                } else if (type < 98) {
+                    events.add(deleteDMLEvent(row(id, seq), "t"));
+                } else if (type < 99) {
+                    //Primary key changed
+                    events.add(updateDMLEvent(row(id, seq), row(random.nextInt(1000), seq), "t"));
+                } else {
+                    TapNewFieldEvent newFieldEvent = new TapNewFieldEvent().field(field("f" + seq, "varchar"));
+                    ddlPositionMap.put(newFieldEvent, recordEvents);
+                    events.add(newFieldEvent);
+                    continue;
+                }
+                recordEvents++;
+            }
+            boolean transaction = b % 20 == 10;
+            if (transaction)
+                writer.beginTransaction();
+            writer.write(events);
+            if (transaction)
+                writer.commitTransaction();
+        }
+        assertTrue(writer.flush(60, TimeUnit.SECONDS));
+        assertNotNull(writer.memory(null, MemoryFetcher.MEMORY_LEVEL_SUMMARY));
+        writer.stop();
+        executorService.shutdown();
+
+        assertEquals(0, target.orderViolations.get());
+        assertEquals(0, target.transactionViolations.get());
+        assertEquals(0, ddlViolations.get());
+        assertFalse(ddlPositionMap.isEmpty());
+        assertEquals(recordEvents, target.writtenEvents.get());
+        assertEquals(recordEvents, resultEvents.get());
+        assertEquals(0, resultErrors.get());
+        assertTrue(target.maxInFlight.get() > 1, "max in flight " + target.maxInFlight);
+        assertTrue(writer.getSerialEventCount() > 0);
+        assertTrue(writer.getParallelSegmentCount() > 0);
+    }
+
+    @Test
+    void failedLaneStopsWrites() throws Throwable {
+        OrderCheckingTarget target = new OrderCheckingTarget();
+        target.failAtEvents = 0;
+        AtomicLong errors = new AtomicLong();
+        PartitionedRecordWriter writer = new PartitionedRecordWriter("failed")
+                .withTable(table)
+                .withWriteRecordFunction(target)
+                .withErrorConsumer(throwable -> errors.incrementAndGet())
+                .start();
+        writer.write(Arrays.asList(insertRecordEvent(row(1, 1), "t"), insertRecordEvent(row(2, 2), "t")));
+        assertTrue(writer.flush(10, TimeUnit.SECONDS));
+        assertTrue(errors.get() > 0);
+        CoreException coreException = assertThrows(CoreException.class, () -> writer.write(Collections.singletonList(insertRecordEvent(row(3, 3), "t"))));
+        assertEquals(io.tapdata.pdk.core.error.PDKRunnerErrorCodes.TARGET_PARTITIONED_WRITE_FAILED, coreException.getCode());
+        writer.stop();
+    }
+
+    @Test
+    void queuedBatchesSkippedAfterFailure() throws Throwable {
+        CountDownLatch failLatch = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        Map<TapRecordEvent, Throwable> errorMap = new ConcurrentHashMap<>();
+        PartitionedRecordWriter writer = new PartitionedRecordWriter("skipped")
+                .withTable(table)
+                .withLanes(1)
+                .withWriteRecordFunction((connectorContext, recordEvents, table, consumer) -> {
+                    calls.incrementAndGet();
+                    failLatch.await();
+                    throw new IllegalStateException("Target failed");
+                })
+                .withResultConsumer(result -> {
+                    if (result.getErrorMap() != null)
+                        errorMap.putAll(result.getErrorMap());
+                })
+                .start();
+        writer.write(Collections.singletonList(insertRecordEvent(row(1, 1), "t")));
+        while (calls.get() == 0) {
+            Thread.sleep(1);
+        }
+        //The first batch is being written, the others are queued in the lane
+        for (long seq = 2; seq <= 3; seq++) {
+            writer.write(Collections.singletonList(insertRecordEvent(row(1, seq), "t")));
+        }
+        failLatch.countDown();
+        assertTrue(writer.flush(10, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals(3, errorMap.size());
+        assertEquals(2L, writer.memory(null, null).get("skipped"));
+        writer.stop();
+    }
+}
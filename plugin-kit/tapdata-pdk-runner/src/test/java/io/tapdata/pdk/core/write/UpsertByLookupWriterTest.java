@@ -0,0 +1,144 @@
+package io.tapdata.pdk.core.write;
+
+import io.tapdata.entity.event.dml.TapRecordEvent;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.event.dml.TapUpdateRecordEvent;
+import io.tapdata.entity.schema.TapTable;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.tapdata.entity.simplify.TapSimplify.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UpsertByLookupWriterTest {
+    private final TapTable table = table("t").add(field("id", "bigint").primaryKeyPos(1)).add(field("value", "varchar"));
+
+    private static Map<String, Object> row(long id, Object value) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", id);
+        row.put("value", value);
+        return row;
+    }
+
+    private static Map<String, Object> key(long id) {
+        Map<String, Object> key = new LinkedHashMap<>();
+        key.put("id", id);
+        return key;
+    }
+
+    private UpsertByLookupWriter writer(InMemoryTarget target, int lookupWindowSize, AtomicLong resultErrors) {
+        return new UpsertByLookupWriter("test")
+                .withTable(table)
+                .withQueryByFilterFunction(target)
+                .withWriteRecordFunction(target)
+                .withLookupWindowSize(lookupWindowSize)
+                .withResultConsumer(result -> {
+                    if (result.getErrorMap() != null)
+                        resultErrors.addAndGet(result.getErrorMap().size());
+                })
+                .start();
+    }
+
+    @Test
+    void randomUpsertsCoalesced() throws InterruptedException {
+        int keys = 1000, batches = 200, batchSize = 100;
+        InMemoryTarget target = new InMemoryTarget();
+        Map<List<Object>, Map<String, Object>> expected = new HashMap<>();
+        for (long id = 0; id < keys / 2; id++) {
+            target.rows.put(Collections.singletonList(id), row(id, "init"));
+            expected.put(Collections.singletonList(id), row(id, "init"));
+        }
+        AtomicLong resultErrors = new AtomicLong();
+        UpsertByLookupWriter writer = writer(target, 500, resultErrors);
+
+        Random random = new Random(42);
+        for (int b = 0; b < batches; b++) {
+            List<TapRecordEvent> batch = new ArrayList<>();
+            for (int i = 0; i < batchSize; i++) {
+                //Hot keys are updated often
+                long id = random.nextInt(4) == 0 ? random.nextInt(20) : random.nextInt(keys);
+                String value = "v" + b + "_" + i;
+                int type = random.nextInt(10);
+                if (type < 4) {
+                    batch.add(insertRecordEvent(row(id, value), "t"));
+                    expected.put(Collections.singletonList(id), row(id, value));
+                } else if (type < 9) {
+                    batch.add(updateDMLEvent(key(id), row(id, value), "t"));
+                    expected.put(Collections.singletonList(id), row(id, value));
+                } else {
+                    batch.add(deleteDMLEvent(key(id), "t"));
+                    expected.remove(Collections.singletonList(id));
+                }
+            }
+            writer.write(batch);
+        }
+        assertTrue(writer.flush(60, TimeUnit.SECONDS));
+        writer.stop();
+        assertNotNull(writer.memory(null, MemoryFetcher.MEMORY_LEVEL_SUMMARY));
+
+        assertEquals(0, target.errors.get());
+        assertEquals(0, resultErrors.get());
+        assertEquals(batches * batchSize, target.writtenEvents.get());
+        assertEquals(expected, target.rows);
+        //One query for each batch and each key without the writer
+        assertTrue(target.queryCalls.get() < batches / 2, "query calls " + target.queryCalls);
+        assertTrue(target.queriedFilters.get() < batches * batchSize / 4, "queried filters " + target.queriedFilters);
+        assertTrue(writer.getCachedKeyCount() > 0);
+    }
+
+    @Test
+    void lookupPipelinedWithWrite() throws InterruptedException {
+        InMemoryTarget target = new InMemoryTarget();
+        target.queryLatencyMillis = 100;
+        target.writeLatencyMillis = 100;
+        UpsertByLookupWriter writer = writer(target, 100, new AtomicLong());
+        long time = System.currentTimeMillis();
+        for (int b = 0; b < 10; b++) {
+            List<TapRecordEvent> batch = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                long id = b * 100L + i;
+                batch.add(insertRecordEvent(row(id, "v"), "t"));
+            }
+            writer.write(batch);
+        }
+        assertTrue(writer.flush(30, TimeUnit.SECONDS));
+        long takes = System.currentTimeMillis() - time;
+        writer.stop();
+        assertEquals(1000, target.rows.size());
+        assertEquals(10, target.queryCalls.get());
+        //2000ms if serial
+        assertTrue(takes < 1700, "takes " + takes);
+    }
+
+    @Test
+    void deleteInvalidatesCache() throws InterruptedException {
+        InMemoryTarget target = new InMemoryTarget();
+        UpsertByLookupWriter writer = writer(target, 10, new AtomicLong());
+        writer.write(Collections.singletonList(insertRecordEvent(row(1, "a"), "t")));
+        assertTrue(writer.flush(10, TimeUnit.SECONDS));
+        assertEquals(1, target.queryCalls.get());
+        assertEquals(1, writer.getExistenceKeyCache().size("t"));
+
+        //Existing by the cache, the insert becomes a replace update without lookup
+        writer.write(Collections.singletonList(insertRecordEvent(row(1, "b"), "t")));
+        assertTrue(writer.flush(10, TimeUnit.SECONDS));
+        assertEquals(1, target.queryCalls.get());
+        assertEquals("b", target.rows.get(Collections.singletonList(1L)).get("value"));
+
+        //Deleted first in the window, known missing, the update becomes an insert
+        TapUpdateRecordEvent update = updateDMLEvent(key(1), row(1, "c"), "t");
+        writer.write(Arrays.asList(deleteDMLEvent(key(1), "t"), update));
+        assertTrue(writer.flush(10, TimeUnit.SECONDS));
+        assertEquals(1, target.queryCalls.get());
+        assertEquals(0, target.errors.get());
+        assertEquals("c", target.rows.get(Collections.singletonList(1L)).get("value"));
+
+        writer.write(Collections.singletonList(deleteDMLEvent(key(1), "t")));
+        assertTrue(writer.flush(10, TimeUnit.SECONDS));
+        assertEquals(0, writer.getExistenceKeyCache().size("t"));
+        writer.stop();
+    }
+}
@@ -12,6 +12,7 @@ import io.tapdata.modules.api.net.service.node.NodeRegistryService;
 import io.tapdata.modules.api.net.service.node.connection.NodeConnection;
 import io.tapdata.modules.api.net.service.node.connection.NodeConnectionFactory;
 import io.tapdata.modules.api.net.service.node.connection.Receiver;
+import io.tapdata.pdk.core.utils.CommonUtils;
 import io.tapdata.wsserver.channels.health.NodeHandler;
 import io.tapdata.wsserver.channels.health.NodeHealthManager;
 
@@ -29,6 +30,10 @@ public class NodeConnectionFactoryHttpImpl implements NodeConnectionFactory {
 	private final Map<String, NodeConnection> nodeIdConnectionMap = new ConcurrentHashMap<>();
 
 	private final Set<String> disconnectedNodeIds = new ConcurrentSkipListSet<>();
+	private final boolean pooledHttp = CommonUtils.getPropertyBool("tapdata_proxy_http_pooled", false);
+	private final boolean batchPost = CommonUtils.getPropertyBool("tapdata_proxy_http_batch_post", false);
+	private final int maxInFlight = CommonUtils.getPropertyInt("tapdata_proxy_http_max_in_flight", 16);
+	private volatile PooledHttpTransport pooledHttpTransport;
 	@Bean
 	private NodeRegistryService nodeRegistryService;
 	@Bean
@@ -42,7 +47,7 @@ public class NodeConnectionFactoryHttpImpl implements NodeConnectionFactory {
 		if(connection != null)
 			return connection;
 		return nodeIdConnectionMap.computeIfAbsent(nodeId, nodeId1 -> {
-			NodeConnection nodeConnection = new NodeConnectionHttpImpl();
+			NodeConnection nodeConnection = pooledHttp ? new NodeConnectionPooledHttpImpl(getPooledHttpTransport(), batchPost, maxInFlight) : new NodeConnectionHttpImpl();
 			NodeHandler nodeHandler = nodeHealthManager.getAliveNode(nodeId1);
 			NodeRegistry theNodeRegistry = null;
 			if(nodeHandler == null || nodeHandler.getNodeRegistry() == null) {
@@ -66,6 +71,21 @@ public class NodeConnectionFactoryHttpImpl implements NodeConnectionFactory {
 		});
 	}
 
+	private PooledHttpTransport getPooledHttpTransport() {
+		if(pooledHttpTransport == null) {
+			synchronized (this) {
+				if(pooledHttpTransport == null) {
+					pooledHttpTransport = new PooledHttpTransport(
+							CommonUtils.getPropertyInt("tapdata_proxy_http_pool_size", 4),
+							CommonUtils.getPropertyInt("tapdata_proxy_http_io_threads", 2),
+							65,
+							CommonUtils.getPropertyInt("tapdata_proxy_http_max_buffered_bytes", 1024 * 1024));
+				}
+			}
+		}
+		return pooledHttpTransport;
+	}
+
 	@Override
 	public boolean isDisconnected(String nodeId) {
 		return disconnectedNodeIds.contains(nodeId);
@@ -129,6 +149,8 @@ public class NodeConnectionFactoryHttpImpl implements NodeConnectionFactory {
 		for(Map.Entry<String, NodeConnection> entry : this.nodeIdConnectionMap.entrySet()) {
 			nodeIdConnectionMap.kv(entry.getKey(), entry.getValue().memory(keyRegex, memoryLevel));
 		}
+		if(pooledHttpTransport != null)
+			dataMap.kv("pooledHttpTransport", pooledHttpTransport.memory(keyRegex, memoryLevel));
 		return dataMap;
 	}
 }
@@ -32,6 +32,7 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import static io.tapdata.entity.simplify.TapSimplify.fromJson;
 import static io.tapdata.entity.simplify.TapSimplify.toJson;
@@ -42,8 +43,8 @@ public class NodeConnectionHttpImpl implements NodeConnection {
 	public static final String STATE_READY = "Ready";
 	public static final String STATE_TERMINATED = "Terminated";
 	private static final String TAG = NodeConnectionHttpImpl.class.getSimpleName();
-	private StateMachine<String, NodeConnectionHttpImpl> stateMachine;
-	private NodeRegistry nodeRegistry;
+	protected StateMachine<String, NodeConnectionHttpImpl> stateMachine;
+	protected NodeRegistry nodeRegistry;
 	private BiConsumer<NodeRegistry, String> nodeRegistryReasonSelfDestroy;
 	private String terminateReason;
 
@@ -52,8 +53,8 @@ public class NodeConnectionHttpImpl implements NodeConnection {
 	private int retryTimes = MAX_RETRY;
 	private long touch;
 
-	private final List<String> workableIps = new CopyOnWriteArrayList<>();
-	private SingleThreadBlockingQueue<NodeMessage> asyncQueue;
+	protected final List<String> workableIps = new CopyOnWriteArrayList<>();
+	protected SingleThreadBlockingQueue<NodeMessage> asyncQueue;
 	@Override
 	public void init(NodeRegistry nodeRegistry, BiConsumer<NodeRegistry, String> nodeRegistryReasonSelfDestroy) {
 		if(stateMachine == null) {
@@ -92,26 +93,15 @@ public class NodeConnectionHttpImpl implements NodeConnection {
 		}
 	}
 
-	private void handleBatch(List<NodeMessage> nodeMessages) throws IOException {
+	protected void handleBatch(List<NodeMessage> nodeMessages) throws Throwable {
 		if(nodeMessages != null) {
-			if(workableIps.isEmpty()) {
-				TapLogger.debug(TAG, "workableIps is empty, {} messages was ignored", nodeMessages.size());
-				Throwable throwable = new CoreException(NetErrors.NO_WORKABLE_IP, "No workable ip for node {} to send {} messages", nodeRegistry.id(), nodeMessages.size());
-				for(NodeMessage nodeMessage : nodeMessages) {
-					nodeMessage.accept(null, throwable);
-				}
+			if(rejectWithoutWorkableIp(nodeMessages))
 				return;
-			}
-			Integer port = nodeRegistry.getHttpPort();
-			String ip = workableIps.get(0);
-			String url = "http://" + ip + ":" + port + "/api/proxy/internal?key=" + ProxyConstants.INTERNAL_KEY;
+			String url = internalUrl(workableIps.get(0));
 			for(NodeMessage nodeMessage : nodeMessages) {
 				try {
 					NodeMessage responseMessage = post(url, nodeMessage);
-					if(responseMessage != null && responseMessage.getData() != null && nodeMessage.getResponseClass() != null)
-						nodeMessage.accept(fromJson(new String(responseMessage.getData(), StandardCharsets.UTF_8), nodeMessage.getResponseClass()), null);
-					else
-						nodeMessage.accept(null, new CoreException(NetErrors.ILLEGAL_PARAMETERS, "ResponseMessage is not legal, {}", responseMessage));
+					completeMessage(nodeMessage, responseMessage);
 				} catch(Throwable throwable1) {
 					nodeMessage.accept(null, throwable1);
 				}
@@ -119,7 +109,30 @@ public class NodeConnectionHttpImpl implements NodeConnection {
 		}
 	}
 
-	private void touch() {
+	protected boolean rejectWithoutWorkableIp(List<NodeMessage> nodeMessages) {
+		if(workableIps.isEmpty()) {
+			TapLogger.debug(TAG, "workableIps is empty, {} messages was ignored", nodeMessages.size());
+			Throwable throwable = new CoreException(NetErrors.NO_WORKABLE_IP, "No workable ip for node {} to send {} messages", nodeRegistry.id(), nodeMessages.size());
+			for(NodeMessage nodeMessage : nodeMessages) {
+				nodeMessage.accept(null, throwable);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	protected void completeMessage(NodeMessage nodeMessage, NodeMessage responseMessage) {
+		if(responseMessage != null && responseMessage.getData() != null && nodeMessage.getResponseClass() != null)
+			nodeMessage.accept(fromJson(new String(responseMessage.getData(), StandardCharsets.UTF_8), nodeMessage.getResponseClass()), null);
+		else
+			nodeMessage.accept(null, new CoreException(NetErrors.ILLEGAL_PARAMETERS, "ResponseMessage is not legal, {}", responseMessage));
+	}
+
+	protected String internalUrl(String ip) {
+		return "http://" + ip + ":" + nodeRegistry.getHttpPort() + "/api/proxy/internal?key=" + ProxyConstants.INTERNAL_KEY;
+	}
+
+	protected void touch() {
 		touch = System.currentTimeMillis();
 	}
 
@@ -215,7 +228,7 @@ public class NodeConnectionHttpImpl implements NodeConnection {
 		}
 	}
 
-	private NodeMessage post(String url, NodeMessage nodeMessage) throws IOException {
+	protected NodeMessage post(String url, NodeMessage nodeMessage) throws IOException {
 		touch();
 		TapLogger.debug(TAG, "post url {} nodeMessage {}", url, nodeMessage);
 		URL theUrl = new URL(url);
@@ -236,41 +249,55 @@ public class NodeConnectionHttpImpl implements NodeConnection {
 			}
 			connection.connect();
 			int code = connection.getResponseCode();
-			if(code >= 200 && code < 300) {
-				if(code == 200) {
-
-					String contentType = connection.getHeaderField(HttpHeaders.CONTENT_TYPE);
-					String contentLength = connection.getHeaderField(HttpHeaders.CONTENT_LENGTH);
-					String contentDisposition = connection.getHeaderField(HttpHeaders.CONTENT_DISPOSITION);
-					String fileMetaCode = connection.getHeaderField("X-FileMeta-Code");
-					if ("application/octet-stream".equalsIgnoreCase(contentType) && nodeMessage != null
-							&& StringUtils.isNotBlank(contentLength) && StringUtils.isNotBlank(contentDisposition)){
-
-						FileMeta fileMeta = FileMeta.builder()
-								.transferFile(true)
-								.fileInputStream(connection.getInputStream())
-								.code(fileMetaCode)
-								.filename(parseFileNameFromContentDisposition(contentDisposition))
-								.fileSize(Long.parseLong(contentLength))
-								.build();
-
-						NodeMessage responseMessage = new NodeMessage();
-						responseMessage.id(nodeMessage.getId())
-								.fromNodeId(nodeMessage.getToNodeId())
-								.toNodeId(nodeMessage.getFromNodeId())
-								.type(nodeMessage.getType())
-								.time(System.currentTimeMillis())
-								.encode(Data.ENCODE_JSON)
-								.fileMeta(fileMeta);
-						needCloseConnection.set(false);
-						return responseMessage;
-					}
+			NodeMessage responseMessage = readResponse(url, nodeMessage, code, connection.getResponseMessage(), connection::getHeaderField, connection::getInputStream);
+			if(responseMessage != null && responseMessage.getFileMeta() != null)
+				needCloseConnection.set(false);
+			return responseMessage;
+		} finally {
+			if (needCloseConnection.get())
+				connection.disconnect();
+		}
+	}
 
-					try(InputStream inputStream = connection.getInputStream()) {
-						NodeMessage responseMessage = new NodeMessage();
-						responseMessage.from(inputStream);
-						TapLogger.debug(TAG, "post url {} nodeMessage {} received {}", url, nodeMessage, responseMessage);
-						return responseMessage;
+	protected interface ResponseInputStream {
+		InputStream get() throws IOException;
+	}
+
+	protected NodeMessage readResponse(String url, NodeMessage nodeMessage, int code, String responseMessageText, Function<String, String> headerGetter, ResponseInputStream responseInputStream) throws IOException {
+		if(code >= 200 && code < 300) {
+			if(code == 200) {
+
+				String contentType = headerGetter.apply(HttpHeaders.CONTENT_TYPE);
+				String contentLength = headerGetter.apply(HttpHeaders.CONTENT_LENGTH);
+				String contentDisposition = headerGetter.apply(HttpHeaders.CONTENT_DISPOSITION);
+				String fileMetaCode = headerGetter.apply("X-FileMeta-Code");
+				if ("application/octet-stream".equalsIgnoreCase(contentType) && nodeMessage != null
+						&& StringUtils.isNotBlank(contentLength) && StringUtils.isNotBlank(contentDisposition)){
+
+					FileMeta fileMeta = FileMeta.builder()
+							.transferFile(true)
+							.fileInputStream(responseInputStream.get())
+							.code(fileMetaCode)
+							.filename(parseFileNameFromContentDisposition(contentDisposition))
+							.fileSize(Long.parseLong(contentLength))
+							.build();
+
+					NodeMessage responseMessage = new NodeMessage();
+					responseMessage.id(nodeMessage.getId())
+							.fromNodeId(nodeMessage.getToNodeId())
+							.toNodeId(nodeMessage.getFromNodeId())
+							.type(nodeMessage.getType())
+							.time(System.currentTimeMillis())
+							.encode(Data.ENCODE_JSON)
+							.fileMeta(fileMeta);
+					return responseMessage;
+				}
+
+				try(InputStream inputStream = responseInputStream.get()) {
+					NodeMessage responseMessage = new NodeMessage();
+					responseMessage.from(inputStream);
+					TapLogger.debug(TAG, "post url {} nodeMessage {} received {}", url, nodeMessage, responseMessage);
+					return responseMessage;
 //					String json = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
 //					if(StringUtils.isNotBlank(json)) {
 //						JSONObject result = JSON.parseObject(json);
@@ -282,34 +309,34 @@ public class NodeConnectionHttpImpl implements NodeConnection {
 //						}
 //					}
 //					throw new IOException("Url " + url + " content illegal, " + json);
-					}
-				} else if(code == 208) { //error
-					try(InputStream inputStream = connection.getInputStream()) {
-						Result result = new Result();
-						result.from(inputStream);
-						String forId = result.getForId();
-						if(forId != null && forId.equals("IOException")) {
-							throw new IOException(result.getDescription());
-						} else {
-							int resultCode = 0;
-							if(result.getCode() != null)
-								resultCode = result.getCode();
-							throw new CoreException(resultCode, result.getDescription());
-						}
-					}
-				} else {
-					TapLogger.debug(TAG, "post url {} nodeMessage {} received code {}", url, nodeMessage, code);
+				}
+			} else if(code == 208) { //error
+				try(InputStream inputStream = responseInputStream.get()) {
+					throwResultError(inputStream);
 				}
 			} else {
-				throw new IOException("Url(post) occur error, code " + code + " message " + connection.getResponseMessage());
+				TapLogger.debug(TAG, "post url {} nodeMessage {} received code {}", url, nodeMessage, code);
 			}
-		} finally {
-			if (needCloseConnection.get())
-				connection.disconnect();
+		} else {
+			throw new IOException("Url(post) occur error, code " + code + " message " + responseMessageText);
 		}
 		return null;
 	}
 
+	protected void throwResultError(InputStream inputStream) throws IOException {
+		Result result = new Result();
+		result.from(inputStream);
+		String forId = result.getForId();
+		if(forId != null && forId.equals("IOException")) {
+			throw new IOException(result.getDescription());
+		} else {
+			int resultCode = 0;
+			if(result.getCode() != null)
+				resultCode = result.getCode();
+			throw new CoreException(resultCode, result.getDescription());
+		}
+	}
+
 	private String parseFileNameFromContentDisposition(String contentDisposition) {
 		if (contentDisposition == null)
 			return null;
@@ -326,9 +353,7 @@ public class NodeConnectionHttpImpl implements NodeConnection {
 		if(workableIps.isEmpty())
 			throw new IOException(FormatUtils.format("NodeConnection's workableIps is empty, nodeRegistry {}", nodeRegistry));
 
-		Integer port = nodeRegistry.getHttpPort();
-		String ip = workableIps.get(0);
-		String url = "http://" + ip + ":" + port + "/api/proxy/internal?key=" + ProxyConstants.INTERNAL_KEY;
+		String url = internalUrl(workableIps.get(0));
 		String nodeId = CommonUtils.getProperty("tapdata_node_id");
 		NodeMessage requestMessage = new NodeMessage()
 				.toNodeId(nodeRegistry.id())
@@ -0,0 +1,217 @@
+package io.tapdata.proxy.connection;
+
+import io.tapdata.entity.error.CoreException;
+import io.tapdata.entity.logger.TapLogger;
+import io.tapdata.entity.serializer.JavaCustomSerializer;
+import io.tapdata.entity.utils.DataMap;
+import io.tapdata.modules.api.net.error.NetErrors;
+import io.tapdata.modules.api.net.service.node.connection.entity.NodeMessage;
+import io.tapdata.modules.api.net.service.node.connection.entity.NodeMessageBatch;
+import io.tapdata.pdk.core.executor.ExecutorsManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * NodeConnection sending through {@link PooledHttpTransport}, the connections to the node are kept alive and shared.
+ *
+ * Async messages are not posted one by one on the queue thread any more, the queue thread only dispatches, the responses complete the messages on the shared executor.
+ * The in flight posts are bounded by maxInFlight, the queue thread is blocked when reach it.
+ * When batchPost is enabled, the messages of one queue batch are sent in one POST as {@link NodeMessageBatch}, the receiver must support the batch parameter.
+ */
+public class NodeConnectionPooledHttpImpl extends NodeConnectionHttpImpl {
+	private static final String TAG = NodeConnectionPooledHttpImpl.class.getSimpleName();
+	private static final long READ_TIMEOUT_MILLIS = 65000;
+	private final PooledHttpTransport transport;
+	private final boolean batchPost;
+	private final int maxInFlight;
+	private final Semaphore inFlight;
+	private final AtomicLong idCounter = new AtomicLong();
+	private final LongAdder postCounter = new LongAdder();
+	private final LongAdder messageCounter = new LongAdder();
+	private long syncTimeoutMillis = READ_TIMEOUT_MILLIS;
+
+	public NodeConnectionPooledHttpImpl(PooledHttpTransport transport, boolean batchPost, int maxInFlight) {
+		this.transport = transport;
+		this.batchPost = batchPost;
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
+	}
+
+	/**
+	 * @param syncTimeoutMillis the time to wait for the response of a sync send, the connection of the request is closed when it is reached
+	 */
+	public NodeConnectionPooledHttpImpl withSyncTimeoutMillis(long syncTimeoutMillis) {
+		this.syncTimeoutMillis = syncTimeoutMillis;
+		return this;
+	}
+
+	@Override
+	protected NodeMessage post(String url, NodeMessage nodeMessage) throws IOException {
+		touch();
+		URI uri = URI.create(url);
+		byte[] body = nodeMessage != null ? toBytes(nodeMessage) : null;
+		CompletableFuture<PooledHttpTransport.Response> future = transport.post(uri.getHost(), uri.getPort(), uri.getRawPath() + "?" + uri.getRawQuery(), body);
+		PooledHttpTransport.Response response;
+		try {
+			response = future.get(syncTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IOException("Post " + url + " is interrupted", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Post " + url + " failed, " + e.getCause().getMessage(), e.getCause());
+		} catch (TimeoutException e) {
+			//Give the pooled connection back instead of holding it until the read timeout of the transport
+			if(!future.cancel(true))
+				future.thenAccept(lateResponse -> closeQuietly(lateResponse.getBody()));
+			throw new IOException("Post " + url + " timeout after " + syncTimeoutMillis + "ms", e);
+		}
+		return readResponse(url, nodeMessage, response);
+	}
+
+	/**
+	 * The body of a file response is streamed to the FileMeta reader, which closes it, the other bodies are closed here.
+	 */
+	private NodeMessage readResponse(String url, NodeMessage nodeMessage, PooledHttpTransport.Response response) throws IOException {
+		NodeMessage responseMessage = null;
+		try {
+			responseMessage = readResponse(url, nodeMessage, response.getCode(), response.getReasonPhrase(), response::getHeader, response::getBody);
+			return responseMessage;
+		} finally {
+			if(responseMessage == null || responseMessage.getFileMeta() == null)
+				response.getBody().close();
+		}
+	}
+
+	@Override
+	protected void handleBatch(List<NodeMessage> nodeMessages) throws Throwable {
+		if(nodeMessages == null || rejectWithoutWorkableIp(nodeMessages))
+			return;
+		URI uri = URI.create(internalUrl(workableIps.get(0)));
+		String path = uri.getRawPath() + "?" + uri.getRawQuery();
+		if(batchPost && nodeMessages.size() > 1) {
+			postBatch(uri, path + "&" + NodeMessageBatch.PARAM_BATCH + "=true", nodeMessages);
+		} else {
+			for(NodeMessage nodeMessage : nodeMessages) {
+				postAsync(uri, path, nodeMessage);
+			}
+		}
+	}
+
+	private void postAsync(URI uri, String path, NodeMessage nodeMessage) throws IOException, InterruptedException {
+		inFlight.acquire();
+		postCounter.increment();
+		messageCounter.increment();
+		transport.post(uri.getHost(), uri.getPort(), path, toBytes(nodeMessage)).whenCompleteAsync((response, throwable) -> {
+			inFlight.release();
+			if(throwable != null) {
+				nodeMessage.accept(null, throwable);
+				return;
+			}
+			try {
+				completeMessage(nodeMessage, readResponse(uri.toString(), nodeMessage, response));
+			} catch (Throwable throwable1) {
+				nodeMessage.accept(null, throwable1);
+			}
+		}, ExecutorsManager.getInstance().getExecutorService());
+	}
+
+	private void postBatch(URI uri, String path, List<NodeMessage> nodeMessages) throws IOException, InterruptedException {
+		Map<String, NodeMessage> idMessageMap = new HashMap<>();
+		for(NodeMessage nodeMessage : nodeMessages) {
+			if(nodeMessage.getId() == null)
+				nodeMessage.id(String.valueOf(idCounter.incrementAndGet()));
+			idMessageMap.put(nodeMessage.getId(), nodeMessage);
+		}
+		byte[] body = toBytes(new NodeMessageBatch().nodeMessages(nodeMessages));
+		inFlight.acquire();
+		postCounter.increment();
+		messageCounter.add(nodeMessages.size());
+		transport.post(uri.getHost(), uri.getPort(), path, body).whenCompleteAsync((response, throwable) -> {
+			inFlight.release();
+			if(throwable != null) {
+				failBatch(nodeMessages, idMessageMap, throwable);
+				return;
+			}
+			try {
+				for(NodeMessage responseMessage : readBatchResponse(response)) {
+					NodeMessage nodeMessage = idMessageMap.remove(responseMessage.getId());
+					if(nodeMessage != null)
+						completeMessage(nodeMessage, responseMessage);
+				}
+				if(!idMessageMap.isEmpty()) {
+					Throwable missing = new CoreException(NetErrors.ILLEGAL_PARAMETERS, "No response for {} messages in batch to node {}", idMessageMap.size(), nodeRegistry.id());
+					for(NodeMessage nodeMessage : idMessageMap.values()) {
+						nodeMessage.accept(null, missing);
+					}
+				}
+			} catch (Throwable throwable1) {
+				failBatch(nodeMessages, idMessageMap, throwable1);
+			}
+		}, ExecutorsManager.getInstance().getExecutorService());
+	}
+
+	private void failBatch(List<NodeMessage> nodeMessages, Map<String, NodeMessage> idMessageMap, Throwable throwable) {
+		TapLogger.debug(TAG, "Send batch of {} messages to {} failed, {}", nodeMessages.size(), nodeRegistry.id(), throwable.getMessage());
+		for(NodeMessage nodeMessage : idMessageMap.values()) {
+			nodeMessage.accept(null, throwable);
+		}
+	}
+
+	private List<NodeMessage> readBatchResponse(PooledHttpTransport.Response response) throws IOException {
+		int code = response.getCode();
+		try(InputStream inputStream = response.getBody()) {
+			if(code == 200) {
+				NodeMessageBatch nodeMessageBatch = new NodeMessageBatch();
+				nodeMessageBatch.from(inputStream);
+				if(nodeMessageBatch.getNodeMessages() == null)
+					throw new CoreException(NetErrors.ILLEGAL_PARAMETERS, "Batch response is empty from node {}", nodeRegistry.id());
+				return nodeMessageBatch.getNodeMessages();
+			} else if(code == 208) {
+				throwResultError(inputStream);
+			}
+		}
+		throw new IOException("Url(post batch) occur error, code " + code + " message " + response.getReasonPhrase());
+	}
+
+	private void closeQuietly(InputStream inputStream) {
+		try {
+			inputStream.close();
+		} catch (IOException e) {
+			TapLogger.debug(TAG, "Close response body of node {} failed, {}", nodeRegistry.id(), e.getMessage());
+		}
+	}
+
+	private byte[] toBytes(JavaCustomSerializer serializer) throws IOException {
+		try(ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+			serializer.to(baos);
+			return baos.toByteArray();
+		}
+	}
+
+	@Override
+	public DataMap memory(String keyRegex, String memoryLevel) {
+		return super.memory(keyRegex, memoryLevel)
+				.kv("batchPost", batchPost)
+				.kv("maxInFlight", maxInFlight)
+				.kv("availableInFlight", inFlight.availablePermits())
+				.kv("postCounter", postCounter.longValue())
+				.kv("messageCounter", messageCounter.longValue())
+				;
+	}
+}
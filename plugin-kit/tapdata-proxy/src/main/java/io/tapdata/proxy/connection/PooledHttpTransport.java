@@ -0,0 +1,395 @@
+package io.tapdata.proxy.connection;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.AbstractChannelPoolMap;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.*;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import io.tapdata.entity.logger.TapLogger;
+import io.tapdata.entity.memory.MemoryFetcher;
+import io.tapdata.entity.utils.DataMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Http/1.1 POST client keeping persistent connections, pooled per target ip and port.
+ * A channel serves one request at a time, it is given back to the pool when the last content of the response is received, so the connection is reused by the next request.
+ *
+ * The response body is not aggregated, the future is completed once the response headers arrive, the body is streamed through {@link Response#getBody()}.
+ * Reading from the channel is paused while the unread body exceeds maxBufferedBytes, so a large file download does not sit in memory as a whole.
+ * The read timeout only applies while a request is in flight, idle pooled connections are not closed by it.
+ * Cancelling the returned future before the response arrives closes the connection of the request and gives it back to the pool.
+ */
+public class PooledHttpTransport implements MemoryFetcher {
+	private static final String TAG = PooledHttpTransport.class.getSimpleName();
+	private static final AttributeKey<Exchange> KEY_EXCHANGE = AttributeKey.valueOf("PooledHttpTransport.exchange");
+	private static final String HANDLER_READ_IDLE = "readIdle";
+
+	private final EventLoopGroup eventLoopGroup;
+	private final AbstractChannelPoolMap<InetSocketAddress, FixedChannelPool> poolMap;
+	private final Map<InetSocketAddress, FixedChannelPool> pools = new ConcurrentHashMap<>();
+	private final int maxConnectionsPerNode;
+	private final int readTimeoutSeconds;
+	private final int maxBufferedBytes;
+	private final LongAdder requestCounter = new LongAdder();
+	private final LongAdder failedCounter = new LongAdder();
+	private final LongAdder connectionCounter = new LongAdder();
+
+	public PooledHttpTransport(int maxConnectionsPerNode, int ioThreads, int readTimeoutSeconds, int maxBufferedBytes) {
+		this.maxConnectionsPerNode = maxConnectionsPerNode;
+		this.readTimeoutSeconds = readTimeoutSeconds;
+		this.maxBufferedBytes = maxBufferedBytes;
+		eventLoopGroup = new NioEventLoopGroup(ioThreads, new DefaultThreadFactory("PooledHttpTransport", true));
+		Bootstrap bootstrap = new Bootstrap()
+				.group(eventLoopGroup)
+				.channel(NioSocketChannel.class)
+				.option(ChannelOption.TCP_NODELAY, true)
+				.option(ChannelOption.SO_KEEPALIVE, true)
+				.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000);
+		poolMap = new AbstractChannelPoolMap<InetSocketAddress, FixedChannelPool>() {
+			@Override
+			protected FixedChannelPool newPool(InetSocketAddress key) {
+				FixedChannelPool pool = new FixedChannelPool(bootstrap.clone().remoteAddress(key), new AbstractChannelPoolHandler() {
+					@Override
+					public void channelCreated(Channel channel) {
+						connectionCounter.increment();
+						channel.pipeline()
+								.addLast(new HttpClientCodec())
+								.addLast(new ResponseHandler());
+					}
+				}, maxConnectionsPerNode);
+				pools.put(key, pool);
+				return pool;
+			}
+		};
+	}
+
+	/**
+	 * Post body to the target, the returned future is completed on the netty io thread when the response headers are received.
+	 * The body of the response must be read or closed outside of the netty io thread.
+	 * The caller giving up on the response should cancel the future, otherwise the connection is held until the read timeout.
+	 */
+	public CompletableFuture<Response> post(String host, int port, String uri, byte[] body) {
+		requestCounter.increment();
+		CompletableFuture<Response> result = new CompletableFuture<>();
+		FixedChannelPool pool = poolMap.get(InetSocketAddress.createUnresolved(host, port));
+		pool.acquire().addListener((Future<Channel> acquireFuture) -> {
+			if(!acquireFuture.isSuccess()) {
+				failedCounter.increment();
+				result.completeExceptionally(acquireFuture.cause());
+				return;
+			}
+			Channel channel = acquireFuture.getNow();
+			if(result.isDone()) {
+				//Cancelled before the connection is acquired, nothing is sent
+				pool.release(channel);
+				return;
+			}
+			Exchange exchange = new Exchange(channel, pool, result);
+			channel.attr(KEY_EXCHANGE).set(exchange);
+			channel.pipeline().addFirst(HANDLER_READ_IDLE, new IdleStateHandler(readTimeoutSeconds, 0, 0, TimeUnit.SECONDS));
+			result.whenComplete((response, throwable) -> {
+				//The response may still come on the connection, it can't be reused
+				if(result.isCancelled())
+					channel.eventLoop().execute(() -> exchange.finish(throwable));
+			});
+
+			FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, uri, body != null ? Unpooled.wrappedBuffer(body) : Unpooled.EMPTY_BUFFER);
+			request.headers()
+					.set(HttpHeaderNames.HOST, host + ":" + port)
+					.set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE)
+					.set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_OCTET_STREAM)
+					.set(HttpHeaderNames.CONTENT_LENGTH, request.content().readableBytes());
+			channel.writeAndFlush(request).addListener(writeFuture -> {
+				if(!writeFuture.isSuccess())
+					exchange.finish(writeFuture.cause());
+			});
+		});
+		return result;
+	}
+
+	public void close() {
+		for(FixedChannelPool pool : pools.values()) {
+			pool.close();
+		}
+		pools.clear();
+		eventLoopGroup.shutdownGracefully();
+	}
+
+	@Override
+	public DataMap memory(String keyRegex, String memoryLevel) {
+		DataMap dataMap = DataMap.create().keyRegex(keyRegex)/*.prefix(this.getClass().getSimpleName())*/
+				.kv("maxConnectionsPerNode", maxConnectionsPerNode)
+				.kv("requestCounter", requestCounter.longValue())
+				.kv("failedCounter", failedCounter.longValue())
+				.kv("connectionCounter", connectionCounter.longValue());
+		DataMap poolsMap = DataMap.create().keyRegex(keyRegex);
+		dataMap.kv("pools", poolsMap);
+		for(Map.Entry<InetSocketAddress, FixedChannelPool> entry : pools.entrySet()) {
+			poolsMap.kv(entry.getKey().toString(), entry.getValue().acquiredChannelCount());
+		}
+		return dataMap;
+	}
+
+	private static class ResponseHandler extends SimpleChannelInboundHandler<HttpObject> {
+		@Override
+		protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
+			Exchange exchange = ctx.channel().attr(KEY_EXCHANGE).get();
+			if(exchange == null) {
+				TapLogger.debug(TAG, "Unexpected response {} on channel {}, no request is waiting", msg, ctx.channel());
+				return;
+			}
+			if(msg instanceof HttpResponse)
+				exchange.response((HttpResponse) msg);
+			if(msg instanceof HttpContent)
+				exchange.content((HttpContent) msg);
+		}
+
+		@Override
+		public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+			if(evt instanceof IdleStateEvent) {
+				Exchange exchange = ctx.channel().attr(KEY_EXCHANGE).get();
+				//Reading is paused by the body reader, not a timeout of the server
+				if(exchange != null && ctx.channel().config().isAutoRead())
+					exchange.finish(new IOException("Read timeout after " + ((IdleStateEvent) evt).state() + " on " + ctx.channel().remoteAddress()));
+				return;
+			}
+			super.userEventTriggered(ctx, evt);
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			failPending(ctx, new IOException("Connection closed " + ctx.channel().remoteAddress()));
+			super.channelInactive(ctx);
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+			failPending(ctx, cause);
+			ctx.close();
+		}
+
+		private void failPending(ChannelHandlerContext ctx, Throwable cause) {
+			Exchange exchange = ctx.channel().attr(KEY_EXCHANGE).get();
+			if(exchange != null)
+				exchange.finish(cause);
+		}
+	}
+
+	/**
+	 * One request on an acquired channel, from writing the request until the last content of the response.
+	 */
+	private class Exchange {
+		private final Channel channel;
+		private final FixedChannelPool pool;
+		private final CompletableFuture<Response> result;
+		private final AtomicBoolean finished = new AtomicBoolean(false);
+		private ResponseBody body;
+		private boolean keepAlive;
+
+		Exchange(Channel channel, FixedChannelPool pool, CompletableFuture<Response> result) {
+			this.channel = channel;
+			this.pool = pool;
+			this.result = result;
+		}
+
+		void response(HttpResponse msg) {
+			body = new ResponseBody(channel, maxBufferedBytes);
+			keepAlive = HttpUtil.isKeepAlive(msg);
+			result.complete(new Response(msg.status().code(), msg.status().reasonPhrase(), msg.headers().copy(), body, keepAlive));
+		}
+
+		void content(HttpContent msg) {
+			if(body != null)
+				body.write(msg.content());
+			if(msg instanceof LastHttpContent)
+				finish(null);
+		}
+
+		void finish(Throwable throwable) {
+			if(!finished.compareAndSet(false, true))
+				return;
+			channel.attr(KEY_EXCHANGE).compareAndSet(this, null);
+			if(channel.pipeline().get(HANDLER_READ_IDLE) != null)
+				channel.pipeline().remove(HANDLER_READ_IDLE);
+			if(throwable != null) {
+				failedCounter.increment();
+				if(body != null)
+					body.fail(throwable);
+				else
+					result.completeExceptionally(throwable);
+				channel.close();
+			} else {
+				body.end();
+				channel.config().setAutoRead(true);
+				if(!keepAlive)
+					channel.close();
+			}
+			pool.release(channel);
+		}
+	}
+
+	/**
+	 * The body of a response, written by the netty io thread and read by the caller.
+	 * Closing it before the end discards the rest of the body, so the connection can still be reused.
+	 */
+	private static class ResponseBody extends InputStream {
+		private final Channel channel;
+		private final int maxBufferedBytes;
+		private final Deque<byte[]> chunks = new ArrayDeque<>();
+		private byte[] current;
+		private int position;
+		private int bufferedBytes;
+		private boolean ended;
+		private boolean closed;
+		private Throwable failure;
+
+		ResponseBody(Channel channel, int maxBufferedBytes) {
+			this.channel = channel;
+			this.maxBufferedBytes = maxBufferedBytes;
+		}
+
+		synchronized void write(ByteBuf content) {
+			int length = content.readableBytes();
+			if(closed || length == 0)
+				return;
+			byte[] bytes = new byte[length];
+			content.readBytes(bytes);
+			chunks.add(bytes);
+			bufferedBytes += length;
+			if(bufferedBytes > maxBufferedBytes)
+				channel.config().setAutoRead(false);
+			notifyAll();
+		}
+
+		synchronized void end() {
+			ended = true;
+			notifyAll();
+		}
+
+		synchronized void fail(Throwable throwable) {
+			failure = throwable;
+			notifyAll();
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0)
+				return 0;
+			while(current == null || position == current.length) {
+				current = chunks.poll();
+				position = 0;
+				if(current != null) {
+					bufferedBytes -= current.length;
+					if(!ended && bufferedBytes <= maxBufferedBytes / 2 && !channel.config().isAutoRead())
+						channel.config().setAutoRead(true);
+					continue;
+				}
+				if(closed)
+					throw new IOException("Response body is closed");
+				if(failure != null)
+					throw failure instanceof IOException ? (IOException) failure : new IOException(failure.getMessage(), failure);
+				if(ended)
+					return -1;
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Read response body is interrupted");
+				}
+			}
+			int read = Math.min(len, current.length - position);
+			System.arraycopy(current, position, b, off, read);
+			position += read;
+			return read;
+		}
+
+		@Override
+		public synchronized int available() {
+			return bufferedBytes + (current != null ? current.length - position : 0);
+		}
+
+		@Override
+		public synchronized void close() {
+			if(closed)
+				return;
+			closed = true;
+			chunks.clear();
+			current = null;
+			bufferedBytes = 0;
+			if(!ended)
+				channel.config().setAutoRead(true);
+			notifyAll();
+		}
+	}
+
+	public static class Response {
+		private final int code;
+		private final String reasonPhrase;
+		private final HttpHeaders headers;
+		private final InputStream body;
+		private final boolean keepAlive;
+
+		public Response(int code, String reasonPhrase, HttpHeaders headers, InputStream body, boolean keepAlive) {
+			this.code = code;
+			this.reasonPhrase = reasonPhrase;
+			this.headers = headers;
+			this.body = body;
+			this.keepAlive = keepAlive;
+		}
+
+		public int getCode() {
+			return code;
+		}
+
+		public String getReasonPhrase() {
+			return reasonPhrase;
+		}
+
+		public String getHeader(String name) {
+			return headers.get(name);
+		}
+
+		/**
+		 * @return the streamed body, blocks until the content arrives, must be closed by the reader.
+		 */
+		public InputStream getBody() {
+			return body;
+		}
+
+		public boolean isKeepAlive() {
+			return keepAlive;
+		}
+	}
+}
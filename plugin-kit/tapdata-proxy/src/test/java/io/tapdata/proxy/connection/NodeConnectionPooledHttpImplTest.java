@@ -0,0 +1,301 @@
+package io.tapdata.proxy.connection;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.tapdata.entity.tracker.MessageTracker;
+import io.tapdata.entity.utils.DataMap;
+import io.tapdata.modules.api.net.data.FileMeta;
+import io.tapdata.modules.api.net.entity.NodeRegistry;
+import io.tapdata.modules.api.net.service.node.connection.NodeConnection;
+import io.tapdata.modules.api.net.service.node.connection.entity.NodeMessage;
+import io.tapdata.modules.api.net.service.node.connection.entity.NodeMessageBatch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Send messages to a local stand-in of the proxy internal api, which echoes the request value back.
+ */
+public class NodeConnectionPooledHttpImplTest {
+	private HttpServer server;
+	private final LongAdder postCounter = new LongAdder();
+	private final LongAdder batchPostCounter = new LongAdder();
+	private PooledHttpTransport transport;
+	private static final int FILE_SIZE = 4 * 1024 * 1024;
+	private final CountDownLatch fileHalfRead = new CountDownLatch(1);
+
+	public static class EchoRequest extends MessageTracker {
+		private String value;
+		public EchoRequest value(String value) {
+			this.value = value;
+			return this;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public void setValue(String value) {
+			this.value = value;
+		}
+	}
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newFixedThreadPool(8));
+		server.createContext("/api/proxy/internal", this::handle);
+		server.start();
+		transport = new PooledHttpTransport(4, 2, 65, 64 * 1024);
+	}
+
+	@AfterEach
+	void tearDown() {
+		server.stop(0);
+		transport.close();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		postCounter.increment();
+		byte[] body;
+		try(InputStream inputStream = exchange.getRequestBody()) {
+			body = readAll(inputStream);
+		}
+		String query = exchange.getRequestURI().getQuery();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		if(query.contains(NodeMessageBatch.PARAM_BATCH + "=true")) {
+			batchPostCounter.increment();
+			NodeMessageBatch batch = new NodeMessageBatch();
+			batch.from(new ByteArrayInputStream(body));
+			List<NodeMessage> responses = new ArrayList<>();
+			for(NodeMessage nodeMessage : batch.getNodeMessages()) {
+				responses.add(echo(nodeMessage));
+			}
+			new NodeMessageBatch().nodeMessages(responses).to(output);
+		} else if(body.length == 0) {
+			echo(new NodeMessage()).to(output);
+		} else {
+			NodeMessage nodeMessage = new NodeMessage();
+			nodeMessage.from(new ByteArrayInputStream(body));
+			if("file".equals(nodeMessage.getType())) {
+				sendFile(exchange);
+				return;
+			}
+			if("slow".equals(nodeMessage.getType()))
+				sleep(3000);
+			echo(nodeMessage).to(output);
+		}
+		byte[] response = output.toByteArray();
+		exchange.sendResponseHeaders(200, response.length);
+		try(OutputStream outputStream = exchange.getResponseBody()) {
+			outputStream.write(response);
+		}
+	}
+
+	/**
+	 * Send the second half of the file only after the client has read the first half, which never happens if the client aggregates the whole body.
+	 */
+	private void sendFile(HttpExchange exchange) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+		exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=file.bin");
+		exchange.sendResponseHeaders(200, FILE_SIZE);
+		try(OutputStream outputStream = exchange.getResponseBody()) {
+			byte[] buffer = new byte[8192];
+			for(int i = 0; i < FILE_SIZE; i += buffer.length) {
+				if(i == FILE_SIZE / 2) {
+					outputStream.flush();
+					try {
+						if(!fileHalfRead.await(30, TimeUnit.SECONDS))
+							return;
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				for(int j = 0; j < buffer.length; j++) {
+					buffer[j] = (byte) (i + j);
+				}
+				outputStream.write(buffer);
+			}
+		}
+	}
+
+	private void sleep(long millis) {
+		try {
+			TimeUnit.MILLISECONDS.sleep(millis);
+		} catch (InterruptedException ignored) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private NodeMessage echo(NodeMessage nodeMessage) {
+		return new NodeMessage().id(nodeMessage.getId()).type(nodeMessage.getType()).time(System.currentTimeMillis()).encode(nodeMessage.getEncode()).data(nodeMessage.getData());
+	}
+
+	private byte[] readAll(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while((read = inputStream.read(buffer)) != -1) {
+			baos.write(buffer, 0, read);
+		}
+		return baos.toByteArray();
+	}
+
+	private NodeConnection connect(NodeConnection nodeConnection) throws InterruptedException {
+		nodeConnection.init(new NodeRegistry().ips(Collections.singletonList("127.0.0.1")).httpPort(server.getAddress().getPort()).type("proxy").time(System.currentTimeMillis()), (nodeRegistry, reason) -> {});
+		long time = System.currentTimeMillis();
+		while(!nodeConnection.isReady() && System.currentTimeMillis() - time < 10000) {
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+		Assertions.assertTrue(nodeConnection.isReady());
+		return nodeConnection;
+	}
+
+	private long sendAsync(NodeConnection nodeConnection, int count) throws Exception {
+		CountDownLatch latch = new CountDownLatch(count);
+		AtomicInteger wrong = new AtomicInteger();
+		long time = System.currentTimeMillis();
+		for(int i = 0; i < count; i++) {
+			String value = "v" + i;
+			nodeConnection.<EchoRequest, Map<String, Object>>sendAsync("echo", new EchoRequest().value(value), Map.class, (response, throwable) -> {
+				if(throwable != null || response == null || !value.equals(response.get("value")))
+					wrong.incrementAndGet();
+				latch.countDown();
+			});
+		}
+		Assertions.assertTrue(latch.await(60, TimeUnit.SECONDS));
+		Assertions.assertEquals(0, wrong.get());
+		return System.currentTimeMillis() - time;
+	}
+
+	@Test
+	void testSend() throws Exception {
+		NodeConnection nodeConnection = connect(new NodeConnectionPooledHttpImpl(transport, false, 8));
+		Map<String, Object> response = nodeConnection.send("echo", new EchoRequest().value("hello"), Map.class);
+		Assertions.assertEquals("hello", response.get("value"));
+		nodeConnection.close();
+	}
+
+	@Test
+	void testSendAsyncWithBatchPost() throws Exception {
+		NodeConnection nodeConnection = connect(new NodeConnectionPooledHttpImpl(transport, true, 8));
+		postCounter.reset();
+		sendAsync(nodeConnection, 2000);
+		Assertions.assertTrue(batchPostCounter.longValue() > 0);
+		Assertions.assertTrue(postCounter.longValue() < 2000);
+		Assertions.assertTrue((Long) transport.memory(null, null).get("connectionCounter") <= 4);
+		nodeConnection.close();
+	}
+
+	@Test
+	void testFileResponseIsStreamed() throws Exception {
+		NodeConnection nodeConnection = connect(new NodeConnectionPooledHttpImpl(transport, false, 8));
+		FileMeta fileMeta = nodeConnection.send("file", new EchoRequest().value("file"), FileMeta.class);
+		Assertions.assertEquals(FILE_SIZE, fileMeta.getFileSize());
+		Assertions.assertEquals("file.bin", fileMeta.getFilename());
+		long size = 0;
+		int wrong = 0;
+		try(InputStream inputStream = fileMeta.getFileInputStream()) {
+			int value;
+			while((value = inputStream.read()) != -1) {
+				if((byte) value != (byte) size)
+					wrong++;
+				if(++size == FILE_SIZE / 2)
+					fileHalfRead.countDown();
+			}
+		}
+		Assertions.assertEquals(FILE_SIZE, size);
+		Assertions.assertEquals(0, wrong);
+
+		//The connection is given back and reused after the file
+		Map<String, Object> response = nodeConnection.send("echo", new EchoRequest().value("after file"), Map.class);
+		Assertions.assertEquals("after file", response.get("value"));
+		Assertions.assertEquals(1L, transport.memory(null, null).get("connectionCounter"));
+		nodeConnection.close();
+	}
+
+	@Test
+	void testReadTimeoutOnlyInFlight() throws Exception {
+		PooledHttpTransport shortTimeoutTransport = new PooledHttpTransport(1, 1, 1, 64 * 1024);
+		try {
+			NodeConnection nodeConnection = connect(new NodeConnectionPooledHttpImpl(shortTimeoutTransport, false, 8));
+			Assertions.assertEquals("first", nodeConnection.<EchoRequest, Map<String, Object>>send("echo", new EchoRequest().value("first"), Map.class).get("value"));
+			//Idle longer than the read timeout in the pool, the connection is kept
+			TimeUnit.MILLISECONDS.sleep(2500);
+			Assertions.assertEquals("second", nodeConnection.<EchoRequest, Map<String, Object>>send("echo", new EchoRequest().value("second"), Map.class).get("value"));
+			Assertions.assertEquals(1L, shortTimeoutTransport.memory(null, null).get("connectionCounter"));
+
+			IOException ioException = Assertions.assertThrows(IOException.class, () -> nodeConnection.send("slow", new EchoRequest().value("slow"), Map.class));
+			Assertions.assertTrue(ioException.getMessage().contains("Read timeout"), ioException.getMessage());
+			nodeConnection.close();
+		} finally {
+			shortTimeoutTransport.close();
+		}
+	}
+
+	@Test
+	void testSyncTimeoutReleasesConnection() throws Exception {
+		PooledHttpTransport oneConnectionTransport = new PooledHttpTransport(1, 1, 65, 64 * 1024);
+		try {
+			NodeConnection nodeConnection = connect(new NodeConnectionPooledHttpImpl(oneConnectionTransport, false, 8).withSyncTimeoutMillis(500));
+			IOException ioException = Assertions.assertThrows(IOException.class, () -> nodeConnection.send("slow", new EchoRequest().value("slow"), Map.class));
+			Assertions.assertTrue(ioException.getMessage().contains("timeout after 500ms"), ioException.getMessage());
+			//The only connection is given back long before the slow response, not held until the read timeout
+			long time = System.currentTimeMillis();
+			while(acquiredChannels(oneConnectionTransport) > 0 && System.currentTimeMillis() - time < 1000) {
+				TimeUnit.MILLISECONDS.sleep(10);
+			}
+			Assertions.assertEquals(0, acquiredChannels(oneConnectionTransport));
+			Assertions.assertEquals("after timeout", nodeConnection.<EchoRequest, Map<String, Object>>send("echo", new EchoRequest().value("after timeout"), Map.class).get("value"));
+			Assertions.assertTrue(System.currentTimeMillis() - time < 2000);
+			nodeConnection.close();
+		} finally {
+			oneConnectionTransport.close();
+		}
+	}
+
+	private int acquiredChannels(PooledHttpTransport transport) {
+		int acquired = 0;
+		DataMap pools = (DataMap) transport.memory(null, null).get("pools");
+		for(Object value : pools.values()) {
+			acquired += (Integer) value;
+		}
+		return acquired;
+	}
+
+	@Test
+	void testThroughputComparison() throws Exception {
+		int count = 200;
+		NodeConnection legacy = connect(new NodeConnectionHttpImpl());
+		long legacyTakes = sendAsync(legacy, count);
+		legacy.close();
+
+		NodeConnection pooled = connect(new NodeConnectionPooledHttpImpl(transport, false, 8));
+		long pooledTakes = sendAsync(pooled, count);
+		pooled.close();
+
+		NodeConnection batched = connect(new NodeConnectionPooledHttpImpl(transport, true, 8));
+		long batchedTakes = sendAsync(batched, count);
+		batched.close();
+		String takes = count + " messages, HttpURLConnection takes " + legacyTakes + "ms, pooled takes " + pooledTakes + "ms, pooled with batch post takes " + batchedTakes + "ms";
+		Assertions.assertTrue(pooledTakes < legacyTakes, takes);
+		Assertions.assertTrue(batchedTakes < legacyTakes, takes);
+	}
+}